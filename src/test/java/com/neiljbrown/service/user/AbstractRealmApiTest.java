@@ -16,10 +16,14 @@
 package com.neiljbrown.service.user;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
 import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
 import io.restassured.RestAssured;
 import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.config.RestAssuredConfig;
 import io.restassured.filter.log.ResponseLoggingFilter;
 import io.restassured.specification.RequestSpecification;
 import org.apache.commons.configuration2.CombinedConfiguration;
@@ -28,25 +32,42 @@ import org.apache.commons.configuration2.ImmutableConfiguration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.http.HttpStatus;
 import org.apache.http.entity.ContentType;
 import org.junit.After;
+import org.junit.AfterClass;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.slf4j.Logger;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import java.io.StringWriter;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
-import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
-import static org.hamcrest.Matchers.isEmptyOrNullString;
-import static org.hamcrest.Matchers.not;
+import static org.assertj.core.api.Assertions.assertThat;
 
 /**
  * Abstract base class providing common behaviour and state for functional tests of Realm APIs.
@@ -54,9 +75,87 @@ import static org.hamcrest.Matchers.not;
 public abstract class AbstractRealmApiTest {
 
   private static final String ALWAYS_LOG_REQ_AND_RESP_PROPERTY = "alwaysLogApiRequestAndResponse";
+  private static final String RECORD_JFR_API_CALL_EVENTS_PROPERTY = "recordJfrApiCallEvents";
+  private static final String PROFILE_API_CALLS_PROPERTY = "profileApiCalls";
+  private static final String LATENCY_BUDGETS_ENABLED_PROPERTY = "latencyBudgetsEnabled";
+  private static final String REALM_API_TRANSPORT_PROPERTY = "realmApiTransport";
+  private static final String XML_SCHEMA_VALIDATION_ENABLED_PROPERTY = "xmlSchemaValidationEnabled";
+  private static final String REALM_EXCHANGE_CAPTURE_FILE_PROPERTY = "realmExchangeCaptureFile";
+  private static final String API_CALL_TIMEOUT_MILLIS_PROPERTY = "apiCallTimeoutMillis";
+  private static final String COALESCE_GET_REALM_CALLS_PROPERTY = "coalesceGetRealmCalls";
+  private static final String CLIENT_SIDE_VALIDATION_ENABLED_PROPERTY = "clientSideValidationEnabled";
+  private static final String CONCURRENCY_LIMIT_ENABLED_PROPERTY = "concurrencyLimitEnabled";
+  private static final String CONCURRENCY_LIMIT_MAX_PROPERTY = "concurrencyLimitMax";
+
+  /**
+   * The default max number of Get Realms API calls made concurrently by {@link #getRealmResources(Collection)}.
+   */
+  private static final int DEFAULT_MAX_CONCURRENT_GET_REALMS_CALLS = 4;
+  // Names of the HttpClient connect and socket timeout params, as the constants which define them are deprecated
+  private static final String HTTP_CONNECTION_TIMEOUT_PARAM = "http.connection.timeout";
+  private static final String HTTP_SOCKET_TIMEOUT_PARAM = "http.socket.timeout";
+
+  private static final Logger logger = LoggerFactory.getLogger(AbstractRealmApiTest.class);
+
+  /**
+   * Checks the duration of every API call made by the tests in the class against its endpoint's latency budget, if
+   * enabled. Shared by all instances of the class (one per test method), so that budget violations are aggregated
+   * across all the tests in the class, and verified once they've all run.
+   */
+  private static LatencyBudgetFilter latencyBudgetFilter;
+
+  /**
+   * Applies gzip content-encoding to API requests and responses, and accounts for their raw versus compressed bytes, if
+   * enabled. Shared by all instances of the class, so that bytes are accounted for across all the tests in the class.
+   */
+  private static GzipContentEncodingInterceptor gzipContentEncodingInterceptor;
+
+  /**
+   * Validates XML API responses against the realm XML schema, if enabled. Shared by all instances of the class, so that
+   * the overhead of validation is accounted for across all the tests in the class.
+   */
+  private static RealmXmlSchemaValidationFilter xmlSchemaValidationFilter;
+
+  /**
+   * Records every exchange with the APIs to a capture file, if enabled, for later replay. Shared by all instances of the
+   * class, and by all test classes, so that the traffic of a whole test run is captured in the one file.
+   */
+  private static RealmExchangeRecordingFilter realmExchangeRecordingFilter;
+
+  /**
+   * Balances API requests across several service nodes, if configured. Shared by all instances of the class, and by all
+   * test classes, so that the health of each node - e.g. whether it's been ejected, and its moving average latency - is
+   * tracked across the whole test run, rather than being discarded after each test.
+   */
+  private static RealmServiceLoadBalancer realmServiceLoadBalancer;
 
   protected ImmutableConfiguration config;
 
+  /**
+   * Whether the client-side cost of the API calls made by the realm helper methods should be profiled.
+   */
+  private final boolean profileApiCalls;
+
+  /**
+   * In-memory stand-in for the Realm APIs, registered as an extension of the WireMock server. Only used by tests which
+   * register it using {@link #stubRealmServiceStandIn()}.
+   */
+  protected final RealmServiceStandIn realmServiceStandIn;
+
+  /**
+   * Counts the requests received by the WireMock server for each API endpoint. Supports verifying requests when
+   * WireMock's request journal is bounded or disabled.
+   */
+  protected final RealmApiRequestCounter requestCounter = new RealmApiRequestCounter();
+
+  /**
+   * The transport used by the realm helper methods to make API calls. Created per test, once the WireMock server's
+   * port is known. Wrapped in a {@link ConcurrencyLimitedRealmApiTransport}, if the number of concurrent calls is
+   * configured to be limited, in a {@link SingleFlightRealmApiTransport}, if concurrent Get Realm calls are configured
+   * to be coalesced, and in a {@link ValidatingRealmApiTransport}, if client-side validation is enabled.
+   */
+  private RealmApiTransport realmApiTransport;
+
   /**
    * Automate the startup and shutdown of the WireMock mock HTTP server before and after the execution of each test to
    * support stubbing HTTP response and verifying HTTP requests.
@@ -65,15 +164,40 @@ public abstract class AbstractRealmApiTest {
    * may be in use. The utilised port can subsequently be discovered using wireMockRule.port() and httpsPort().
    */
   @Rule
-  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort().dynamicHttpsPort());
+  public WireMockRule wireMockRule;
 
   AbstractRealmApiTest() {
     this.config = loadApplicationConfiguration();
+    this.profileApiCalls = this.config.getBoolean(PROFILE_API_CALLS_PROPERTY, Boolean.FALSE);
+    initGzipContentEncodingInterceptor(this.config);
+    this.realmServiceStandIn = gzipContentEncodingInterceptor != null ?
+      new RealmServiceStandIn(this.config.getInt(GzipContentEncodingInterceptor.GZIP_THRESHOLD_BYTES_PROPERTY)) :
+      new RealmServiceStandIn();
+    // Checking for unmatched requests after each test relies on the request journal
+    this.wireMockRule = new WireMockRule(createWireMockConfiguration(),
+      WireMockConfigurationFactory.getRequestJournalPolicy(this.config) != RequestJournalPolicy.DISABLED);
+    this.wireMockRule.addMockServiceRequestListener(this.requestCounter);
+    initLatencyBudgetFilter(this.config);
+    initXmlSchemaValidationFilter(this.config);
+    initRealmExchangeRecordingFilter(this.config);
+    initRealmServiceLoadBalancer(this.config);
   }
 
   @Before
   public void setUp() throws Exception {
     initRestAssured();
+    RealmApiTransport transport = createRealmApiTransport();
+    if (this.config.getBoolean(CONCURRENCY_LIMIT_ENABLED_PROPERTY, Boolean.FALSE)) {
+      transport = new ConcurrencyLimitedRealmApiTransport(transport, new AimdConcurrencyLimiter(1, 1,
+        this.config.getInt(CONCURRENCY_LIMIT_MAX_PROPERTY)), ConcurrencyLimitedRealmApiTransport.DEFAULT_MAX_ATTEMPTS);
+    }
+    if (this.config.getBoolean(COALESCE_GET_REALM_CALLS_PROPERTY, Boolean.FALSE)) {
+      transport = new SingleFlightRealmApiTransport(transport);
+    }
+    if (this.config.getBoolean(CLIENT_SIDE_VALIDATION_ENABLED_PROPERTY, Boolean.FALSE)) {
+      transport = new ValidatingRealmApiTransport(transport);
+    }
+    this.realmApiTransport = transport;
   }
 
   @After
@@ -81,12 +205,195 @@ public abstract class AbstractRealmApiTest {
     WireMock.reset();
   }
 
+  /**
+   * Closes the transport used by the realm helper methods. Runs after the tear down of sub-classes, which may use the
+   * helpers to delete realms.
+   */
+  @After
+  public void closeRealmApiTransport() {
+    if (this.realmApiTransport != null) {
+      this.realmApiTransport.close();
+    }
+  }
+
+  /**
+   * Creates the transport used by the realm helper methods to make API calls, of the type configured by property
+   * 'realmApiTransport', defaulting to REST Assured. Sub-classes may override this method to use a specific transport.
+   *
+   * @return The {@link RealmApiTransport}.
+   */
+  // package protected
+  RealmApiTransport createRealmApiTransport() {
+    return RealmApiTransportType.valueOf(
+      this.config.getString(REALM_API_TRANSPORT_PROPERTY, RealmApiTransportType.REST_ASSURED.name()).toUpperCase())
+      .create(URI.create("http://localhost:" + this.wireMockRule.port()), getApiCallTimeout());
+  }
+
+  /**
+   * Returns the timeout of the API calls made by the realm helper methods, as configured by property
+   * 'apiCallTimeoutMillis', defaulting to none. Sub-classes may override this method to use a specific timeout.
+   *
+   * @return The timeout - the max period of inactivity waiting to connect, or for a response - or zero for none.
+   */
+  // package protected
+  Duration getApiCallTimeout() {
+    return Duration.ofMillis(this.config.getLong(API_CALL_TIMEOUT_MILLIS_PROPERTY, 0L));
+  }
+
+  /**
+   * Returns whether every API request and response made using REST Assured is logged, as configured by property
+   * 'alwaysLogApiRequestAndResponse', defaulting to true. Sub-classes may override this method, e.g. so that the cost
+   * of logging isn't measured.
+   *
+   * @return True if every request and response is logged, false if they're only logged when validation fails.
+   */
+  // package protected
+  boolean isAlwaysLogRequestAndResponse() {
+    return this.config.getBoolean(ALWAYS_LOG_REQ_AND_RESP_PROPERTY, Boolean.TRUE);
+  }
+
+  /**
+   * Reports the client-side cost of the API calls profiled by the tests in the class, if profiling is enabled.
+   */
+  @AfterClass
+  public static void reportApiCallProfile() {
+    RealmApiCallProfiler profiler = RealmApiCallProfiler.getInstance();
+    if (profiler.hasProfiledCalls()) {
+      logger.info("Profile of API calls (latency, and allocation and CPU time of calling thread) -{}{}",
+        System.lineSeparator(), profiler.report());
+      profiler.reset();
+    }
+  }
+
+  /**
+   * Discards any calls checked against their latency budget before the tests in the class are run, e.g. by other test
+   * classes which reuse REST Assured's default request specification.
+   */
+  @BeforeClass
+  public static void resetLatencyBudgets() {
+    LatencyBudgetFilter filter = latencyBudgetFilter;
+    if (filter != null) {
+      filter.reset();
+    }
+  }
+
+  /**
+   * Verifies that the API calls made by the tests in the class were within their latency budgets, in aggregate, if
+   * latency budgets are enabled.
+   */
+  @AfterClass
+  public static void verifyLatencyBudgets() {
+    LatencyBudgetFilter filter = latencyBudgetFilter;
+    if (filter != null && filter.hasCheckedCalls()) {
+      logger.info("API calls checked against latency budgets -{}{}", System.lineSeparator(), filter.report());
+      try {
+        filter.verify();
+      } finally {
+        filter.reset();
+      }
+    }
+  }
+
+  /**
+   * Reports the raw versus compressed bytes of the API requests and responses made by the tests in the class, if gzip
+   * content-encoding is enabled.
+   */
+  @AfterClass
+  public static void reportContentEncoding() {
+    GzipContentEncodingInterceptor interceptor = gzipContentEncodingInterceptor;
+    if (interceptor != null && interceptor.hasAccountedBytes()) {
+      logger.info("Raw versus wire bytes of API request and response bodies -{}{}", System.lineSeparator(),
+        interceptor.report());
+      interceptor.reset();
+    }
+  }
+
+  /**
+   * Reports the number of API responses validated against the realm XML schema by the tests in the class, and the
+   * overhead of validating them, if schema validation is enabled.
+   */
+  @AfterClass
+  public static void reportXmlSchemaValidation() {
+    RealmXmlSchemaValidationFilter filter = xmlSchemaValidationFilter;
+    if (filter != null && filter.hasValidated()) {
+      logger.info("API responses validated against realm XML schema - {}", filter.report());
+      filter.reset();
+    }
+  }
+
+  /**
+   * Flushes the exchanges with the APIs recorded by the tests in the class to the capture file, if recording is enabled,
+   * so that the file can be replayed even if the test run is interrupted.
+   */
+  @AfterClass
+  public static void flushRealmExchangeRecording() throws IOException {
+    RealmExchangeRecordingFilter filter = realmExchangeRecordingFilter;
+    if (filter != null) {
+      filter.flush();
+      logger.info("Recorded [{}] API exchanges to capture file, in total.", filter.getRecordedCount());
+    }
+  }
+
+  /**
+   * Reports the distribution of the API requests made so far across the service nodes, if load balancing is configured.
+   */
+  @AfterClass
+  public static void reportLoadBalancing() {
+    RealmServiceLoadBalancer loadBalancer = realmServiceLoadBalancer;
+    if (loadBalancer != null) {
+      logger.info("Load balanced API requests, in total -{}{}", System.lineSeparator(), loadBalancer.report());
+    }
+  }
+
+  private static synchronized void initGzipContentEncodingInterceptor(ImmutableConfiguration config) {
+    if (gzipContentEncodingInterceptor == null &&
+      config.getBoolean(GzipContentEncodingInterceptor.GZIP_ENABLED_PROPERTY, Boolean.FALSE)) {
+      gzipContentEncodingInterceptor = new GzipContentEncodingInterceptor(
+        config.getInt(GzipContentEncodingInterceptor.GZIP_THRESHOLD_BYTES_PROPERTY));
+    }
+  }
+
+  private static synchronized void initLatencyBudgetFilter(ImmutableConfiguration config) {
+    if (latencyBudgetFilter == null && config.getBoolean(LATENCY_BUDGETS_ENABLED_PROPERTY, Boolean.FALSE)) {
+      latencyBudgetFilter = LatencyBudgetFilter.fromConfiguration(config);
+    }
+  }
+
+  private static synchronized void initXmlSchemaValidationFilter(ImmutableConfiguration config) {
+    if (xmlSchemaValidationFilter == null && config.getBoolean(XML_SCHEMA_VALIDATION_ENABLED_PROPERTY, Boolean.FALSE)) {
+      xmlSchemaValidationFilter = new RealmXmlSchemaValidationFilter();
+    }
+  }
+
+  private static synchronized void initRealmExchangeRecordingFilter(ImmutableConfiguration config) {
+    final String captureFile = config.getString(REALM_EXCHANGE_CAPTURE_FILE_PROPERTY, null);
+    if (realmExchangeRecordingFilter == null && StringUtils.isNotBlank(captureFile)) {
+      try {
+        realmExchangeRecordingFilter = new RealmExchangeRecordingFilter(Paths.get(captureFile));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error opening realm exchange capture file [" + captureFile + "].", e);
+      }
+    }
+  }
+
+  private static synchronized void initRealmServiceLoadBalancer(ImmutableConfiguration config) {
+    if (realmServiceLoadBalancer == null) {
+      realmServiceLoadBalancer = RealmServiceLoadBalancer.fromConfiguration(config);
+    }
+  }
+
   /**
    * @return The Logger for this class.
    */
   protected abstract Logger getLogger();
 
-  private ImmutableConfiguration loadApplicationConfiguration() {
+  /**
+   * Loads the application's configuration - application.properties, overridden by any system properties.
+   *
+   * @return The configuration, which can't be modified.
+   */
+  // package protected
+  static ImmutableConfiguration loadApplicationConfiguration() {
     try {
       CombinedConfiguration config = new Configurations().combined("config.xml");
       return ConfigurationUtils.unmodifiableConfiguration(config);
@@ -95,9 +402,17 @@ public abstract class AbstractRealmApiTest {
     }
   }
 
+  /**
+   * @return The {@link WireMockConfiguration} used to create the WireMock server.
+   */
+  private WireMockConfiguration createWireMockConfiguration() {
+    return WireMockConfigurationFactory.create(this.config)
+      .extensions(this.realmServiceStandIn);
+  }
+
   private void initRestAssured() {
     RestAssured.enableLoggingOfRequestAndResponseIfValidationFails();
-    boolean alwaysLogRequestAndResponse = this.config.getBoolean(ALWAYS_LOG_REQ_AND_RESP_PROPERTY, Boolean.TRUE);
+    boolean alwaysLogRequestAndResponse = isAlwaysLogRequestAndResponse();
     initRestAssuredRequestDefaults(alwaysLogRequestAndResponse);
     initRestAssuredResponseDefaults(alwaysLogRequestAndResponse);
   }
@@ -116,6 +431,10 @@ public abstract class AbstractRealmApiTest {
   }
 
   private void initRestAssuredResponseDefaults(boolean alwaysLogRequestAndResponse) {
+    // REST Assured's filters are global, so remove any response logging filter added by a previous test class
+    RestAssured.replaceFiltersWith(RestAssured.filters().stream()
+      .filter(filter -> !(filter instanceof ResponseLoggingFilter))
+      .collect(Collectors.toList()));
     if (alwaysLogRequestAndResponse) {
       // RestAssured doesn't support enabling logging using a ResponseSpecification in the following expected way -
       //   ResponseSpecification responseSpec = new ResponseSpecBuilder().build().log().all();
@@ -134,9 +453,36 @@ public abstract class AbstractRealmApiTest {
    * @return the REST Assured {@link RequestSpecification}
    */
   protected RequestSpecification createDefaultRequestSpecification(boolean alwaysLogRequestAndResponse) {
-    RequestSpecification defaultRequestSpec = new RequestSpecBuilder()
-      .setAccept(ContentType.APPLICATION_XML.getMimeType())
-      .build();
+    RequestSpecBuilder defaultRequestSpecBuilder = new RequestSpecBuilder()
+      .setAccept(ContentType.APPLICATION_XML.getMimeType());
+    // Added first, so the time spent validating responses isn't included in the API call timings of later filters
+    if (xmlSchemaValidationFilter != null) {
+      defaultRequestSpecBuilder.addFilter(xmlSchemaValidationFilter);
+    }
+    if (this.config.getBoolean(RECORD_JFR_API_CALL_EVENTS_PROPERTY, Boolean.FALSE)) {
+      defaultRequestSpecBuilder.addFilter(new JfrRealmApiCallFilter());
+    }
+    if (latencyBudgetFilter != null) {
+      defaultRequestSpecBuilder.addFilter(latencyBudgetFilter);
+    }
+    if (gzipContentEncodingInterceptor != null || !getApiCallTimeout().isZero()) {
+      RestAssuredConfig restAssuredConfig = gzipContentEncodingInterceptor != null ?
+        gzipContentEncodingInterceptor.applyTo(RestAssured.config()) : RestAssured.config();
+      if (!getApiCallTimeout().isZero()) {
+        final int timeoutMillis = Math.toIntExact(getApiCallTimeout().toMillis());
+        restAssuredConfig = restAssuredConfig.httpClient(restAssuredConfig.getHttpClientConfig()
+          .setParam(HTTP_CONNECTION_TIMEOUT_PARAM, timeoutMillis)
+          .setParam(HTTP_SOCKET_TIMEOUT_PARAM, timeoutMillis));
+      }
+      defaultRequestSpecBuilder.setConfig(restAssuredConfig);
+    }
+    if (realmExchangeRecordingFilter != null) {
+      defaultRequestSpecBuilder.addFilter(realmExchangeRecordingFilter);
+    }
+    if (realmServiceLoadBalancer != null) {
+      defaultRequestSpecBuilder.addFilter(realmServiceLoadBalancer);
+    }
+    RequestSpecification defaultRequestSpec = defaultRequestSpecBuilder.build();
     if (alwaysLogRequestAndResponse) {
       defaultRequestSpec.log().all();
     }
@@ -151,14 +497,10 @@ public abstract class AbstractRealmApiTest {
    */
   // package protected
   void deleteRealmResource(int realmId) {
-    RestAssured
-      .given()
-        .basePath("")
-        .pathParam("realmId", realmId)
-      .when()
-        .delete(UserRealmApiConstants.DELETE_REALM_URL_PATH)
-      .then()
-        .assertThat().statusCode(HttpStatus.SC_NO_CONTENT);
+    profileApiCall(RealmApiEndpoint.DELETE_REALM, () -> {
+      this.realmApiTransport.deleteRealm(realmId);
+      return null;
+    });
   }
 
   /**
@@ -170,17 +512,170 @@ public abstract class AbstractRealmApiTest {
    */
   // package protected
   UserRealmDto createRealmResource(UserRealmDto userRealm) {
-    return RestAssured
-      .given()
-        .basePath(UserRealmApiConstants.CREATE_REALM_URL_PATH)
-        .contentType(ContentType.APPLICATION_XML.getMimeType())
-        .body(userRealm)
-      .when()
-        .post()
-      .then()
-        .assertThat().statusCode(HttpStatus.SC_CREATED)
-        .body(not(isEmptyOrNullString()))
-        .extract().body().as(UserRealmDto.class);
+    return profileApiCall(RealmApiEndpoint.CREATE_REALM, () -> this.realmApiTransport.createRealm(userRealm));
+  }
+
+  /**
+   * Invokes a Create Realm API call to the User service to create a realm using the supplied compact realm, asserts
+   * the call was successful, and if so returns a compact representation of the created realm resource. Unlike
+   * {@link #createRealmResource(UserRealmDto)}, the request body is the realm's cached XML bytes, so the realm isn't
+   * re-marshalled per request. Supports tests which use large sets of realms.
+   *
+   * @param userRealm A {@link CompactUserRealm} containing the details of the realm resource to create
+   * @return A {@link CompactUserRealm} containing the details of the created realm resource.
+   */
+  // package protected
+  CompactUserRealm createRealmResource(CompactUserRealm userRealm) {
+    return profileApiCall(RealmApiEndpoint.CREATE_REALM, () -> this.realmApiTransport.createRealm(userRealm));
+  }
+
+  /**
+   * Invokes a Create Realm API call like {@link #createRealmResource(CompactUserRealm)}, but retries the call, up to
+   * the supplied max number of attempts, if it fails with an I/O error, such as a timeout, which leaves it unknown
+   * whether the realm was created. Every attempt sends the same, newly generated idempotency key, so the realm is
+   * created at most once, and a retry of a call which did create it returns the response to the original call, rather
+   * than failing with a DuplicateRealmName error, or creating an orphaned realm. Calls which fail for other reasons,
+   * e.g. an error response, aren't retried.
+   *
+   * @param userRealm A {@link CompactUserRealm} containing the details of the realm resource to create
+   * @param maxAttempts The max number of attempts to make the call.
+   * @return A {@link CompactUserRealm} containing the details of the created realm resource.
+   */
+  // package protected
+  CompactUserRealm createRealmResourceIdempotently(CompactUserRealm userRealm, int maxAttempts) {
+    Validate.isTrue(maxAttempts > 0, "Max attempts [%d] must be greater than zero.", maxAttempts);
+    final String idempotencyKey = UUID.randomUUID().toString();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return profileApiCall(RealmApiEndpoint.CREATE_REALM,
+          () -> this.realmApiTransport.createRealm(userRealm, idempotencyKey));
+      } catch (Exception e) {
+        if (attempt == maxAttempts || ExceptionUtils.indexOfType(e, IOException.class) == -1) {
+          throw e;
+        }
+        logger.info("Retrying Create Realm API call with idempotency key [{}] after attempt [{}] failed. Cause [{}].",
+          idempotencyKey, attempt, e.toString());
+      }
+    }
+  }
+
+  /**
+   * Invokes a Get Realm API call to the User service to retrieve an identified realm resource, asserts the call was
+   * successful, and if so returns an object representation of the realm resource.
+   *
+   * @param realmId The ID of the realm to get.
+   * @return A {@link UserRealmDto} containing the details of the realm resource.
+   */
+  // package protected
+  UserRealmDto getRealmResource(String realmId) {
+    return profileApiCall(RealmApiEndpoint.GET_REALM, () -> this.realmApiTransport.getRealm(realmId));
+  }
+
+  /**
+   * Invokes Get Realms API calls to the User service to retrieve any number of realms, identified by their IDs, in
+   * batches of the max number of IDs per call, sent concurrently. See
+   * {@link #getRealmResources(Collection, int, int)}.
+   *
+   * @param realmIds The IDs of the realms to get.
+   * @return The {@link UserRealmDto realms} which exist, keyed by their ID, in the order requested.
+   */
+  // package protected
+  Map<String, UserRealmDto> getRealmResources(Collection<String> realmIds) {
+    return getRealmResources(realmIds, UserRealmApiConstants.GET_REALMS_MAX_IDS,
+      DEFAULT_MAX_CONCURRENT_GET_REALMS_CALLS);
+  }
+
+  /**
+   * Invokes Get Realms API calls to the User service to retrieve any number of realms, identified by their IDs, asserts
+   * the calls were successful, and if so returns object representations of the realms which exist. The (distinct) IDs
+   * are split into batches of the supplied max size, one per call, and the calls are made concurrently, from up to the
+   * supplied max number of threads, so the time taken to resolve a large set of IDs is bounded by a few round trips.
+   *
+   * @param realmIds The IDs of the realms to get.
+   * @param batchSize The max number of IDs per call - no more than {@link UserRealmApiConstants#GET_REALMS_MAX_IDS}.
+   * @param maxConcurrentCalls The max number of calls made concurrently.
+   * @return The {@link UserRealmDto realms} which exist, keyed by their ID, in the order requested. The IDs of realms
+   * which don't exist are absent.
+   */
+  // package protected
+  Map<String, UserRealmDto> getRealmResources(Collection<String> realmIds, int batchSize, int maxConcurrentCalls) {
+    Validate.inclusiveBetween(1, UserRealmApiConstants.GET_REALMS_MAX_IDS, batchSize, "Batch size [%d] must be " +
+      "between 1 and %d.", batchSize, UserRealmApiConstants.GET_REALMS_MAX_IDS);
+    Validate.isTrue(maxConcurrentCalls > 0, "Max concurrent calls [%d] must be greater than zero.", maxConcurrentCalls);
+    final List<String> distinctRealmIds = new ArrayList<>(new LinkedHashSet<>(realmIds));
+    final List<List<String>> batches = new ArrayList<>();
+    for (int from = 0; from < distinctRealmIds.size(); from += batchSize) {
+      batches.add(distinctRealmIds.subList(from, Math.min(from + batchSize, distinctRealmIds.size())));
+    }
+    final Map<String, UserRealmDto> realmsById = new LinkedHashMap<>();
+    if (batches.size() <= 1) {
+      batches.forEach(batch -> realmsById.putAll(getRealmsBatch(batch)));
+      return realmsById;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(batches.size(), maxConcurrentCalls));
+    try {
+      final List<Future<Map<String, UserRealmDto>>> calls = new ArrayList<>(batches.size());
+      batches.forEach(batch -> calls.add(executor.submit(() -> getRealmsBatch(batch))));
+      for (Future<Map<String, UserRealmDto>> call : calls) {
+        realmsById.putAll(call.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted getting realms.", e);
+    } catch (ExecutionException e) {
+      // Rethrow the failure of the call, e.g. an AssertionError, as is
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() :
+        new RuntimeException("Error getting realms. Cause [" + e.getCause().toString() + "].", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return realmsById;
+  }
+
+  private Map<String, UserRealmDto> getRealmsBatch(List<String> realmIds) {
+    return profileApiCall(RealmApiEndpoint.GET_REALMS, () -> this.realmApiTransport.getRealms(realmIds));
+  }
+
+  /**
+   * Invokes a Get Realm by Name API call to the User service to retrieve a realm resource identified by its (unique)
+   * name, asserts the call was successful, and if so returns an object representation of the realm resource.
+   *
+   * @param realmName The name of the realm to get.
+   * @return A {@link UserRealmDto} containing the details of the realm resource.
+   */
+  // package protected
+  UserRealmDto getRealmResourceByName(String realmName) {
+    return profileApiCall(RealmApiEndpoint.GET_REALM_BY_NAME, () -> this.realmApiTransport.getRealmByName(realmName));
+  }
+
+  /**
+   * Executes an API call, profiling its client-side cost if profiling is enabled.
+   *
+   * @param endpoint The {@link RealmApiEndpoint} invoked by the API call.
+   * @param apiCall The API call.
+   * @param <T> The type of result returned by the API call.
+   * @return The result of the API call.
+   */
+  private <T> T profileApiCall(RealmApiEndpoint endpoint, Supplier<T> apiCall) {
+    return this.profileApiCalls ? RealmApiCallProfiler.getInstance().profile(endpoint,
+      this.realmApiTransport::isCallingThreadOnly, apiCall) : apiCall.get();
+  }
+
+  /**
+   * Verifies the number of requests received by the WireMock server for an API endpoint, using the
+   * {@link #requestCounter}. Unlike WireMock's own request verification, this is supported regardless of the
+   * configured {@link RequestJournalPolicy}.
+   *
+   * @param expectedCount The expected number of requests.
+   * @param endpoint The {@link RealmApiEndpoint}.
+   */
+  // package protected
+  void verifyRequestCount(long expectedCount, RealmApiEndpoint endpoint) {
+    assertThat(this.requestCounter.count(endpoint)).as("Count of requests for endpoint [%s]", endpoint)
+      .isEqualTo(expectedCount);
   }
 
   /**
@@ -201,6 +696,23 @@ public abstract class AbstractRealmApiTest {
     }
   }
 
+  /**
+   * Tears down a realm created as part of a test. Deletes the realm. If the deletion fails for any reason, logs an
+   * error and continues.
+   *
+   * @param realm The {@link CompactUserRealm} to be deleted. Must have an ID.
+   */
+  // package protected
+  void tearDownCreatedRealm(CompactUserRealm realm) {
+    Validate.notNull(realm, "realm must not be null.");
+    Validate.isTrue(realm.hasId(), "realm must have an ID.");
+    try {
+      deleteRealmResource(realm.getId());
+    } catch (Exception e) {
+      this.getLogger().error("Error tearing down realm {}. Exception {}. Continuing...", realm, e.toString(), e);
+    }
+  }
+
   /**
    * @return A valid, unique realm name.
    */
@@ -233,22 +745,21 @@ public abstract class AbstractRealmApiTest {
    * @return a string containing the XML representation.
    */
   static String serialiseUserRealmDtoToXml(UserRealmDto userRealmDto) {
-    try {
-      StringWriter writer = new StringWriter();
-      JAXBContext context = JAXBContext.newInstance(UserRealmDto.class);
-      Marshaller marshaller = context.createMarshaller();
-      marshaller.marshal(userRealmDto, writer);
-      return writer.toString();
-    } catch (JAXBException e) {
-      throw new RuntimeException("Error serialising UserRealmDto [" + userRealmDto + "]. Cause [" + e.toString() + "" +
-        ".", e);
-    }
+    return new String(UserRealmXmlCodec.encode(userRealmDto), StandardCharsets.UTF_8);
   }
 
   // -------------------------------------------------------------------------------------------------------------------
   // Methods which stub-out the APIs under test using WireMock, avoiding dependency on real implementation of the APIs
   // -------------------------------------------------------------------------------------------------------------------
 
+  /**
+   * Stubs all requests for the realm resource to be handled by the {@link RealmServiceStandIn}, rather than returning
+   * canned responses. Supports tests which create, get and delete many realms.
+   */
+  void stubRealmServiceStandIn() {
+    WireMock.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+  }
+
   /**
    * Stubs the HTTP response for a successful Delete Realm API request.
    */
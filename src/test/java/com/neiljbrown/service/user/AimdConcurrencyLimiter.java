@@ -0,0 +1,313 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * A client-side limit on the number of concurrent requests made to an API, which adapts to the capacity of the server
+ * using the additive-increase/multiplicative-decrease (AIMD) algorithm of TCP congestion control.
+ * <p>
+ * A caller {@link #acquire() acquires} a permit before making a request, and reports the outcome of the request to the
+ * permit once it completes. Each successful request increases the limit by 1/limit, so the limit grows by about one
+ * per round of requests, probing for spare capacity. A request which the server throttles (429 Too Many Requests), or
+ * whose latency spikes to more than a configured multiple of the lowest latency observed, signals that the server is
+ * overloaded, and multiplies the limit by a backoff ratio. The limit is decreased at most once per round - requests
+ * which were already in flight when it was last decreased don't decrease it again. The server's Retry-After is honoured
+ * by holding back all new requests until it has elapsed.
+ * <p>
+ * Safe for use by multiple concurrent threads.
+ */
+// package-protected
+final class AimdConcurrencyLimiter {
+
+  static final double DEFAULT_BACKOFF_RATIO = 0.75;
+  static final double DEFAULT_LATENCY_SPIKE_FACTOR = 3.0;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final double latencySpikeFactor;
+  private final LongSupplier nanoClock;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitAvailable = this.lock.newCondition();
+
+  // All guarded by lock
+  private double limit;
+  private int inFlight;
+  private long minLatencyNanos = Long.MAX_VALUE;
+  private long lastDecreaseNanos;
+  private boolean decreased;
+  private long pausedUntilNanos;
+  private boolean paused;
+  private long throttledCount;
+  private long latencySpikeCount;
+
+  /**
+   * Creates a limiter which uses the {@link #DEFAULT_BACKOFF_RATIO default backoff ratio} and
+   * {@link #DEFAULT_LATENCY_SPIKE_FACTOR latency spike factor}.
+   */
+  AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    this(initialLimit, minLimit, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_SPIKE_FACTOR);
+  }
+
+  /**
+   * @param initialLimit The initial max number of concurrent requests.
+   * @param minLimit The lowest the limit is decreased to, no matter how overloaded the server.
+   * @param maxLimit The highest the limit is increased to, no matter how much spare capacity the server has.
+   * @param backoffRatio The ratio, between 0 and 1 (exclusive), by which the limit is multiplied when it's decreased.
+   * @param latencySpikeFactor The multiple of the lowest latency observed above which a request's latency is treated as
+   * a spike.
+   */
+  AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencySpikeFactor) {
+    this(initialLimit, minLimit, maxLimit, backoffRatio, latencySpikeFactor, System::nanoTime);
+  }
+
+  // package protected - supports testing using a fake clock
+  AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencySpikeFactor,
+    LongSupplier nanoClock) {
+    if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit [" + minLimit + "] <= initialLimit [" +
+        initialLimit + "] <= maxLimit [" + maxLimit + "].");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("backoffRatio [" + backoffRatio + "] must be between 0 and 1, exclusive.");
+    }
+    if (latencySpikeFactor <= 1) {
+      throw new IllegalArgumentException("latencySpikeFactor [" + latencySpikeFactor + "] must be greater than 1.");
+    }
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.latencySpikeFactor = latencySpikeFactor;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Acquires a permit to make a request, blocking until the number of requests in flight is below the limit, and any
+   * Retry-After period requested by the server has elapsed.
+   *
+   * @return The acquired permit, to which the outcome of the request must be reported.
+   * @throws InterruptedException If the thread is interrupted whilst waiting for a permit.
+   */
+  Permit acquire() throws InterruptedException {
+    this.lock.lockInterruptibly();
+    try {
+      while (true) {
+        final long pauseRemainingNanos = this.paused ? this.pausedUntilNanos - this.nanoClock.getAsLong() : 0;
+        if (pauseRemainingNanos > 0) {
+          this.permitAvailable.awaitNanos(pauseRemainingNanos);
+        } else if (this.inFlight >= getLimit()) {
+          this.permitAvailable.await();
+        } else {
+          return newPermit();
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Acquires a permit to make a request, if one is available without waiting.
+   *
+   * @return The acquired permit, or null if the limit has been reached, or the server's Retry-After hasn't elapsed.
+   */
+  Permit tryAcquire() {
+    this.lock.lock();
+    try {
+      final boolean pauseElapsed = !this.paused || this.nanoClock.getAsLong() - this.pausedUntilNanos >= 0;
+      return pauseElapsed && this.inFlight < getLimit() ? newPermit() : null;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private Permit newPermit() {
+    this.paused = false;
+    this.inFlight++;
+    return new Permit(this.nanoClock.getAsLong());
+  }
+
+  /**
+   * @return The current max number of concurrent requests.
+   */
+  int getLimit() {
+    this.lock.lock();
+    try {
+      return (int) this.limit;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of requests currently in flight.
+   */
+  int getInFlight() {
+    this.lock.lock();
+    try {
+      return this.inFlight;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of requests which have been throttled by the server.
+   */
+  long getThrottledCount() {
+    this.lock.lock();
+    try {
+      return this.throttledCount;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of requests whose latency was treated as a spike.
+   */
+  long getLatencySpikeCount() {
+    this.lock.lock();
+    try {
+      return this.latencySpikeCount;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Parses the value of a Retry-After header, which is either a number of seconds or an HTTP date.
+   *
+   * @param retryAfter The header value. May be null.
+   * @return The period to wait before retrying, or zero if the header is absent, invalid or in the past.
+   */
+  static Duration parseRetryAfter(String retryAfter) {
+    if (StringUtils.isBlank(retryAfter)) {
+      return Duration.ZERO;
+    }
+    if (StringUtils.isNumeric(retryAfter.trim())) {
+      return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+    }
+    final Date retryAfterDate = DateUtils.parseDate(retryAfter.trim());
+    if (retryAfterDate == null) {
+      return Duration.ZERO;
+    }
+    final long retryAfterMillis = retryAfterDate.getTime() - System.currentTimeMillis();
+    return retryAfterMillis > 0 ? Duration.ofMillis(retryAfterMillis) : Duration.ZERO;
+  }
+
+  private void release(Permit permit, Outcome outcome, Duration retryAfter) {
+    this.lock.lock();
+    try {
+      if (permit.released) {
+        throw new IllegalStateException("The outcome of the request has already been reported to this permit.");
+      }
+      permit.released = true;
+      this.inFlight--;
+      final long nowNanos = this.nanoClock.getAsLong();
+      switch (outcome) {
+        case SUCCESS:
+          final long latencyNanos = nowNanos - permit.startNanos;
+          this.minLatencyNanos = Math.min(this.minLatencyNanos, latencyNanos);
+          if (latencyNanos > this.minLatencyNanos * this.latencySpikeFactor) {
+            this.latencySpikeCount++;
+            decrease(permit, nowNanos);
+          } else {
+            this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+          }
+          break;
+        case THROTTLED:
+          this.throttledCount++;
+          decrease(permit, nowNanos);
+          final long pausedUntilNanos = nowNanos + retryAfter.toNanos();
+          if (!retryAfter.isZero() && (!this.paused || pausedUntilNanos - this.pausedUntilNanos > 0)) {
+            this.pausedUntilNanos = pausedUntilNanos;
+            this.paused = true;
+          }
+          break;
+        default:
+          break;
+      }
+      this.permitAvailable.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Decreases the limit, unless the request identified by the supplied permit was already in flight when it was last
+   * decreased, in which case the overload it signals has already been reacted to.
+   */
+  private void decrease(Permit permit, long nowNanos) {
+    if (this.decreased && permit.startNanos - this.lastDecreaseNanos <= 0) {
+      return;
+    }
+    this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+    this.lastDecreaseNanos = nowNanos;
+    this.decreased = true;
+  }
+
+  private enum Outcome {
+    SUCCESS, THROTTLED, IGNORED
+  }
+
+  /**
+   * A permit to make one request, to which the outcome of the request must be reported exactly once.
+   */
+  final class Permit {
+    private final long startNanos;
+    private boolean released;
+
+    private Permit(long startNanos) {
+      this.startNanos = startNanos;
+    }
+
+    /**
+     * Reports that the request succeeded, increasing the limit, unless its latency spiked.
+     */
+    void onSuccess() {
+      release(this, Outcome.SUCCESS, Duration.ZERO);
+    }
+
+    /**
+     * Reports that the request was throttled by the server, decreasing the limit.
+     *
+     * @param retryAfter The period the server asked the client to wait before retrying, parsed from its Retry-After
+     * header - see {@link #parseRetryAfter(String)}. Zero if none.
+     */
+    void onThrottled(Duration retryAfter) {
+      release(this, Outcome.THROTTLED, retryAfter);
+    }
+
+    /**
+     * Reports that the request failed for a reason which says nothing about the load on the server, e.g. a client
+     * error, leaving the limit unchanged.
+     */
+    void onIgnored() {
+      release(this, Outcome.IGNORED, Duration.ZERO);
+    }
+  }
+}
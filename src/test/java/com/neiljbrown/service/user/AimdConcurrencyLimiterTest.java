@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.apache.http.client.utils.DateUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests of the {@link AimdConcurrencyLimiter}, both in isolation, using a fake clock, and against a
+ * {@link RealmServiceStandIn stand-in} for the Realm APIs with a limited capacity, which sheds excess load with 429s.
+ * The limiter's use by the {@link ConcurrencyLimitedRealmApiTransport} is tested by
+ * {@link ConcurrencyLimitedRealmApiTransportTest}.
+ */
+public class AimdConcurrencyLimiterTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(AimdConcurrencyLimiterTest.class);
+
+  private static final int SERVICE_CAPACITY = 8;
+  private static final Duration SERVICE_TIME = Duration.ofMillis(100);
+  private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+  private static final int CLIENT_THREADS = 32;
+  private static final String LOAD_TEST_ENABLED_PROPERTY = "aimdConcurrencyLimiterLoadTestEnabled";
+
+  private final AtomicLong clockNanos = new AtomicLong();
+  private WireMockServer wireMockServer;
+
+  @After
+  public void tearDown() {
+    if (this.wireMockServer != null) {
+      this.wireMockServer.stop();
+    }
+  }
+
+  /**
+   * Tests that the limit increases by about one per round of successful requests, up to the max limit.
+   */
+  @Test
+  public void whenRequestsSucceedThenLimitIncreasesAdditively() {
+    AimdConcurrencyLimiter limiter = createLimiter(1, 10);
+    List<Integer> limitPerRound = new ArrayList<>();
+    for (int round = 0; round < 30; round++) {
+      completeRound(limiter, Duration.ofMillis(1));
+      limitPerRound.add(limiter.getLimit());
+    }
+
+    assertThat(limitPerRound.subList(0, 5)).containsExactly(2, 2, 3, 4, 5);
+    assertThat(limitPerRound).isSorted().endsWith(10);
+  }
+
+  /**
+   * Tests that when the server throttles requests the limit is decreased multiplicatively, once per round, rather than
+   * once per throttled request.
+   */
+  @Test
+  public void whenThrottledThenLimitDecreasesMultiplicativelyOncePerRound() {
+    AimdConcurrencyLimiter limiter = createLimiter(8, 16);
+    List<AimdConcurrencyLimiter.Permit> permits = acquireAll(limiter);
+    assertThat(permits).hasSize(8);
+    assertThat(limiter.tryAcquire()).isNull();
+
+    this.clockNanos.addAndGet(Duration.ofMillis(1).toNanos());
+    permits.forEach(permit -> permit.onThrottled(Duration.ZERO));
+
+    assertThat(limiter.getLimit()).isEqualTo(4);
+    assertThat(limiter.getThrottledCount()).isEqualTo(8);
+    assertThat(limiter.getInFlight()).isZero();
+
+    this.clockNanos.addAndGet(Duration.ofMillis(1).toNanos());
+    limiter.tryAcquire().onThrottled(Duration.ZERO);
+
+    assertThat(limiter.getLimit()).isEqualTo(2);
+  }
+
+  /**
+   * Tests that a successful request whose latency spikes decreases the limit, as a sign the server is overloaded.
+   */
+  @Test
+  public void whenLatencySpikesThenLimitDecreases() {
+    AimdConcurrencyLimiter limiter = createLimiter(8, 16);
+    completeRound(limiter, Duration.ofMillis(10));
+    assertThat(limiter.getLimit()).isEqualTo(8);
+
+    AimdConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+    this.clockNanos.addAndGet(Duration.ofMillis(10 * 5).toNanos());
+    permit.onSuccess();
+
+    assertThat(limiter.getLimit()).isEqualTo(4);
+    assertThat(limiter.getLatencySpikeCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests that the limit is never decreased below the min limit.
+   */
+  @Test
+  public void whenThrottledRepeatedlyThenLimitNotDecreasedBelowMin() {
+    AimdConcurrencyLimiter limiter = createLimiter(4, 16);
+    for (int i = 0; i < 10; i++) {
+      this.clockNanos.addAndGet(Duration.ofMillis(1).toNanos());
+      limiter.tryAcquire().onThrottled(Duration.ZERO);
+    }
+
+    assertThat(limiter.getLimit()).isEqualTo(1);
+  }
+
+  /**
+   * Tests that no permits are granted until the period requested by a throttled request's Retry-After has elapsed.
+   */
+  @Test
+  public void whenThrottledWithRetryAfterThenNoPermitsUntilElapsed() {
+    AimdConcurrencyLimiter limiter = createLimiter(8, 16);
+    limiter.tryAcquire().onThrottled(Duration.ofSeconds(1));
+
+    this.clockNanos.addAndGet(Duration.ofMillis(999).toNanos());
+    assertThat(limiter.tryAcquire()).isNull();
+
+    this.clockNanos.addAndGet(Duration.ofMillis(1).toNanos());
+    assertThat(limiter.tryAcquire()).isNotNull();
+  }
+
+  /**
+   * Tests parsing the value of a Retry-After header in each of its supported forms.
+   */
+  @Test
+  public void parseRetryAfter() {
+    assertThat(AimdConcurrencyLimiter.parseRetryAfter("120")).isEqualTo(Duration.ofSeconds(120));
+    assertThat(AimdConcurrencyLimiter.parseRetryAfter(DateUtils.formatDate(
+      new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))))).isBetween(Duration.ofMinutes(9),
+      Duration.ofMinutes(10));
+    assertThat(AimdConcurrencyLimiter.parseRetryAfter(DateUtils.formatDate(new Date(0)))).isEqualTo(Duration.ZERO);
+    assertThat(AimdConcurrencyLimiter.parseRetryAfter("soon")).isEqualTo(Duration.ZERO);
+    assertThat(AimdConcurrencyLimiter.parseRetryAfter(null)).isEqualTo(Duration.ZERO);
+  }
+
+  /**
+   * Tests that when many client threads make API calls as fast as they can to a service with a limited capacity,
+   * through a {@link ConcurrencyLimitedRealmApiTransport}, the limit converges on the capacity of the service, and few
+   * calls are throttled. Compares this to the same clients hammering the service through the same transport without the
+   * limiter, when many more calls are throttled.
+   * <p>
+   * Disabled by default, as it takes several seconds and is timing sensitive. Enable by setting the property
+   * 'aimdConcurrencyLimiterLoadTestEnabled' to true.
+   */
+  @Test
+  public void givenCapacityLimitedServiceThenLimitConvergesOnCapacity() throws Exception {
+    final ImmutableConfiguration config = new Configurations().combined("config.xml");
+    assumeTrue("AIMD concurrency limiter load test is disabled.",
+      config.getBoolean(LOAD_TEST_ENABLED_PROPERTY, Boolean.FALSE));
+    RealmServiceStandIn realmServiceStandIn = new RealmServiceStandIn()
+      .withCapacity(SERVICE_CAPACITY, SERVICE_TIME, RETRY_AFTER);
+    this.wireMockServer = new WireMockServer(wireMockConfig()
+      .dynamicPort()
+      .containerThreads(CLIENT_THREADS * 2)
+      .extensions(realmServiceStandIn));
+    this.wireMockServer.start();
+    this.wireMockServer.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+
+    try (RealmApiTransport transport = new AsyncHttpRealmApiTransport(
+      URI.create("http://localhost:" + this.wireMockServer.port()), CLIENT_THREADS)) {
+      final String realmId = Integer.toString(
+        transport.createRealm(CompactUserRealm.of("aimd-realm", "AIMD limiter test realm")).getId());
+
+      AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(1, 1, CLIENT_THREADS);
+      // A single attempt per call, so that every throttled call is counted, as it is without the limiter
+      LoadResult limitedResult = getRealmRepeatedly(new ConcurrencyLimitedRealmApiTransport(transport, limiter, 1),
+        realmId, Duration.ofSeconds(5));
+      LoadResult unlimitedResult = getRealmRepeatedly(transport, realmId, Duration.ofSeconds(2));
+
+      logger.info("Service capacity [{}] concurrent requests -{}With AIMD limiter: final limit [{}], {}{}" +
+          "Without limiter: {}", SERVICE_CAPACITY, System.lineSeparator(), limiter.getLimit(), limitedResult,
+        System.lineSeparator(), unlimitedResult);
+      assertThat(limitedResult.errors.sum()).isZero();
+      assertThat(unlimitedResult.errors.sum()).isZero();
+      assertThat(limiter.getLimit()).isBetween(SERVICE_CAPACITY / 2, SERVICE_CAPACITY * 2);
+      assertThat(limiter.getThrottledCount()).isEqualTo(limitedResult.throttled.sum());
+      assertThat(limitedResult.throttledRatio()).isLessThan(0.1);
+      assertThat(unlimitedResult.throttledRatio()).isGreaterThan(0.2);
+      assertThat(limitedResult.throttled.sum() + unlimitedResult.throttled.sum())
+        .isEqualTo(realmServiceStandIn.getShedRequestCount());
+    }
+  }
+
+  private AimdConcurrencyLimiter createLimiter(int initialLimit, int maxLimit) {
+    return new AimdConcurrencyLimiter(initialLimit, 1, maxLimit, 0.5,
+      AimdConcurrencyLimiter.DEFAULT_LATENCY_SPIKE_FACTOR, this.clockNanos::get);
+  }
+
+  /**
+   * Acquires as many permits as the limit allows, and then reports that they all succeeded after the supplied latency.
+   */
+  private void completeRound(AimdConcurrencyLimiter limiter, Duration latency) {
+    List<AimdConcurrencyLimiter.Permit> permits = acquireAll(limiter);
+    this.clockNanos.addAndGet(latency.toNanos());
+    permits.forEach(AimdConcurrencyLimiter.Permit::onSuccess);
+  }
+
+  private static List<AimdConcurrencyLimiter.Permit> acquireAll(AimdConcurrencyLimiter limiter) {
+    List<AimdConcurrencyLimiter.Permit> permits = new ArrayList<>();
+    AimdConcurrencyLimiter.Permit permit;
+    while ((permit = limiter.tryAcquire()) != null) {
+      permits.add(permit);
+    }
+    return permits;
+  }
+
+  /**
+   * Gets a realm repeatedly, using the supplied transport, from many client threads, for the supplied duration.
+   */
+  private static LoadResult getRealmRepeatedly(RealmApiTransport transport, String realmId, Duration duration)
+    throws Exception {
+    final LoadResult result = new LoadResult();
+    final long endNanos = System.nanoTime() + duration.toNanos();
+    ExecutorService executor = Executors.newFixedThreadPool(CLIENT_THREADS);
+    try {
+      List<Future<?>> clients = new ArrayList<>();
+      for (int i = 0; i < CLIENT_THREADS; i++) {
+        clients.add(executor.submit(() -> {
+          while (System.nanoTime() < endNanos) {
+            result.requests.increment();
+            try {
+              transport.getRealm(realmId);
+            } catch (RealmApiThrottledException e) {
+              result.throttled.increment();
+            } catch (RuntimeException | AssertionError e) {
+              result.errors.increment();
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> client : clients) {
+        client.get();
+      }
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * The results of getting a realm repeatedly.
+   */
+  private static final class LoadResult {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private double throttledRatio() {
+      return (double) this.throttled.sum() / this.requests.sum();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("requests [%d], throttled [%d] (%.1f%%), errors [%d]", this.requests.sum(),
+        this.throttled.sum(), throttledRatio() * 100, this.errors.sum());
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.net.URI;
+
+/**
+ * Runs the functional tests of the Create Realm API in {@link CreateRealmApiTest}, with the realm helper methods
+ * making API calls using the non-blocking {@link AsyncHttpRealmApiTransport}, rather than REST Assured, to verify it
+ * satisfies the same contract.
+ * <p>
+ * Only the tests which make API calls using the realm helper methods exercise the transport - those of successful
+ * calls, and those of how the helpers fail when the service rejects or throttles a call (the "...ThenRealmHelper..."
+ * tests). The remaining tests of the API's error cases send malformed or invalid requests directly using REST Assured,
+ * as the transport can't, so they don't depend on the transport under test.
+ */
+public class AsyncHttpCreateRealmApiTest extends CreateRealmApiTest {
+
+  public AsyncHttpCreateRealmApiTest() {
+    super();
+  }
+
+  @Override
+  RealmApiTransport createRealmApiTransport() {
+    return RealmApiTransportType.ASYNC_HTTP.create(URI.create("http://localhost:" + this.wireMockRule.port()),
+      getApiCallTimeout());
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A {@link RealmApiTransport} which makes Realm API calls using a non-blocking HTTP client - Apache HttpAsyncClient -
+ * which supports pipelining requests.
+ * <p>
+ * All the connections to the User service are serviced by a small, fixed number of I/O dispatch threads, rather than a
+ * thread per in-flight request, and realms are (de)serialised directly using JAXB, so the cost per call is much lower
+ * than REST Assured's. The methods of the {@link RealmApiTransport} contract block until the response has been received
+ * and verified. {@link #getRealmsPipelined(List, FutureCallback)} doesn't block, and sends several requests over a
+ * single connection without waiting for each response, supporting generating high rates of traffic from few threads.
+ * <p>
+ * Unlike {@link RestAssuredRealmApiTransport}, doesn't apply the REST Assured filters configured by
+ * {@link AbstractRealmApiTest}, e.g. for latency budgets and client-side load balancing. Safe for use by multiple
+ * threads.
+ */
+// package-protected
+final class AsyncHttpRealmApiTransport implements RealmApiTransport {
+
+  /**
+   * The default max number of connections to the User service.
+   */
+  static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+  private final URI baseUri;
+  private final HttpHost target;
+  private final CloseableHttpPipeliningClient httpClient;
+  private final Duration timeout;
+
+  /**
+   * @param baseUri The base URI of the User service.
+   * @param maxConnections The max number of connections to the User service.
+   */
+  AsyncHttpRealmApiTransport(URI baseUri, int maxConnections) {
+    this(baseUri, maxConnections, Duration.ZERO);
+  }
+
+  /**
+   * @param baseUri The base URI of the User service.
+   * @param maxConnections The max number of connections to the User service.
+   * @param timeout The max period to wait to connect, or for the response to an API call, after which the call fails
+   * with a {@link SocketTimeoutException}, or zero for no timeout.
+   */
+  AsyncHttpRealmApiTransport(URI baseUri, int maxConnections, Duration timeout) {
+    this.baseUri = baseUri;
+    this.timeout = timeout;
+    this.target = new HttpHost(baseUri.getHost(), baseUri.getPort(), baseUri.getScheme());
+    PoolingNHttpClientConnectionManager connectionManager;
+    try {
+      connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(
+        IOReactorConfig.custom()
+          .setIoThreadCount(Math.min(maxConnections, Runtime.getRuntime().availableProcessors()))
+          .setConnectTimeout(Math.toIntExact(timeout.toMillis()))
+          .build()));
+    } catch (IOReactorException e) {
+      throw new RuntimeException("Error creating HTTP client I/O reactor. Cause [" + e.toString() + "].", e);
+    }
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    this.httpClient = HttpAsyncClients.createPipelining(connectionManager);
+    this.httpClient.start();
+  }
+
+  @Override
+  public UserRealmDto createRealm(UserRealmDto userRealm) {
+    return UserRealmXmlCodec.decode(execute(createRealmRequest(UserRealmXmlCodec.encode(userRealm)),
+      HttpStatus.SC_CREATED));
+  }
+
+  @Override
+  public CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey) {
+    HttpPost request = createRealmRequest(userRealm.toXmlBytes());
+    if (idempotencyKey != null) {
+      request.setHeader(UserRealmApiConstants.IDEMPOTENCY_KEY_HEADER_NAME, idempotencyKey);
+    }
+    return CompactUserRealm.from(UserRealmXmlCodec.decode(execute(request, HttpStatus.SC_CREATED)));
+  }
+
+  @Override
+  public UserRealmDto getRealm(String realmId) {
+    return UserRealmXmlCodec.decode(execute(getRealmRequest(realmId), HttpStatus.SC_OK));
+  }
+
+  @Override
+  public Map<String, UserRealmDto> getRealms(Collection<String> realmIds) {
+    URIBuilder uriBuilder = new URIBuilder().setPath(
+      this.baseUri.resolve(UserRealmApiConstants.GET_REALMS_URL_PATH).getPath());
+    realmIds.forEach(realmId -> uriBuilder.addParameter(UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME, realmId));
+    final HttpGet request;
+    try {
+      request = new HttpGet(uriBuilder.build());
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Invalid URI for realm IDs " + realmIds + ". Cause [" + e.toString() + "].",
+        e);
+    }
+    request.setHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+    return UserRealmXmlCodec.decodeList(new StringReader(execute(request, HttpStatus.SC_OK)));
+  }
+
+  @Override
+  public UserRealmDto getRealmByName(String realmName) {
+    HttpGet request = new HttpGet(relativeUri(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH,
+      UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, realmName));
+    request.setHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+    return UserRealmXmlCodec.decode(execute(request, HttpStatus.SC_OK));
+  }
+
+  @Override
+  public void deleteRealm(int realmId) {
+    execute(new HttpDelete(realmUri(Integer.toString(realmId))), HttpStatus.SC_NO_CONTENT);
+  }
+
+  /**
+   * Invokes Get Realm API calls for several realms, pipelined - the requests are sent one after another over a single
+   * connection, without waiting for the response to each. Doesn't block, or verify the responses.
+   *
+   * @param realmIds The IDs of the realms to get.
+   * @param callback A callback which is notified when the responses to all the requests have been received, or on
+   * failure.
+   * @return A {@link Future} for the responses, in the same order as the realm IDs.
+   */
+  Future<List<HttpResponse>> getRealmsPipelined(List<String> realmIds, FutureCallback<List<HttpResponse>> callback) {
+    List<HttpRequest> requests = new ArrayList<>(realmIds.size());
+    realmIds.forEach(realmId -> requests.add(getRealmRequest(realmId)));
+    return this.httpClient.execute(this.target, requests, callback);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Returns false, as requests are sent, and responses received, by the HTTP client's I/O dispatch threads.
+   */
+  @Override
+  public boolean isCallingThreadOnly() {
+    return false;
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.httpClient.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Error closing HTTP client. Cause [" + e.toString() + "].", e);
+    }
+  }
+
+  private HttpPost createRealmRequest(byte[] realmXml) {
+    HttpPost request = new HttpPost(relativeUri(UserRealmApiConstants.CREATE_REALM_URL_PATH, null, null));
+    request.setHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+    request.setEntity(new ByteArrayEntity(realmXml, ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8)));
+    return request;
+  }
+
+  private HttpGet getRealmRequest(String realmId) {
+    HttpGet request = new HttpGet(realmUri(realmId));
+    request.setHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+    return request;
+  }
+
+  private URI realmUri(String realmId) {
+    return relativeUri(UserRealmApiConstants.GET_REALM_URL_PATH.replace(
+      "{" + UserRealmApiConstants.REALM_ID_PATH_VAR_NAME + "}", realmId), null, null);
+  }
+
+  /**
+   * Builds the URI of a request, relative to the target host, as requests are executed against an explicit target.
+   *
+   * @param path The URL path of the API, relative to the base URI.
+   * @param queryParamName The name of a query parameter to add to the URI, or null if none.
+   * @param queryParamValue The (unencoded) value of the query parameter.
+   * @return The URI.
+   */
+  private URI relativeUri(String path, String queryParamName, String queryParamValue) {
+    URIBuilder uriBuilder = new URIBuilder().setPath(this.baseUri.resolve(path).getPath());
+    if (queryParamName != null) {
+      uriBuilder.addParameter(queryParamName, queryParamValue);
+    }
+    try {
+      return uriBuilder.build();
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Invalid URI for path [" + path + "]. Cause [" + e.toString() + "].", e);
+    }
+  }
+
+  /**
+   * Executes a request, blocking until its response has been received, and asserts the response has the expected
+   * status, unless the request was throttled, in which case a {@link RealmApiThrottledException} is thrown. The wait
+   * for the response is bounded by the transport's timeout, if any. (The socket timeout of the I/O reactor isn't used,
+   * as it doesn't fail the exchanges in progress on a pipelined connection.)
+   *
+   * @return The body of the response, decoded as UTF-8.
+   */
+  private String execute(HttpRequest request, int expectedStatus) {
+    final HttpResponse response;
+    final Future<List<HttpResponse>> future = this.httpClient.execute(this.target, Collections.singletonList(request),
+      null);
+    try {
+      response = (this.timeout.isZero() ? future.get() : future.get(this.timeout.toMillis(), TimeUnit.MILLISECONDS))
+        .get(0);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      SocketTimeoutException timeoutException = new SocketTimeoutException("No response received within [" +
+        this.timeout.toMillis() + "] millis.");
+      timeoutException.initCause(e);
+      throw new RuntimeException("Error executing request [" + request.getRequestLine() + "]. Cause [" +
+        timeoutException.toString() + "].", timeoutException);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted executing request [" + request.getRequestLine() + "].", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error executing request [" + request.getRequestLine() + "]. Cause [" +
+        e.getCause().toString() + "].", e.getCause());
+    }
+    final String body;
+    try {
+      body = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : "";
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading response to request [" + request.getRequestLine() + "]. Cause [" +
+        e.toString() + "].", e);
+    }
+    if (response.getStatusLine().getStatusCode() == UserRealmApiConstants.SC_TOO_MANY_REQUESTS) {
+      final Header retryAfter = response.getFirstHeader(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME);
+      throw new RealmApiThrottledException("Request [" + request.getRequestLine() + "] throttled, with body [" + body +
+        "].", AimdConcurrencyLimiter.parseRetryAfter(retryAfter != null ? retryAfter.getValue() : null));
+    }
+    assertThat(response.getStatusLine().getStatusCode())
+      .as("Status of response to request [%s], with body [%s]", request.getRequestLine(), body)
+      .isEqualTo(expectedStatus);
+    if (expectedStatus != HttpStatus.SC_NO_CONTENT) {
+      assertThat(body).as("Body of response to request [%s]", request.getRequestLine()).isNotEmpty();
+    }
+    return body;
+  }
+}
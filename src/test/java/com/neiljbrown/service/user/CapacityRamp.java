@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the capacity of the Realm APIs by running a workload at stepped levels of concurrency, until the latency or
+ * error rate of any of the measured endpoints breaches its service level objective (SLO), or the max concurrency is
+ * reached.
+ * <p>
+ * Reports the throughput, latency and error rate at each step, the max sustainable rate - the highest throughput of any
+ * step which met the SLOs - and the knee of the throughput/latency curve. The knee is taken to be the step with the
+ * highest 'power' (throughput divided by mean latency), beyond which adding concurrency increases latency more than it
+ * increases throughput.
+ */
+// package-protected
+final class CapacityRamp {
+
+  private static final Logger logger = LoggerFactory.getLogger(CapacityRamp.class);
+
+  /**
+   * A workload run concurrently, and repeatedly, by each thread of a step.
+   */
+  @FunctionalInterface
+  interface Workload {
+    /**
+     * Runs one iteration of the workload, recording the outcome of each API call it makes.
+     *
+     * @param result The results of the step, in which to record the API calls.
+     */
+    void iterate(RealmLoadResult result);
+  }
+
+  private final int initialConcurrency;
+  private final int concurrencyIncrement;
+  private final int maxConcurrency;
+  private final Duration stepDuration;
+  private final long sloP99LatencyMillis;
+  private final double sloMaxErrorRate;
+  private final Set<RealmApiEndpoint> measuredEndpoints;
+  private final ThreadFactory threadFactory;
+
+  /**
+   * @param initialConcurrency The number of concurrent threads running the workload in the first step.
+   * @param concurrencyIncrement The number of threads added at each subsequent step.
+   * @param maxConcurrency The max number of threads.
+   * @param stepDuration How long each step runs for.
+   * @param sloP99LatencyMillis The 99th percentile latency which the calls to each measured endpoint must not exceed.
+   * @param sloMaxErrorRate The fraction of calls to each measured endpoint which may fail, e.g. 0.01.
+   * @param measuredEndpoints The endpoints whose calls are subject to the SLOs, and whose throughput is reported.
+   */
+  CapacityRamp(int initialConcurrency, int concurrencyIncrement, int maxConcurrency, Duration stepDuration,
+    long sloP99LatencyMillis, double sloMaxErrorRate, Set<RealmApiEndpoint> measuredEndpoints) {
+    this(initialConcurrency, concurrencyIncrement, maxConcurrency, stepDuration, sloP99LatencyMillis, sloMaxErrorRate,
+      measuredEndpoints, Executors.defaultThreadFactory());
+  }
+
+  /**
+   * Creates a ramp which runs the workload using threads created by the supplied factory, e.g. virtual threads, rather
+   * than platform threads.
+   *
+   * @param threadFactory The factory which creates the threads which run the workload - one per unit of concurrency.
+   * @see #CapacityRamp(int, int, int, Duration, long, double, Set)
+   */
+  CapacityRamp(int initialConcurrency, int concurrencyIncrement, int maxConcurrency, Duration stepDuration,
+    long sloP99LatencyMillis, double sloMaxErrorRate, Set<RealmApiEndpoint> measuredEndpoints,
+    ThreadFactory threadFactory) {
+    Validate.isTrue(initialConcurrency > 0, "initialConcurrency must be greater than zero.");
+    Validate.isTrue(concurrencyIncrement > 0, "concurrencyIncrement must be greater than zero.");
+    Validate.notEmpty(measuredEndpoints, "measuredEndpoints must not be empty.");
+    this.initialConcurrency = initialConcurrency;
+    this.concurrencyIncrement = concurrencyIncrement;
+    this.maxConcurrency = maxConcurrency;
+    this.stepDuration = stepDuration;
+    this.sloP99LatencyMillis = sloP99LatencyMillis;
+    this.sloMaxErrorRate = sloMaxErrorRate;
+    this.measuredEndpoints = Collections.unmodifiableSet(EnumSet.copyOf(measuredEndpoints));
+    this.threadFactory = threadFactory;
+  }
+
+  /**
+   * Runs the ramp.
+   *
+   * @param warmUp How long to run the workload at the initial concurrency before the first step, allowing the client
+   * and server to warm up (class loading, JIT compilation, connection establishment). The results are discarded.
+   * @param workload The workload to run at each step.
+   * @return The steps which were run, in order. The last step is the first to breach an SLO, if any did.
+   * @throws Exception If any of the threads running the workload fails unexpectedly.
+   */
+  List<Step> run(Duration warmUp, Workload workload) throws Exception {
+    if (!warmUp.isZero()) {
+      runStep(this.initialConcurrency, warmUp, workload);
+    }
+    List<Step> steps = new ArrayList<>();
+    for (int concurrency = this.initialConcurrency; concurrency <= this.maxConcurrency;
+         concurrency += this.concurrencyIncrement) {
+      Step step = runStep(concurrency, this.stepDuration, workload);
+      steps.add(step);
+      logger.info("Completed capacity ramp step - {}", step.format());
+      if (step.getSloBreach() != null) {
+        break;
+      }
+    }
+    return steps;
+  }
+
+  private Step runStep(int concurrency, Duration duration, Workload workload) throws Exception {
+    final RealmLoadResult result = new RealmLoadResult();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency, this.threadFactory);
+    try {
+      final long startNanos = System.nanoTime();
+      final long endNanos = startNanos + duration.toNanos();
+      List<Future<?>> threads = new ArrayList<>();
+      for (int i = 0; i < concurrency; i++) {
+        threads.add(executor.submit(() -> {
+          while (System.nanoTime() < endNanos) {
+            workload.iterate(result);
+          }
+        }));
+      }
+      for (Future<?> thread : threads) {
+        thread.get();
+      }
+      result.setElapsedNanos(System.nanoTime() - startNanos);
+    } finally {
+      executor.shutdownNow();
+    }
+    return new Step(concurrency, result);
+  }
+
+  /**
+   * @param steps The steps run by the ramp.
+   * @return The step with the highest throughput which met the SLOs, or null if none did.
+   */
+  Step getMaxSustainableStep(List<Step> steps) {
+    return steps.stream()
+      .filter(step -> step.getSloBreach() == null)
+      .max((step1, step2) -> Double.compare(step1.getThroughput(), step2.getThroughput()))
+      .orElse(null);
+  }
+
+  /**
+   * @param steps The steps run by the ramp.
+   * @return The step at the knee of the throughput/latency curve - the one with the highest power (throughput divided by
+   * mean latency) - or null if there are no steps.
+   */
+  Step getKneeStep(List<Step> steps) {
+    return steps.stream()
+      .max((step1, step2) -> Double.compare(step1.getPower(), step2.getPower()))
+      .orElse(null);
+  }
+
+  /**
+   * @param steps The steps run by the ramp.
+   * @return A report of every step, the knee and the max sustainable rate.
+   */
+  String report(List<Step> steps) {
+    StringBuilder report = new StringBuilder(String.format("SLOs - p99 latency <= %d ms, error rate <= %.2f%%, for " +
+      "endpoints %s%n", this.sloP99LatencyMillis, this.sloMaxErrorRate * 100, this.measuredEndpoints));
+    steps.forEach(step -> report.append(step.format()).append(System.lineSeparator()));
+    final Step knee = getKneeStep(steps);
+    final Step maxSustainable = getMaxSustainableStep(steps);
+    report.append(String.format("Knee of throughput/latency curve at concurrency [%s], throughput [%s]%n",
+      knee != null ? knee.getConcurrency() : "n/a", knee != null ? String.format("%.1f/s", knee.getThroughput()) :
+        "n/a"));
+    report.append(String.format("Max sustainable rate [%s] at concurrency [%s]%s", maxSustainable != null ?
+        String.format("%.1f/s", maxSustainable.getThroughput()) : "n/a", maxSustainable != null ?
+        maxSustainable.getConcurrency() : "n/a",
+      steps.isEmpty() || steps.get(steps.size() - 1).getSloBreach() == null ? " (SLOs not breached up to max " +
+        "concurrency)" : ""));
+    return report.toString();
+  }
+
+  /**
+   * The results of running the workload at one level of concurrency.
+   */
+  final class Step {
+    private final int concurrency;
+    private final RealmLoadResult result;
+
+    private Step(int concurrency, RealmLoadResult result) {
+      this.concurrency = concurrency;
+      this.result = result;
+    }
+
+    int getConcurrency() {
+      return this.concurrency;
+    }
+
+    RealmLoadResult getResult() {
+      return this.result;
+    }
+
+    /**
+     * @return The throughput of the workload, in iterations per second, measured as the rate of calls to the first of
+     * the measured endpoints.
+     */
+    double getThroughput() {
+      final RealmApiEndpoint endpoint = CapacityRamp.this.measuredEndpoints.iterator().next();
+      return this.result.getCalls(endpoint) / (this.result.getElapsedNanos() / 1e9);
+    }
+
+    /**
+     * @return The power of the step - throughput divided by the mean latency, in seconds, of the measured endpoints.
+     */
+    double getPower() {
+      final double meanLatencyMicros = CapacityRamp.this.measuredEndpoints.stream()
+        .mapToDouble(endpoint -> this.result.getLatencyMicros(endpoint).getMean())
+        .sum();
+      return meanLatencyMicros > 0 ? getThroughput() / (meanLatencyMicros / 1e6) : 0;
+    }
+
+    /**
+     * @return A description of the first SLO breached by the step, or null if it met all the SLOs.
+     */
+    String getSloBreach() {
+      for (RealmApiEndpoint endpoint : CapacityRamp.this.measuredEndpoints) {
+        final long calls = this.result.getCalls(endpoint);
+        final double errorRate = calls > 0 ? this.result.getErrors(endpoint) / (double) calls : 1;
+        if (errorRate > CapacityRamp.this.sloMaxErrorRate) {
+          return String.format("[%s] error rate %.2f%%", endpoint, errorRate * 100);
+        }
+        final double p99Millis = this.result.getLatencyMicros(endpoint).getValueAtPercentile(99) / 1000.0;
+        if (p99Millis > CapacityRamp.this.sloP99LatencyMillis) {
+          return String.format("[%s] p99 latency %.1f ms", endpoint, p99Millis);
+        }
+      }
+      return null;
+    }
+
+    String format() {
+      StringBuilder line = new StringBuilder(String.format("concurrency [%3d], throughput [%8.1f/s]", this.concurrency,
+        getThroughput()));
+      for (RealmApiEndpoint endpoint : CapacityRamp.this.measuredEndpoints) {
+        Histogram latency = this.result.getLatencyMicros(endpoint);
+        line.append(String.format(", %s - p50 [%.1f ms] p99 [%.1f ms] errors [%d]", endpoint,
+          latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+          this.result.getErrors(endpoint)));
+      }
+      final String sloBreach = getSloBreach();
+      return line.append(sloBreach != null ? ", SLO BREACHED - " + sloBreach : "").toString();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+
+/**
+ * A {@link RealmApiTransport} which limits the number of API calls it delegates concurrently to another transport,
+ * using an {@link AimdConcurrencyLimiter}, so that the load offered by its callers adapts to the capacity of the User
+ * service.
+ * <p>
+ * Each call acquires a permit from the limiter, blocking until one is available, before it's delegated, and then
+ * reports its outcome to the permit. A successful call increases the limit. A call which the service throttles, failing
+ * with a {@link RealmApiThrottledException}, decreases the limit, and holds back all new calls until the service's
+ * Retry-After has elapsed. As the service sheds throttled requests without processing them, the call is then retried,
+ * up to a max number of attempts in total. Any other failure is propagated, without affecting the limit. Safe for use
+ * by multiple threads, if the delegate transport is.
+ */
+// package-protected
+final class ConcurrencyLimitedRealmApiTransport implements RealmApiTransport {
+
+  /**
+   * The default max number of attempts made to complete a call which the service throttles.
+   */
+  static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  private final RealmApiTransport delegate;
+  private final AimdConcurrencyLimiter limiter;
+  private final int maxAttempts;
+
+  /**
+   * @param delegate The transport used to make the API calls.
+   * @param limiter The limiter from which each call (attempt) acquires a permit.
+   * @param maxAttempts The max number of attempts made to complete a call which the service throttles, including the
+   * first, after which the call fails with the last {@link RealmApiThrottledException}.
+   */
+  ConcurrencyLimitedRealmApiTransport(RealmApiTransport delegate, AimdConcurrencyLimiter limiter, int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts [" + maxAttempts + "] must be at least 1.");
+    }
+    this.delegate = delegate;
+    this.limiter = limiter;
+    this.maxAttempts = maxAttempts;
+  }
+
+  @Override
+  public UserRealmDto createRealm(UserRealmDto userRealm) {
+    return call(() -> this.delegate.createRealm(userRealm));
+  }
+
+  @Override
+  public CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey) {
+    return call(() -> this.delegate.createRealm(userRealm, idempotencyKey));
+  }
+
+  @Override
+  public UserRealmDto getRealm(String realmId) {
+    return call(() -> this.delegate.getRealm(realmId));
+  }
+
+  @Override
+  public Map<String, UserRealmDto> getRealms(Collection<String> realmIds) {
+    return call(() -> this.delegate.getRealms(realmIds));
+  }
+
+  @Override
+  public UserRealmDto getRealmByName(String realmName) {
+    return call(() -> this.delegate.getRealmByName(realmName));
+  }
+
+  @Override
+  public void deleteRealm(int realmId) {
+    call(() -> {
+      this.delegate.deleteRealm(realmId);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean isCallingThreadOnly() {
+    return this.delegate.isCallingThreadOnly();
+  }
+
+  @Override
+  public void close() {
+    this.delegate.close();
+  }
+
+  /**
+   * Makes an API call, once a permit has been acquired, reporting its outcome to the permit, and retrying it if it's
+   * throttled, up to the max number of attempts.
+   */
+  private <T> T call(Supplier<T> apiCall) {
+    for (int attempt = 1; ; attempt++) {
+      final AimdConcurrencyLimiter.Permit permit;
+      try {
+        permit = this.limiter.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted whilst waiting for a permit to make an API call.", e);
+      }
+      try {
+        final T result = apiCall.get();
+        permit.onSuccess();
+        return result;
+      } catch (RealmApiThrottledException e) {
+        permit.onThrottled(e.getRetryAfter());
+        if (attempt >= this.maxAttempts) {
+          throw e;
+        }
+      } catch (Throwable t) {
+        permit.onIgnored();
+        throw t;
+      }
+    }
+  }
+}
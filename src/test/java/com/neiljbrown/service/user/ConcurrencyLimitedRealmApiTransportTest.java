@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Functional tests of the limiting of concurrent API calls by the {@link ConcurrencyLimitedRealmApiTransport}.
+ * <p>
+ * The tests are run against the {@link RealmServiceStandIn in-memory stand-in} for the APIs, given a capacity of a
+ * single request at a time, which it sheds excess requests beyond with 429s. Its service time is long enough for calls
+ * released together to overlap, but within the latency budget of the Get Realm API.
+ */
+public class ConcurrencyLimitedRealmApiTransportTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimitedRealmApiTransportTest.class);
+
+  private static final int SERVICE_CAPACITY = 1;
+  private static final Duration SERVICE_TIME = Duration.ofMillis(250);
+  private static final int CONCURRENT_CALLERS = 2;
+
+  private UserRealmDto createdRealm;
+
+  public ConcurrencyLimitedRealmApiTransportTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+    this.createdRealm = createRealmResource(new UserRealmDto(generateUniqueRealmName(), generateRealmDescription()));
+  }
+
+  /**
+   * Tests the case when concurrent calls exceed the capacity of the service. The call which the service throttles cuts
+   * the limit, and is retried once the call which wasn't throttled has completed, so that both calls succeed.
+   */
+  @Test
+  public void givenConcurrentCallsExceedServiceCapacity() throws Exception {
+    this.realmServiceStandIn.withCapacity(SERVICE_CAPACITY, SERVICE_TIME, Duration.ZERO);
+    final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(CONCURRENT_CALLERS, 1, CONCURRENT_CALLERS);
+    final RealmApiTransport transport = new ConcurrencyLimitedRealmApiTransport(createRealmApiTransport(), limiter,
+      ConcurrencyLimitedRealmApiTransport.DEFAULT_MAX_ATTEMPTS);
+
+    for (Future<UserRealmDto> call : startGetRealmConcurrently(transport)) {
+      assertThat(call.get()).isEqualTo(this.createdRealm);
+    }
+
+    assertThat(this.realmServiceStandIn.getShedRequestCount()).as("Shed requests").isEqualTo(1);
+    assertThat(limiter.getThrottledCount()).as("Throttled calls").isEqualTo(1);
+    assertThat(limiter.getInFlight()).as("Calls in flight").isZero();
+  }
+
+  /**
+   * Tests the case when a call is throttled on its last attempt. It fails with the service's Retry-After, which holds
+   * back the next call until it has elapsed.
+   */
+  @Test
+  public void givenCallThrottledOnLastAttempt() throws Exception {
+    final Duration retryAfter = Duration.ofSeconds(1);
+    this.realmServiceStandIn.withCapacity(SERVICE_CAPACITY, SERVICE_TIME, retryAfter);
+    final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(CONCURRENT_CALLERS, 1, CONCURRENT_CALLERS);
+    final RealmApiTransport transport = new ConcurrencyLimitedRealmApiTransport(
+      RealmApiTransportType.ASYNC_HTTP.create(URI.create("http://localhost:" + this.wireMockRule.port()),
+        Duration.ZERO), limiter, 1);
+    try {
+      final List<Throwable> failures = getFailures(startGetRealmConcurrently(transport));
+      assertThat(failures).hasSize(1).hasOnlyElementsOfType(RealmApiThrottledException.class);
+      assertThat(((RealmApiThrottledException) failures.get(0)).getRetryAfter()).isEqualTo(retryAfter);
+      assertThat(limiter.getThrottledCount()).as("Throttled calls").isEqualTo(1);
+
+      final long startNanos = System.nanoTime();
+      assertThat(transport.getRealm(this.createdRealm.getId())).isEqualTo(this.createdRealm);
+      assertThat(Duration.ofNanos(System.nanoTime() - startNanos)).as("Duration of call after Retry-After")
+        .isGreaterThan(retryAfter.minus(SERVICE_TIME));
+    } finally {
+      transport.close();
+    }
+  }
+
+  /**
+   * Tests the case when concurrent calls exceed the capacity of the service, and aren't limited. The call which the
+   * service throttles fails with a {@link RealmApiThrottledException}, rather than an assertion error.
+   */
+  @Test
+  public void givenUnlimitedConcurrentCallsExceedServiceCapacity() throws Exception {
+    this.realmServiceStandIn.withCapacity(SERVICE_CAPACITY, SERVICE_TIME, Duration.ZERO);
+
+    final List<Throwable> failures = getFailures(startGetRealmConcurrently(createRealmApiTransport()));
+
+    assertThat(failures).hasSize(1).hasOnlyElementsOfType(RealmApiThrottledException.class);
+    assertThat(((RealmApiThrottledException) failures.get(0)).getRetryAfter()).isEqualTo(Duration.ZERO);
+  }
+
+  /**
+   * Tests the case when a call fails other than by being throttled. The failure is propagated, and the limit isn't
+   * changed.
+   */
+  @Test
+  public void givenCallFailsOtherwise() {
+    final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(CONCURRENT_CALLERS, 1, CONCURRENT_CALLERS);
+    final RealmApiTransport transport = new ConcurrencyLimitedRealmApiTransport(createRealmApiTransport(), limiter,
+      ConcurrencyLimitedRealmApiTransport.DEFAULT_MAX_ATTEMPTS);
+
+    assertThatThrownBy(() -> transport.getRealm(Integer.toString(UserRealmConstants.ID_MAX)))
+      .isInstanceOf(AssertionError.class);
+
+    assertThat(limiter.getLimit()).as("Limit").isEqualTo(CONCURRENT_CALLERS);
+    assertThat(limiter.getThrottledCount()).as("Throttled calls").isZero();
+    assertThat(limiter.getInFlight()).as("Calls in flight").isZero();
+  }
+
+  /**
+   * Starts getting the created realm from several threads concurrently, using the supplied transport. The threads are
+   * released together, once they've all been started, so their calls overlap.
+   *
+   * @return The calls, in the order the threads were started.
+   */
+  private List<Future<UserRealmDto>> startGetRealmConcurrently(RealmApiTransport transport)
+    throws InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_CALLERS);
+    final CountDownLatch ready = new CountDownLatch(CONCURRENT_CALLERS);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<UserRealmDto>> calls = new ArrayList<>(CONCURRENT_CALLERS);
+    try {
+      for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+        calls.add(executor.submit(() -> {
+          ready.countDown();
+          start.await();
+          return transport.getRealm(this.createdRealm.getId());
+        }));
+      }
+      ready.await();
+      start.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    return calls;
+  }
+
+  /**
+   * Waits for the supplied calls to complete.
+   *
+   * @return The failures of the calls which failed.
+   */
+  private static List<Throwable> getFailures(List<Future<UserRealmDto>> calls) throws InterruptedException {
+    final List<Throwable> failures = new ArrayList<>();
+    for (Future<UserRealmDto> call : calls) {
+      try {
+        call.get();
+      } catch (ExecutionException e) {
+        failures.add(e.getCause());
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
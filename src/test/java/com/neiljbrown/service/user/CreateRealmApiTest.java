@@ -18,9 +18,12 @@ package com.neiljbrown.service.user;
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -42,6 +45,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmJsonCodec;
 
 /**
  * A set of (out-of-process) functional tests for the Create Realm API implemented using the REST-assured library.
@@ -90,15 +94,16 @@ public class CreateRealmApiTest extends AbstractRealmApiTest {
   }
 
   /**
-   * Tests the case when the posted media-type isn't supported by the API - in this case application/json.
+   * Tests the case when the posted media-type isn't supported by the API - in this case text/plain. (The API supports
+   * both application/xml and application/json).
    */
   @Test
-  public void givenUnsupportedMediaTypeJson() {
+  public void givenUnsupportedMediaTypeTextPlain() {
     stubCreateRealmWhenUnsupportedMediaType();
 
     RestAssured
       .given()
-        .contentType(ContentType.APPLICATION_JSON.getMimeType())
+        .contentType(ContentType.TEXT_PLAIN.getMimeType())
       .when()
         .post()
       .then()
@@ -218,6 +223,65 @@ public class CreateRealmApiTest extends AbstractRealmApiTest {
           "error.message", equalTo("Duplicate realm name [" + requestedUserRealm.getName() + "]."));
   }
 
+  /**
+   * Tests the case when the service is overloaded and sheds the request, asking the client to retry after a period.
+   */
+  @Test
+  public void givenServiceOverloaded() {
+    UserRealmDto requestedUserRealm = new UserRealmDto(generateUniqueRealmName(), generateRealmDescription());
+    final int retryAfterSeconds = 2;
+
+    stubCreateRealmWhenServiceOverloaded(retryAfterSeconds);
+
+    RestAssured
+      .given()
+        .body(requestedUserRealm)
+      .when()
+        .post()
+      .then()
+        .assertThat().statusCode(UserRealmApiConstants.SC_TOO_MANY_REQUESTS)
+        .header(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME, equalTo(Integer.toString(retryAfterSeconds)))
+        .body(
+          "error.code", equalTo("TooManyRequests"),
+          "error.message", equalTo("Realm service is overloaded. Retry after [" + retryAfterSeconds + "] seconds."));
+  }
+
+  /**
+   * Tests that a Create Realm API call made using the realm helper methods, for a realm with a non-unique name, fails
+   * with an {@link AssertionError} identifying the status of the response, whichever {@link RealmApiTransport} the
+   * helper methods use.
+   */
+  @Test
+  public void givenUserRealmWithDuplicateNameThenRealmHelperFails() {
+    UserRealmDto requestedUserRealm = new UserRealmDto(generateUniqueRealmName(), generateRealmDescription());
+
+    stubCreateRealmWhenDuplicateRealmName(requestedUserRealm.getName(), requestedUserRealm.getDescription());
+    doTestCreateRealmSuccess(requestedUserRealm);
+
+    Throwable failure = catchThrowable(() -> this.createRealmResource(requestedUserRealm));
+
+    assertThat(failure).isInstanceOf(AssertionError.class)
+      .hasMessageContaining(Integer.toString(HttpStatus.SC_BAD_REQUEST));
+  }
+
+  /**
+   * Tests that a Create Realm API call made using the realm helper methods, which the overloaded service sheds, fails
+   * with a {@link RealmApiThrottledException} carrying the period after which to retry, whichever
+   * {@link RealmApiTransport} the helper methods use.
+   */
+  @Test
+  public void givenServiceOverloadedThenRealmHelperThrottled() {
+    UserRealmDto requestedUserRealm = new UserRealmDto(generateUniqueRealmName(), generateRealmDescription());
+    final int retryAfterSeconds = 2;
+
+    stubCreateRealmWhenServiceOverloaded(retryAfterSeconds);
+
+    Throwable failure = catchThrowable(() -> this.createRealmResource(requestedUserRealm));
+
+    assertThat(failure).isInstanceOf(RealmApiThrottledException.class);
+    assertThat(((RealmApiThrottledException) failure).getRetryAfter()).isEqualTo(Duration.ofSeconds(retryAfterSeconds));
+  }
+
   /**
    * Tests the case when the posted realm resource contains only a unique (mandatory) name field.
    */
@@ -245,6 +309,35 @@ public class CreateRealmApiTest extends AbstractRealmApiTest {
     assertCreatedRealm(createdRealm, requestedUserRealm);
   }
 
+  /**
+   * Tests the case when the posted realm resource is represented in JSON, rather than XML, and the created realm is
+   * also requested in JSON.
+   */
+  @Test
+  public void givenUserRealmWithNameAndDescriptionAsJson() {
+    UserRealmDto requestedUserRealm = new UserRealmDto(generateUniqueRealmName(), generateRealmDescription());
+
+    stubCreateRealmSuccessForRealmAsJson(requestedUserRealm, 123, generateRealmKey());
+    byte[] createdRealmJson =
+      RestAssured
+        .given()
+          .contentType(ContentType.APPLICATION_JSON.getMimeType())
+          .accept(ContentType.APPLICATION_JSON.getMimeType())
+          .body(UserRealmJsonCodec.encode(requestedUserRealm))
+        .when()
+          .post()
+        .then()
+          .assertThat().statusCode(HttpStatus.SC_CREATED)
+          .contentType(ContentType.APPLICATION_JSON.getMimeType())
+          // Uses Groovy's GPath expression language to match and extract JSON fields
+          .body("name", equalTo(requestedUserRealm.getName()))
+          .extract().body().asByteArray();
+    UserRealmDto createdRealm = UserRealmJsonCodec.decode(createdRealmJson);
+    this.createdRealms.add(createdRealm);
+
+    assertCreatedRealm(createdRealm, requestedUserRealm);
+  }
+
   /**
    * Factored-out common logic for executing a test of the Create Realm API in the success case, when a realm is
    * expected to be created. Executes the API call to create the supplied realm, asserts the response code indicates
@@ -335,10 +428,35 @@ public class CreateRealmApiTest extends AbstractRealmApiTest {
   private void stubCreateRealmWhenUnsupportedMediaType() {
     WireMock.stubFor(
       any(urlEqualTo(UserRealmApiConstants.CREATE_REALM_URL_PATH))
-        .withHeader("Content-Type", WireMock.notMatching(ContentType.APPLICATION_XML.getMimeType()))
+        .withHeader("Content-Type", WireMock.notMatching(".*(" + ContentType.APPLICATION_XML.getMimeType() + "|" +
+          ContentType.APPLICATION_JSON.getMimeType() + ").*"))
         .willReturn(
           aResponse().withStatus(HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE).withHeader("Accept", ContentType
-            .APPLICATION_XML.getMimeType())));
+            .APPLICATION_XML.getMimeType() + ", " + ContentType.APPLICATION_JSON.getMimeType())));
+  }
+
+  /**
+   * Registers a stubbed HTTP response that should be returned if a Create Realm API request is made for the supplied
+   * realm, represented in JSON, and requesting the created realm is returned in JSON.
+   */
+  private void stubCreateRealmSuccessForRealmAsJson(UserRealmDto requestedUserRealm, int realmId, String realmKey) {
+    UserRealmDto realmToCreate = new UserRealmDto(requestedUserRealm);
+    realmToCreate.setId(Integer.toString(realmId));
+    realmToCreate.setKey(realmKey);
+
+    WireMock.stubFor(
+      post(urlEqualTo(UserRealmApiConstants.CREATE_REALM_URL_PATH))
+        .withHeader("Content-Type", WireMock.containing(ContentType.APPLICATION_JSON.getMimeType()))
+        .withHeader("Accept", WireMock.containing(ContentType.APPLICATION_JSON.getMimeType()))
+        .withRequestBody(equalToJson(new String(UserRealmJsonCodec.encode(requestedUserRealm),
+          StandardCharsets.UTF_8)))
+        .willReturn(
+          aResponse()
+            .withStatus(HttpStatus.SC_CREATED)
+            .withHeader("Content-Type", ContentType.APPLICATION_JSON.getMimeType())
+            .withBody(UserRealmJsonCodec.encode(realmToCreate))));
+
+    stubDeleteRealmSuccess();
   }
 
   private void stubCreateRealmWhenInvalidRealmNameMissingOrEmpty() {
@@ -416,4 +534,17 @@ public class CreateRealmApiTest extends AbstractRealmApiTest {
 
     stubDeleteRealmSuccess();
   }
-}
\ No newline at end of file
+
+  private void stubCreateRealmWhenServiceOverloaded(int retryAfterSeconds) {
+    WireMock.stubFor(
+      post(urlEqualTo(UserRealmApiConstants.CREATE_REALM_URL_PATH))
+        .withHeader("Content-Type", WireMock.containing(ContentType.APPLICATION_XML.getMimeType()))
+        .willReturn(
+          aResponse()
+            .withStatus(UserRealmApiConstants.SC_TOO_MANY_REQUESTS)
+            .withHeader(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME, Integer.toString(retryAfterSeconds))
+            .withHeader("Content-Type", "application/xml")
+            .withBody("<error><code>TooManyRequests</code><message>Realm service is overloaded. Retry after [" +
+              retryAfterSeconds + "] seconds.</message></error>")));
+  }
+}
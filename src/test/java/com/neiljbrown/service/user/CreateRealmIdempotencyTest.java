@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.stubbing.ServeEvent;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import io.restassured.RestAssured;
+import io.restassured.response.ValidatableResponse;
+import io.restassured.specification.RequestSpecification;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Functional tests of the Idempotency-Key header of the Create Realm API, and of the client-side retrying of Create
+ * Realm API calls which time out, using {@link #createRealmResourceIdempotently(CompactUserRealm, int)}.
+ * <p>
+ * The tests are run against the {@link RealmServiceStandIn in-memory stand-in} for the APIs, with a short API call
+ * timeout. Timeouts are injected by delaying the response to the first Create Realm request beyond the timeout, after
+ * the stand-in has created the realm, as happens when the service is slow to respond.
+ */
+public class CreateRealmIdempotencyTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(CreateRealmIdempotencyTest.class);
+  private static final Duration API_CALL_TIMEOUT = Duration.ofMillis(250);
+  private static final String TIMEOUT_SCENARIO = "Create Realm times out";
+
+  public CreateRealmIdempotencyTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  @Override
+  Duration getApiCallTimeout() {
+    return API_CALL_TIMEOUT;
+  }
+
+  /**
+   * Tests the case when the first Create Realm API call times out, after the realm has been created. The call is
+   * retried with the same idempotency key, and the retry returns the response to the original call, without creating
+   * another realm.
+   */
+  @Test
+  public void givenCreateRealmTimesOutWhenRetriedWithIdempotencyKeyThenOriginalResponseReturned() {
+    stubFirstCreateRealmRequestTimesOut();
+
+    final CompactUserRealm createdRealm = createRealmResourceIdempotently(
+      CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()), 3);
+
+    final List<ServeEvent> createRealmRequests = getCreateRealmServeEvents();
+    assertThat(createRealmRequests).hasSize(2);
+    final ServeEvent originalRequest = createRealmRequests.get(0);
+    final ServeEvent retriedRequest = createRealmRequests.get(1);
+    final String idempotencyKey = originalRequest.getRequest().getHeader(
+      UserRealmApiConstants.IDEMPOTENCY_KEY_HEADER_NAME);
+    assertThat(idempotencyKey).isNotEmpty();
+    assertThat(retriedRequest.getRequest().getHeader(UserRealmApiConstants.IDEMPOTENCY_KEY_HEADER_NAME))
+      .isEqualTo(idempotencyKey);
+    assertThat(originalRequest.getResponse().getStatus()).isEqualTo(HttpStatus.SC_CREATED);
+    assertThat(CompactUserRealm.from(UserRealmXmlCodec.decode(originalRequest.getResponse().getBodyAsString())))
+      .isEqualTo(createdRealm);
+    assertThat(retriedRequest.getResponse().getStatus()).isEqualTo(HttpStatus.SC_CREATED);
+    assertThat(retriedRequest.getResponse().getHeaders()
+      .getHeader(UserRealmApiConstants.IDEMPOTENT_REPLAYED_HEADER_NAME).firstValue()).isEqualTo("true");
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests the case when the first Create Realm API call times out, after the realm has been created, and is retried
+   * without an idempotency key. Shows why a retry needs a key - the retry fails, as the realm's name is now a
+   * duplicate, and the client is left not knowing the ID of the realm it created.
+   */
+  @Test
+  public void givenCreateRealmTimesOutWhenRetriedWithoutIdempotencyKeyThenDuplicateRealmName() {
+    stubFirstCreateRealmRequestTimesOut();
+    final CompactUserRealm requestedRealm = CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription());
+
+    final Throwable timeout = catchThrowable(() -> createRealmResource(requestedRealm));
+
+    assertThat(ExceptionUtils.indexOfType(timeout, SocketTimeoutException.class)).as("Index of timeout in [%s]",
+      timeout).isNotNegative();
+    whenCreateRealm(requestedRealm, null)
+      .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+      .body("error.code", equalTo("DuplicateRealmName"));
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests the case when a Create Realm request reuses the idempotency key of an earlier request for the same realm.
+   * The response to the earlier request is returned, marked as a replay.
+   */
+  @Test
+  public void givenIdempotencyKeyReusedForSameRealm() {
+    final CompactUserRealm requestedRealm = CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription());
+    final String idempotencyKey = UUID.randomUUID().toString();
+    final String originalResponseBody = whenCreateRealm(requestedRealm, idempotencyKey)
+      .assertThat().statusCode(HttpStatus.SC_CREATED)
+      .header(UserRealmApiConstants.IDEMPOTENT_REPLAYED_HEADER_NAME, nullValue())
+      .extract().body().asString();
+
+    whenCreateRealm(requestedRealm, idempotencyKey)
+      .assertThat().statusCode(HttpStatus.SC_CREATED)
+      .header(UserRealmApiConstants.IDEMPOTENT_REPLAYED_HEADER_NAME, equalTo("true"))
+      .body(equalTo(originalResponseBody));
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests the case when a Create Realm request reuses the idempotency key of an earlier request for a different realm.
+   */
+  @Test
+  public void givenIdempotencyKeyReusedForDifferentRealm() {
+    final String idempotencyKey = UUID.randomUUID().toString();
+    whenCreateRealm(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()), idempotencyKey)
+      .assertThat().statusCode(HttpStatus.SC_CREATED);
+
+    whenCreateRealm(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()), idempotencyKey)
+      .assertThat().statusCode(HttpStatus.SC_UNPROCESSABLE_ENTITY)
+      .body(
+        "error.code", equalTo("IdempotencyKeyReused"),
+        "error.message", equalTo("Idempotency key [" + idempotencyKey + "] has already been used for a different " +
+          "request."));
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests the case when a Create Realm request with an idempotency key fails with 507 Insufficient Storage, as the max
+   * number of realms already exist, and is retried with the same key once a realm has been deleted. The failed response
+   * isn't stored against the key, so the retry creates the realm, rather than replaying the failure.
+   */
+  @Test
+  public void givenCreateRealmFailsWithInsufficientStorageWhenRetriedWithIdempotencyKeyThenRealmCreated() {
+    this.realmServiceStandIn.withRealmLimit(1);
+    final CompactUserRealm existingRealm = createRealmResource(
+      CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()));
+    final CompactUserRealm requestedRealm = CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription());
+    final String idempotencyKey = UUID.randomUUID().toString();
+    whenCreateRealm(requestedRealm, idempotencyKey)
+      .assertThat().statusCode(HttpStatus.SC_INSUFFICIENT_STORAGE)
+      .body("error.code", equalTo("RealmLimitReached"));
+
+    deleteRealmResource(existingRealm.getId());
+
+    whenCreateRealm(requestedRealm, idempotencyKey)
+      .assertThat().statusCode(HttpStatus.SC_CREATED)
+      .header(UserRealmApiConstants.IDEMPOTENT_REPLAYED_HEADER_NAME, nullValue())
+      .body("realm.@name", equalTo(requestedRealm.getName()));
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(1);
+  }
+
+  /**
+   * Tests the case when the idempotency key is longer than the max allowed length.
+   */
+  @Test
+  public void givenIdempotencyKeyTooLong() {
+    whenCreateRealm(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()),
+      StringUtils.repeat('k', UserRealmApiConstants.IDEMPOTENCY_KEY_MAX_LEN + 1))
+      .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+      .body("error.code", equalTo("InvalidIdempotencyKey"));
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(0);
+  }
+
+  /**
+   * Stubs the response to the first Create Realm request, only, to be delayed beyond the API call timeout. The request
+   * is still processed by the stand-in, so the realm is created before the client times out.
+   */
+  private static void stubFirstCreateRealmRequestTimesOut() {
+    WireMock.stubFor(post(urlEqualTo(UserRealmApiConstants.CREATE_REALM_URL_PATH))
+      .atPriority(1)
+      .inScenario(TIMEOUT_SCENARIO)
+      .whenScenarioStateIs(Scenario.STARTED)
+      .willReturn(
+        aResponse()
+          .withTransformers(RealmServiceStandIn.NAME)
+          .withFixedDelay(Math.toIntExact(API_CALL_TIMEOUT.toMillis() * 4)))
+      .willSetStateTo("Timed out"));
+  }
+
+  /**
+   * @return The Create Realm requests received by the WireMock server, and their responses, in the order received.
+   */
+  private static List<ServeEvent> getCreateRealmServeEvents() {
+    final List<ServeEvent> serveEvents = WireMock.getAllServeEvents().stream()
+      .filter(serveEvent -> serveEvent.getRequest().getMethod().equals(RequestMethod.POST))
+      .collect(Collectors.toList());
+    // WireMock returns the most recent first
+    Collections.reverse(serveEvents);
+    return serveEvents;
+  }
+
+  private static ValidatableResponse whenCreateRealm(CompactUserRealm realm, String idempotencyKey) {
+    RequestSpecification request = RestAssured.given();
+    if (idempotencyKey != null) {
+      request.header(UserRealmApiConstants.IDEMPOTENCY_KEY_HEADER_NAME, idempotencyKey);
+    }
+    return
+      request
+          .basePath(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+          .contentType(ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+          .body(realm.toXmlBytes())
+        .when()
+          .post()
+        .then();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
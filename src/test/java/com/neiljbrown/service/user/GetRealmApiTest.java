@@ -17,11 +17,12 @@ package com.neiljbrown.service.user;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasXPath;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
-import static org.hamcrest.Matchers.not;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -33,6 +34,7 @@ import com.github.tomakehurst.wiremock.http.RequestMethod;
 import com.github.tomakehurst.wiremock.matching.MatchResult;
 import com.github.tomakehurst.wiremock.matching.RequestMatcherExtension;
 import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmJsonCodec;
 import io.restassured.RestAssured;
 
 import org.apache.http.HttpStatus;
@@ -99,15 +101,15 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
 
   /**
    * Tests the case when the resource is requested in a media-type that isn't supported by the API - in this case
-   * application/json.
+   * text/plain. (The API supports both application/xml and application/json).
    */
   @Test
-  public void givenUnsupportedMediaTypeJson() {
+  public void givenUnsupportedMediaTypeTextPlain() {
     stubGetRealmWhenUnsupportedMediaType();
 
     RestAssured
       .given()
-        .accept(ContentType.APPLICATION_JSON.getMimeType())
+        .accept(ContentType.TEXT_PLAIN.getMimeType())
         .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, 1)
       .when()
         .get()
@@ -208,6 +210,60 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
           "error.message", equalTo("Realm [" + realmId + "] not found."));
   }
 
+  /**
+   * Tests the case when the service is overloaded and sheds the request, asking the client to retry after a period.
+   */
+  @Test
+  public void givenServiceOverloaded() {
+    final int realmId = UserRealmConstants.ID_MIN;
+    final int retryAfterSeconds = 2;
+    stubGetRealmWhenServiceOverloaded(realmId, retryAfterSeconds);
+
+    RestAssured
+      .given()
+        .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realmId)
+      .when()
+        .get()
+      .then()
+        .assertThat().statusCode(UserRealmApiConstants.SC_TOO_MANY_REQUESTS)
+        .header(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME, equalTo(Integer.toString(retryAfterSeconds)))
+        .body(
+          "error.code", equalTo("TooManyRequests"),
+          "error.message", equalTo("Realm service is overloaded. Retry after [" + retryAfterSeconds + "] seconds."));
+  }
+
+  /**
+   * Tests that a Get Realm API call made using the realm helper methods, for a realm which doesn't exist, fails with an
+   * {@link AssertionError} identifying the status of the response, whichever {@link RealmApiTransport} the helper
+   * methods use.
+   */
+  @Test
+  public void givenRealmDoesNotExistThenRealmHelperFails() {
+    final int realmId = UserRealmConstants.ID_MAX;
+    stubGetRealmWhenRealmDoesNotExist(realmId);
+
+    Throwable failure = catchThrowable(() -> getRealmResource(Integer.toString(realmId)));
+
+    assertThat(failure).isInstanceOf(AssertionError.class)
+      .hasMessageContaining(Integer.toString(HttpStatus.SC_NOT_FOUND));
+  }
+
+  /**
+   * Tests that a Get Realm API call made using the realm helper methods, which the overloaded service sheds, fails with
+   * a {@link RealmApiThrottledException} carrying the period after which to retry, whichever {@link RealmApiTransport}
+   * the helper methods use.
+   */
+  @Test
+  public void givenServiceOverloadedThenRealmHelperThrottled() {
+    final int realmId = UserRealmConstants.ID_MIN;
+    final int retryAfterSeconds = 2;
+    stubGetRealmWhenServiceOverloaded(realmId, retryAfterSeconds);
+
+    Throwable failure = catchThrowable(() -> getRealmResource(Integer.toString(realmId)));
+
+    assertThat(failure).isInstanceOf(RealmApiThrottledException.class);
+    assertThat(((RealmApiThrottledException) failure).getRetryAfter()).isEqualTo(Duration.ofSeconds(retryAfterSeconds));
+  }
 
   /**
    * Tests the case when the requested realm exists and all of its fields - mandatory and optional - are populated.
@@ -221,15 +277,7 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
 
     stubGetRealmSuccessForRealm(createdRealm);
 
-    UserRealmDto gotRealm = RestAssured
-      .given()
-        .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, createdRealm.getId())
-      .when()
-        .get()
-      .then()
-        .assertThat().statusCode(HttpStatus.SC_OK)
-        .body(not(isEmptyOrNullString()))
-        .extract().as(UserRealmDto.class);
+    UserRealmDto gotRealm = getRealmResource(createdRealm.getId());
 
     assertRealm(gotRealm, createdRealm);
   }
@@ -249,19 +297,40 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
 
     stubGetRealmSuccessForRealm(createdRealm);
 
-    UserRealmDto gotRealm = RestAssured
-      .given()
-        .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, createdRealm.getId())
-      .when()
-        .get()
-      .then()
-        .assertThat().statusCode(HttpStatus.SC_OK)
-        .body(not(isEmptyOrNullString()))
-        .extract().as(UserRealmDto.class);
+    UserRealmDto gotRealm = getRealmResource(createdRealm.getId());
 
     assertRealm(gotRealm, createdRealm);
   }
 
+  /**
+   * Tests the case when the requested realm exists and is requested in JSON, rather than XML.
+   */
+  @Test
+  public void givenRealmExistsRequestedAsJson() {
+    final UserRealmDto realmToCreate = new UserRealmDto(generateUniqueRealmName(), generateRealmDescription());
+    stubCreateRealmSuccessForRealm(realmToCreate, 123, generateRealmKey());
+    final UserRealmDto createdRealm = createRealmResource(realmToCreate);
+    this.createdRealms.add(createdRealm);
+
+    stubGetRealmSuccessForRealmAsJson(createdRealm);
+
+    byte[] gotRealmJson =
+      RestAssured
+        .given()
+          .accept(ContentType.APPLICATION_JSON.getMimeType())
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, createdRealm.getId())
+        .when()
+          .get()
+        .then()
+          .assertThat().statusCode(HttpStatus.SC_OK)
+          .contentType(ContentType.APPLICATION_JSON.getMimeType())
+          // Uses Groovy's GPath expression language to match and extract JSON fields
+          .body("id", equalTo(createdRealm.getId()))
+          .extract().body().asByteArray();
+
+    assertRealm(UserRealmJsonCodec.decode(gotRealmJson), createdRealm);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -309,10 +378,11 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
   private void stubGetRealmWhenUnsupportedMediaType() {
     WireMock.stubFor(
       any(urlMatching(GET_USER_REALM_URL_PATH_REGEX))
-        .withHeader("Accept", WireMock.notMatching(ContentType.APPLICATION_XML.getMimeType()))
+        .withHeader("Accept", WireMock.notMatching(".*(" + ContentType.APPLICATION_XML.getMimeType() + "|" +
+          ContentType.APPLICATION_JSON.getMimeType() + ").*"))
         .willReturn(
           aResponse().withStatus(HttpStatus.SC_NOT_ACCEPTABLE).withHeader("Accept", ContentType.APPLICATION_XML
-            .getMimeType())));
+            .getMimeType() + ", " + ContentType.APPLICATION_JSON.getMimeType())));
   }
 
   private void stubGetRealmWhenInvalidRealmId(String realmId) {
@@ -344,6 +414,19 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
 
   }
 
+  private void stubGetRealmWhenServiceOverloaded(int realmId, int retryAfterSeconds) {
+    WireMock.stubFor(
+      get(urlMatching(buildGetRealmUrlPath(realmId)))
+        .withHeader("Accept", WireMock.containing(ContentType.APPLICATION_XML.getMimeType()))
+        .willReturn(
+          aResponse()
+            .withStatus(UserRealmApiConstants.SC_TOO_MANY_REQUESTS)
+            .withHeader(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME, Integer.toString(retryAfterSeconds))
+            .withHeader("Content-Type", "application/xml")
+            .withBody("<error><code>TooManyRequests</code><message>Realm service is overloaded. Retry after [" +
+              retryAfterSeconds + "] seconds.</message></error>")));
+  }
+
   private void stubGetRealmSuccessForRealm(UserRealmDto realmToGet) {
     Objects.requireNonNull(realmToGet, "realmToGet must not be null.");
     int realmId;
@@ -365,6 +448,18 @@ public class GetRealmApiTest extends AbstractRealmApiTest {
             .withBody(realmAsXmlString)));
   }
 
+  private void stubGetRealmSuccessForRealmAsJson(UserRealmDto realmToGet) {
+    Objects.requireNonNull(realmToGet, "realmToGet must not be null.");
+    WireMock.stubFor(
+      get(urlMatching(buildGetRealmUrlPath(Integer.parseInt(realmToGet.getId()))))
+        .withHeader("Accept", WireMock.containing(ContentType.APPLICATION_JSON.getMimeType()))
+        .willReturn(
+          aResponse()
+            .withStatus(HttpStatus.SC_OK)
+            .withHeader("Content-Type", ContentType.APPLICATION_JSON.getMimeType())
+            .withBody(UserRealmJsonCodec.encode(realmToGet))));
+  }
+
   private static String buildGetRealmUrlPath(int realmId) {
     return UserRealmApiConstants.GET_REALM_URL_PATH.replaceFirst(
       "\\{" + UserRealmApiConstants.REALM_ID_PATH_VAR_NAME + "}", Integer.toString(realmId));
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import io.restassured.RestAssured;
+import io.restassured.response.ValidatableResponse;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of (out-of-process) functional tests for the Get Realm by Name API using the REST-assured library.
+ * <p>
+ * Unlike the tests of the other APIs, which stub canned responses per test, these tests are run against the
+ * {@link RealmServiceStandIn in-memory stand-in} for the APIs, so that realms are looked up by name using its index of
+ * realm names, in the same way as the real service.
+ */
+public class GetRealmByNameApiTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(GetRealmByNameApiTest.class);
+
+  /**
+   * List of one or more realms created by a test. Supports deleting realms as part of tearing down tests.
+   */
+  private final List<UserRealmDto> createdRealms = new ArrayList<>();
+
+  public GetRealmByNameApiTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    this.createdRealms.forEach(this::tearDownCreatedRealm);
+    super.tearDown();
+  }
+
+  /**
+   * Tests the case when a realm with the requested name exists. The name contains characters which must be encoded in
+   * the URL query.
+   */
+  @Test
+  public void givenRealmExists() {
+    final UserRealmDto createdRealm = createRealm(generateUniqueRealmName() + " & co. =100%");
+
+    UserRealmDto gotRealm = getRealmResourceByName(createdRealm.getName());
+
+    assertThat(gotRealm).isEqualToComparingFieldByField(createdRealm);
+    verifyRequestCount(1, RealmApiEndpoint.GET_REALM_BY_NAME);
+  }
+
+  /**
+   * Tests the case when a realm with a name of the max allowed length exists.
+   */
+  @Test
+  public void givenRealmWithNameOfMaxLengthExists() {
+    final UserRealmDto createdRealm = createRealm(generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN));
+
+    UserRealmDto gotRealm = getRealmResourceByName(createdRealm.getName());
+
+    assertThat(gotRealm).isEqualToComparingFieldByField(createdRealm);
+  }
+
+  /**
+   * Tests the case when no realm with the requested name exists.
+   */
+  @Test
+  public void givenRealmDoesNotExist() {
+    final String realmName = generateUniqueRealmName();
+
+    whenGetRealmByName(realmName)
+      .assertThat().statusCode(HttpStatus.SC_NOT_FOUND)
+      .body(
+        "error.code", equalTo("RealmNotFound"),
+        "error.message", equalTo("Realm with name [" + realmName + "] not found."));
+  }
+
+  /**
+   * Tests the case when the realm with the requested name has been deleted - the name is no longer indexed.
+   */
+  @Test
+  public void givenRealmDeleted() {
+    final UserRealmDto createdRealm = createRealm(generateUniqueRealmName());
+    deleteRealmResource(Integer.parseInt(createdRealm.getId()));
+    this.createdRealms.remove(createdRealm);
+
+    whenGetRealmByName(createdRealm.getName())
+      .assertThat().statusCode(HttpStatus.SC_NOT_FOUND)
+      .body("error.code", equalTo("RealmNotFound"));
+  }
+
+  /**
+   * Tests that realm names are matched case-sensitively - names which differ only in case identify different realms.
+   */
+  @Test
+  public void givenRealmNamesDifferingOnlyInCase() {
+    final String realmName = generateUniqueRealmName();
+    final UserRealmDto lowerCaseRealm = createRealm(realmName.toLowerCase());
+    final UserRealmDto upperCaseRealm = createRealm(realmName.toUpperCase());
+
+    assertThat(getRealmResourceByName(lowerCaseRealm.getName()).getId()).isEqualTo(lowerCaseRealm.getId());
+    assertThat(getRealmResourceByName(upperCaseRealm.getName()).getId()).isEqualTo(upperCaseRealm.getId());
+    whenGetRealmByName(realmName.substring(0, 1).toUpperCase() + realmName.substring(1).toLowerCase())
+      .assertThat().statusCode(HttpStatus.SC_NOT_FOUND);
+  }
+
+  /**
+   * Tests the case when the requested realm name is longer than the documented max.
+   */
+  @Test
+  public void givenRealmNameLongerThanMax() {
+    whenGetRealmByName(generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN + 1))
+      .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+      .body(
+        "error.code", equalTo("InvalidRealmName"),
+        "error.message", equalTo("Realm name should not be longer than " + UserRealmConstants.NAME_MAX_LEN +
+          " chars."));
+  }
+
+  /**
+   * Tests the case when the requested realm name is blank.
+   */
+  @Test
+  public void givenRealmNameBlank() {
+    whenGetRealmByName(" ")
+      .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+      .body(
+        "error.code", equalTo("MissingRealmName"),
+        "error.message", equalTo("Realm name is mandatory and must be supplied."));
+  }
+
+  /**
+   * Tests the case when the realm name isn't supplied - the request has no query parameters.
+   */
+  @Test
+  public void givenRealmNameNotSupplied() {
+    RestAssured
+      .given()
+        .basePath("")
+      .when()
+        .get(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH)
+      .then()
+        .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+        .body(
+          "error.code", equalTo("MissingRealmName"),
+          "error.message", equalTo("Realm name is mandatory and must be supplied."));
+  }
+
+  /**
+   * Tests the case when the HTTP method used for the request isn't supported by the realm collection resource - both
+   * GET and POST are advertised as allowed.
+   */
+  @Test
+  public void whenUnsupportedHttpMethodPut() {
+    RestAssured
+      .given()
+        .basePath("")
+        .queryParam(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, generateUniqueRealmName())
+      .when()
+        .put(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH)
+      .then()
+        .assertThat().statusCode(HttpStatus.SC_METHOD_NOT_ALLOWED)
+        .header("Allow", "GET, POST");
+  }
+
+  private UserRealmDto createRealm(String realmName) {
+    final UserRealmDto createdRealm = createRealmResource(new UserRealmDto(realmName, generateRealmDescription()));
+    this.createdRealms.add(createdRealm);
+    return createdRealm;
+  }
+
+  private static ValidatableResponse whenGetRealmByName(String realmName) {
+    return RestAssured
+      .given()
+        .basePath("")
+        .queryParam(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, realmName)
+      .when()
+        .get(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH)
+      .then();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Functional tests of the coalescing of concurrent Get Realm API calls for the same realm ID by the
+ * {@link SingleFlightRealmApiTransport}.
+ * <p>
+ * The tests are run against the {@link RealmServiceStandIn in-memory stand-in} for the APIs. The responses to Get
+ * Realm requests are delayed, so that the calls made by concurrent threads overlap, and the number of requests the
+ * calls are collapsed into is verified using WireMock's request journal. The delay is within the latency budget of the
+ * Get Realm API.
+ */
+public class GetRealmCoalescingTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(GetRealmCoalescingTest.class);
+
+  private static final int CONCURRENT_CALLERS = 16;
+  private static final int GET_REALM_RESPONSE_DELAY_MILLIS = 300;
+
+  private SingleFlightRealmApiTransport singleFlightTransport;
+
+  public GetRealmCoalescingTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  @Override
+  RealmApiTransport createRealmApiTransport() {
+    this.singleFlightTransport = new SingleFlightRealmApiTransport(super.createRealmApiTransport());
+    return this.singleFlightTransport;
+  }
+
+  /**
+   * Tests the case when many threads get the same realm concurrently. Their calls are collapsed into a single request,
+   * and each thread is returned its own copy of the realm.
+   */
+  @Test
+  public void givenConcurrentGetsOfSameRealm() throws Exception {
+    final CompactUserRealm createdRealm = createRealm();
+    stubGetRealmDelayed(createdRealm.getId());
+
+    final List<UserRealmDto> gotRealms = getRealmConcurrently(Collections.singletonList(createdRealm.getId()));
+
+    assertThat(gotRealms).hasSize(CONCURRENT_CALLERS).extracting(CompactUserRealm::from).containsOnly(createdRealm);
+    final Set<UserRealmDto> distinctInstances = Collections.newSetFromMap(new IdentityHashMap<>());
+    distinctInstances.addAll(gotRealms);
+    assertThat(distinctInstances).as("Distinct instances of got realm").hasSize(CONCURRENT_CALLERS);
+    WireMock.verify(exactly(1), getRequestedFor(urlEqualTo(getRealmUrlPath(createdRealm.getId()))));
+    assertThat(this.singleFlightTransport.getGetRealmCallCount()).isEqualTo(1);
+    assertThat(this.singleFlightTransport.getCoalescedGetRealmCallCount()).isEqualTo(CONCURRENT_CALLERS - 1);
+  }
+
+  /**
+   * Tests the case when many threads get one of two realms concurrently. Only calls for the same realm are collapsed.
+   */
+  @Test
+  public void givenConcurrentGetsOfDifferentRealms() throws Exception {
+    final CompactUserRealm realm1 = createRealm();
+    final CompactUserRealm realm2 = createRealm();
+    stubGetRealmDelayed(realm1.getId());
+    stubGetRealmDelayed(realm2.getId());
+
+    final List<UserRealmDto> gotRealms = getRealmConcurrently(Arrays.asList(realm1.getId(), realm2.getId()));
+
+    for (int i = 0; i < gotRealms.size(); i++) {
+      assertThat(CompactUserRealm.from(gotRealms.get(i))).isEqualTo(i % 2 == 0 ? realm1 : realm2);
+    }
+    WireMock.verify(exactly(1), getRequestedFor(urlEqualTo(getRealmUrlPath(realm1.getId()))));
+    WireMock.verify(exactly(1), getRequestedFor(urlEqualTo(getRealmUrlPath(realm2.getId()))));
+  }
+
+  /**
+   * Tests the case when many threads get a realm which doesn't exist concurrently. The failure of the single request
+   * is shared by all of them.
+   */
+  @Test
+  public void givenConcurrentGetsOfNonExistentRealm() throws Exception {
+    final int realmId = UserRealmConstants.ID_MAX;
+    stubGetRealmDelayed(realmId);
+
+    final List<Throwable> failures = new ArrayList<>();
+    for (Future<UserRealmDto> call : startGetRealmConcurrently(Collections.singletonList(realmId))) {
+      try {
+        call.get();
+      } catch (ExecutionException e) {
+        failures.add(e.getCause());
+      }
+    }
+
+    assertThat(failures).hasSize(CONCURRENT_CALLERS).hasOnlyElementsOfType(AssertionError.class);
+    WireMock.verify(exactly(1), getRequestedFor(urlEqualTo(getRealmUrlPath(realmId))));
+  }
+
+  /**
+   * Tests the case when the call in flight fails with a checked exception which the delegate transport throws without
+   * declaring it, as REST Assured does on a socket timeout. A thread which joined the call fails with the same
+   * exception, rather than waiting forever. Only the thread which made the call ran it on its own thread.
+   */
+  @Test
+  public void givenCallInFlightFailsWithUndeclaredCheckedException() throws Exception {
+    final CountDownLatch callStarted = new CountDownLatch(1);
+    final CountDownLatch failCall = new CountDownLatch(1);
+    final SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+    final SingleFlightRealmApiTransport transport = new SingleFlightRealmApiTransport(
+      new GetRealmFailingTransport(() -> {
+        callStarted.countDown();
+        failCall.await();
+        throw timeout;
+      }));
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<Boolean> leader = executor.submit(() -> getRealmExpectingFailure(transport, timeout));
+      callStarted.await();
+      final Future<Boolean> follower = executor.submit(() -> getRealmExpectingFailure(transport, timeout));
+      while (transport.getCoalescedGetRealmCallCount() == 0) {
+        Thread.sleep(10);
+      }
+      failCall.countDown();
+
+      assertThat(leader.get(5, TimeUnit.SECONDS)).as("Leader's call on calling thread only").isTrue();
+      assertThat(follower.get(5, TimeUnit.SECONDS)).as("Follower's call on calling thread only").isFalse();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests the case when a realm is got twice in succession. The second call isn't made until the first has completed,
+   * so isn't collapsed into it - realms aren't cached.
+   */
+  @Test
+  public void givenSequentialGetsOfSameRealm() {
+    final CompactUserRealm createdRealm = createRealm();
+
+    getRealmResource(Integer.toString(createdRealm.getId()));
+    getRealmResource(Integer.toString(createdRealm.getId()));
+
+    WireMock.verify(exactly(2), getRequestedFor(urlEqualTo(getRealmUrlPath(createdRealm.getId()))));
+    assertThat(this.singleFlightTransport.getCoalescedGetRealmCallCount()).isEqualTo(0);
+  }
+
+  /**
+   * Gets a realm using the supplied transport, asserting it fails with the expected exception.
+   *
+   * @return Whether the transport reports the call as having executed entirely on the calling thread.
+   */
+  private static boolean getRealmExpectingFailure(RealmApiTransport transport, Exception expectedFailure) {
+    try {
+      transport.getRealm("1");
+    } catch (Exception e) {
+      assertThat(e).isSameAs(expectedFailure);
+      return transport.isCallingThreadOnly();
+    }
+    throw new AssertionError("Expected Get Realm to fail with [" + expectedFailure + "].");
+  }
+
+  private CompactUserRealm createRealm() {
+    return createRealmResource(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()));
+  }
+
+  /**
+   * Stubs the responses to Get Realm requests for an identified realm, made to the stand-in, to be delayed, so that
+   * concurrent calls for the realm overlap.
+   */
+  private static void stubGetRealmDelayed(int realmId) {
+    WireMock.stubFor(get(urlEqualTo(getRealmUrlPath(realmId)))
+      .atPriority(1)
+      .willReturn(
+        aResponse()
+          .withTransformers(RealmServiceStandIn.NAME)
+          .withFixedDelay(GET_REALM_RESPONSE_DELAY_MILLIS)));
+  }
+
+  private static String getRealmUrlPath(int realmId) {
+    return UserRealmApiConstants.GET_REALM_URL_PATH.replace("{" + UserRealmApiConstants.REALM_ID_PATH_VAR_NAME + "}",
+      Integer.toString(realmId));
+  }
+
+  /**
+   * Gets realms from many threads concurrently, cycling through the supplied realm IDs, and waits for them all.
+   *
+   * @return The got realms, in the order the threads were started.
+   */
+  private List<UserRealmDto> getRealmConcurrently(List<Integer> realmIds) throws Exception {
+    final List<UserRealmDto> gotRealms = new ArrayList<>(CONCURRENT_CALLERS);
+    for (Future<UserRealmDto> call : startGetRealmConcurrently(realmIds)) {
+      gotRealms.add(call.get());
+    }
+    return gotRealms;
+  }
+
+  /**
+   * Starts getting realms from many threads concurrently, cycling through the supplied realm IDs. The threads are
+   * released together, once they've all been started, so their calls overlap.
+   *
+   * @return The calls, in the order the threads were started.
+   */
+  private List<Future<UserRealmDto>> startGetRealmConcurrently(List<Integer> realmIds) throws InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_CALLERS);
+    final CountDownLatch ready = new CountDownLatch(CONCURRENT_CALLERS);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<UserRealmDto>> calls = new ArrayList<>(CONCURRENT_CALLERS);
+    try {
+      for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+        final String realmId = Integer.toString(realmIds.get(i % realmIds.size()));
+        calls.add(executor.submit(() -> {
+          ready.countDown();
+          start.await();
+          return getRealmResource(realmId);
+        }));
+      }
+      ready.await();
+      start.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    return calls;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+
+  /**
+   * A {@link RealmApiTransport} whose Get Realm calls run a supplied action which fails, possibly with a checked
+   * exception. Other API calls aren't supported.
+   */
+  private static final class GetRealmFailingTransport implements RealmApiTransport {
+
+    private final FailingAction getRealmAction;
+
+    private GetRealmFailingTransport(FailingAction getRealmAction) {
+      this.getRealmAction = getRealmAction;
+    }
+
+    @Override
+    public UserRealmDto getRealm(String realmId) {
+      try {
+        this.getRealmAction.run();
+      } catch (Exception e) {
+        throw GetRealmFailingTransport.<RuntimeException>rethrow(e);
+      }
+      throw new IllegalStateException("Get Realm action didn't fail.");
+    }
+
+    @Override
+    public UserRealmDto createRealm(UserRealmDto userRealm) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, UserRealmDto> getRealms(Collection<String> realmIds) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UserRealmDto getRealmByName(String realmName) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteRealm(int realmId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> E rethrow(Throwable t) throws E {
+      throw (E) t;
+    }
+  }
+
+  @FunctionalInterface
+  private interface FailingAction {
+    void run() throws Exception;
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import io.restassured.RestAssured;
+import io.restassured.response.ValidatableResponse;
+import org.apache.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of (out-of-process) functional tests for the Get Realms API, which gets several realms, identified by their
+ * IDs, in a single call, and of the {@link #getRealmResources(java.util.Collection, int, int)} helper, which splits any
+ * number of realm IDs into batches.
+ * <p>
+ * As for the Get Realm by Name API, these tests are run against the {@link RealmServiceStandIn in-memory stand-in}
+ * for the APIs, which allocates realm IDs in sequence, starting from the min ID.
+ */
+public class GetRealmsApiTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(GetRealmsApiTest.class);
+
+  public GetRealmsApiTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  /**
+   * Tests the case when all the requested realms exist. They're returned in the order requested.
+   */
+  @Test
+  public void givenRealmsExist() {
+    final List<UserRealmDto> createdRealms = createRealms(3);
+    final List<String> realmIds = Arrays.asList(createdRealms.get(2).getId(), createdRealms.get(0).getId(),
+      createdRealms.get(1).getId());
+
+    whenGetRealms(realmIds)
+      .assertThat().statusCode(HttpStatus.SC_OK)
+      .body(
+        "realms.'*'.size()", equalTo(3),
+        "realms.realm.@id", contains(realmIds.toArray()));
+
+    final Map<String, UserRealmDto> gotRealms = getRealmResources(realmIds);
+    assertThat(gotRealms.keySet()).containsExactlyElementsOf(realmIds);
+    createdRealms.forEach(createdRealm ->
+      assertThat(gotRealms.get(createdRealm.getId())).isEqualToComparingFieldByField(createdRealm));
+    verifyRequestCount(2, RealmApiEndpoint.GET_REALMS);
+  }
+
+  /**
+   * Tests the case when some of the requested realms don't exist. An error is returned in place of each of them.
+   */
+  @Test
+  public void givenSomeRealmsDoNotExist() {
+    final UserRealmDto createdRealm = createRealms(1).get(0);
+    final String missingRealmId = Integer.toString(Integer.parseInt(createdRealm.getId()) + 1);
+
+    whenGetRealms(Arrays.asList(missingRealmId, createdRealm.getId()))
+      .assertThat().statusCode(HttpStatus.SC_OK)
+      .body(
+        "realms.'*'.collect { it.name() }", contains("error", "realm"),
+        "realms.error.@id", equalTo(missingRealmId),
+        "realms.error.code", equalTo("RealmNotFound"),
+        "realms.error.message", equalTo("Realm [" + missingRealmId + "] not found."),
+        "realms.realm.@id", equalTo(createdRealm.getId()));
+
+    assertThat(getRealmResources(Arrays.asList(missingRealmId, createdRealm.getId())))
+      .containsOnlyKeys(createdRealm.getId());
+  }
+
+  /**
+   * Tests the case when the requested realm IDs are the min and max IDs. Both are valid, so the realm with the max ID,
+   * which doesn't exist, is reported as not found, rather than the request being rejected.
+   */
+  @Test
+  public void givenMinAndMaxRealmIds() {
+    final UserRealmDto createdRealm = createRealms(1).get(0);
+    assertThat(createdRealm.getId()).isEqualTo(Integer.toString(UserRealmConstants.ID_MIN));
+
+    whenGetRealms(Arrays.asList(Integer.toString(UserRealmConstants.ID_MIN),
+      Integer.toString(UserRealmConstants.ID_MAX)))
+      .assertThat().statusCode(HttpStatus.SC_OK)
+      .body(
+        "realms.realm.@id", equalTo(Integer.toString(UserRealmConstants.ID_MIN)),
+        "realms.error.@id", equalTo(Integer.toString(UserRealmConstants.ID_MAX)),
+        "realms.error.code", equalTo("RealmNotFound"));
+  }
+
+  /**
+   * Tests the case when one of the requested realm IDs is less than the min. The whole request is rejected.
+   */
+  @Test
+  public void givenRealmIdLessThanMin() {
+    doTestInvalidRealmId(Integer.toString(UserRealmConstants.ID_MIN - 1));
+  }
+
+  /**
+   * Tests the case when one of the requested realm IDs is greater than the max. The whole request is rejected.
+   */
+  @Test
+  public void givenRealmIdGreaterThanMax() {
+    doTestInvalidRealmId(Integer.toString(UserRealmConstants.ID_MAX + 1));
+  }
+
+  /**
+   * Tests the case when one of the requested realm IDs isn't an integer. The whole request is rejected.
+   */
+  @Test
+  public void givenRealmIdNotAnInteger() {
+    doTestInvalidRealmId("abc");
+  }
+
+  /**
+   * Tests the case when a realm ID is requested more than once. The realm is only returned once.
+   */
+  @Test
+  public void givenDuplicateRealmIds() {
+    final UserRealmDto createdRealm = createRealms(1).get(0);
+
+    whenGetRealms(Arrays.asList(createdRealm.getId(), createdRealm.getId()))
+      .assertThat().statusCode(HttpStatus.SC_OK)
+      .body("realms.'*'.size()", equalTo(1));
+  }
+
+  /**
+   * Tests the case when the max number of realm IDs is requested.
+   */
+  @Test
+  public void givenMaxRealmIds() {
+    whenGetRealms(realmIdRange(UserRealmConstants.ID_MIN, UserRealmApiConstants.GET_REALMS_MAX_IDS))
+      .assertThat().statusCode(HttpStatus.SC_OK)
+      .body("realms.error.size()", equalTo(UserRealmApiConstants.GET_REALMS_MAX_IDS));
+  }
+
+  /**
+   * Tests the case when more than the max number of realm IDs is requested.
+   */
+  @Test
+  public void givenTooManyRealmIds() {
+    whenGetRealms(realmIdRange(UserRealmConstants.ID_MIN, UserRealmApiConstants.GET_REALMS_MAX_IDS + 1))
+      .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+      .body(
+        "error.code", equalTo("TooManyRealmIds"),
+        "error.message", equalTo("No more than " + UserRealmApiConstants.GET_REALMS_MAX_IDS + " realm ids may be " +
+          "requested."));
+  }
+
+  /**
+   * Tests getting a set of realm IDs larger than the batch size using the helper. The IDs are split into batches, one
+   * call per batch, and the realms from all the batches are returned in the order requested.
+   */
+  @Test
+  public void givenRealmIdsExceedBatchSizeThenGotInBatches() {
+    final List<UserRealmDto> createdRealms = createRealms(25);
+    final List<String> realmIds = new ArrayList<>();
+    createdRealms.forEach(createdRealm -> realmIds.add(createdRealm.getId()));
+    // IDs of realms which don't exist, including the max ID
+    realmIds.addAll(realmIdRange(UserRealmConstants.ID_MAX - 4, 5));
+
+    final Map<String, UserRealmDto> gotRealms = getRealmResources(realmIds, 10, 2);
+
+    final Map<String, UserRealmDto> expectedRealms = new LinkedHashMap<>();
+    createdRealms.forEach(createdRealm -> expectedRealms.put(createdRealm.getId(), createdRealm));
+    assertThat(gotRealms.keySet()).containsExactlyElementsOf(expectedRealms.keySet());
+    assertThat(gotRealms).isEqualTo(expectedRealms);
+    verifyRequestCount(3, RealmApiEndpoint.GET_REALMS);
+  }
+
+  private void doTestInvalidRealmId(String invalidRealmId) {
+    final UserRealmDto createdRealm = createRealms(1).get(0);
+
+    whenGetRealms(Arrays.asList(createdRealm.getId(), invalidRealmId))
+      .assertThat().statusCode(HttpStatus.SC_BAD_REQUEST)
+      .body(
+        "error.code", equalTo("InvalidRealmId"),
+        "error.message", equalTo("Invalid realm id [" + invalidRealmId + "]."));
+  }
+
+  private List<UserRealmDto> createRealms(int count) {
+    return IntStream.range(0, count)
+      .mapToObj(i -> createRealmResource(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()))
+        .toDto())
+      .collect(Collectors.toList());
+  }
+
+  private static List<String> realmIdRange(int fromRealmId, int count) {
+    return IntStream.range(fromRealmId, fromRealmId + count).mapToObj(Integer::toString).collect(Collectors.toList());
+  }
+
+  private static ValidatableResponse whenGetRealms(List<String> realmIds) {
+    return
+      RestAssured
+        .given()
+          .basePath("")
+          .queryParam(UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME, realmIds)
+        .when()
+          .get(UserRealmApiConstants.GET_REALMS_URL_PATH)
+        .then();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
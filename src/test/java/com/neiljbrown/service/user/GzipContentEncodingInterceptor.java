@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.restassured.config.RestAssuredConfig;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * An Apache HttpClient request and response interceptor which applies gzip content-encoding to the bodies of Realm API
+ * requests and responses, and accounts for the raw (uncompressed) versus wire (as sent or received) bytes of those
+ * bodies, per {@link RealmApiEndpoint endpoint}.
+ * <p>
+ * Request bodies of at least a threshold size are compressed, and sent with a 'Content-Encoding: gzip' header. Smaller
+ * bodies are sent raw, as the cost of compressing them outweighs the saving. Compressed response bodies are
+ * decompressed. The time spent compressing and decompressing is also recorded, supporting judging the trade-off
+ * between CPU and bandwidth.
+ * <p>
+ * The interceptor is installed at the HTTP client level, rather than as a REST Assured filter, because that's the only
+ * level at which the bodies are visible as sent and received on the wire. Use {@link #applyTo(RestAssuredConfig)} to
+ * install it. Safe for use by multiple threads.
+ */
+// package-protected
+final class GzipContentEncodingInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+  static final String GZIP_ENABLED_PROPERTY = "gzipContentEncodingEnabled";
+  static final String GZIP_THRESHOLD_BYTES_PROPERTY = "gzipContentEncodingThresholdBytes";
+
+  private static final String GZIP_ENCODING = "gzip";
+
+  private final int thresholdBytes;
+  private final Map<RealmApiEndpoint, ContentEncodingStats> statsByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+
+  /**
+   * @param thresholdBytes The min size of a request body which is compressed.
+   */
+  GzipContentEncodingInterceptor(int thresholdBytes) {
+    this.thresholdBytes = thresholdBytes;
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      this.statsByEndpoint.put(endpoint, new ContentEncodingStats());
+    }
+  }
+
+  /**
+   * Installs the interceptor in the HTTP clients created by REST Assured.
+   *
+   * @param config The REST Assured configuration to extend.
+   * @return A copy of the configuration, which creates HTTP clients using the interceptor.
+   */
+  // REST Assured requires the deprecated AbstractHttpClient, rather than a client built by HttpClientBuilder. The class
+  // is referred to by its qualified name, as the warning for an import can't be suppressed
+  @SuppressWarnings("deprecation")
+  RestAssuredConfig applyTo(RestAssuredConfig config) {
+    return config.httpClient(config.getHttpClientConfig().httpClientFactory(() -> {
+      // Add the interceptors first, so that the request interceptor sets the body before the standard interceptors
+      // derive the Content-Length from it, and the response interceptor decompresses the body before REST Assured's
+      // own decoders see it
+      org.apache.http.impl.client.DefaultHttpClient httpClient = new org.apache.http.impl.client.DefaultHttpClient();
+      httpClient.addRequestInterceptor(this, 0);
+      httpClient.addResponseInterceptor(this, 0);
+      return httpClient;
+    }));
+  }
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) throws IOException {
+    if (!(request instanceof HttpEntityEnclosingRequest) || ((HttpEntityEnclosingRequest) request).getEntity() == null
+      || request.containsHeader("Content-Encoding")) {
+      return;
+    }
+    HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+    final byte[] rawBody = EntityUtils.toByteArray(entityRequest.getEntity());
+    final ContentEncodingStats stats = getStats(request);
+    byte[] wireBody = rawBody;
+    if (rawBody.length >= this.thresholdBytes) {
+      final long startNanos = System.nanoTime();
+      wireBody = gzip(rawBody);
+      if (stats != null) {
+        stats.encodingNanos.add(System.nanoTime() - startNanos);
+        stats.compressedRequests.increment();
+      }
+      request.setHeader("Content-Encoding", GZIP_ENCODING);
+    }
+    ByteArrayEntity wireEntity = new ByteArrayEntity(wireBody);
+    wireEntity.setContentType(entityRequest.getEntity().getContentType());
+    entityRequest.setEntity(wireEntity);
+    if (stats != null) {
+      stats.requestRawBytes.add(rawBody.length);
+      stats.requestWireBytes.add(wireBody.length);
+    }
+  }
+
+  @Override
+  public void process(HttpResponse response, HttpContext context) throws IOException {
+    final HttpEntity entity = response.getEntity();
+    if (entity == null) {
+      return;
+    }
+    final byte[] wireBody = EntityUtils.toByteArray(entity);
+    final ContentEncodingStats stats = getStats((HttpRequest) context.getAttribute(HttpCoreContext.HTTP_REQUEST));
+    final Header contentEncoding = response.getFirstHeader("Content-Encoding");
+    byte[] rawBody = wireBody;
+    if (contentEncoding != null && GZIP_ENCODING.equalsIgnoreCase(contentEncoding.getValue())) {
+      final long startNanos = System.nanoTime();
+      rawBody = gunzip(wireBody);
+      if (stats != null) {
+        stats.decodingNanos.add(System.nanoTime() - startNanos);
+        stats.compressedResponses.increment();
+      }
+      response.removeHeaders("Content-Encoding");
+    }
+    ByteArrayEntity rawEntity = new ByteArrayEntity(rawBody);
+    rawEntity.setContentType(entity.getContentType());
+    response.setEntity(rawEntity);
+    if (stats != null) {
+      stats.responseRawBytes.add(rawBody.length);
+      stats.responseWireBytes.add(wireBody.length);
+    }
+  }
+
+  /**
+   * @return The raw and wire bytes of the request bodies sent to an endpoint.
+   */
+  long[] getRequestBytes(RealmApiEndpoint endpoint) {
+    ContentEncodingStats stats = this.statsByEndpoint.get(endpoint);
+    return new long[] {stats.requestRawBytes.sum(), stats.requestWireBytes.sum()};
+  }
+
+  /**
+   * @return The raw and wire bytes of the response bodies received from an endpoint.
+   */
+  long[] getResponseBytes(RealmApiEndpoint endpoint) {
+    ContentEncodingStats stats = this.statsByEndpoint.get(endpoint);
+    return new long[] {stats.responseRawBytes.sum(), stats.responseWireBytes.sum()};
+  }
+
+  /**
+   * @return The number of requests to, and responses from an endpoint whose body was compressed.
+   */
+  long[] getCompressedCounts(RealmApiEndpoint endpoint) {
+    ContentEncodingStats stats = this.statsByEndpoint.get(endpoint);
+    return new long[] {stats.compressedRequests.sum(), stats.compressedResponses.sum()};
+  }
+
+  /**
+   * @return {@code true} if any request or response bodies have been accounted for since the last {@link #reset()}.
+   */
+  boolean hasAccountedBytes() {
+    return this.statsByEndpoint.values().stream()
+      .anyMatch(stats -> stats.requestRawBytes.sum() + stats.responseRawBytes.sum() > 0);
+  }
+
+  /**
+   * @return A tabular report of the raw versus wire bytes, and the compression time, of the request and response bodies
+   * of each endpoint.
+   */
+  String report() {
+    StringBuilder report = new StringBuilder(String.format("%-30s %12s %12s %8s %12s %12s %8s %12s%n", "Endpoint",
+      "Req raw(B)", "Req wire(B)", "Req gz", "Resp raw(B)", "Resp wire(B)", "Resp gz", "Codec(ms)"));
+    this.statsByEndpoint.forEach((endpoint, stats) -> report.append(String.format(
+      "%-30s %12d %12d %8d %12d %12d %8d %12.2f%n", endpoint, stats.requestRawBytes.sum(),
+      stats.requestWireBytes.sum(), stats.compressedRequests.sum(), stats.responseRawBytes.sum(),
+      stats.responseWireBytes.sum(), stats.compressedResponses.sum(),
+      (stats.encodingNanos.sum() + stats.decodingNanos.sum()) / 1e6)));
+    return report.toString();
+  }
+
+  /**
+   * Resets the byte accounting.
+   */
+  void reset() {
+    this.statsByEndpoint.replaceAll((endpoint, stats) -> new ContentEncodingStats());
+  }
+
+  private ContentEncodingStats getStats(HttpRequest request) {
+    if (request == null) {
+      return null;
+    }
+    final URI uri = URI.create(request.getRequestLine().getUri());
+    final RealmApiEndpoint endpoint = RealmApiEndpoint.resolve(request.getRequestLine().getMethod(),
+      uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+    return endpoint != null ? this.statsByEndpoint.get(endpoint) : null;
+  }
+
+  /**
+   * Compresses bytes using gzip.
+   *
+   * @param bytes The bytes to compress.
+   * @return The compressed bytes.
+   */
+  static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+      gzipOut.write(bytes);
+    } catch (IOException e) {
+      throw new RuntimeException("Error gzip compressing bytes. Cause [" + e.toString() + "].", e);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] bytes) throws IOException {
+    try (GZIPInputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = gzipIn.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Byte accounting of the request and response bodies of one endpoint.
+   */
+  private static final class ContentEncodingStats {
+    private final LongAdder requestRawBytes = new LongAdder();
+    private final LongAdder requestWireBytes = new LongAdder();
+    private final LongAdder responseRawBytes = new LongAdder();
+    private final LongAdder responseWireBytes = new LongAdder();
+    private final LongAdder compressedRequests = new LongAdder();
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder encodingNanos = new LongAdder();
+    private final LongAdder decodingNanos = new LongAdder();
+  }
+}
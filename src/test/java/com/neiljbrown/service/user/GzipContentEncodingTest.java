@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import io.restassured.RestAssured;
+import io.restassured.specification.RequestSpecification;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests of gzip content-encoding of Realm API request and response bodies, negotiated between the client, using a
+ * {@link GzipContentEncodingInterceptor}, and the {@link RealmServiceStandIn in-memory stand-in} for the APIs, and of
+ * the client's accounting of raw versus compressed bytes.
+ */
+public class GzipContentEncodingTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(GzipContentEncodingTest.class);
+
+  private static final int GZIP_THRESHOLD_BYTES = 256;
+
+  private WireMockServer wireMockServer;
+  private GzipContentEncodingInterceptor interceptor;
+
+  @After
+  public void tearDown() {
+    if (this.interceptor != null) {
+      logger.info("Raw versus wire bytes of API request and response bodies -{}{}", System.lineSeparator(),
+        this.interceptor.report());
+    }
+    if (this.wireMockServer != null) {
+      this.wireMockServer.stop();
+    }
+  }
+
+  /**
+   * Tests the case when the request and response bodies are at least the threshold size - they're compressed in both
+   * directions.
+   */
+  @Test
+  public void givenBodiesAboveThreshold() {
+    start(GZIP_THRESHOLD_BYTES);
+    final UserRealmDto requestedRealm = createRealmWithMaxLengthDescription();
+
+    final UserRealmDto createdRealm = createRealm(requestedRealm);
+    final UserRealmDto gotRealm = getRealm(createdRealm.getId());
+
+    this.wireMockServer.verify(postRequestedFor(urlEqualTo(UserRealmApiConstants.CREATE_REALM_URL_PATH))
+      .withHeader("Content-Encoding", equalTo("gzip")));
+    assertThat(createdRealm.getName()).isEqualTo(requestedRealm.getName());
+    assertThat(createdRealm.getDescription()).isEqualTo(requestedRealm.getDescription());
+    assertThat(gotRealm).isEqualTo(createdRealm);
+    assertThat(this.interceptor.getCompressedCounts(RealmApiEndpoint.CREATE_REALM)).containsExactly(1L, 1L);
+    assertThat(this.interceptor.getCompressedCounts(RealmApiEndpoint.GET_REALM)).containsExactly(0L, 1L);
+    assertCompressed(this.interceptor.getRequestBytes(RealmApiEndpoint.CREATE_REALM));
+    assertCompressed(this.interceptor.getResponseBytes(RealmApiEndpoint.CREATE_REALM));
+    assertCompressed(this.interceptor.getResponseBytes(RealmApiEndpoint.GET_REALM));
+  }
+
+  /**
+   * Tests the case when the request and response bodies are smaller than the threshold size - they're sent raw in both
+   * directions.
+   */
+  @Test
+  public void givenBodiesBelowThreshold() {
+    start(GZIP_THRESHOLD_BYTES * 16);
+    final UserRealmDto requestedRealm = createRealmWithMaxLengthDescription();
+
+    final UserRealmDto createdRealm = createRealm(requestedRealm);
+    final UserRealmDto gotRealm = getRealm(createdRealm.getId());
+
+    this.wireMockServer.verify(postRequestedFor(urlEqualTo(UserRealmApiConstants.CREATE_REALM_URL_PATH))
+      .withHeader("Content-Encoding", absent()));
+    assertThat(gotRealm).isEqualTo(createdRealm);
+    assertThat(this.interceptor.getCompressedCounts(RealmApiEndpoint.CREATE_REALM)).containsExactly(0L, 0L);
+    assertThat(this.interceptor.getCompressedCounts(RealmApiEndpoint.GET_REALM)).containsExactly(0L, 0L);
+    final long[] requestBytes = this.interceptor.getRequestBytes(RealmApiEndpoint.CREATE_REALM);
+    assertThat(requestBytes[0]).isPositive().isEqualTo(requestBytes[1]);
+    final long[] responseBytes = this.interceptor.getResponseBytes(RealmApiEndpoint.GET_REALM);
+    assertThat(responseBytes[0]).isPositive().isEqualTo(responseBytes[1]);
+  }
+
+  private void start(int gzipThresholdBytes) {
+    // Jetty's own gzip is disabled, so that only the stand-in's threshold applies
+    this.wireMockServer = new WireMockServer(wireMockConfig().dynamicPort().gzipDisabled(true)
+      .extensions(new RealmServiceStandIn(gzipThresholdBytes)));
+    this.wireMockServer.start();
+    this.wireMockServer.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+    this.interceptor = new GzipContentEncodingInterceptor(gzipThresholdBytes);
+  }
+
+  private static UserRealmDto createRealmWithMaxLengthDescription() {
+    return new UserRealmDto(AbstractRealmApiTest.generateUniqueRealmName(),
+      RandomStringUtils.randomAlphabetic(UserRealmConstants.DESCRIPTION_MAX_LEN));
+  }
+
+  private UserRealmDto createRealm(UserRealmDto realm) {
+    return given()
+        .basePath("")
+        .contentType(ContentType.APPLICATION_XML.getMimeType())
+        .body(realm)
+      .when()
+        .post(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+      .then()
+        .assertThat().statusCode(HttpStatus.SC_CREATED)
+        .extract().as(UserRealmDto.class);
+  }
+
+  private UserRealmDto getRealm(String realmId) {
+    return given()
+        .basePath("")
+        .accept(ContentType.APPLICATION_XML.getMimeType())
+        .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realmId)
+      .when()
+        .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+      .then()
+        .assertThat().statusCode(HttpStatus.SC_OK)
+        .extract().as(UserRealmDto.class);
+  }
+
+  private RequestSpecification given() {
+    return RestAssured
+      .given()
+        .config(this.interceptor.applyTo(RestAssured.config()))
+        .port(this.wireMockServer.port());
+  }
+
+  private static void assertCompressed(long[] rawAndWireBytes) {
+    assertThat(rawAndWireBytes[0]).as("Raw bytes").isPositive();
+    assertThat(rawAndWireBytes[1]).as("Wire bytes").isPositive().isLessThan(rawAndWireBytes[0]);
+  }
+}
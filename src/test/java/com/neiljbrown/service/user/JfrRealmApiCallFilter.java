@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A REST Assured {@link Filter} which emits a {@link RealmApiCallEvent} to Java Flight Recorder (JFR) for each Realm
+ * API call.
+ * <p>
+ * The filter only does work over and above invoking the next filter in the chain if the event is enabled in a running
+ * recording, so it has negligible overhead when the tests aren't being profiled.
+ */
+// package-protected
+final class JfrRealmApiCallFilter implements Filter {
+
+  @Override
+  public Response filter(FilterableRequestSpecification requestSpec, FilterableResponseSpecification responseSpec,
+    FilterContext ctx) {
+    RealmApiCallEvent event = new RealmApiCallEvent();
+    if (!event.isEnabled()) {
+      return ctx.next(requestSpec, responseSpec);
+    }
+    event.begin();
+    Response response = ctx.next(requestSpec, responseSpec);
+    event.end();
+    if (event.shouldCommit()) {
+      event.endpoint = requestSpec.getMethod() + " " + requestSpec.getBasePath() + requestSpec.getUserDefinedPath();
+      event.realmId = getRealmId(requestSpec, response);
+      event.status = response.getStatusCode();
+      event.requestBytes = getRequestBodyLength(requestSpec);
+      event.responseBytes = response.asByteArray().length;
+      event.commit();
+    }
+    return response;
+  }
+
+  /**
+   * @return The ID of the realm which was the subject of the API call, taken from the request's path params, or in the
+   * case of a successful Create Realm API call, from the response, in whichever of the supported representations it's
+   * returned. Null if not known.
+   */
+  private static String getRealmId(FilterableRequestSpecification requestSpec, Response response) {
+    String realmId = requestSpec.getPathParams().get(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME);
+    if (realmId == null && response.getStatusCode() == HttpStatus.SC_CREATED && response.getContentType() != null) {
+      final String mimeType = ContentType.parse(response.getContentType()).getMimeType();
+      if (mimeType.equals(ContentType.APPLICATION_XML.getMimeType())) {
+        realmId = response.xmlPath().getString("realm.@id");
+      } else if (mimeType.equals(ContentType.APPLICATION_JSON.getMimeType())) {
+        realmId = response.jsonPath().getString("id");
+      }
+    }
+    return realmId;
+  }
+
+  /**
+   * @return The length in bytes of the request body, or zero if the request has no body.
+   */
+  private static long getRequestBodyLength(FilterableRequestSpecification requestSpec) {
+    Object body = requestSpec.getBody();
+    if (body == null) {
+      return 0;
+    }
+    if (body instanceof byte[]) {
+      return ((byte[]) body).length;
+    }
+    // REST Assured serialises object bodies to a string before invoking filters
+    return body.toString().getBytes(getCharset(requestSpec.getContentType())).length;
+  }
+
+  private static Charset getCharset(String contentType) {
+    ContentType parsedContentType = contentType != null ? ContentType.parse(contentType) : null;
+    return parsedContentType != null && parsedContentType.getCharset() != null ? parsedContentType.getCharset() :
+      StandardCharsets.ISO_8859_1;
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmJsonCodec;
+import io.restassured.RestAssured;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests of the {@link JfrRealmApiCallFilter}, which start a JFR recording of its events, make Realm API calls through
+ * the filter, and check the recorded events.
+ */
+public class JfrRealmApiCallFilterTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(JfrRealmApiCallFilterTest.class);
+
+  public JfrRealmApiCallFilterTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  /**
+   * Tests that the event recorded for a successful Create Realm API call contains the ID of the created realm, taken
+   * from the response, whether the realm is represented in XML or JSON.
+   */
+  @Test
+  public void givenCreateRealmAsXmlAndJsonThenEventsContainCreatedRealmIds() throws Exception {
+    final Path recordingFile = Files.createTempFile(JfrRealmApiCallFilterTest.class.getSimpleName(), ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(RealmApiCallEvent.NAME);
+      recording.start();
+      final String xmlRealmId = whenCreateRealm(ContentType.APPLICATION_XML,
+        ("<realm name=\"" + generateUniqueRealmName() + "\"/>").getBytes(StandardCharsets.UTF_8), true)
+        .xmlPath().getString("realm.@id");
+      final String jsonRealmId = whenCreateRealm(ContentType.APPLICATION_JSON,
+        UserRealmJsonCodec.encode(new UserRealmDto(generateUniqueRealmName())), true)
+        .jsonPath().getString("id");
+      whenCreateRealm(ContentType.APPLICATION_JSON, UserRealmJsonCodec.encode(new UserRealmDto("")), false);
+      recording.stop();
+      recording.dump(recordingFile);
+
+      final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+        .filter(event -> event.getEventType().getName().equals(RealmApiCallEvent.NAME))
+        .collect(Collectors.toList());
+
+      // The default request spec may add a second filter if the tests are being profiled, so duplicates are allowed
+      assertThat(events)
+        .extracting(event -> event.getString("endpoint"), event -> event.getString("realmId"),
+          event -> event.getInt("status"))
+        .contains(
+          tuple("POST " + UserRealmApiConstants.CREATE_REALM_URL_PATH, xmlRealmId, HttpStatus.SC_CREATED),
+          tuple("POST " + UserRealmApiConstants.CREATE_REALM_URL_PATH, jsonRealmId, HttpStatus.SC_CREATED),
+          tuple("POST " + UserRealmApiConstants.CREATE_REALM_URL_PATH, null, HttpStatus.SC_BAD_REQUEST));
+    } finally {
+      Files.deleteIfExists(recordingFile);
+    }
+  }
+
+  private static ExtractableResponse<Response> whenCreateRealm(ContentType contentType, byte[] body,
+    boolean expectCreated) {
+    return
+      RestAssured
+        .given()
+          .basePath(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+          .filter(new JfrRealmApiCallFilter())
+          .contentType(contentType.getMimeType())
+          .accept(contentType.getMimeType())
+          .body(body)
+        .when()
+          .post()
+        .then()
+          .assertThat().statusCode(expectCreated ? HttpStatus.SC_CREATED : HttpStatus.SC_BAD_REQUEST)
+          .extract();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
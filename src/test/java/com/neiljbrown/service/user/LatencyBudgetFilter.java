@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A REST Assured {@link Filter} which times each Realm API call and checks its duration against a latency budget
+ * configured for its {@link RealmApiEndpoint endpoint}.
+ * <p>
+ * A single slow call doesn't fail a test, as that would make the tests flaky, e.g. due to JIT compilation of the first
+ * calls. Instead, calls which exceed their budget are logged and counted, and {@link #verify()} fails if the percentage
+ * of the calls to any endpoint which exceeded the budget is more than a configured max. For the same reason, an
+ * endpoint is only verified once a configured min number of calls have been made to it - otherwise, e.g. one slow call
+ * of the three made to an endpoint by a test class would exceed the max percentage. This allows functional test runs
+ * to double as a latency smoke test. Safe for use by multiple threads.
+ */
+// package-protected
+final class LatencyBudgetFilter implements Filter {
+
+  /**
+   * Prefix of the properties which configure the latency budget of each endpoint, e.g. latencyBudgetMillis.GET_REALM.
+   */
+  static final String BUDGET_MILLIS_PROPERTY_PREFIX = "latencyBudgetMillis.";
+  static final String MAX_VIOLATION_PERCENT_PROPERTY = "latencyBudgetMaxViolationPercent";
+  static final String MIN_CALLS_PROPERTY = "latencyBudgetMinCalls";
+
+  private static final Logger logger = LoggerFactory.getLogger(LatencyBudgetFilter.class);
+
+  private final Map<RealmApiEndpoint, Long> budgetNanosByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+  private final double maxViolationPercent;
+  private final long minCalls;
+  private final Map<RealmApiEndpoint, LongAdder> callsByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+  private final Map<RealmApiEndpoint, LongAdder> violationsByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+
+  /**
+   * @param budgetMillisByEndpoint The latency budget of each endpoint. Calls to endpoints without a budget aren't
+   * checked.
+   * @param maxViolationPercent The max percentage of calls to an endpoint which may exceed its budget.
+   * @param minCalls The min number of calls to an endpoint for which the percentage which exceeded its budget is
+   * verified.
+   */
+  LatencyBudgetFilter(Map<RealmApiEndpoint, Long> budgetMillisByEndpoint, double maxViolationPercent, long minCalls) {
+    budgetMillisByEndpoint.forEach((endpoint, budgetMillis) ->
+      this.budgetNanosByEndpoint.put(endpoint, TimeUnit.MILLISECONDS.toNanos(budgetMillis)));
+    this.maxViolationPercent = maxViolationPercent;
+    this.minCalls = minCalls;
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      this.callsByEndpoint.put(endpoint, new LongAdder());
+      this.violationsByEndpoint.put(endpoint, new LongAdder());
+    }
+  }
+
+  /**
+   * Creates a filter using the latency budgets in the application's configuration.
+   *
+   * @param config The application's configuration.
+   * @return The filter.
+   */
+  static LatencyBudgetFilter fromConfiguration(ImmutableConfiguration config) {
+    Map<RealmApiEndpoint, Long> budgetMillisByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      final String budgetProperty = BUDGET_MILLIS_PROPERTY_PREFIX + endpoint.name();
+      if (config.containsKey(budgetProperty)) {
+        budgetMillisByEndpoint.put(endpoint, config.getLong(budgetProperty));
+      }
+    }
+    return new LatencyBudgetFilter(budgetMillisByEndpoint, config.getDouble(MAX_VIOLATION_PERCENT_PROPERTY, 10.0),
+      config.getLong(MIN_CALLS_PROPERTY, 10L));
+  }
+
+  @Override
+  public Response filter(FilterableRequestSpecification requestSpec, FilterableResponseSpecification responseSpec,
+    FilterContext ctx) {
+    final URI uri = URI.create(requestSpec.getURI());
+    final RealmApiEndpoint endpoint = RealmApiEndpoint.resolve(requestSpec.getMethod(),
+      uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+    if (endpoint == null || !this.budgetNanosByEndpoint.containsKey(endpoint)) {
+      return ctx.next(requestSpec, responseSpec);
+    }
+    final long startNanos = System.nanoTime();
+    Response response = ctx.next(requestSpec, responseSpec);
+    record(endpoint, System.nanoTime() - startNanos);
+    return response;
+  }
+
+  /**
+   * Checks the duration of a call to an endpoint against its budget, counting the call, and whether it exceeded the
+   * budget. Calls to endpoints without a budget are ignored.
+   *
+   * @param endpoint The endpoint which was called.
+   * @param durationNanos The duration of the call.
+   */
+  void record(RealmApiEndpoint endpoint, long durationNanos) {
+    final Long budgetNanos = this.budgetNanosByEndpoint.get(endpoint);
+    if (budgetNanos == null) {
+      return;
+    }
+    this.callsByEndpoint.get(endpoint).increment();
+    if (durationNanos > budgetNanos) {
+      this.violationsByEndpoint.get(endpoint).increment();
+      logger.warn("Call to endpoint [{}] took [{}] ms, exceeding its latency budget of [{}] ms.", endpoint,
+        TimeUnit.NANOSECONDS.toMillis(durationNanos), TimeUnit.NANOSECONDS.toMillis(budgetNanos));
+    }
+  }
+
+  /**
+   * @return {@code true} if any calls have been checked against their budget since the last {@link #reset()}.
+   */
+  boolean hasCheckedCalls() {
+    return this.callsByEndpoint.values().stream().anyMatch(calls -> calls.sum() > 0);
+  }
+
+  /**
+   * Verifies that the percentage of calls to each endpoint which exceeded its latency budget is within the max. Only
+   * endpoints to which at least the min number of calls have been made are verified.
+   *
+   * @throws AssertionError If the max is exceeded for any endpoint, listing each such endpoint.
+   */
+  void verify() {
+    List<String> failures = new ArrayList<>();
+    for (RealmApiEndpoint endpoint : this.budgetNanosByEndpoint.keySet()) {
+      final long calls = this.callsByEndpoint.get(endpoint).sum();
+      final long violations = this.violationsByEndpoint.get(endpoint).sum();
+      final double violationPercent = calls > 0 ? violations * 100.0 / calls : 0;
+      if (calls >= this.minCalls && violationPercent > this.maxViolationPercent) {
+        final long budgetMillis = TimeUnit.NANOSECONDS.toMillis(this.budgetNanosByEndpoint.get(endpoint));
+        failures.add(String.format("[%s] %d of %d calls (%.1f%%) exceeded latency budget of %d ms", endpoint,
+          violations, calls, violationPercent, budgetMillis));
+      }
+    }
+    if (!failures.isEmpty()) {
+      throw new AssertionError("More than " + this.maxViolationPercent + "% of calls exceeded their latency budget - " +
+        String.join(", ", failures) + ".");
+    }
+  }
+
+  /**
+   * @return A tabular report of the calls to each endpoint which has a budget, how many exceeded it, and whether there
+   * were enough calls to verify.
+   */
+  String report() {
+    StringBuilder report = new StringBuilder(String.format("%-30s %10s %8s %10s %9s%n", "Endpoint", "Budget(ms)",
+      "Calls", "Exceeded", "Verified"));
+    this.budgetNanosByEndpoint.forEach((endpoint, budgetNanos) -> {
+      final long calls = this.callsByEndpoint.get(endpoint).sum();
+      report.append(String.format("%-30s %10d %8d %10d %9s%n", endpoint, TimeUnit.NANOSECONDS.toMillis(budgetNanos),
+        calls, this.violationsByEndpoint.get(endpoint).sum(), calls >= this.minCalls ? "yes" : "no"));
+    });
+    return report.toString();
+  }
+
+  /**
+   * Resets the counts of calls and budget violations.
+   */
+  void reset() {
+    this.callsByEndpoint.values().forEach(LongAdder::reset);
+    this.violationsByEndpoint.values().forEach(LongAdder::reset);
+  }
+}
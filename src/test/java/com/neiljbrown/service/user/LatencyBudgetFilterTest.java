@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LatencyBudgetFilter}'s verification of recorded call durations against the latency budgets.
+ */
+public class LatencyBudgetFilterTest {
+
+  private static final long GET_REALM_BUDGET_MILLIS = 100;
+  private static final long GET_REALM_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(GET_REALM_BUDGET_MILLIS);
+  private static final double MAX_VIOLATION_PERCENT = 25;
+  private static final long MIN_CALLS = 4;
+
+  private final LatencyBudgetFilter filter = new LatencyBudgetFilter(budgets(), MAX_VIOLATION_PERCENT, MIN_CALLS);
+
+  /**
+   * Tests that a call whose duration is exactly its budget isn't counted as exceeding it, whereas one which takes a
+   * nanosecond longer is.
+   */
+  @Test
+  public void givenDurationAtBudgetThreshold() {
+    record(3, GET_REALM_BUDGET_NANOS);
+    record(1, GET_REALM_BUDGET_NANOS + 1);
+
+    this.filter.verify();
+    assertThat(this.filter.report()).containsPattern(reportRow(4, 1, "yes"));
+  }
+
+  /**
+   * Tests that verification passes when the percentage of calls exceeding their budget is exactly the max, and fails
+   * when it's more than the max.
+   */
+  @Test
+  public void givenViolationPercentAtAndAboveMax() {
+    record(6, GET_REALM_BUDGET_NANOS);
+    record(2, GET_REALM_BUDGET_NANOS + 1);
+    this.filter.verify();
+
+    record(1, GET_REALM_BUDGET_NANOS + 1);
+    assertThatThrownBy(this.filter::verify).isInstanceOf(AssertionError.class)
+      .hasMessageContaining("[" + RealmApiEndpoint.GET_REALM + "] 3 of 9 calls (33.3%) exceeded latency budget of " +
+        GET_REALM_BUDGET_MILLIS + " ms");
+  }
+
+  /**
+   * Tests that an endpoint isn't verified until the min number of calls have been made to it, however many of them
+   * exceeded their budget.
+   */
+  @Test
+  public void givenFewerThanMinCalls() {
+    record((int) MIN_CALLS - 1, GET_REALM_BUDGET_NANOS + 1);
+    this.filter.verify();
+    assertThat(this.filter.report()).containsPattern(reportRow(3, 3, "no"));
+
+    record(1, GET_REALM_BUDGET_NANOS + 1);
+    assertThatThrownBy(this.filter::verify).isInstanceOf(AssertionError.class)
+      .hasMessageContaining("[" + RealmApiEndpoint.GET_REALM + "] 4 of 4 calls");
+  }
+
+  /**
+   * Tests that calls to an endpoint which has no budget are neither counted nor verified.
+   */
+  @Test
+  public void givenEndpointWithoutBudget() {
+    for (int i = 0; i < MIN_CALLS; i++) {
+      this.filter.record(RealmApiEndpoint.DELETE_REALM, TimeUnit.DAYS.toNanos(1));
+    }
+
+    assertThat(this.filter.hasCheckedCalls()).isFalse();
+    this.filter.verify();
+    assertThat(this.filter.report()).doesNotContain(RealmApiEndpoint.DELETE_REALM.toString());
+  }
+
+  /**
+   * Tests that resetting the filter clears the counts of calls and budget violations, so that the calls made before
+   * it no longer fail verification.
+   */
+  @Test
+  public void givenReset() {
+    record((int) MIN_CALLS, GET_REALM_BUDGET_NANOS + 1);
+    assertThat(this.filter.hasCheckedCalls()).isTrue();
+
+    this.filter.reset();
+
+    assertThat(this.filter.hasCheckedCalls()).isFalse();
+    this.filter.verify();
+    assertThat(this.filter.report()).containsPattern(reportRow(0, 0, "no"));
+  }
+
+  private void record(int calls, long durationNanos) {
+    for (int i = 0; i < calls; i++) {
+      this.filter.record(RealmApiEndpoint.GET_REALM, durationNanos);
+    }
+  }
+
+  private static String reportRow(long calls, long exceeded, String verified) {
+    return Pattern.quote(RealmApiEndpoint.GET_REALM.toString()) + "\\s+" + GET_REALM_BUDGET_MILLIS + "\\s+" + calls +
+      "\\s+" + exceeded + "\\s+" + verified;
+  }
+
+  private static Map<RealmApiEndpoint, Long> budgets() {
+    Map<RealmApiEndpoint, Long> budgetMillisByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+    budgetMillisByEndpoint.put(RealmApiEndpoint.GET_REALM, GET_REALM_BUDGET_MILLIS);
+    return budgetMillisByEndpoint;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Strategies for selecting the {@link RealmServiceNode} to which a request is sent, from those available.
+ */
+// package-protected
+enum LoadBalancingStrategy {
+
+  /**
+   * Select each node in turn.
+   */
+  ROUND_ROBIN {
+    @Override
+    RealmServiceNode select(List<RealmServiceNode> nodes, AtomicLong sequence) {
+      return nodes.get((int) Math.floorMod(sequence.getAndIncrement(), (long) nodes.size()));
+    }
+  },
+
+  /**
+   * Select the node with the fewest outstanding (in-flight) requests, breaking ties in turn. Requires knowledge of the
+   * load on every node.
+   */
+  LEAST_OUTSTANDING_REQUESTS {
+    @Override
+    RealmServiceNode select(List<RealmServiceNode> nodes, AtomicLong sequence) {
+      final int offset = (int) Math.floorMod(sequence.getAndIncrement(), (long) nodes.size());
+      RealmServiceNode selected = null;
+      for (int i = 0; i < nodes.size(); i++) {
+        RealmServiceNode candidate = nodes.get((offset + i) % nodes.size());
+        if (selected == null || candidate.getOutstandingRequests() < selected.getOutstandingRequests()) {
+          selected = candidate;
+        }
+      }
+      return selected;
+    }
+  },
+
+  /**
+   * Select two nodes at random, and then the one of those with the fewest outstanding requests. Achieves most of the
+   * benefit of {@link #LEAST_OUTSTANDING_REQUESTS} whilst only comparing two nodes, and avoids all clients herding to
+   * the same, least loaded node.
+   */
+  POWER_OF_TWO_CHOICES {
+    @Override
+    RealmServiceNode select(List<RealmServiceNode> nodes, AtomicLong sequence) {
+      if (nodes.size() == 1) {
+        return nodes.get(0);
+      }
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final int first = random.nextInt(nodes.size());
+      final int second = (first + 1 + random.nextInt(nodes.size() - 1)) % nodes.size();
+      RealmServiceNode firstNode = nodes.get(first);
+      RealmServiceNode secondNode = nodes.get(second);
+      return secondNode.getOutstandingRequests() < firstNode.getOutstandingRequests() ? secondNode : firstNode;
+    }
+  };
+
+  /**
+   * Selects the node to which a request should be sent.
+   *
+   * @param nodes The available nodes. Not empty.
+   * @param sequence A sequence number, shared by all selections made by the load balancer, supporting strategies which
+   * take turns.
+   * @return The selected node.
+   */
+  abstract RealmServiceNode select(List<RealmServiceNode> nodes, AtomicLong sequence);
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A custom Java Flight Recorder (JFR) event recording the execution of a single Realm API call made by the tests.
+ * <p>
+ * The duration of the event spans the full HTTP exchange, as seen by the client, allowing API calls to be correlated
+ * with other events in the same recording, such as GC pauses, safepoints and lock contention.
+ */
+@Name(RealmApiCallEvent.NAME)
+@Label("Realm API Call")
+@Description("An HTTP request made to a User service Realm API, and its response.")
+@Category({"User Service", "Realm API"})
+@StackTrace(false)
+// package-protected
+final class RealmApiCallEvent extends jdk.jfr.Event {
+
+  static final String NAME = "com.neiljbrown.service.user.RealmApiCall";
+
+  @Label("Endpoint")
+  @Description("The HTTP method and URL path template of the API, e.g. GET /user/realm/{realmId}.")
+  String endpoint;
+
+  @Label("Realm ID")
+  @Description("The ID of the realm which was the subject of the API call, if known.")
+  String realmId;
+
+  @Label("Status")
+  @Description("The HTTP status code of the response.")
+  int status;
+
+  @Label("Request Bytes")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Response Bytes")
+  @DataAmount
+  long responseBytes;
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Measures the client-side cost of Realm API calls - their latency, plus the bytes allocated and the CPU time consumed
+ * by the calling thread - and aggregates the measurements by {@link RealmApiEndpoint endpoint}.
+ * <p>
+ * Allocation and CPU time are measured using the JVM's per-thread counters (see
+ * {@link com.sun.management.ThreadMXBean}), so they only cover the whole of the client stack - request
+ * serialisation, the HTTP exchange, and the parsing and data-binding of the response - if the API call executes
+ * entirely on the calling thread, as it does when made using REST Assured. Some of the work of a call made using a
+ * non-blocking HTTP client is done by its I/O dispatch threads, and a call coalesced with another in flight is made by
+ * another thread, so the allocation and CPU time of such calls aren't measured - only their latency. They're reported
+ * as unmeasured, and excluded from the per-call allocation and CPU time. Safe for use by multiple threads.
+ */
+// package-protected
+final class RealmApiCallProfiler {
+
+  private static final RealmApiCallProfiler INSTANCE = new RealmApiCallProfiler();
+
+  private final com.sun.management.ThreadMXBean threadMXBean;
+  private final Map<RealmApiEndpoint, EndpointStats> statsByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+
+  RealmApiCallProfiler() {
+    this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (this.threadMXBean.isThreadAllocatedMemorySupported()) {
+      this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+    if (this.threadMXBean.isThreadCpuTimeSupported()) {
+      this.threadMXBean.setThreadCpuTimeEnabled(true);
+    }
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      this.statsByEndpoint.put(endpoint, new EndpointStats());
+    }
+  }
+
+  /**
+   * @return The profiler shared by all tests running in this JVM.
+   */
+  static RealmApiCallProfiler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Executes and profiles an API call.
+   *
+   * @param endpoint The {@link RealmApiEndpoint} invoked by the API call.
+   * @param callingThreadOnly Whether the API call executed entirely on the calling thread, evaluated once it has
+   * completed. If not, only its latency is recorded.
+   * @param apiCall The API call.
+   * @param <T> The type of result returned by the API call.
+   * @return The result of the API call.
+   */
+  <T> T profile(RealmApiEndpoint endpoint, BooleanSupplier callingThreadOnly, Supplier<T> apiCall) {
+    final long threadId = Thread.currentThread().getId();
+    final long startAllocatedBytes = this.threadMXBean.getThreadAllocatedBytes(threadId);
+    final long startCpuTimeNanos = this.threadMXBean.getCurrentThreadCpuTime();
+    final long startNanos = System.nanoTime();
+    try {
+      return apiCall.get();
+    } finally {
+      final long latencyNanos = System.nanoTime() - startNanos;
+      if (callingThreadOnly.getAsBoolean()) {
+        this.statsByEndpoint.get(endpoint).record(latencyNanos,
+          this.threadMXBean.getThreadAllocatedBytes(threadId) - startAllocatedBytes,
+          this.threadMXBean.getCurrentThreadCpuTime() - startCpuTimeNanos);
+      } else {
+        this.statsByEndpoint.get(endpoint).recordUnmeasured(latencyNanos);
+      }
+    }
+  }
+
+  /**
+   * @return {@code true} if one or more API calls have been profiled since this profiler was last reset.
+   */
+  boolean hasProfiledCalls() {
+    return this.statsByEndpoint.values().stream().anyMatch(stats -> stats.calls.sum() > 0);
+  }
+
+  /**
+   * @return A tabular report of the per-call cost of the API calls profiled, by endpoint. The allocation and CPU time
+   * per call are of the calls which were measured, and are 'n/a' if none were.
+   */
+  String report() {
+    StringBuilder report = new StringBuilder(String.format("%-30s %8s %10s %12s %12s %14s %12s%n", "Endpoint", "Calls",
+      "Unmeasured", "Mean (ms)", "Max (ms)", "Alloc/call(KB)", "CPU/call(ms)"));
+    this.statsByEndpoint.forEach((endpoint, stats) -> {
+      long calls = stats.calls.sum();
+      if (calls > 0) {
+        long measuredCalls = calls - stats.unmeasuredCalls.sum();
+        report.append(String.format("%-30s %8d %10d %12.2f %12.2f %14s %12s%n", endpoint, calls, calls - measuredCalls,
+          toMillis(stats.latencyNanos.sum()) / calls, toMillis(stats.maxLatencyNanos.get()),
+          measuredCalls > 0 ? String.format("%.1f", stats.allocatedBytes.sum() / 1024.0 / measuredCalls) : "n/a",
+          measuredCalls > 0 ? String.format("%.2f", toMillis(stats.cpuTimeNanos.sum()) / measuredCalls) : "n/a"));
+      }
+    });
+    return report.toString();
+  }
+
+  /**
+   * Discards all measurements.
+   */
+  void reset() {
+    this.statsByEndpoint.values().forEach(EndpointStats::reset);
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Aggregated measurements of the API calls made to an endpoint.
+   */
+  private static final class EndpointStats {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder unmeasuredCalls = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder cpuTimeNanos = new LongAdder();
+
+    private void record(long latencyNanos, long allocatedBytes, long cpuTimeNanos) {
+      this.calls.increment();
+      this.latencyNanos.add(latencyNanos);
+      this.maxLatencyNanos.accumulate(latencyNanos);
+      this.allocatedBytes.add(allocatedBytes);
+      this.cpuTimeNanos.add(cpuTimeNanos);
+    }
+
+    private void recordUnmeasured(long latencyNanos) {
+      this.calls.increment();
+      this.unmeasuredCalls.increment();
+      this.latencyNanos.add(latencyNanos);
+      this.maxLatencyNanos.accumulate(latencyNanos);
+    }
+
+    private void reset() {
+      this.calls.reset();
+      this.unmeasuredCalls.reset();
+      this.latencyNanos.reset();
+      this.maxLatencyNanos.reset();
+      this.allocatedBytes.reset();
+      this.cpuTimeNanos.reset();
+    }
+  }
+}
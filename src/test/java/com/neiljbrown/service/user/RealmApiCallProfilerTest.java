@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RealmApiCallProfiler}.
+ */
+public class RealmApiCallProfilerTest {
+
+  private static final int ALLOCATION_BYTES = 1024 * 1024;
+
+  private final RealmApiCallProfiler profiler = new RealmApiCallProfiler();
+
+  /**
+   * Tests that API calls which execute entirely on the calling thread are recorded against their endpoint, with their
+   * allocation and CPU time measured, and that endpoints which weren't called aren't reported.
+   */
+  @Test
+  public void givenCallingThreadOnlyCallsThenMeasuredPerEndpoint() {
+    for (int i = 0; i < 2; i++) {
+      assertThat(this.profiler.profile(RealmApiEndpoint.GET_REALM, () -> true, () -> new byte[ALLOCATION_BYTES]))
+        .hasSize(ALLOCATION_BYTES);
+    }
+    this.profiler.profile(RealmApiEndpoint.CREATE_REALM, () -> true, () -> null);
+
+    assertThat(this.profiler.hasProfiledCalls()).isTrue();
+    final String report = this.profiler.report();
+    final String[] getRealmStats = endpointStats(report, RealmApiEndpoint.GET_REALM);
+    assertThat(getRealmStats[0]).as("Calls").isEqualTo("2");
+    assertThat(getRealmStats[1]).as("Unmeasured calls").isEqualTo("0");
+    assertThat(Double.parseDouble(getRealmStats[4])).as("Alloc/call (KB)").isGreaterThanOrEqualTo(
+      ALLOCATION_BYTES / 1024.0);
+    assertThat(getRealmStats[5]).as("CPU/call (ms)").isNotEqualTo("n/a");
+    final String[] createRealmStats = endpointStats(report, RealmApiEndpoint.CREATE_REALM);
+    assertThat(createRealmStats[0]).as("Calls").isEqualTo("1");
+    assertThat(createRealmStats[1]).as("Unmeasured calls").isEqualTo("0");
+    assertThat(report).doesNotContain(RealmApiEndpoint.DELETE_REALM.toString());
+  }
+
+  /**
+   * Tests that API calls which don't execute entirely on the calling thread have only their latency recorded, and are
+   * reported as unmeasured, with no allocation or CPU time per call unless some calls to the endpoint were measured.
+   */
+  @Test
+  public void givenCallsNotOnCallingThreadOnlyThenReportedAsUnmeasured() {
+    this.profiler.profile(RealmApiEndpoint.GET_REALM, () -> false, () -> new byte[ALLOCATION_BYTES]);
+    this.profiler.profile(RealmApiEndpoint.GET_REALMS, () -> true, () -> null);
+    this.profiler.profile(RealmApiEndpoint.GET_REALMS, () -> false, () -> null);
+
+    final String report = this.profiler.report();
+    final String[] getRealmStats = endpointStats(report, RealmApiEndpoint.GET_REALM);
+    assertThat(getRealmStats[0]).as("Calls").isEqualTo("1");
+    assertThat(getRealmStats[1]).as("Unmeasured calls").isEqualTo("1");
+    assertThat(getRealmStats[4]).as("Alloc/call (KB)").isEqualTo("n/a");
+    assertThat(getRealmStats[5]).as("CPU/call (ms)").isEqualTo("n/a");
+    final String[] getRealmsStats = endpointStats(report, RealmApiEndpoint.GET_REALMS);
+    assertThat(getRealmsStats[0]).as("Calls").isEqualTo("2");
+    assertThat(getRealmsStats[1]).as("Unmeasured calls").isEqualTo("1");
+    assertThat(getRealmsStats[4]).as("Alloc/call (KB)").isNotEqualTo("n/a");
+  }
+
+  /**
+   * Tests that resetting the profiler discards all its measurements.
+   */
+  @Test
+  public void givenProfiledCallsWhenResetThenNoneReported() {
+    this.profiler.profile(RealmApiEndpoint.GET_REALM, () -> true, () -> null);
+
+    this.profiler.reset();
+
+    assertThat(this.profiler.hasProfiledCalls()).isFalse();
+    assertThat(this.profiler.report()).doesNotContain(RealmApiEndpoint.GET_REALM.toString());
+  }
+
+  /**
+   * @return The columns of the supplied report's row for the supplied endpoint, following the endpoint - the calls,
+   * unmeasured calls, mean and max latency, and allocation and CPU time per call.
+   */
+  private static String[] endpointStats(String report, RealmApiEndpoint endpoint) {
+    final String endpointName = endpoint.toString();
+    final String row = Arrays.stream(report.split(System.lineSeparator()))
+      .filter(line -> line.startsWith(endpointName + " "))
+      .findFirst()
+      .orElseThrow(() -> new AssertionError("No row for endpoint [" + endpointName + "] in report [" + report + "]."));
+    return row.substring(endpointName.length()).trim().split("\\s+");
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A capacity-finding test of the Create and Get Realm APIs, which uses a {@link CapacityRamp} to step up the number of
+ * concurrent clients until the latency or error rate of either API breaches its configured SLO, and then reports the
+ * knee of the throughput/latency curve and the max sustainable rate.
+ * <p>
+ * Each client repeatedly creates a realm and then gets it, using the same helper methods as the functional tests, and
+ * then deletes it (unmeasured), so that the number of realms remains bounded. Runs against the
+ * {@link RealmServiceStandIn in-memory stand-in} for the APIs.
+ * <p>
+ * Disabled by default. Enable by setting the property 'capacityTestEnabled' to true. See application.properties for the
+ * other properties which configure the test. It's recommended that 'alwaysLogApiRequestAndResponse' is set to false,
+ * and that 'wireMockRequestJournal' is set to bounded or disabled.
+ */
+public class RealmApiCapacityTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiCapacityTest.class);
+
+  private static final String CAPACITY_TEST_ENABLED_PROPERTY = "capacityTestEnabled";
+  private static final String CAPACITY_TEST_INITIAL_CONCURRENCY_PROPERTY = "capacityTestInitialConcurrency";
+  private static final String CAPACITY_TEST_CONCURRENCY_INCREMENT_PROPERTY = "capacityTestConcurrencyIncrement";
+  private static final String CAPACITY_TEST_MAX_CONCURRENCY_PROPERTY = "capacityTestMaxConcurrency";
+  private static final String CAPACITY_TEST_WARM_UP_SECONDS_PROPERTY = "capacityTestWarmUpSeconds";
+  private static final String CAPACITY_TEST_STEP_DURATION_SECONDS_PROPERTY = "capacityTestStepDurationSeconds";
+  private static final String CAPACITY_TEST_SLO_P99_LATENCY_MILLIS_PROPERTY = "capacityTestSloP99LatencyMillis";
+  private static final String CAPACITY_TEST_SLO_MAX_ERROR_RATE_PROPERTY = "capacityTestSloMaxErrorRate";
+
+  public RealmApiCapacityTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("Capacity test is disabled.", this.config.getBoolean(CAPACITY_TEST_ENABLED_PROPERTY, Boolean.FALSE));
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  /**
+   * Ramps up the concurrency of Create and Get Realm API calls until an SLO is breached, and reports the capacity of
+   * the APIs. Fails only if the SLOs can't be met at the initial concurrency.
+   */
+  @Test
+  public void findCapacityOfCreateAndGetRealm() throws Exception {
+    CapacityRamp ramp = new CapacityRamp(
+      this.config.getInt(CAPACITY_TEST_INITIAL_CONCURRENCY_PROPERTY, 1),
+      this.config.getInt(CAPACITY_TEST_CONCURRENCY_INCREMENT_PROPERTY, 2),
+      this.config.getInt(CAPACITY_TEST_MAX_CONCURRENCY_PROPERTY, 64),
+      Duration.ofSeconds(this.config.getLong(CAPACITY_TEST_STEP_DURATION_SECONDS_PROPERTY, 20L)),
+      this.config.getLong(CAPACITY_TEST_SLO_P99_LATENCY_MILLIS_PROPERTY, 500L),
+      this.config.getDouble(CAPACITY_TEST_SLO_MAX_ERROR_RATE_PROPERTY, 0.01),
+      EnumSet.of(RealmApiEndpoint.CREATE_REALM, RealmApiEndpoint.GET_REALM));
+
+    List<CapacityRamp.Step> steps = ramp.run(
+      Duration.ofSeconds(this.config.getLong(CAPACITY_TEST_WARM_UP_SECONDS_PROPERTY, 10L)), this::createAndGetRealm);
+
+    logger.info("Capacity of Create and Get Realm APIs -{}{}", System.lineSeparator(), ramp.report(steps));
+    assertThat(ramp.getMaxSustainableStep(steps)).as("Step meeting SLOs").isNotNull();
+  }
+
+  private void createAndGetRealm(RealmLoadResult result) {
+    final UserRealmDto createdRealm = measure(RealmApiEndpoint.CREATE_REALM, result, () ->
+      createRealmResource(new UserRealmDto(generateUniqueRealmName(), generateRealmDescription())));
+    if (createdRealm == null) {
+      return;
+    }
+    measure(RealmApiEndpoint.GET_REALM, result, () -> getRealmResource(createdRealm.getId()));
+    tearDownCreatedRealm(createdRealm);
+  }
+
+  /**
+   * Makes an API call using one of the helper methods, recording its latency, and whether it failed, i.e. the helper
+   * threw an exception or assertion error.
+   *
+   * @return The result of the API call, or null if it failed.
+   */
+  private static <T> T measure(RealmApiEndpoint endpoint, RealmLoadResult result, Supplier<T> apiCall) {
+    final long startNanos = System.nanoTime();
+    T value = null;
+    try {
+      value = apiCall.get();
+    } catch (RuntimeException | AssertionError e) {
+      logger.debug("API call to endpoint [{}] failed. Cause [{}].", endpoint, e.toString());
+    }
+    result.record(endpoint, System.nanoTime() - startNanos, value == null);
+    return value;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.lang3.StringUtils;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A data-scale test of the Realm APIs, which measures how the latency of the Create, Get and Delete Realm APIs varies
+ * with the number of realms which exist, up to the max ({@link UserRealmConstants#ID_MAX}), when the realm ID space is
+ * full. Detects behaviour which degrades as the ID space fills, such as allocating a free ID or checking for duplicate
+ * names.
+ * <p>
+ * For each of the configured, increasing realm counts, the service is first populated with realms, created in parallel
+ * using a {@link RealmFixtureLoader}. Each API is then measured at that realm count by repeatedly deleting a randomly
+ * selected realm, creating a new realm in its place (so the realm count stays constant, and creation must find the ID
+ * which was freed), and getting a randomly selected realm. The latency percentiles of each API at each realm count are
+ * reported, charted, and written to a CSV file. The test fails if any API call fails, or if the p99 latency of any API
+ * at the largest realm count exceeds that at the smallest by more than the configured factor. All created realms are
+ * deleted when the test completes.
+ * <p>
+ * By default runs against the {@link RealmServiceStandIn in-memory stand-in} for the APIs. Set property
+ * 'dataScaleTestBaseUri' to run against a deployed User service instead, which should have no existing realms.
+ * <p>
+ * Disabled by default. Enable by setting the property 'dataScaleTestEnabled' to true. See application.properties for
+ * the other properties which configure the test.
+ */
+public class RealmApiDataScaleTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiDataScaleTest.class);
+
+  private static final String DATA_SCALE_TEST_ENABLED_PROPERTY = "dataScaleTestEnabled";
+  private static final String DATA_SCALE_TEST_BASE_URI_PROPERTY = "dataScaleTestBaseUri";
+  private static final String DATA_SCALE_TEST_REALM_COUNTS_PROPERTY = "dataScaleTestRealmCounts";
+  private static final String DATA_SCALE_TEST_FIXTURE_THREADS_PROPERTY = "dataScaleTestFixtureThreads";
+  private static final String DATA_SCALE_TEST_SAMPLES_PROPERTY = "dataScaleTestSamples";
+  private static final String DATA_SCALE_TEST_MAX_P99_LATENCY_GROWTH_FACTOR_PROPERTY =
+    "dataScaleTestMaxP99LatencyGrowthFactor";
+  private static final String DATA_SCALE_TEST_OUTPUT_DIR_PROPERTY = "dataScaleTestOutputDir";
+
+  private static final Set<RealmApiEndpoint> MEASURED_ENDPOINTS = EnumSet.of(RealmApiEndpoint.CREATE_REALM,
+    RealmApiEndpoint.GET_REALM, RealmApiEndpoint.DELETE_REALM);
+  private static final int CHART_WIDTH = 60;
+
+  private RealmFixtureLoader fixtureLoader;
+  private final List<CompactUserRealm> realms = new ArrayList<>();
+
+  public RealmApiDataScaleTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("Data-scale test is disabled.", this.config.getBoolean(DATA_SCALE_TEST_ENABLED_PROPERTY, Boolean.FALSE));
+    super.setUp();
+    stubRealmServiceStandIn();
+    final String configuredBaseUri = this.config.getString(DATA_SCALE_TEST_BASE_URI_PROPERTY, "");
+    this.fixtureLoader = new RealmFixtureLoader(
+      URI.create(StringUtils.isBlank(configuredBaseUri) ? "http://localhost:" + this.wireMockRule.port() :
+        configuredBaseUri),
+      this.config.getInt(DATA_SCALE_TEST_FIXTURE_THREADS_PROPERTY, 16));
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    if (this.fixtureLoader != null) {
+      try {
+        final int deleted = this.fixtureLoader.deleteRealms(this.realms);
+        logger.info("Deleted [{}] of [{}] realms.", deleted, this.realms.size());
+        this.fixtureLoader.close();
+      } catch (InterruptedException | IOException e) {
+        logger.error("Error tearing down realms. Cause [{}]. Continuing...", e.toString(), e);
+      }
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Measures the latency of the Create, Get and Delete Realm APIs at each of the configured realm counts.
+   */
+  @Test
+  public void measureLatencyVersusRealmCount() throws Exception {
+    final int samples = this.config.getInt(DATA_SCALE_TEST_SAMPLES_PROPERTY, 1000);
+    final Map<Integer, RealmLoadResult> resultsByRealmCount = new LinkedHashMap<>();
+    for (String configuredRealmCount : StringUtils.split(
+      this.config.getString(DATA_SCALE_TEST_REALM_COUNTS_PROPERTY, "1000,5000,9999"), ',')) {
+      final int realmCount = Math.min(Integer.parseInt(configuredRealmCount.trim()), UserRealmConstants.ID_MAX);
+      this.realms.addAll(this.fixtureLoader.createRealms(realmCount - this.realms.size()));
+      assertThat(this.realms).as("Realms created as fixtures").hasSize(realmCount);
+
+      // Warm up, unmeasured, then measure
+      measure(samples / 10, new RealmLoadResult());
+      final RealmLoadResult result = new RealmLoadResult();
+      final long startNanos = System.nanoTime();
+      measure(samples, result);
+      result.setElapsedNanos(System.nanoTime() - startNanos);
+      resultsByRealmCount.put(realmCount, result);
+      logger.info("Latency of Realm APIs with [{}] realms -{}{}", realmCount, System.lineSeparator(),
+        result.report());
+    }
+
+    logger.info("Latency of Realm APIs versus realm count -{}{}", System.lineSeparator(),
+      chart(resultsByRealmCount));
+    final Path csvFile = writeCsv(resultsByRealmCount,
+      Paths.get(this.config.getString(DATA_SCALE_TEST_OUTPUT_DIR_PROPERTY, "build/data-scale-test")));
+    logger.info("Wrote latency versus realm count to [{}].", csvFile);
+    assertLatencyScales(resultsByRealmCount);
+  }
+
+  /**
+   * Measures the specified number of cycles of deleting a random realm, creating a new realm in its place, and getting
+   * a random realm.
+   */
+  private void measure(int cycles, RealmLoadResult result) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < cycles; i++) {
+      final int replacedIndex = random.nextInt(this.realms.size());
+      long startNanos = System.nanoTime();
+      final boolean deleted = this.fixtureLoader.deleteRealm(this.realms.get(replacedIndex).getId());
+      result.record(RealmApiEndpoint.DELETE_REALM, System.nanoTime() - startNanos, !deleted);
+
+      startNanos = System.nanoTime();
+      final CompactUserRealm createdRealm = this.fixtureLoader.createRealm(CompactUserRealm.of(
+        generateUniqueRealmName(), generateRealmDescription()));
+      result.record(RealmApiEndpoint.CREATE_REALM, System.nanoTime() - startNanos, createdRealm == null);
+      if (createdRealm != null) {
+        this.realms.set(replacedIndex, createdRealm);
+      } else if (deleted) {
+        this.realms.remove(replacedIndex);
+      }
+
+      final CompactUserRealm realmToGet = this.realms.get(random.nextInt(this.realms.size()));
+      startNanos = System.nanoTime();
+      final boolean got = this.fixtureLoader.getRealm(realmToGet.getId());
+      result.record(RealmApiEndpoint.GET_REALM, System.nanoTime() - startNanos, !got);
+    }
+  }
+
+  private void assertLatencyScales(Map<Integer, RealmLoadResult> resultsByRealmCount) {
+    final double maxGrowthFactor = this.config.getDouble(DATA_SCALE_TEST_MAX_P99_LATENCY_GROWTH_FACTOR_PROPERTY, 10.0);
+    final List<Integer> realmCounts = new ArrayList<>(resultsByRealmCount.keySet());
+    final RealmLoadResult smallest = resultsByRealmCount.get(realmCounts.get(0));
+    final RealmLoadResult largest = resultsByRealmCount.get(realmCounts.get(realmCounts.size() - 1));
+    SoftAssertions softly = new SoftAssertions();
+    for (RealmApiEndpoint endpoint : MEASURED_ENDPOINTS) {
+      resultsByRealmCount.forEach((realmCount, result) ->
+        softly.assertThat(result.getErrors(endpoint)).as("Errors from [%s] with [%d] realms", endpoint, realmCount)
+          .isZero());
+      softly.assertThat(largest.getLatencyMicros(endpoint).getValueAtPercentile(99))
+        .as("p99 latency (us) of [%s] with [%d] versus [%d] realms", endpoint, realmCounts.get(realmCounts.size() - 1),
+          realmCounts.get(0))
+        .isLessThanOrEqualTo((long) (smallest.getLatencyMicros(endpoint).getValueAtPercentile(99) * maxGrowthFactor));
+    }
+    softly.assertAll();
+  }
+
+  /**
+   * @return A text bar chart of the p50 and p99 latency of each endpoint at each realm count.
+   */
+  private static String chart(Map<Integer, RealmLoadResult> resultsByRealmCount) {
+    long maxP99Micros = 1;
+    for (RealmLoadResult result : resultsByRealmCount.values()) {
+      for (RealmApiEndpoint endpoint : MEASURED_ENDPOINTS) {
+        maxP99Micros = Math.max(maxP99Micros, result.getLatencyMicros(endpoint).getValueAtPercentile(99));
+      }
+    }
+    StringBuilder chart = new StringBuilder(String.format("Scale - '#' p50, '-' p99, full width [%.2f ms]%n",
+      maxP99Micros / 1000.0));
+    for (RealmApiEndpoint endpoint : MEASURED_ENDPOINTS) {
+      chart.append(endpoint).append(System.lineSeparator());
+      for (Map.Entry<Integer, RealmLoadResult> entry : resultsByRealmCount.entrySet()) {
+        final Histogram latencyMicros = entry.getValue().getLatencyMicros(endpoint);
+        final int p50Width = (int) (CHART_WIDTH * latencyMicros.getValueAtPercentile(50) / maxP99Micros);
+        final int p99Width = (int) (CHART_WIDTH * latencyMicros.getValueAtPercentile(99) / maxP99Micros);
+        chart.append(String.format("  %6d realms |%s%s %.2f / %.2f ms%n", entry.getKey(),
+          StringUtils.repeat('#', p50Width), StringUtils.repeat('-', Math.max(0, p99Width - p50Width)),
+          latencyMicros.getValueAtPercentile(50) / 1000.0, latencyMicros.getValueAtPercentile(99) / 1000.0));
+      }
+    }
+    return chart.toString();
+  }
+
+  /**
+   * Writes the latency percentiles of each endpoint at each realm count to a CSV file, for charting.
+   *
+   * @return The path of the written file.
+   */
+  private static Path writeCsv(Map<Integer, RealmLoadResult> resultsByRealmCount, Path outputDir)
+    throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("realmCount,endpoint,calls,errors,p50Ms,p90Ms,p99Ms,maxMs");
+    resultsByRealmCount.forEach((realmCount, result) -> {
+      for (RealmApiEndpoint endpoint : MEASURED_ENDPOINTS) {
+        final Histogram latencyMicros = result.getLatencyMicros(endpoint);
+        lines.add(String.format("%d,%s,%d,%d,%.3f,%.3f,%.3f,%.3f", realmCount, endpoint.name(),
+          result.getCalls(endpoint), result.getErrors(endpoint), latencyMicros.getValueAtPercentile(50) / 1000.0,
+          latencyMicros.getValueAtPercentile(90) / 1000.0, latencyMicros.getValueAtPercentile(99) / 1000.0,
+          latencyMicros.getMaxValue() / 1000.0));
+      }
+    });
+    Files.createDirectories(outputDir);
+    return Files.write(outputDir.resolve("latency-by-realm-count.csv"), lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
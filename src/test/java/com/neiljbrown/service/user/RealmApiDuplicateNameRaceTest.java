@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A test of the Create Realm API's handling of concurrent requests to create realms with the same name, as happens
+ * during bursts of tenant onboarding. Complements {@link CreateRealmApiTest#givenUserRealmWithDuplicateName()}, which
+ * only tests duplicate names sent sequentially.
+ * <p>
+ * For each of a configurable number of unique names, fires a configurable number of Create Realm requests for that
+ * name, all released simultaneously (across all names) from a start gate, using a {@link RealmApiHttpClient}. For
+ * each name, asserts that exactly one request created the realm (201 Created), that all the others were rejected as
+ * duplicates (400 Bad Request, error code DuplicateRealmName), and that the realm then exists with the winning
+ * request's ID. The latency of the winning and rejected requests under contention is reported.
+ * <p>
+ * The test also checks that a request which loses the race never stores a realm which is visible, even briefly. While
+ * the race runs, the realms whose IDs may be allocated by the requests are repeatedly got, using the Get Realms API,
+ * recording those which are readable. As the window in which such a realm would be visible is short, it's also checked
+ * that no losing request is allocated an ID at all - as the stand-in allocates IDs sequentially, the winning requests
+ * must then have the first IDs. These checks are only made against the stand-in, as the IDs a deployed service will
+ * allocate aren't known in advance.
+ * <p>
+ * By default runs against the {@link RealmServiceStandIn in-memory stand-in} for the APIs, which detects duplicate
+ * names atomically. Set property 'duplicateNameRaceTestBaseUri' to run against a deployed User service instead.
+ */
+public class RealmApiDuplicateNameRaceTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiDuplicateNameRaceTest.class);
+
+  private static final String RACE_TEST_BASE_URI_PROPERTY = "duplicateNameRaceTestBaseUri";
+  private static final String RACE_TEST_NAMES_PROPERTY = "duplicateNameRaceTestNames";
+  private static final String RACE_TEST_CLIENTS_PER_NAME_PROPERTY = "duplicateNameRaceTestClientsPerName";
+
+  private static final Pattern ERROR_CODE_PATTERN = Pattern.compile("<code>(\\w+)</code>");
+
+  private RealmFixtureLoader fixtureLoader;
+  private URI baseUri;
+  private boolean againstStandIn;
+  private final List<CompactUserRealm> createdRealms = new ArrayList<>();
+
+  public RealmApiDuplicateNameRaceTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+    final String configuredBaseUri = this.config.getString(RACE_TEST_BASE_URI_PROPERTY, "");
+    this.baseUri = URI.create(StringUtils.isBlank(configuredBaseUri) ? "http://localhost:" + this.wireMockRule.port() :
+      configuredBaseUri);
+    // The stand-in allocates IDs sequentially from the min ID, so the IDs the race may allocate are known
+    this.againstStandIn = StringUtils.isBlank(configuredBaseUri);
+    this.fixtureLoader = new RealmFixtureLoader(this.baseUri, 4);
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    if (this.fixtureLoader != null) {
+      try {
+        this.fixtureLoader.deleteRealms(this.createdRealms);
+        this.fixtureLoader.close();
+      } catch (InterruptedException | IOException e) {
+        logger.error("Error tearing down realms. Cause [{}]. Continuing...", e.toString(), e);
+      }
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Tests the case when many clients simultaneously create a realm with the same name, for many names at once.
+   */
+  @Test
+  public void givenConcurrentCreatesOfSameName() throws Exception {
+    final int names = this.config.getInt(RACE_TEST_NAMES_PROPERTY, 10);
+    final int clientsPerName = this.config.getInt(RACE_TEST_CLIENTS_PER_NAME_PROPERTY, 16);
+    final List<CompactUserRealm> realms = new ArrayList<>(names);
+    for (int i = 0; i < names; i++) {
+      realms.add(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()));
+    }
+
+    final Map<String, Set<String>> readableRealmIdsByName = new ConcurrentHashMap<>();
+    final List<List<Outcome>> outcomesByName = race(realms, clientsPerName, readableRealmIdsByName);
+
+    final Histogram createdLatencyMicros = new Histogram(3);
+    final Histogram rejectedLatencyMicros = new Histogram(3);
+    final Set<Integer> createdRealmIds = new TreeSet<>();
+    SoftAssertions softly = new SoftAssertions();
+    for (int i = 0; i < names; i++) {
+      final String realmName = realms.get(i).getName();
+      Outcome created = null;
+      for (Outcome outcome : outcomesByName.get(i)) {
+        if (outcome.status == HttpStatus.SC_CREATED) {
+          softly.assertThat(created).as("Second realm created with name [%s]", realmName).isNull();
+          created = outcome;
+          createdLatencyMicros.recordValue(outcome.latencyMicros);
+        } else {
+          softly.assertThat(outcome.status).as("Status of rejected create of name [%s]", realmName)
+            .isEqualTo(HttpStatus.SC_BAD_REQUEST);
+          softly.assertThat(outcome.errorCode).as("Error code of rejected create of name [%s]", realmName)
+            .isEqualTo("DuplicateRealmName");
+          rejectedLatencyMicros.recordValue(outcome.latencyMicros);
+        }
+      }
+      softly.assertThat(created).as("Realm created with name [%s]", realmName).isNotNull();
+      if (created != null) {
+        this.createdRealms.add(created.createdRealm);
+        createdRealmIds.add(created.createdRealm.getId());
+        softly.assertThat(this.fixtureLoader.getRealm(created.createdRealm.getId()))
+          .as("Realm [%s] with name [%s] exists", created.createdRealm.getId(), realmName).isTrue();
+        softly.assertThat(readableRealmIdsByName.getOrDefault(realmName, Collections.emptySet()))
+          .as("IDs of realms with name [%s] readable during race", realmName)
+          .isSubsetOf(Integer.toString(created.createdRealm.getId()));
+      }
+    }
+    if (this.againstStandIn) {
+      softly.assertThat(createdRealmIds).as("IDs of created realms, if no losing request was allocated an ID")
+        .containsExactlyElementsOf(IntStream.range(UserRealmConstants.ID_MIN, UserRealmConstants.ID_MIN + names)
+          .boxed().collect(Collectors.toList()));
+    }
+    logger.info("Latency of [{}] concurrent creates of each of [{}] names -{}{}{}{}", clientsPerName, names,
+      System.lineSeparator(), formatLatency("Created (201)", createdLatencyMicros), System.lineSeparator(),
+      formatLatency("Duplicate (400)", rejectedLatencyMicros));
+    softly.assertAll();
+  }
+
+  /**
+   * Fires the specified number of Create Realm requests for each of the supplied realms, releasing them all at once.
+   * If running against the stand-in, polls the realms whose IDs may be allocated by the requests until they've all
+   * completed.
+   *
+   * @param readableRealmIdsByName Populated with the IDs of the realms found by polling, keyed by realm name.
+   * @return The outcomes of the requests, by the index of the realm.
+   */
+  private List<List<Outcome>> race(List<CompactUserRealm> realms, int clientsPerName,
+    Map<String, Set<String>> readableRealmIdsByName) throws Exception {
+    final int clients = realms.size() * clientsPerName;
+    final CountDownLatch ready = new CountDownLatch(clients);
+    final CountDownLatch startGate = new CountDownLatch(1);
+    final AtomicBoolean raceOver = new AtomicBoolean();
+    final ExecutorService executor = Executors.newFixedThreadPool(clients + 1);
+    try (RealmApiHttpClient httpClient = new RealmApiHttpClient(this.baseUri, clients + 1)) {
+      final Future<Integer> polls = this.againstStandIn ? executor.submit(() -> {
+        startGate.await();
+        return pollRealms(httpClient, clients, raceOver, readableRealmIdsByName);
+      }) : null;
+      List<List<Future<Outcome>>> futuresByName = new ArrayList<>();
+      for (CompactUserRealm realm : realms) {
+        List<Future<Outcome>> futures = new ArrayList<>();
+        for (int i = 0; i < clientsPerName; i++) {
+          futures.add(executor.submit(() -> {
+            ready.countDown();
+            startGate.await();
+            return createRealm(httpClient, realm);
+          }));
+        }
+        futuresByName.add(futures);
+      }
+      ready.await();
+      startGate.countDown();
+
+      List<List<Outcome>> outcomesByName = new ArrayList<>();
+      for (List<Future<Outcome>> futures : futuresByName) {
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Future<Outcome> future : futures) {
+          outcomes.add(future.get());
+        }
+        outcomesByName.add(outcomes);
+      }
+      raceOver.set(true);
+      if (polls != null) {
+        logger.info("Polled realms [{}] times during race.", polls.get());
+      }
+      return outcomesByName;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Outcome createRealm(RealmApiHttpClient httpClient, CompactUserRealm realm) throws IOException {
+    final HttpPost request = httpClient.createRealmRequest(realm.toXmlBytes());
+    final long startNanos = System.nanoTime();
+    final RealmApiHttpClient.Response response = httpClient.execute(request);
+    return new Outcome(response, (System.nanoTime() - startNanos) / 1000);
+  }
+
+  /**
+   * Repeatedly gets the realms with the specified number of IDs from the min ID, using the Get Realms API, until the
+   * race is over, recording the ID of each realm which is found.
+   *
+   * @return The number of times the realms were polled.
+   */
+  private static int pollRealms(RealmApiHttpClient httpClient, int realmIds, AtomicBoolean raceOver,
+    Map<String, Set<String>> readableRealmIdsByName) throws IOException {
+    int polls = 0;
+    do {
+      for (int fromId = UserRealmConstants.ID_MIN; fromId < UserRealmConstants.ID_MIN + realmIds;
+        fromId += UserRealmApiConstants.GET_REALMS_MAX_IDS) {
+        final List<String> ids = IntStream.range(fromId, Math.min(fromId + UserRealmApiConstants.GET_REALMS_MAX_IDS,
+          UserRealmConstants.ID_MIN + realmIds)).mapToObj(Integer::toString).collect(Collectors.toList());
+        final RealmApiHttpClient.Response response = httpClient.execute(httpClient.getRealmsRequest(ids));
+        for (UserRealmDto realm : UserRealmXmlCodec.decodeList(new StringReader(response.getBodyAsString())).values()) {
+          readableRealmIdsByName.computeIfAbsent(realm.getName(), name -> ConcurrentHashMap.newKeySet())
+            .add(realm.getId());
+        }
+      }
+      polls++;
+    } while (!raceOver.get());
+    return polls;
+  }
+
+  private static String formatLatency(String outcome, Histogram latencyMicros) {
+    return String.format("%-16s count [%d], p50 [%.2f ms], p99 [%.2f ms], max [%.2f ms]", outcome,
+      latencyMicros.getTotalCount(), latencyMicros.getValueAtPercentile(50) / 1000.0,
+      latencyMicros.getValueAtPercentile(99) / 1000.0, latencyMicros.getMaxValue() / 1000.0);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+
+  /**
+   * The outcome of a Create Realm request.
+   */
+  private static final class Outcome {
+    private final int status;
+    private final String errorCode;
+    private final CompactUserRealm createdRealm;
+    private final long latencyMicros;
+
+    private Outcome(RealmApiHttpClient.Response response, long latencyMicros) {
+      this.status = response.getStatus();
+      final Matcher errorCode = ERROR_CODE_PATTERN.matcher(response.getBodyAsString());
+      this.errorCode = errorCode.find() ? errorCode.group(1) : null;
+      this.createdRealm = this.status == HttpStatus.SC_CREATED ? CompactUserRealm.from(
+        UserRealmXmlCodec.decode(response.getBody())) : null;
+      this.latencyMicros = latencyMicros;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.regex.Pattern;
+
+/**
+ * Enumeration of the User Realm API endpoints under test. Supports aggregating measurements of API calls by endpoint.
+ */
+// package-protected
+enum RealmApiEndpoint {
+
+  CREATE_REALM("POST", UserRealmApiConstants.CREATE_REALM_URL_PATH),
+  GET_REALM("GET", UserRealmApiConstants.GET_REALM_URL_PATH),
+  // Shares its URL path with Get Realm by Name, so is distinguished by its query parameter, and resolved first
+  GET_REALMS("GET", UserRealmApiConstants.GET_REALMS_URL_PATH, UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME, true),
+  // Also resolved from a request without its query parameter, which the API rejects as missing the realm name
+  GET_REALM_BY_NAME("GET", UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH,
+    UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, false),
+  DELETE_REALM("DELETE", UserRealmApiConstants.DELETE_REALM_URL_PATH);
+
+  private final String httpMethod;
+  private final String urlPathTemplate;
+  private final String queryParamName;
+  private final Pattern urlPathPattern;
+  private final Pattern urlQueryPattern;
+
+  RealmApiEndpoint(String httpMethod, String urlPathTemplate) {
+    this(httpMethod, urlPathTemplate, null, false);
+  }
+
+  /**
+   * @param queryParamName The name of the query parameter which identifies the subject of requests for the endpoint,
+   * for endpoints which share their URL path with another, or null if none.
+   * @param queryParamRequired {@code true} if requests for the endpoint must include the query parameter, in order to
+   * be resolved to it.
+   */
+  RealmApiEndpoint(String httpMethod, String urlPathTemplate, String queryParamName, boolean queryParamRequired) {
+    this.httpMethod = httpMethod;
+    this.urlPathTemplate = urlPathTemplate;
+    this.queryParamName = queryParamName;
+    this.urlPathPattern = Pattern.compile("^" + urlPathTemplate.replaceAll("\\{[^}]+}", "[^/]+") + "$");
+    this.urlQueryPattern = queryParamRequired ?
+      Pattern.compile("(^|&)" + Pattern.quote(queryParamName) + "=") : null;
+  }
+
+  /**
+   * Resolves the endpoint invoked by an HTTP request.
+   *
+   * @param httpMethod The HTTP method of the request, e.g. GET.
+   * @param url The URL of the request, either its path, or its path and query, e.g. /user/realm/1. Endpoints which are
+   * distinguished by a query parameter are only resolved from a URL which includes the query.
+   * @return The {@link RealmApiEndpoint} invoked by the request, or null if the request isn't for any of the endpoints.
+   */
+  static RealmApiEndpoint resolve(String httpMethod, String url) {
+    final int queryStart = url.indexOf('?');
+    final String urlPath = queryStart != -1 ? url.substring(0, queryStart) : url;
+    final String urlQuery = queryStart != -1 ? url.substring(queryStart + 1) : "";
+    for (RealmApiEndpoint endpoint : values()) {
+      if (endpoint.httpMethod.equalsIgnoreCase(httpMethod) && endpoint.urlPathPattern.matcher(urlPath).matches() &&
+        (endpoint.urlQueryPattern == null || endpoint.urlQueryPattern.matcher(urlQuery).find())) {
+        return endpoint;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the HTTP method used to invoke the endpoint, e.g. GET.
+   */
+  String getHttpMethod() {
+    return this.httpMethod;
+  }
+
+  /**
+   * @return the endpoint's URL path, including any path variable placeholders, e.g. /user/realm/{realmId}.
+   */
+  String getUrlPathTemplate() {
+    return this.urlPathTemplate;
+  }
+
+  /**
+   * @return the HTTP method and URL path template of the endpoint, e.g. GET /user/realm/{realmId}, plus the name of the
+   * query parameter which distinguishes it from another endpoint with the same path, if any, e.g. GET /user/realm?id=.
+   */
+  @Override
+  public String toString() {
+    return this.httpMethod + " " + this.urlPathTemplate + (this.queryParamName != null ? "?" + this.queryParamName +
+      "=" : "");
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A lightweight, pooled HTTP client for the Realm APIs, for use by tests and tools which make large numbers of API
+ * calls concurrently - e.g. to load the User service, populate it with fixtures, or race requests - and so need the
+ * client's overhead per call to be minimal, rather than REST Assured's.
+ * <p>
+ * Builds the requests for each of the APIs, and executes them, returning the status, headers and body of the response
+ * whatever its status. Unlike a {@link RealmApiTransport}, it doesn't verify responses, leaving each caller to decide
+ * what counts as a failure, e.g. whether to count, retry or ignore it. Safe for use by multiple threads.
+ */
+// package-protected
+final class RealmApiHttpClient implements AutoCloseable {
+
+  private static final String XML_MEDIA_TYPE = ContentType.APPLICATION_XML.getMimeType();
+
+  private final URI baseUri;
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * @param baseUri The base URI of the User service.
+   * @param maxConnections The max number of connections to the User service, which should be at least the number of
+   * threads making API calls concurrently.
+   */
+  RealmApiHttpClient(URI baseUri, int maxConnections) {
+    this.baseUri = baseUri;
+    this.httpClient = HttpClients.custom()
+      .setMaxConnTotal(maxConnections)
+      .setMaxConnPerRoute(maxConnections)
+      .build();
+  }
+
+  /**
+   * @return The base URI of the User service.
+   */
+  URI getBaseUri() {
+    return this.baseUri;
+  }
+
+  /**
+   * @param realmXml The XML representation of the realm to create, encoded in UTF-8.
+   * @return A Create Realm request.
+   */
+  HttpPost createRealmRequest(byte[] realmXml) {
+    HttpPost request = new HttpPost(this.baseUri.resolve(UserRealmApiConstants.CREATE_REALM_URL_PATH));
+    request.setHeader("Accept", XML_MEDIA_TYPE);
+    request.setEntity(new ByteArrayEntity(realmXml, ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8)));
+    return request;
+  }
+
+  /**
+   * @param realmId The ID of the realm to get.
+   * @return A Get Realm request.
+   */
+  HttpGet getRealmRequest(String realmId) {
+    HttpGet request = new HttpGet(realmUri(realmId));
+    request.setHeader("Accept", XML_MEDIA_TYPE);
+    return request;
+  }
+
+  /**
+   * @param realmIds The IDs of the realms to get.
+   * @return A Get Realms request.
+   */
+  HttpGet getRealmsRequest(Collection<String> realmIds) {
+    URIBuilder uriBuilder = new URIBuilder(this.baseUri.resolve(UserRealmApiConstants.GET_REALMS_URL_PATH));
+    realmIds.forEach(realmId -> uriBuilder.addParameter(UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME, realmId));
+    final HttpGet request;
+    try {
+      request = new HttpGet(uriBuilder.build());
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Invalid URI for realm IDs " + realmIds + ". Cause [" + e.toString() + "].",
+        e);
+    }
+    request.setHeader("Accept", XML_MEDIA_TYPE);
+    return request;
+  }
+
+  /**
+   * @param realmId The ID of the realm to delete.
+   * @return A Delete Realm request.
+   */
+  HttpDelete deleteRealmRequest(String realmId) {
+    return new HttpDelete(realmUri(realmId));
+  }
+
+  /**
+   * Executes a request, blocking until its response has been received in full.
+   *
+   * @param request The request.
+   * @return The response, whatever its status.
+   * @throws IOException If the request fails, e.g. the connection is refused or reset.
+   */
+  Response execute(HttpUriRequest request) throws IOException {
+    try (CloseableHttpResponse response = this.httpClient.execute(request)) {
+      final Header retryAfter = response.getFirstHeader(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME);
+      return new Response(response.getStatusLine().getStatusCode(), retryAfter != null ? retryAfter.getValue() : null,
+        response.getEntity() != null ? EntityUtils.toByteArray(response.getEntity()) : new byte[0]);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.httpClient.close();
+  }
+
+  private URI realmUri(String realmId) {
+    return this.baseUri.resolve(UserRealmApiConstants.GET_REALM_URL_PATH.replace(
+      "{" + UserRealmApiConstants.REALM_ID_PATH_VAR_NAME + "}", realmId));
+  }
+
+  /**
+   * The response to a Realm API request.
+   */
+  static final class Response {
+    private final int status;
+    private final String retryAfter;
+    private final byte[] body;
+
+    private Response(int status, String retryAfter, byte[] body) {
+      this.status = status;
+      this.retryAfter = retryAfter;
+      this.body = body;
+    }
+
+    /**
+     * @return The HTTP status code of the response.
+     */
+    int getStatus() {
+      return this.status;
+    }
+
+    /**
+     * @return The value of the response's Retry-After header, or null if it has none.
+     */
+    String getRetryAfter() {
+      return this.retryAfter;
+    }
+
+    /**
+     * @return The body of the response, which is empty if it has none.
+     */
+    byte[] getBody() {
+      return this.body;
+    }
+
+    /**
+     * @return The body of the response, decoded as UTF-8.
+     */
+    String getBodyAsString() {
+      return new String(this.body, StandardCharsets.UTF_8);
+    }
+  }
+}
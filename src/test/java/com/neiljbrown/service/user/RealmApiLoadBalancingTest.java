@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.restassured.RestAssured;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests of the {@link RealmServiceLoadBalancer client-side load balancing} of Realm API requests across several nodes,
+ * each simulated by a WireMock server with its own latency profile, using each of the supported
+ * {@link LoadBalancingStrategy strategies}.
+ */
+public class RealmApiLoadBalancingTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiLoadBalancingTest.class);
+
+  private static final String REALM_XML = "<realm id=\"1\" name=\"realm-1\"><description>Load balanced realm" +
+    "</description><key>92f1aea4bb92c3661a9c85ee81503e28</key></realm>";
+  private static final int FAST_NODE_DELAY_MILLIS = 0;
+  private static final int SLOW_NODE_DELAY_MILLIS = 100;
+  private static final int CONCURRENT_CLIENTS = 8;
+  private static final Duration EJECTION_DURATION = Duration.ofMinutes(1);
+
+  private final List<WireMockServer> nodeServers = new ArrayList<>();
+  private RealmServiceLoadBalancer loadBalancer;
+
+  @After
+  public void tearDown() {
+    if (this.loadBalancer != null) {
+      logger.info("Load balanced requests -{}{}", System.lineSeparator(), this.loadBalancer.report());
+    }
+    this.nodeServers.forEach(WireMockServer::stop);
+  }
+
+  /**
+   * Tests that round-robin balancing distributes requests evenly across nodes, regardless of their latency.
+   */
+  @Test
+  public void givenRoundRobin() {
+    startLoadBalancer(LoadBalancingStrategy.ROUND_ROBIN, 0, 0, startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK),
+      startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK), startNode(SLOW_NODE_DELAY_MILLIS, HttpStatus.SC_OK));
+
+    makeGetRealmRequests(30);
+
+    assertThat(this.loadBalancer.getNodes()).extracting(RealmServiceNode::getRequests).containsOnly(10L);
+  }
+
+  /**
+   * Tests that least-outstanding-requests balancing of concurrent requests favours the fast node, which completes its
+   * requests sooner.
+   */
+  @Test
+  public void givenLeastOutstandingRequests() throws Exception {
+    startLoadBalancer(LoadBalancingStrategy.LEAST_OUTSTANDING_REQUESTS, 0, 0,
+      startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK), startNode(SLOW_NODE_DELAY_MILLIS, HttpStatus.SC_OK));
+
+    makeConcurrentGetRealmRequests(25);
+
+    assertFastNodeFavoured();
+  }
+
+  /**
+   * Tests that power-of-two-choices balancing of concurrent requests favours the fast node.
+   */
+  @Test
+  public void givenPowerOfTwoChoices() throws Exception {
+    startLoadBalancer(LoadBalancingStrategy.POWER_OF_TWO_CHOICES, 0, 0,
+      startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK), startNode(SLOW_NODE_DELAY_MILLIS, HttpStatus.SC_OK));
+
+    makeConcurrentGetRealmRequests(25);
+
+    assertFastNodeFavoured();
+  }
+
+  /**
+   * Tests that a node is ejected after the configured number of consecutive failed requests, and receives no further
+   * requests whilst ejected.
+   */
+  @Test
+  public void givenNodeFailing() {
+    startLoadBalancer(LoadBalancingStrategy.ROUND_ROBIN, 3, 0, startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK),
+      startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK),
+      startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_SERVICE_UNAVAILABLE));
+
+    makeGetRealmRequests(30);
+
+    RealmServiceNode failingNode = this.loadBalancer.getNodes().get(2);
+    assertThat(failingNode.getRequests()).isEqualTo(3);
+    assertThat(failingNode.getFailures()).isEqualTo(3);
+    assertThat(failingNode.getEjections()).isEqualTo(1);
+    assertThat(this.loadBalancer.getNodes().get(0).getRequests() + this.loadBalancer.getNodes().get(1).getRequests())
+      .isEqualTo(27);
+  }
+
+  /**
+   * Tests that a node is ejected when its moving average latency exceeds the configured threshold, and receives no
+   * further requests whilst ejected.
+   */
+  @Test
+  public void givenNodeSlow() {
+    startLoadBalancer(LoadBalancingStrategy.ROUND_ROBIN, 0, SLOW_NODE_DELAY_MILLIS / 2,
+      startNode(FAST_NODE_DELAY_MILLIS, HttpStatus.SC_OK), startNode(SLOW_NODE_DELAY_MILLIS, HttpStatus.SC_OK));
+
+    makeGetRealmRequests(20);
+
+    RealmServiceNode slowNode = this.loadBalancer.getNodes().get(1);
+    assertThat(slowNode.getRequests()).isEqualTo(1);
+    assertThat(slowNode.getFailures()).isZero();
+    assertThat(slowNode.getEjections()).isEqualTo(1);
+  }
+
+  /**
+   * Starts a WireMock server simulating a node, which responds to all Get Realm requests after a fixed delay.
+   *
+   * @return The base URI of the node.
+   */
+  private URI startNode(int responseDelayMillis, int responseStatus) {
+    WireMockServer server = new WireMockServer(wireMockConfig().dynamicPort());
+    this.nodeServers.add(server);
+    server.start();
+    server.stubFor(
+      get(urlPathMatching("^/user/realm/\\d{1,4}$"))
+        .willReturn(
+          aResponse()
+            .withStatus(responseStatus)
+            .withHeader("Content-Type", ContentType.APPLICATION_XML.getMimeType())
+            .withFixedDelay(responseDelayMillis)
+            .withBody(responseStatus == HttpStatus.SC_OK ? REALM_XML : "")));
+    return URI.create("http://localhost:" + server.port());
+  }
+
+  private void startLoadBalancer(LoadBalancingStrategy strategy, int ejectionConsecutiveFailures,
+    long ejectionLatencyThresholdMillis, URI... baseUris) {
+    this.loadBalancer = new RealmServiceLoadBalancer(Arrays.asList(baseUris), strategy,
+      ejectionConsecutiveFailures, ejectionLatencyThresholdMillis, EJECTION_DURATION);
+  }
+
+  private void makeGetRealmRequests(int requestCount) {
+    for (int i = 0; i < requestCount; i++) {
+      RestAssured
+        .given()
+          .filter(this.loadBalancer)
+          .basePath("")
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, 1)
+        .when()
+          .get(UserRealmApiConstants.GET_REALM_URL_PATH);
+    }
+  }
+
+  private void makeConcurrentGetRealmRequests(int requestsPerClient) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_CLIENTS);
+    try {
+      List<Future<?>> clients = new ArrayList<>();
+      for (int i = 0; i < CONCURRENT_CLIENTS; i++) {
+        clients.add(executor.submit(() -> makeGetRealmRequests(requestsPerClient)));
+      }
+      for (Future<?> client : clients) {
+        client.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void assertFastNodeFavoured() {
+    final List<Long> requestsPerNode = this.loadBalancer.getNodes().stream().map(RealmServiceNode::getRequests)
+      .collect(Collectors.toList());
+    assertThat(requestsPerNode.get(0) + requestsPerNode.get(1)).isEqualTo(CONCURRENT_CLIENTS * 25L);
+    assertThat(requestsPerNode.get(0)).as("Requests to fast node").isGreaterThan(requestsPerNode.get(1));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A load test of the Realm APIs which generates load from multiple local worker processes, coordinated by a
+ * {@link RealmLoadCoordinator}, and reports the merged throughput and latency percentiles of all the workers.
+ * <p>
+ * By default the load is run against the {@link RealmServiceStandIn in-memory stand-in} for the APIs, served by this
+ * test's WireMock server, in which case the number of calls recorded by the workers is also verified against the number
+ * of requests received by the server. Set property 'multiProcessLoadTestBaseUri' to run the load against a deployed
+ * User service instead.
+ * <p>
+ * Disabled by default. Enable by setting the property 'multiProcessLoadTestEnabled' to true. See
+ * application.properties for the other properties which configure the test.
+ */
+public class RealmApiMultiProcessLoadTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiMultiProcessLoadTest.class);
+
+  private static final String LOAD_TEST_ENABLED_PROPERTY = "multiProcessLoadTestEnabled";
+  private static final String LOAD_TEST_BASE_URI_PROPERTY = "multiProcessLoadTestBaseUri";
+  private static final String LOAD_TEST_WORKERS_PROPERTY = "multiProcessLoadTestWorkers";
+  private static final String LOAD_TEST_THREADS_PER_WORKER_PROPERTY = "multiProcessLoadTestThreadsPerWorker";
+  private static final String LOAD_TEST_DURATION_SECONDS_PROPERTY = "multiProcessLoadTestDurationSeconds";
+  private static final String LOAD_TEST_WORKER_JVM_ARGS_PROPERTY = "multiProcessLoadTestWorkerJvmArgs";
+  private static final String LOAD_TEST_OUTPUT_DIR_PROPERTY = "multiProcessLoadTestOutputDir";
+
+  public RealmApiMultiProcessLoadTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("Multi-process load test is disabled.",
+      this.config.getBoolean(LOAD_TEST_ENABLED_PROPERTY, Boolean.FALSE));
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  /**
+   * Runs the realm workload from the configured number of worker processes, and reports the merged results.
+   */
+  @Test
+  public void createGetAndDeleteRealmsFromMultipleProcesses() throws Exception {
+    final String configuredBaseUri = this.config.getString(LOAD_TEST_BASE_URI_PROPERTY, "");
+    final boolean useStandIn = StringUtils.isBlank(configuredBaseUri);
+    final URI baseUri = URI.create(useStandIn ? "http://localhost:" + this.wireMockRule.port() : configuredBaseUri);
+    final String workerJvmArgs = this.config.getString(LOAD_TEST_WORKER_JVM_ARGS_PROPERTY, "");
+    RealmLoadCoordinator coordinator = new RealmLoadCoordinator(
+      this.config.getInt(LOAD_TEST_WORKERS_PROPERTY, 4),
+      this.config.getInt(LOAD_TEST_THREADS_PER_WORKER_PROPERTY, 8),
+      StringUtils.isBlank(workerJvmArgs) ? Collections.emptyList() :
+        Arrays.asList(StringUtils.split(workerJvmArgs)));
+
+    RealmLoadResult result = coordinator.run(baseUri,
+      Duration.ofSeconds(this.config.getLong(LOAD_TEST_DURATION_SECONDS_PROPERTY, 60L)),
+      Paths.get(this.config.getString(LOAD_TEST_OUTPUT_DIR_PROPERTY, "build/multi-process-load")));
+
+    logger.info("Merged results of all load workers -{}{}", System.lineSeparator(), result.report());
+    // The workload doesn't get realms by name
+    for (RealmApiEndpoint endpoint : EnumSet.of(RealmApiEndpoint.CREATE_REALM, RealmApiEndpoint.GET_REALM,
+      RealmApiEndpoint.DELETE_REALM)) {
+      assertThat(result.getCalls(endpoint)).as("Calls to endpoint [%s]", endpoint).isPositive();
+      assertThat(result.getErrors(endpoint)).as("Errors from endpoint [%s]", endpoint).isZero();
+      if (useStandIn) {
+        verifyRequestCount(result.getCalls(endpoint), endpoint);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.RequestListener;
+import com.github.tomakehurst.wiremock.http.Response;
+
+/**
+ * A WireMock {@link RequestListener} which counts the requests received for each {@link RealmApiEndpoint}, by response
+ * status.
+ * <p>
+ * Supports verifying the number of requests made by a test using constant memory, and independently of WireMock's
+ * request journal, which may be {@link RequestJournalPolicy bounded or disabled} for high-volume tests. Safe for use by
+ * multiple concurrent requests.
+ */
+// package-protected
+final class RealmApiRequestCounter implements RequestListener {
+
+  private final Map<RealmApiEndpoint, Map<Integer, LongAdder>> countsByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+  private final LongAdder unmatchedCount = new LongAdder();
+
+  RealmApiRequestCounter() {
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      this.countsByEndpoint.put(endpoint, new ConcurrentHashMap<>());
+    }
+  }
+
+  @Override
+  public void requestReceived(Request request, Response response) {
+    final RealmApiEndpoint endpoint = RealmApiEndpoint.resolve(request.getMethod().value(), request.getUrl());
+    if (endpoint == null) {
+      this.unmatchedCount.increment();
+      return;
+    }
+    this.countsByEndpoint.get(endpoint).computeIfAbsent(response.getStatus(), status -> new LongAdder()).increment();
+  }
+
+  /**
+   * @param endpoint The {@link RealmApiEndpoint}.
+   * @return The number of requests received for the endpoint, regardless of response status.
+   */
+  long count(RealmApiEndpoint endpoint) {
+    return this.countsByEndpoint.get(endpoint).values().stream().mapToLong(LongAdder::sum).sum();
+  }
+
+  /**
+   * @param endpoint The {@link RealmApiEndpoint}.
+   * @param status The HTTP status code of the response.
+   * @return The number of requests received for the endpoint, which were responded to with the specified status.
+   */
+  long count(RealmApiEndpoint endpoint, int status) {
+    final LongAdder count = this.countsByEndpoint.get(endpoint).get(status);
+    return count != null ? count.sum() : 0;
+  }
+
+  /**
+   * @return The number of requests received which weren't for any of the {@link RealmApiEndpoint}s.
+   */
+  long unmatchedCount() {
+    return this.unmatchedCount.sum();
+  }
+
+  /**
+   * Resets all counts to zero.
+   */
+  void reset() {
+    this.countsByEndpoint.values().forEach(Map::clear);
+    this.unmatchedCount.reset();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.github.tomakehurst.wiremock.verification.RequestJournalDisabledException;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long-running (soak) test of the Realm APIs which detects slow resource leaks, rather than testing functionality.
+ * <p>
+ * Repeatedly cycles through creating, getting and deleting a realm, using the same helper methods as the functional
+ * tests, against the {@link RealmServiceStandIn in-memory stand-in} for the APIs. Whilst doing so it periodically
+ * samples the resources used by the JVM - heap used after GC, live threads, open file descriptors and HTTP connections
+ * to the server - as well as the size of data structures which could grow unbounded, such as the list of realms
+ * pending tear down and WireMock's request journal. The test fails if the growth per minute of any sampled resource
+ * exceeds its configured max.
+ * <p>
+ * Disabled by default. Enable by setting the property 'soakTestEnabled' to true. See application.properties for the
+ * other properties which configure the test. It's recommended that 'alwaysLogApiRequestAndResponse' is set to false,
+ * and that 'wireMockRequestJournal' is set to bounded or disabled, as an unbounded journal is itself a leak.
+ */
+public class RealmApiSoakTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiSoakTest.class);
+
+  private static final String SOAK_TEST_ENABLED_PROPERTY = "soakTestEnabled";
+  private static final String SOAK_TEST_DURATION_MINUTES_PROPERTY = "soakTestDurationMinutes";
+  private static final String SOAK_TEST_WARM_UP_MINUTES_PROPERTY = "soakTestWarmUpMinutes";
+  private static final String SOAK_TEST_SAMPLE_INTERVAL_SECONDS_PROPERTY = "soakTestSampleIntervalSeconds";
+  /**
+   * Prefix of the properties which configure the max growth per minute of each sampled metric, e.g.
+   * soakTestMaxGrowthPerMinute.liveThreads.
+   */
+  private static final String SOAK_TEST_MAX_GROWTH_PER_MINUTE_PROPERTY_PREFIX = "soakTestMaxGrowthPerMinute.";
+
+  /**
+   * List of one or more realms created by the test and not yet deleted. Supports deleting realms as part of tearing
+   * down the test, should it fail.
+   */
+  private final List<CompactUserRealm> createdRealms = new ArrayList<>();
+
+  public RealmApiSoakTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("Soak test is disabled.", this.config.getBoolean(SOAK_TEST_ENABLED_PROPERTY, Boolean.FALSE));
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    this.createdRealms.forEach(this::tearDownCreatedRealm);
+    super.tearDown();
+  }
+
+  /**
+   * Cycles through creating, getting and deleting a realm for the configured duration, and asserts that none of the
+   * sampled resources grew at more than their configured max rate.
+   */
+  @Test
+  public void createGetAndDeleteRealmsWithoutLeakingResources() {
+    final Duration duration = Duration.ofMinutes(this.config.getLong(SOAK_TEST_DURATION_MINUTES_PROPERTY, 60L));
+    final Duration warmUp = Duration.ofMinutes(this.config.getLong(SOAK_TEST_WARM_UP_MINUTES_PROPERTY, 5L));
+    final Duration sampleInterval =
+      Duration.ofSeconds(this.config.getLong(SOAK_TEST_SAMPLE_INTERVAL_SECONDS_PROPERTY, 30L));
+
+    long cycles = 0;
+    try (ResourceUsageSampler sampler = new ResourceUsageSampler(createMetrics())) {
+      sampler.start(sampleInterval);
+      final long endNanos = System.nanoTime() + duration.toNanos();
+      while (System.nanoTime() < endNanos) {
+        createGetAndDeleteRealm();
+        cycles++;
+      }
+      sampler.sample();
+      verifyRequestCount(cycles, RealmApiEndpoint.CREATE_REALM);
+      verifyRequestCount(cycles, RealmApiEndpoint.GET_REALM);
+      verifyRequestCount(cycles, RealmApiEndpoint.DELETE_REALM);
+      logger.info("Completed [{}] create-get-delete cycles in [{}]. Resource usage -{}{}", cycles, duration,
+        System.lineSeparator(), sampler.report(warmUp));
+      assertResourceGrowthWithinMax(sampler, warmUp);
+    }
+  }
+
+  private void createGetAndDeleteRealm() {
+    final CompactUserRealm realmToCreate = CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription());
+    final CompactUserRealm createdRealm = createRealmResource(realmToCreate);
+    this.createdRealms.add(createdRealm);
+
+    final UserRealmDto gotRealm = getRealmResource(Integer.toString(createdRealm.getId()));
+    assertThat(CompactUserRealm.from(gotRealm)).isEqualTo(createdRealm);
+
+    deleteRealmResource(createdRealm.getId());
+    this.createdRealms.remove(createdRealm);
+  }
+
+  /**
+   * @return The resource usage metrics to be sampled, keyed by name.
+   */
+  private Map<String, LongSupplier> createMetrics() {
+    Map<String, LongSupplier> metrics = new LinkedHashMap<>();
+    metrics.put("heapUsedAfterGcBytes", ResourceUsageSampler::heapUsedAfterGc);
+    metrics.put("liveThreads", ResourceUsageSampler::liveThreadCount);
+    metrics.put("openFileDescriptors", ResourceUsageSampler::openFileDescriptorCount);
+    metrics.put("httpConnections", () -> ResourceUsageSampler.establishedConnectionCount(this.wireMockRule.port()));
+    metrics.put("requestJournalEntries", this::requestJournalSize);
+    metrics.put("realmsPendingTearDown", this.createdRealms::size);
+    metrics.put("standInRealms", this.realmServiceStandIn::getRealmCount);
+    return metrics;
+  }
+
+  private long requestJournalSize() {
+    try {
+      return this.wireMockRule.getAllServeEvents().size();
+    } catch (RequestJournalDisabledException e) {
+      return ResourceUsageSampler.UNSUPPORTED;
+    }
+  }
+
+  private void assertResourceGrowthWithinMax(ResourceUsageSampler sampler, Duration warmUp) {
+    SoftAssertions softly = new SoftAssertions();
+    sampler.getSampledMetricNames().forEach(metricName -> {
+      final String maxGrowthProperty = SOAK_TEST_MAX_GROWTH_PER_MINUTE_PROPERTY_PREFIX + metricName;
+      final double growthPerMinute = sampler.growthPerMinute(metricName, warmUp);
+      if (this.config.containsKey(maxGrowthProperty) && !Double.isNaN(growthPerMinute)) {
+        softly.assertThat(growthPerMinute)
+          .as("Growth per minute of [%s]", metricName)
+          .isLessThanOrEqualTo(this.config.getDouble(maxGrowthProperty));
+      }
+    });
+    softly.assertAll();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.time.Duration;
+
+/**
+ * Signals that a Realm API call was rejected by the service because it's overloaded - the response had status
+ * 429 Too Many Requests - rather than failing. The service sheds such requests without processing them, so it's safe
+ * to retry them, after backing off for at least the period the service asked for.
+ */
+// package-protected
+final class RealmApiThrottledException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Duration retryAfter;
+
+  /**
+   * @param message The detail message, identifying the throttled request.
+   * @param retryAfter The period after which the service asked for the request to be retried, parsed from the
+   * response's Retry-After header using {@link AimdConcurrencyLimiter#parseRetryAfter(String)}. Zero if none.
+   */
+  RealmApiThrottledException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * @return The period after which the service asked for the request to be retried. Zero if it didn't specify one.
+   */
+  Duration getRetryAfter() {
+    return this.retryAfter;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+
+/**
+ * The transport used by the realm helper methods of {@link AbstractRealmApiTest} to make Realm API calls.
+ * <p>
+ * Decouples the helpers, and the tests which use them, from the HTTP client used to drive the APIs, so that the same
+ * tests can be run using REST Assured, which is rich in assertions but relatively expensive per call, or using a
+ * lightweight, non-blocking HTTP client better suited to generating traffic. Every implementation must satisfy the
+ * same contract - each method asserts the API call succeeded, with the expected HTTP status, failing with an
+ * {@link AssertionError} if not, and returns the resource in the response, if any. A call which the service throttles,
+ * by responding 429 Too Many Requests, instead fails with a {@link RealmApiThrottledException}, so that callers can
+ * back off and retry it, e.g. a {@link ConcurrencyLimitedRealmApiTransport}.
+ */
+// package-protected
+interface RealmApiTransport extends AutoCloseable {
+
+  /**
+   * Invokes a Create Realm API call to create a realm using the supplied realm details.
+   *
+   * @param userRealm A {@link UserRealmDto} containing the details of the realm resource to create.
+   * @return A {@link UserRealmDto} containing the details of the created realm resource.
+   */
+  UserRealmDto createRealm(UserRealmDto userRealm);
+
+  /**
+   * Invokes a Create Realm API call to create a realm using the supplied compact realm, sending its cached XML bytes.
+   *
+   * @param userRealm A {@link CompactUserRealm} containing the details of the realm resource to create.
+   * @return A {@link CompactUserRealm} containing the details of the created realm resource.
+   */
+  default CompactUserRealm createRealm(CompactUserRealm userRealm) {
+    return createRealm(userRealm, null);
+  }
+
+  /**
+   * Invokes a Create Realm API call to create a realm using the supplied compact realm, sending its cached XML bytes,
+   * and the supplied idempotency key, if any. Retrying the call with the same key, e.g. after a timeout, returns the
+   * response to the original call, rather than creating the realm again.
+   *
+   * @param userRealm A {@link CompactUserRealm} containing the details of the realm resource to create.
+   * @param idempotencyKey The key sent in the Idempotency-Key header, or null to send none.
+   * @return A {@link CompactUserRealm} containing the details of the created realm resource.
+   */
+  CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey);
+
+  /**
+   * Invokes a Get Realm API call to retrieve an identified realm.
+   *
+   * @param realmId The ID of the realm to get.
+   * @return A {@link UserRealmDto} containing the details of the realm resource.
+   */
+  UserRealmDto getRealm(String realmId);
+
+  /**
+   * Invokes a Get Realms API call to retrieve several realms, identified by their IDs, in a single call.
+   *
+   * @param realmIds The IDs of the realms to get - no more than {@link UserRealmApiConstants#GET_REALMS_MAX_IDS}.
+   * @return The {@link UserRealmDto realms} which exist, keyed by their ID, in the order requested. The IDs of realms
+   * which don't exist are absent.
+   */
+  Map<String, UserRealmDto> getRealms(Collection<String> realmIds);
+
+  /**
+   * Invokes a Get Realm by Name API call to retrieve a realm identified by its (unique) name.
+   *
+   * @param realmName The name of the realm to get.
+   * @return A {@link UserRealmDto} containing the details of the realm resource.
+   */
+  UserRealmDto getRealmByName(String realmName);
+
+  /**
+   * Invokes a Delete Realm API call to delete an identified realm.
+   *
+   * @param realmId The ID of the realm to delete.
+   */
+  void deleteRealm(int realmId);
+
+  /**
+   * Returns whether all the client-side work of the last API call made by the current thread was done on that thread,
+   * so that its cost can be measured using per-thread counters, e.g. by the {@link RealmApiCallProfiler}. True by
+   * default.
+   *
+   * @return True if the current thread's last API call executed entirely on it.
+   */
+  default boolean isCallingThreadOnly() {
+    return true;
+  }
+
+  /**
+   * Releases any resources, such as connections, held by the transport. Does nothing by default.
+   */
+  @Override
+  default void close() {
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A side-by-side benchmark of the throughput and latency of the Get Realm API when driven using each
+ * {@link RealmApiTransport} - REST Assured, and the non-blocking {@link AsyncHttpRealmApiTransport}, both with and
+ * without pipelining - against the {@link RealmServiceStandIn in-memory stand-in} for the APIs.
+ * <p>
+ * REST Assured is driven from a fixed number of threads, each making blocking calls. The async transport is driven from
+ * a single thread, keeping the same number of requests (or pipelined batches of requests) in flight, one per
+ * connection. The latency of a pipelined request is measured to the receipt of the last response in its batch, so is
+ * an upper bound. Each transport is warmed up before being measured.
+ * <p>
+ * So that the transports are compared like for like, REST Assured shares one HTTP client, whose pooled connections are
+ * reused across calls, as the async transport's are, rather than its default of a new connection per call. REST
+ * Assured's logging of every request and response is turned off, whatever the value of
+ * property 'alwaysLogApiRequestAndResponse', so that its cost isn't measured.
+ * <p>
+ * Disabled by default. Enable by setting the property 'transportBenchmarkEnabled' to true.
+ */
+public class RealmApiTransportBenchmarkTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmApiTransportBenchmarkTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "transportBenchmarkEnabled";
+  private static final String BENCHMARK_REALMS_PROPERTY = "transportBenchmarkRealms";
+  private static final String BENCHMARK_CONCURRENCY_PROPERTY = "transportBenchmarkConcurrency";
+  private static final String BENCHMARK_PIPELINE_DEPTH_PROPERTY = "transportBenchmarkPipelineDepth";
+  private static final String BENCHMARK_WARM_UP_SECONDS_PROPERTY = "transportBenchmarkWarmUpSeconds";
+  private static final String BENCHMARK_DURATION_SECONDS_PROPERTY = "transportBenchmarkDurationSeconds";
+
+  /**
+   * List of realms created by the benchmark, which are got by the API calls being measured, and deleted on tear down.
+   */
+  private final List<CompactUserRealm> createdRealms = new ArrayList<>();
+
+  public RealmApiTransportBenchmarkTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("Transport benchmark is disabled.", this.config.getBoolean(BENCHMARK_ENABLED_PROPERTY, Boolean.FALSE));
+    super.setUp();
+    stubRealmServiceStandIn();
+    final int realms = this.config.getInt(BENCHMARK_REALMS_PROPERTY, 100);
+    for (int i = 0; i < realms; i++) {
+      this.createdRealms.add(
+        createRealmResource(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription())));
+    }
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    this.createdRealms.forEach(this::tearDownCreatedRealm);
+    super.tearDown();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Returns false, so that the cost of logging isn't measured.
+   */
+  @Override
+  boolean isAlwaysLogRequestAndResponse() {
+    return false;
+  }
+
+  /**
+   * Benchmarks the Get Realm API using each transport, and logs their throughput and latency percentiles side by side.
+   */
+  @Test
+  public void benchmarkRestAssuredVersusAsyncHttpTransport() throws Exception {
+    final int concurrency = this.config.getInt(BENCHMARK_CONCURRENCY_PROPERTY, 16);
+    final int pipelineDepth = this.config.getInt(BENCHMARK_PIPELINE_DEPTH_PROPERTY, 8);
+    final Duration warmUp = Duration.ofSeconds(this.config.getLong(BENCHMARK_WARM_UP_SECONDS_PROPERTY, 5L));
+    final Duration duration = Duration.ofSeconds(this.config.getLong(BENCHMARK_DURATION_SECONDS_PROPERTY, 20L));
+
+    Map<String, RealmLoadResult> results = new LinkedHashMap<>();
+    try (RealmApiTransport restAssuredTransport = new RestAssuredRealmApiTransport(concurrency)) {
+      runBlocking(restAssuredTransport, concurrency, warmUp);
+      results.put("REST Assured, pooled connections", runBlocking(restAssuredTransport, concurrency, duration));
+    }
+    try (AsyncHttpRealmApiTransport asyncTransport = new AsyncHttpRealmApiTransport(
+      URI.create("http://localhost:" + this.wireMockRule.port()), concurrency)) {
+      runPipelined(asyncTransport, concurrency, pipelineDepth, warmUp);
+      results.put("Async HTTP", runPipelined(asyncTransport, concurrency, 1, duration));
+      results.put("Async HTTP, pipelined x" + pipelineDepth,
+        runPipelined(asyncTransport, concurrency, pipelineDepth, duration));
+    }
+
+    StringBuilder report = new StringBuilder(String.format("%-30s %9s %7s %9s %9s %9s %9s %9s%n", "Transport", "Calls",
+      "Errors", "Calls/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)"));
+    results.forEach((transport, result) -> report.append(format(transport, result)));
+    logger.info("Get Realm API throughput and latency, at concurrency [{}], by transport -{}{}", concurrency,
+      System.lineSeparator(), report);
+    results.forEach((transport, result) ->
+      assertThat(result.getErrors(RealmApiEndpoint.GET_REALM)).as("Errors using transport [%s]", transport).isZero());
+  }
+
+  /**
+   * Gets randomly selected realms for the specified duration, from the specified number of threads, each of which makes
+   * blocking calls using the supplied transport.
+   */
+  private RealmLoadResult runBlocking(RealmApiTransport transport, int threads, Duration duration) throws Exception {
+    final RealmLoadResult result = new RealmLoadResult();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final long startNanos = System.nanoTime();
+      final long endNanos = startNanos + duration.toNanos();
+      List<Future<?>> clients = new ArrayList<>(threads);
+      for (int i = 0; i < threads; i++) {
+        clients.add(executor.submit(() -> {
+          while (System.nanoTime() < endNanos) {
+            final long callStartNanos = System.nanoTime();
+            boolean failed = false;
+            try {
+              transport.getRealm(Integer.toString(randomRealmId()));
+            } catch (RuntimeException | AssertionError e) {
+              failed = true;
+            }
+            result.record(RealmApiEndpoint.GET_REALM, System.nanoTime() - callStartNanos, failed);
+          }
+        }));
+      }
+      for (Future<?> client : clients) {
+        client.get();
+      }
+      result.setElapsedNanos(System.nanoTime() - startNanos);
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Gets randomly selected realms for the specified duration, from the calling thread, keeping the specified number
+   * of batches of pipelined requests in flight.
+   */
+  private RealmLoadResult runPipelined(AsyncHttpRealmApiTransport transport, int connections, int pipelineDepth,
+    Duration duration) throws InterruptedException {
+    final RealmLoadResult result = new RealmLoadResult();
+    final Semaphore inFlightBatches = new Semaphore(connections);
+    final long startNanos = System.nanoTime();
+    final long endNanos = startNanos + duration.toNanos();
+    while (System.nanoTime() < endNanos) {
+      inFlightBatches.acquire();
+      final List<String> realmIds = new ArrayList<>(pipelineDepth);
+      for (int i = 0; i < pipelineDepth; i++) {
+        realmIds.add(Integer.toString(randomRealmId()));
+      }
+      final long batchStartNanos = System.nanoTime();
+      transport.getRealmsPipelined(realmIds, new FutureCallback<List<HttpResponse>>() {
+        @Override
+        public void completed(List<HttpResponse> responses) {
+          final long latencyNanos = System.nanoTime() - batchStartNanos;
+          responses.forEach(response -> result.record(RealmApiEndpoint.GET_REALM, latencyNanos,
+            response.getStatusLine().getStatusCode() != HttpStatus.SC_OK));
+          inFlightBatches.release();
+        }
+
+        @Override
+        public void failed(Exception e) {
+          final long latencyNanos = System.nanoTime() - batchStartNanos;
+          realmIds.forEach(realmId -> result.record(RealmApiEndpoint.GET_REALM, latencyNanos, true));
+          inFlightBatches.release();
+        }
+
+        @Override
+        public void cancelled() {
+          failed(null);
+        }
+      });
+    }
+    inFlightBatches.acquire(connections);
+    result.setElapsedNanos(System.nanoTime() - startNanos);
+    return result;
+  }
+
+  private int randomRealmId() {
+    return this.createdRealms.get(ThreadLocalRandom.current().nextInt(this.createdRealms.size())).getId();
+  }
+
+  private static String format(String transport, RealmLoadResult result) {
+    final Histogram histogram = result.getLatencyMicros(RealmApiEndpoint.GET_REALM);
+    return String.format("%-30s %9d %7d %9.0f %9.2f %9.2f %9.2f %9.2f%n", transport, histogram.getTotalCount(),
+      result.getErrors(RealmApiEndpoint.GET_REALM), histogram.getTotalCount() / (result.getElapsedNanos() / 1e9),
+      histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+      histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * The types of {@link RealmApiTransport} which can be used to make Realm API calls.
+ */
+// package-protected
+enum RealmApiTransportType {
+
+  /**
+   * REST Assured, using the default request specification and filters configured by {@link AbstractRealmApiTest}.
+   */
+  REST_ASSURED,
+
+  /**
+   * A non-blocking, pipelining HTTP client - see {@link AsyncHttpRealmApiTransport}.
+   */
+  ASYNC_HTTP;
+
+  /**
+   * Creates a transport of this type.
+   *
+   * @param baseUri The base URI of the User service. Ignored by {@link #REST_ASSURED}, which uses the base URI and port
+   * configured for REST Assured.
+   * @param timeout The timeout of API calls, or zero for no timeout. Ignored by {@link #REST_ASSURED}, which uses the
+   * timeout configured for REST Assured.
+   * @return The created {@link RealmApiTransport}.
+   */
+  RealmApiTransport create(URI baseUri, Duration timeout) {
+    switch (this) {
+      case ASYNC_HTTP:
+        return new AsyncHttpRealmApiTransport(baseUri, AsyncHttpRealmApiTransport.DEFAULT_MAX_CONNECTIONS, timeout);
+      default:
+        return new RestAssuredRealmApiTransport();
+    }
+  }
+}
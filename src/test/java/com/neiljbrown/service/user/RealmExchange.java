@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A single exchange - request and response - with the Realm APIs, as recorded in a capture file by the
+ * {@link RealmExchangeRecordingFilter} and replayed by the {@link RealmExchangeReplayer}.
+ * <p>
+ * An exchange is identified by its key - its request's method, URL (path and query) and normalised body. Bodies are
+ * normalised by removing whitespace which isn't significant to their media type - between XML elements, or outside
+ * JSON strings - so that requests which differ only in formatting are treated as the same.
+ */
+// package-protected
+final class RealmExchange {
+
+  private final String method;
+  private final String url;
+  private final String requestContentType;
+  private final byte[] requestBody;
+  private final int status;
+  private final Map<String, String> responseHeaders;
+  private final byte[] responseBody;
+
+  /**
+   * @param method The request's HTTP method.
+   * @param url The request's URL path, including its query string, if any.
+   * @param requestContentType The request's Content-Type. Null if it has no body.
+   * @param requestBody The request's body, normalised or not. Empty if none.
+   * @param status The response's HTTP status code.
+   * @param responseHeaders The response's headers, excluding those which describe its encoding on the wire.
+   * @param responseBody The response's (decoded) body. Empty if none.
+   */
+  RealmExchange(String method, String url, String requestContentType, byte[] requestBody, int status,
+    Map<String, String> responseHeaders, byte[] responseBody) {
+    this.method = Objects.requireNonNull(method, "method must not be null.");
+    this.url = Objects.requireNonNull(url, "url must not be null.");
+    this.requestContentType = requestContentType;
+    this.requestBody = normaliseBody(requestBody, requestContentType);
+    this.status = status;
+    this.responseHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(responseHeaders));
+    this.responseBody = Objects.requireNonNull(responseBody, "responseBody must not be null.");
+  }
+
+  String getMethod() {
+    return this.method;
+  }
+
+  String getUrl() {
+    return this.url;
+  }
+
+  String getRequestContentType() {
+    return this.requestContentType;
+  }
+
+  /**
+   * @return The request's normalised body.
+   */
+  byte[] getRequestBody() {
+    return this.requestBody;
+  }
+
+  int getStatus() {
+    return this.status;
+  }
+
+  Map<String, String> getResponseHeaders() {
+    return this.responseHeaders;
+  }
+
+  byte[] getResponseBody() {
+    return this.responseBody;
+  }
+
+  /**
+   * @return The key which identifies this exchange's request - see {@link #key(String, String, byte[], String)}.
+   */
+  byte[] key() {
+    return keyOfNormalisedBody(this.method, this.url, this.requestBody);
+  }
+
+  /**
+   * Builds the key which identifies a request - its method, URL and normalised body.
+   *
+   * @param method The request's HTTP method.
+   * @param url The request's URL path and query string.
+   * @param body The request's body, as sent. May be null or empty.
+   * @param contentType The request's Content-Type, which determines how its body is normalised. May be null.
+   * @return The key, encoded as UTF-8.
+   */
+  static byte[] key(String method, String url, byte[] body, String contentType) {
+    return keyOfNormalisedBody(method, url, normaliseBody(body, contentType));
+  }
+
+  private static byte[] keyOfNormalisedBody(String method, String url, byte[] normalisedBody) {
+    final byte[] requestLine = (method + " " + url + "\n").getBytes(StandardCharsets.UTF_8);
+    final byte[] key = Arrays.copyOf(requestLine, requestLine.length + normalisedBody.length);
+    System.arraycopy(normalisedBody, 0, key, requestLine.length, normalisedBody.length);
+    return key;
+  }
+
+  /**
+   * @return A 64-bit FNV-1a hash of the supplied key.
+   */
+  static long hash(byte[] key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Normalises a request body by removing whitespace which isn't significant to its media type. Bodies of media types
+   * other than XML and JSON are returned as is.
+   */
+  static byte[] normaliseBody(byte[] body, String contentType) {
+    if (body == null || body.length == 0) {
+      return new byte[0];
+    }
+    final String mimeType = StringUtils.substringBefore(StringUtils.defaultString(contentType), ";").trim();
+    if (mimeType.equals(ContentType.APPLICATION_XML.getMimeType())) {
+      return new String(body, StandardCharsets.UTF_8).replaceAll(">\\s+<", "><").trim()
+        .getBytes(StandardCharsets.UTF_8);
+    }
+    if (mimeType.equals(ContentType.APPLICATION_JSON.getMimeType())) {
+      return removeJsonWhitespace(body);
+    }
+    return body;
+  }
+
+  /**
+   * @return A copy of the supplied JSON with all whitespace outside of strings removed.
+   */
+  private static byte[] removeJsonWhitespace(byte[] json) {
+    final byte[] normalised = new byte[json.length];
+    int length = 0;
+    boolean inString = false;
+    boolean escaped = false;
+    for (byte b : json) {
+      if (inString) {
+        inString = escaped || b != '"';
+        escaped = !escaped && b == '\\';
+      } else if (b == '"') {
+        inString = true;
+      } else if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+        continue;
+      }
+      normalised[length++] = b;
+    }
+    return Arrays.copyOf(normalised, length);
+  }
+
+  @Override
+  public String toString() {
+    return "RealmExchange{method='" + this.method + "', url='" + this.url + "', status=" + this.status +
+      ", requestBodyBytes=" + this.requestBody.length + ", responseBodyBytes=" + this.responseBody.length + "}";
+  }
+}
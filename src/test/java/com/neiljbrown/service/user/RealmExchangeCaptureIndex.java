@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only view of a capture file written by a {@link RealmExchangeCaptureWriter}, which looks up recorded exchanges
+ * by the key of their request, without loading the exchanges onto the heap.
+ * <p>
+ * Both the capture file and its index are memory-mapped. The index is a sidecar file (the capture file's path with an
+ * '.idx' suffix), comprising an open-addressing hash table of the distinct request keys, and a table of the offset of
+ * each record in the capture file. It's built by scanning the capture file once, and reused by later replays until the
+ * capture file changes, as detected by a change to its length or last modified time. The index is read-only once
+ * built, so it can be shared by replays in concurrent processes. The heap used by a replay is therefore independent of
+ * the number of recorded exchanges - only the exchange being replayed is decoded onto the heap.
+ * <p>
+ * When the same request was recorded more than once, e.g. a Get Realm before and after the realm was deleted, its
+ * recorded responses are replayed in the order they were recorded, and the last one is repeated once they're
+ * exhausted. The position of the replay of each such request is private to this instance, and held on the heap, as it
+ * changes on every replay. Capture files larger than 2 GiB aren't supported, as that's the limit of a single mapping.
+ * <p>
+ * Safe for use by multiple concurrent threads.
+ */
+// package-protected
+final class RealmExchangeCaptureIndex implements Closeable {
+
+  static final String INDEX_FILE_SUFFIX = ".idx";
+
+  private static final int INDEX_MAGIC = 0x524c4d49; // "RLMI"
+  /** Version of the layout of the index, which is independent of the version of the capture file. */
+  private static final int INDEX_VERSION = 2;
+  /**
+   * Magic (int), version (int), capture file length (long), capture file last modified time in millis (long), slot
+   * count (int), record count (int).
+   */
+  private static final int INDEX_HEADER_BYTES = 32;
+  /** Key hash (long), number of first record with the key (int), number of last record with the key (int). */
+  private static final int SLOT_BYTES = 16;
+  /** Offset of record in capture file (long), number of next record with the same key (int), unused (int). */
+  private static final int RECORD_ENTRY_BYTES = 16;
+  /** Offsets within a capture file record of its key hash, key length and key. */
+  private static final int RECORD_KEY_HASH_OFFSET = 4;
+  private static final int RECORD_KEY_LENGTH_OFFSET = 12;
+  private static final int RECORD_KEY_OFFSET = 16;
+
+  private final MappedByteBuffer capture;
+  private final MappedByteBuffer index;
+  private final int slotCount;
+  private final int recordCount;
+  private final boolean rebuilt;
+  /**
+   * Number of the next record to replay, keyed by slot, for those requests recorded more than once which have been
+   * replayed. Other requests always replay their first record.
+   */
+  private final Map<Integer, Integer> cursorsBySlot = new ConcurrentHashMap<>();
+
+  private RealmExchangeCaptureIndex(MappedByteBuffer capture, MappedByteBuffer index, boolean rebuilt) {
+    this.capture = capture;
+    this.index = index;
+    this.slotCount = index.getInt(24);
+    this.recordCount = index.getInt(28);
+    this.rebuilt = rebuilt;
+  }
+
+  /**
+   * Opens a capture file for replay, building its index if it doesn't exist, or is out of date. The index is built in
+   * a temporary file which then replaces any existing index, so replays which have the existing index open, e.g. in
+   * other processes, are unaffected.
+   *
+   * @param captureFile The capture file.
+   * @return The index.
+   * @throws IOException If the capture file can't be read, isn't a capture file, or is too large, or the index can't
+   * be written.
+   */
+  static RealmExchangeCaptureIndex open(Path captureFile) throws IOException {
+    final MappedByteBuffer capture;
+    final long captureLastModifiedMillis = Files.getLastModifiedTime(captureFile).toMillis();
+    try (FileChannel captureChannel = FileChannel.open(captureFile, StandardOpenOption.READ)) {
+      if (captureChannel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Capture file [" + captureFile + "] of [" + captureChannel.size() + "] bytes is " +
+          "larger than the max supported size of 2 GiB.");
+      }
+      capture = captureChannel.map(FileChannel.MapMode.READ_ONLY, 0, captureChannel.size());
+    }
+    checkHeader(captureFile, capture);
+    final Path indexFile = indexFileFor(captureFile);
+    if (Files.exists(indexFile)) {
+      try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+        if (indexChannel.size() >= INDEX_HEADER_BYTES) {
+          final MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+          if (index.getInt(0) == INDEX_MAGIC && index.getInt(4) == INDEX_VERSION &&
+            index.getLong(8) == capture.capacity() && index.getLong(16) == captureLastModifiedMillis) {
+            return new RealmExchangeCaptureIndex(capture, index, false);
+          }
+        }
+      }
+    }
+    final Path tempIndexFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(),
+      indexFile.getFileName().toString(), ".tmp");
+    try {
+      final MappedByteBuffer index;
+      try (FileChannel indexChannel = FileChannel.open(tempIndexFile, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+        index = buildIndex(capture, captureLastModifiedMillis, indexChannel);
+      }
+      Files.move(tempIndexFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return new RealmExchangeCaptureIndex(capture, index, true);
+    } finally {
+      Files.deleteIfExists(tempIndexFile);
+    }
+  }
+
+  /**
+   * @return The path of the index of the supplied capture file.
+   */
+  static Path indexFileFor(Path captureFile) {
+    return Paths.get(captureFile.toString() + INDEX_FILE_SUFFIX);
+  }
+
+  /**
+   * Checks that the supplied file is a capture file, of a supported version.
+   *
+   * @throws IOException If it isn't.
+   */
+  static void checkHeader(Path captureFile) throws IOException {
+    try (FileChannel captureChannel = FileChannel.open(captureFile, StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(RealmExchangeCaptureWriter.HEADER_BYTES);
+      while (header.hasRemaining() && captureChannel.read(header) >= 0) {
+        // Read the whole header
+      }
+      header.flip();
+      checkHeader(captureFile, header);
+    }
+  }
+
+  private static void checkHeader(Path captureFile, ByteBuffer capture) throws IOException {
+    if (capture.limit() < RealmExchangeCaptureWriter.HEADER_BYTES ||
+      capture.getInt(0) != RealmExchangeCaptureWriter.MAGIC) {
+      throw new IOException("File [" + captureFile + "] is not a realm exchange capture file.");
+    }
+    if (capture.getInt(4) != RealmExchangeCaptureWriter.VERSION) {
+      throw new IOException("Capture file [" + captureFile + "] is of unsupported version [" + capture.getInt(4) +
+        "].");
+    }
+  }
+
+  /**
+   * Builds the index of a capture file, by scanning its records. A trailing record which is incomplete, e.g. because
+   * the recording was interrupted, is ignored.
+   */
+  private static MappedByteBuffer buildIndex(MappedByteBuffer capture, long captureLastModifiedMillis,
+    FileChannel indexChannel) throws IOException {
+    int recordCount = 0;
+    for (int offset = RealmExchangeCaptureWriter.HEADER_BYTES; isCompleteRecord(capture, offset);
+         offset += 4 + capture.getInt(offset)) {
+      recordCount++;
+    }
+    final int slotCount = Math.max(16, Integer.highestOneBit(Math.max(1, recordCount) * 2 - 1) << 1);
+    final MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+      INDEX_HEADER_BYTES + (long) slotCount * SLOT_BYTES + (long) recordCount * RECORD_ENTRY_BYTES);
+    final int recordsOffset = INDEX_HEADER_BYTES + slotCount * SLOT_BYTES;
+
+    int recordOffset = RealmExchangeCaptureWriter.HEADER_BYTES;
+    for (int record = 0; record < recordCount; record++) {
+      index.putLong(recordsOffset + record * RECORD_ENTRY_BYTES, recordOffset);
+      final long hash = capture.getLong(recordOffset + RECORD_KEY_HASH_OFFSET);
+      for (int slot = (int) hash & (slotCount - 1); ; slot = (slot + 1) & (slotCount - 1)) {
+        final int slotOffset = INDEX_HEADER_BYTES + slot * SLOT_BYTES;
+        final int head = index.getInt(slotOffset + 8);
+        if (head == 0) {
+          index.putLong(slotOffset, hash);
+          index.putInt(slotOffset + 8, record + 1);
+          index.putInt(slotOffset + 12, record + 1);
+          break;
+        }
+        final long headRecordOffset = index.getLong(recordsOffset + (head - 1) * RECORD_ENTRY_BYTES);
+        if (index.getLong(slotOffset) == hash && keysEqual(capture, (int) headRecordOffset, recordOffset)) {
+          final int tail = index.getInt(slotOffset + 12);
+          index.putInt(recordsOffset + (tail - 1) * RECORD_ENTRY_BYTES + 8, record + 1);
+          index.putInt(slotOffset + 12, record + 1);
+          break;
+        }
+      }
+      recordOffset += 4 + capture.getInt(recordOffset);
+    }
+    index.putLong(8, capture.capacity());
+    index.putLong(16, captureLastModifiedMillis);
+    index.putInt(24, slotCount);
+    index.putInt(28, recordCount);
+    index.putInt(4, INDEX_VERSION);
+    // Written last, so an index whose build was interrupted is rebuilt
+    index.putInt(0, INDEX_MAGIC);
+    index.force();
+    return index;
+  }
+
+  private static boolean isCompleteRecord(ByteBuffer capture, int offset) {
+    return offset + 4 <= capture.limit() && offset + 4 + (long) capture.getInt(offset) <= capture.limit();
+  }
+
+  /**
+   * @return The number of exchanges in the capture file.
+   */
+  int size() {
+    return this.recordCount;
+  }
+
+  /**
+   * @return True if the index was built when the capture file was opened, rather than an existing index being reused.
+   */
+  boolean wasRebuilt() {
+    return this.rebuilt;
+  }
+
+  /**
+   * Rewinds the replay of every request to its first recorded response.
+   */
+  void resetCursors() {
+    this.cursorsBySlot.clear();
+  }
+
+  /**
+   * Gets the next recorded exchange for a request.
+   *
+   * @param method The request's HTTP method.
+   * @param url The request's URL path and query string.
+   * @param body The request's body. May be null.
+   * @param contentType The request's Content-Type. May be null.
+   * @return The exchange, or null if the request wasn't recorded.
+   */
+  RealmExchange next(String method, String url, byte[] body, String contentType) {
+    final byte[] key = RealmExchange.key(method, url, body, contentType);
+    final long hash = RealmExchange.hash(key);
+    for (int slot = (int) hash & (this.slotCount - 1); ; slot = (slot + 1) & (this.slotCount - 1)) {
+      final int slotOffset = INDEX_HEADER_BYTES + slot * SLOT_BYTES;
+      final int head = this.index.getInt(slotOffset + 8);
+      if (head == 0) {
+        return null;
+      }
+      if (this.index.getLong(slotOffset) == hash && keyEquals(recordOffset(head - 1), key)) {
+        if (this.index.getInt(slotOffset + 12) == head) {
+          return get(head - 1);
+        }
+        final int[] record = new int[1];
+        this.cursorsBySlot.compute(slot, (s, cursor) -> {
+          record[0] = cursor != null ? cursor : head;
+          final int next = this.index.getInt(recordEntryOffset(record[0] - 1) + 8);
+          return next != 0 ? next : record[0];
+        });
+        return get(record[0] - 1);
+      }
+    }
+  }
+
+  /**
+   * Gets a recorded exchange by its position in the capture file, e.g. to re-send its request.
+   *
+   * @param recordNumber The zero-based position of the exchange in the capture file.
+   * @return The exchange.
+   */
+  RealmExchange get(int recordNumber) {
+    if (recordNumber < 0 || recordNumber >= this.recordCount) {
+      throw new IndexOutOfBoundsException("recordNumber [" + recordNumber + "] is not between 0 and [" +
+        this.recordCount + "].");
+    }
+    final int recordOffset = recordOffset(recordNumber);
+    final byte[] record = new byte[this.capture.getInt(recordOffset)];
+    final ByteBuffer recordBuffer = this.capture.duplicate();
+    recordBuffer.position(recordOffset + 4);
+    recordBuffer.get(record);
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+      in.readLong();
+      final byte[] key = new byte[in.readInt()];
+      in.readFully(key);
+      final String requestContentType = in.readUTF();
+      final int status = in.readInt();
+      final Map<String, String> responseHeaders = new LinkedHashMap<>();
+      for (int headerCount = in.readShort(); headerCount > 0; headerCount--) {
+        responseHeaders.put(in.readUTF(), in.readUTF());
+      }
+      final byte[] responseBody = new byte[in.readInt()];
+      in.readFully(responseBody);
+
+      final int methodEnd = indexOf(key, (byte) ' ', 0);
+      final int urlEnd = indexOf(key, (byte) '\n', methodEnd + 1);
+      final byte[] requestBody = new byte[key.length - urlEnd - 1];
+      System.arraycopy(key, urlEnd + 1, requestBody, 0, requestBody.length);
+      return new RealmExchange(new String(key, 0, methodEnd, StandardCharsets.UTF_8),
+        new String(key, methodEnd + 1, urlEnd - methodEnd - 1, StandardCharsets.UTF_8),
+        requestContentType.isEmpty() ? null : requestContentType, requestBody, status, responseHeaders, responseBody);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error decoding record [" + recordNumber + "] of capture file.", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    // Mapped buffers are unmapped when they're garbage collected, and the index isn't written once it's built
+  }
+
+  private int recordEntryOffset(int recordNumber) {
+    return INDEX_HEADER_BYTES + this.slotCount * SLOT_BYTES + recordNumber * RECORD_ENTRY_BYTES;
+  }
+
+  private int recordOffset(int recordNumber) {
+    return (int) this.index.getLong(recordEntryOffset(recordNumber));
+  }
+
+  private boolean keyEquals(int recordOffset, byte[] key) {
+    if (this.capture.getInt(recordOffset + RECORD_KEY_LENGTH_OFFSET) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (this.capture.get(recordOffset + RECORD_KEY_OFFSET + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean keysEqual(ByteBuffer capture, int recordOffset, int otherRecordOffset) {
+    final int keyLength = capture.getInt(recordOffset + RECORD_KEY_LENGTH_OFFSET);
+    if (capture.getInt(otherRecordOffset + RECORD_KEY_LENGTH_OFFSET) != keyLength) {
+      return false;
+    }
+    for (int i = 0; i < keyLength; i++) {
+      if (capture.get(recordOffset + RECORD_KEY_OFFSET + i) != capture.get(otherRecordOffset + RECORD_KEY_OFFSET + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] bytes, byte b, int fromIndex) {
+    for (int i = fromIndex; i < bytes.length; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    throw new IllegalStateException("Malformed exchange key in capture file.");
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Appends {@link RealmExchange exchanges} to a capture file, in a compact binary format.
+ * <p>
+ * The file starts with a header - a magic number and a format version. It's followed by one record per exchange, each
+ * prefixed by its length, so that a reader can skip from one to the next without decoding them. A record comprises the
+ * exchange's key hash, key (method, URL and normalised request body), request Content-Type, response status, response
+ * headers and response body. All numbers are big-endian.
+ * <p>
+ * If the file already exists, exchanges are appended to it, so that traffic can be captured over several runs. Safe for
+ * use by multiple concurrent threads.
+ */
+// package-protected
+final class RealmExchangeCaptureWriter implements Closeable {
+
+  static final int MAGIC = 0x524c4d58; // "RLMX"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 8;
+
+  private final DataOutputStream out;
+  private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(1024);
+  private final DataOutputStream record = new DataOutputStream(this.recordBuffer);
+  private long exchangeCount;
+
+  /**
+   * @param captureFile The capture file, which is created if it doesn't exist, or appended to if it does.
+   * @throws IOException If the file can't be opened, or an existing file isn't a capture file.
+   */
+  RealmExchangeCaptureWriter(Path captureFile) throws IOException {
+    final boolean exists = Files.exists(captureFile) && Files.size(captureFile) > 0;
+    if (exists) {
+      RealmExchangeCaptureIndex.checkHeader(captureFile);
+    }
+    this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(captureFile,
+      StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024));
+    if (!exists) {
+      this.out.writeInt(MAGIC);
+      this.out.writeInt(VERSION);
+    }
+  }
+
+  /**
+   * Appends an exchange to the capture file.
+   *
+   * @param exchange The exchange.
+   * @throws UncheckedIOException If the exchange can't be written.
+   */
+  synchronized void append(RealmExchange exchange) {
+    try {
+      this.recordBuffer.reset();
+      final byte[] key = exchange.key();
+      this.record.writeLong(RealmExchange.hash(key));
+      this.record.writeInt(key.length);
+      this.record.write(key);
+      this.record.writeUTF(exchange.getRequestContentType() != null ? exchange.getRequestContentType() : "");
+      this.record.writeInt(exchange.getStatus());
+      this.record.writeShort(exchange.getResponseHeaders().size());
+      for (Map.Entry<String, String> header : exchange.getResponseHeaders().entrySet()) {
+        this.record.writeUTF(header.getKey());
+        this.record.writeUTF(header.getValue());
+      }
+      this.record.writeInt(exchange.getResponseBody().length);
+      this.record.write(exchange.getResponseBody());
+      this.out.writeInt(this.recordBuffer.size());
+      this.recordBuffer.writeTo(this.out);
+      this.exchangeCount++;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error appending exchange [" + exchange + "] to capture file.", e);
+    }
+  }
+
+  /**
+   * @return The number of exchanges appended by this writer.
+   */
+  synchronized long getExchangeCount() {
+    return this.exchangeCount;
+  }
+
+  /**
+   * Flushes any buffered exchanges to the capture file.
+   */
+  synchronized void flush() throws IOException {
+    this.out.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.out.close();
+  }
+}
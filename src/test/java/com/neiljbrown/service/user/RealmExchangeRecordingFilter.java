@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.http.Header;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+
+/**
+ * A REST Assured {@link Filter} which records every exchange with the Realm APIs - request and response - to a capture
+ * file, so that the traffic can later be replayed, without the service, by the {@link RealmExchangeReplayer}.
+ * <p>
+ * Response headers which describe how the response was encoded on the wire, e.g. Content-Length and Content-Encoding,
+ * aren't recorded, as the body is recorded decoded, and the replaying server re-encodes it. Neither are the headers
+ * WireMock adds to identify the stub which matched the request, when recording against a stubbed service. Safe for use
+ * by multiple concurrent threads.
+ */
+// package-protected
+final class RealmExchangeRecordingFilter implements Filter, Closeable {
+
+  private static final Set<String> UNRECORDED_RESPONSE_HEADERS = new HashSet<>(Arrays.asList("content-length",
+    "content-encoding", "transfer-encoding", "connection", "date", "server", "vary", "matched-stub-id",
+    "matched-stub-name"));
+
+  private final RealmExchangeCaptureWriter captureWriter;
+
+  /**
+   * @param captureFile The capture file, which is created if it doesn't exist, or appended to if it does.
+   * @throws IOException If the capture file can't be opened.
+   */
+  RealmExchangeRecordingFilter(Path captureFile) throws IOException {
+    this.captureWriter = new RealmExchangeCaptureWriter(captureFile);
+  }
+
+  @Override
+  public Response filter(FilterableRequestSpecification requestSpec, FilterableResponseSpecification responseSpec,
+    FilterContext ctx) {
+    Response response = ctx.next(requestSpec, responseSpec);
+    final Map<String, String> responseHeaders = new LinkedHashMap<>();
+    for (Header header : response.getHeaders()) {
+      if (!UNRECORDED_RESPONSE_HEADERS.contains(header.getName().toLowerCase())) {
+        responseHeaders.put(header.getName(), header.getValue());
+      }
+    }
+    final URI uri = URI.create(requestSpec.getURI());
+    final String url = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+    this.captureWriter.append(new RealmExchange(requestSpec.getMethod(), url, requestSpec.getContentType(),
+      getRequestBody(requestSpec), response.getStatusCode(), responseHeaders, response.asByteArray()));
+    return response;
+  }
+
+  /**
+   * @return The number of exchanges recorded by this filter.
+   */
+  long getRecordedCount() {
+    return this.captureWriter.getExchangeCount();
+  }
+
+  /**
+   * Flushes any buffered exchanges to the capture file, so it can be replayed.
+   *
+   * @throws IOException If the exchanges can't be written.
+   */
+  void flush() throws IOException {
+    this.captureWriter.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.captureWriter.close();
+  }
+
+  private static byte[] getRequestBody(FilterableRequestSpecification requestSpec) {
+    Object body = requestSpec.getBody();
+    if (body == null) {
+      return new byte[0];
+    }
+    if (body instanceof byte[]) {
+      return (byte[]) body;
+    }
+    // REST Assured serialises object bodies to a string before invoking filters
+    return body.toString().getBytes(getCharset(requestSpec.getContentType()));
+  }
+
+  private static Charset getCharset(String contentType) {
+    org.apache.http.entity.ContentType parsedContentType = contentType != null ?
+      org.apache.http.entity.ContentType.parse(contentType) : null;
+    return parsedContentType != null && parsedContentType.getCharset() != null ? parsedContentType.getCharset() :
+      StandardCharsets.ISO_8859_1;
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmJsonCodec;
+import io.restassured.RestAssured;
+import io.restassured.specification.RequestSpecification;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests of recording exchanges with the Realm APIs to a capture file, using the {@link RealmExchangeRecordingFilter},
+ * and replaying them from WireMock, using the {@link RealmExchangeReplayer}.
+ * <p>
+ * Also contains an optional benchmark of replaying a large capture file, which is disabled by default. Enable it by
+ * setting the property 'realmExchangeReplayBenchmarkEnabled' to true. See application.properties for the other
+ * properties which configure it.
+ */
+public class RealmExchangeReplayTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmExchangeReplayTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "realmExchangeReplayBenchmarkEnabled";
+  private static final String BENCHMARK_CAPTURE_FILE_PROPERTY = "realmExchangeReplayBenchmarkCaptureFile";
+  private static final String BENCHMARK_EXCHANGES_PROPERTY = "realmExchangeReplayBenchmarkExchanges";
+  private static final String BENCHMARK_THREADS_PROPERTY = "realmExchangeReplayBenchmarkThreads";
+  private static final String BENCHMARK_DURATION_SECONDS_PROPERTY = "realmExchangeReplayBenchmarkDurationSeconds";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<WireMockServer> wireMockServers = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    this.wireMockServers.forEach(WireMockServer::stop);
+  }
+
+  /**
+   * Tests that exchanges recorded against the stand-in for the APIs are replayed with their recorded responses,
+   * including a request recorded more than once, whose responses are replayed in the order they were recorded, and a
+   * request whose body is formatted differently from when it was recorded.
+   */
+  @Test
+  public void givenRecordedExchangesThenReplayedInRecordedOrder() throws Exception {
+    final Path captureFile = this.temporaryFolder.getRoot().toPath().resolve("realm-api.capture");
+    final CompactUserRealm realm = CompactUserRealm.of("replay-realm", "Realm created whilst recording");
+    final UserRealmDto jsonRealm = new UserRealmDto("replay-realm-json", "Realm created as JSON whilst recording");
+    final List<RealmExchange> recordedExchanges = new ArrayList<>();
+    try (RealmExchangeRecordingFilter recordingFilter = new RealmExchangeRecordingFilter(captureFile)) {
+      WireMockServer standInServer = startWireMockServer(new RealmServiceStandIn());
+      standInServer.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+
+      final String createdRealmId = givenRecording(standInServer, recordingFilter)
+        .contentType(ContentType.APPLICATION_XML.getMimeType())
+        .body(realm.toXmlBytes())
+        .post(UserRealmApiConstants.CREATE_REALM_URL_PATH).then().statusCode(HttpStatus.SC_CREATED)
+        .extract().xmlPath().getString("realm.@id");
+      givenRecording(standInServer, recordingFilter)
+        .get(UserRealmApiConstants.GET_REALM_URL_PATH, createdRealmId).then().statusCode(HttpStatus.SC_OK);
+      givenRecording(standInServer, recordingFilter)
+        .queryParam(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, realm.getName())
+        .get(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH).then().statusCode(HttpStatus.SC_OK);
+      givenRecording(standInServer, recordingFilter)
+        .delete(UserRealmApiConstants.DELETE_REALM_URL_PATH, createdRealmId)
+        .then().statusCode(HttpStatus.SC_NO_CONTENT);
+      givenRecording(standInServer, recordingFilter)
+        .get(UserRealmApiConstants.GET_REALM_URL_PATH, createdRealmId).then().statusCode(HttpStatus.SC_NOT_FOUND);
+      givenRecording(standInServer, recordingFilter)
+        .contentType(ContentType.APPLICATION_JSON.getMimeType())
+        .accept(ContentType.APPLICATION_JSON.getMimeType())
+        .body(UserRealmJsonCodec.encode(jsonRealm))
+        .post(UserRealmApiConstants.CREATE_REALM_URL_PATH).then().statusCode(HttpStatus.SC_CREATED);
+
+      assertThat(recordingFilter.getRecordedCount()).isEqualTo(6);
+    }
+
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(captureIndex.size()).isEqualTo(6);
+      assertThat(captureIndex.wasRebuilt()).isTrue();
+      for (int i = 0; i < captureIndex.size(); i++) {
+        recordedExchanges.add(captureIndex.get(i));
+      }
+      assertThat(recordedExchanges).extracting(RealmExchange::getStatus).containsExactly(HttpStatus.SC_CREATED,
+        HttpStatus.SC_OK, HttpStatus.SC_OK, HttpStatus.SC_NO_CONTENT, HttpStatus.SC_NOT_FOUND, HttpStatus.SC_CREATED);
+
+      RealmExchangeReplayer replayer = new RealmExchangeReplayer(captureIndex);
+      WireMockServer replayServer = startWireMockServer(replayer);
+      replayServer.stubFor(RealmExchangeReplayer.replayStubMapping());
+      try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+        for (RealmExchange recordedExchange : recordedExchanges) {
+          assertReplayed(httpClient, replayServer, recordedExchange, recordedExchange.getRequestBody());
+        }
+
+        // Replaying the same requests again repeats the last response recorded for each
+        assertReplayed(httpClient, replayServer, recordedExchanges.get(4), new byte[0]);
+        // Reformatting the body of a request doesn't stop its recorded response being replayed
+        final String reformattedJsonRealm = new String(UserRealmJsonCodec.encode(jsonRealm), StandardCharsets.UTF_8)
+          .replace(",", ",\n  ");
+        assertReplayed(httpClient, replayServer, recordedExchanges.get(5),
+          reformattedJsonRealm.getBytes(StandardCharsets.UTF_8));
+        captureIndex.resetCursors();
+        assertReplayed(httpClient, replayServer, recordedExchanges.get(1), new byte[0]);
+
+        try (CloseableHttpResponse response = httpClient.execute(
+          RequestBuilder.get(replayServer.url("/user/realm/9999")).build())) {
+          assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_NOT_FOUND);
+          assertThat(EntityUtils.toString(response.getEntity())).contains("ExchangeNotRecorded");
+        }
+      }
+      assertThat(replayer.getReplayedCount()).isEqualTo(9);
+      assertThat(replayer.getMissedCount()).isEqualTo(1);
+    }
+  }
+
+  /**
+   * Tests that the index of a capture file is reused when it's reopened, and rebuilt once the capture file changes.
+   */
+  @Test
+  public void whenCaptureFileReopenedThenIndexReusedUntilCaptureFileChanges() throws Exception {
+    final Path captureFile = this.temporaryFolder.getRoot().toPath().resolve("realm-api.capture");
+    writeGetRealmByNameExchanges(captureFile, 0, 100);
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(captureIndex.wasRebuilt()).isTrue();
+      assertThat(captureIndex.size()).isEqualTo(100);
+    }
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(captureIndex.wasRebuilt()).isFalse();
+      assertThat(captureIndex.next("GET", getRealmByNameUrl(42), null, null).getResponseBody())
+        .isEqualTo(realmXml(42));
+    }
+
+    writeGetRealmByNameExchanges(captureFile, 100, 10);
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(captureIndex.wasRebuilt()).isTrue();
+      assertThat(captureIndex.size()).isEqualTo(110);
+      assertThat(captureIndex.next("GET", getRealmByNameUrl(105), null, null).getResponseBody())
+        .isEqualTo(realmXml(105));
+      assertThat(captureIndex.next("GET", getRealmByNameUrl(110), null, null)).isNull();
+    }
+  }
+
+  /**
+   * Tests that the index of a capture file is rebuilt when the capture file is rewritten with different exchanges, even
+   * if its length is unchanged.
+   */
+  @Test
+  public void whenCaptureFileRewrittenWithSameLengthThenIndexRebuilt() throws Exception {
+    final Path captureFile = this.temporaryFolder.getRoot().toPath().resolve("realm-api.capture");
+    writeGetRealmByNameExchanges(captureFile, 10, 10);
+    final long captureFileLength = Files.size(captureFile);
+    final FileTime lastModifiedTime = Files.getLastModifiedTime(captureFile);
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(captureIndex.wasRebuilt()).isTrue();
+    }
+
+    Files.delete(captureFile);
+    writeGetRealmByNameExchanges(captureFile, 20, 10);
+    assertThat(Files.size(captureFile)).isEqualTo(captureFileLength);
+    // Ensure the capture file's last modified time changes, even on file systems which only record it to the second
+    Files.setLastModifiedTime(captureFile, FileTime.fromMillis(lastModifiedTime.toMillis() + 1000));
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(captureIndex.wasRebuilt()).isTrue();
+      assertThat(captureIndex.next("GET", getRealmByNameUrl(25), null, null).getResponseBody())
+        .isEqualTo(realmXml(25));
+      assertThat(captureIndex.next("GET", getRealmByNameUrl(15), null, null)).isNull();
+    }
+  }
+
+  /**
+   * Tests that the replay of a request recorded more than once advances independently for each opening of the capture
+   * file, e.g. by replays in concurrent processes, as the index they share isn't written once it's built.
+   */
+  @Test
+  public void whenCaptureFileOpenedConcurrentlyThenEachReplaysRecordedResponsesInOrder() throws Exception {
+    final Path captureFile = this.temporaryFolder.getRoot().toPath().resolve("realm-api.capture");
+    final String url = getRealmByNameUrl(1);
+    try (RealmExchangeCaptureWriter writer = new RealmExchangeCaptureWriter(captureFile)) {
+      writer.append(new RealmExchange("GET", url, null, null, HttpStatus.SC_OK,
+        Collections.singletonMap("Content-Type", ContentType.APPLICATION_XML.getMimeType()), realmXml(1)));
+      writer.append(new RealmExchange("GET", url, null, null, HttpStatus.SC_NOT_FOUND, Collections.emptyMap(),
+        new byte[0]));
+    }
+    try (RealmExchangeCaptureIndex firstIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      assertThat(firstIndex.next("GET", url, null, null).getStatus()).isEqualTo(HttpStatus.SC_OK);
+      try (RealmExchangeCaptureIndex secondIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+        assertThat(secondIndex.wasRebuilt()).isFalse();
+        assertThat(firstIndex.next("GET", url, null, null).getStatus()).isEqualTo(HttpStatus.SC_NOT_FOUND);
+        assertThat(secondIndex.next("GET", url, null, null).getStatus()).isEqualTo(HttpStatus.SC_OK);
+        assertThat(secondIndex.next("GET", url, null, null).getStatus()).isEqualTo(HttpStatus.SC_NOT_FOUND);
+        assertThat(firstIndex.next("GET", url, null, null).getStatus()).isEqualTo(HttpStatus.SC_NOT_FOUND);
+      }
+    }
+  }
+
+  /**
+   * Benchmarks replaying a large capture file - either the one configured, or one generated with the configured number
+   * of distinct Get Realm by Name exchanges - from many threads, and reports the time taken to index it, the heap used
+   * to open it, and the throughput of replaying it.
+   */
+  @Test
+  public void benchmarkReplayOfLargeCaptureFile() throws Exception {
+    final ImmutableConfiguration config = new Configurations().combined("config.xml");
+    assumeTrue("Realm exchange replay benchmark is disabled.",
+      config.getBoolean(BENCHMARK_ENABLED_PROPERTY, Boolean.FALSE));
+    final int threads = config.getInt(BENCHMARK_THREADS_PROPERTY, 16);
+    final Duration duration = Duration.ofSeconds(config.getLong(BENCHMARK_DURATION_SECONDS_PROPERTY, 20L));
+    final String configuredCaptureFile = config.getString(BENCHMARK_CAPTURE_FILE_PROPERTY, null);
+    final Path captureFile;
+    if (configuredCaptureFile != null) {
+      captureFile = Paths.get(configuredCaptureFile);
+    } else {
+      captureFile = this.temporaryFolder.getRoot().toPath().resolve("realm-api.capture");
+      writeGetRealmByNameExchanges(captureFile, 0, config.getInt(BENCHMARK_EXCHANGES_PROPERTY, 200000));
+    }
+
+    final long heapUsedBeforeOpen = heapUsedAfterGc();
+    final long openStartNanos = System.nanoTime();
+    try (RealmExchangeCaptureIndex captureIndex = RealmExchangeCaptureIndex.open(captureFile)) {
+      final long openNanos = System.nanoTime() - openStartNanos;
+      final long heapUsedToOpen = Math.max(0, heapUsedAfterGc() - heapUsedBeforeOpen);
+
+      RealmExchangeReplayer replayer = new RealmExchangeReplayer(captureIndex);
+      WireMockServer replayServer = new WireMockServer(wireMockConfig()
+        .dynamicPort()
+        .containerThreads(threads * 2)
+        .disableRequestJournal()
+        .extensions(replayer));
+      this.wireMockServers.add(replayServer);
+      replayServer.start();
+      replayServer.stubFor(RealmExchangeReplayer.replayStubMapping());
+
+      final LongAdder errors = new LongAdder();
+      final long endNanos = System.nanoTime() + duration.toNanos();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try (CloseableHttpClient httpClient = HttpClients.custom()
+        .setMaxConnTotal(threads)
+        .setMaxConnPerRoute(threads)
+        .build()) {
+        List<Future<?>> clients = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+          clients.add(executor.submit(() -> {
+            while (System.nanoTime() < endNanos) {
+              RealmExchange exchange = captureIndex.get(ThreadLocalRandom.current().nextInt(captureIndex.size()));
+              try (CloseableHttpResponse response = httpClient.execute(toRequest(replayServer, exchange,
+                exchange.getRequestBody()))) {
+                EntityUtils.consume(response.getEntity());
+                if (response.getStatusLine().getStatusCode() != exchange.getStatus()) {
+                  errors.increment();
+                }
+              } catch (IOException e) {
+                errors.increment();
+              }
+            }
+            return null;
+          }));
+        }
+        for (Future<?> client : clients) {
+          client.get();
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+
+      logger.info("Replayed capture file [{}] of [{}] exchanges, [{}] bytes, with index of [{}] bytes - {}" +
+          "{} index in [{} ms], using [{}] bytes of heap; replayed [{}] requests from [{}] threads at [{} req/s], " +
+          "missed [{}], errors [{}]", captureFile, captureIndex.size(), Files.size(captureFile),
+        Files.size(RealmExchangeCaptureIndex.indexFileFor(captureFile)), System.lineSeparator(),
+        captureIndex.wasRebuilt() ? "Built" : "Reused", openNanos / 1_000_000, heapUsedToOpen,
+        replayer.getReplayedCount(), threads, String.format("%.0f", replayer.getReplayedCount() /
+          (duration.toNanos() / 1e9)), replayer.getMissedCount(), errors.sum());
+      assertThat(replayer.getMissedCount()).isZero();
+      assertThat(errors.sum()).isZero();
+    }
+  }
+
+  private WireMockServer startWireMockServer(com.github.tomakehurst.wiremock.extension.Extension extension) {
+    WireMockServer server = new WireMockServer(wireMockConfig().dynamicPort().extensions(extension));
+    this.wireMockServers.add(server);
+    server.start();
+    return server;
+  }
+
+  private static RequestSpecification givenRecording(WireMockServer server,
+    RealmExchangeRecordingFilter recordingFilter) {
+    return RestAssured
+      .given()
+        .port(server.port())
+        .basePath("")
+        .accept(ContentType.APPLICATION_XML.getMimeType())
+        .filter(recordingFilter);
+  }
+
+  private static void assertReplayed(CloseableHttpClient httpClient, WireMockServer replayServer,
+    RealmExchange recordedExchange, byte[] requestBody) throws IOException {
+    try (CloseableHttpResponse response = httpClient.execute(toRequest(replayServer, recordedExchange, requestBody))) {
+      assertThat(response.getStatusLine().getStatusCode()).as("Status of replayed %s", recordedExchange)
+        .isEqualTo(recordedExchange.getStatus());
+      final byte[] responseBody = response.getEntity() != null ? EntityUtils.toByteArray(response.getEntity()) :
+        new byte[0];
+      assertThat(responseBody).as("Body of replayed %s", recordedExchange)
+        .isEqualTo(recordedExchange.getResponseBody());
+      recordedExchange.getResponseHeaders().forEach((name, value) ->
+        assertThat(response.getFirstHeader(name).getValue()).as("Header [%s] of replayed %s", name, recordedExchange)
+          .isEqualTo(value));
+    }
+  }
+
+  private static HttpUriRequest toRequest(WireMockServer server, RealmExchange exchange, byte[] requestBody) {
+    RequestBuilder request = RequestBuilder.create(exchange.getMethod()).setUri(server.url(exchange.getUrl()));
+    if (requestBody.length > 0) {
+      request.setEntity(new ByteArrayEntity(requestBody, ContentType.parse(exchange.getRequestContentType())));
+    }
+    return request.build();
+  }
+
+  /**
+   * Writes the supplied number of distinct Get Realm by Name exchanges to a capture file, each for a realm whose name
+   * is derived from its number.
+   */
+  private static void writeGetRealmByNameExchanges(Path captureFile, int firstRealmNumber, int count)
+    throws IOException {
+    try (RealmExchangeCaptureWriter writer = new RealmExchangeCaptureWriter(captureFile)) {
+      for (int i = firstRealmNumber; i < firstRealmNumber + count; i++) {
+        writer.append(new RealmExchange("GET", getRealmByNameUrl(i), null, null, HttpStatus.SC_OK,
+          Collections.singletonMap("Content-Type", ContentType.APPLICATION_XML.getMimeType()), realmXml(i)));
+      }
+    }
+  }
+
+  private static String getRealmByNameUrl(int realmNumber) {
+    return UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH + "?" + UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME +
+      "=realm-" + realmNumber;
+  }
+
+  private static byte[] realmXml(int realmNumber) {
+    return CompactUserRealm.of(realmNumber % UserRealmConstants.ID_MAX + 1, "realm-" + realmNumber,
+      "Recorded realm " + realmNumber, "92f1aea4bb92c3661a9c85ee81503e28").toXmlBytes();
+  }
+
+  private static long heapUsedAfterGc() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.anyUrl;
+
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.github.tomakehurst.wiremock.client.MappingBuilder;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Replays exchanges with the Realm APIs recorded by the {@link RealmExchangeRecordingFilter}, implemented as a WireMock
+ * extension, so that captured service traffic can be replayed at high speed without the service.
+ * <p>
+ * Each request is looked up in the memory-mapped {@link RealmExchangeCaptureIndex index} of the capture file by its
+ * method, URL and normalised body, and answered with the recorded response. Requests which weren't recorded are
+ * answered with 404 Not Found and the error code 'ExchangeNotRecorded', and counted, so a replay can verify it had no
+ * misses.
+ * <p>
+ * To use the replayer, register it as an extension of the WireMock server, and then register the stub which applies it
+ * to all requests - see {@link #replayStubMapping()}. Safe for use by multiple concurrent requests.
+ */
+// package-protected
+final class RealmExchangeReplayer extends ResponseDefinitionTransformer {
+
+  static final String NAME = "realm-exchange-replayer";
+
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  private final RealmExchangeCaptureIndex captureIndex;
+  private final LongAdder replayedCount = new LongAdder();
+  private final LongAdder missedCount = new LongAdder();
+
+  /**
+   * @param captureIndex The index of the capture file whose exchanges are replayed.
+   */
+  RealmExchangeReplayer(RealmExchangeCaptureIndex captureIndex) {
+    this.captureIndex = captureIndex;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean applyGlobally() {
+    return false;
+  }
+
+  @Override
+  public ResponseDefinition transform(Request request, ResponseDefinition responseDefinition, FileSource files,
+    Parameters parameters) {
+    final RealmExchange exchange = this.captureIndex.next(request.getMethod().getName(), request.getUrl(),
+      request.getBody(), request.getHeader("Content-Type"));
+    if (exchange == null) {
+      this.missedCount.increment();
+      return new ResponseDefinitionBuilder()
+        .withStatus(HttpStatus.SC_NOT_FOUND)
+        .withHeader("Content-Type", ContentType.APPLICATION_XML.getMimeType())
+        .withBody(notRecordedErrorXml(request))
+        .build();
+    }
+    this.replayedCount.increment();
+    final ResponseDefinitionBuilder response = new ResponseDefinitionBuilder().withStatus(exchange.getStatus());
+    for (Map.Entry<String, String> header : exchange.getResponseHeaders().entrySet()) {
+      response.withHeader(header.getKey(), header.getValue());
+    }
+    return response.withBody(exchange.getResponseBody()).build();
+  }
+
+  /**
+   * @return The XML representation of the error returned for a request which wasn't recorded, written using StAX, which
+   * escapes the request's URL.
+   */
+  private static String notRecordedErrorXml(Request request) {
+    final StringWriter body = new StringWriter();
+    try {
+      final XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(body);
+      writer.writeStartElement("error");
+      writer.writeStartElement("code");
+      writer.writeCharacters("ExchangeNotRecorded");
+      writer.writeEndElement();
+      writer.writeStartElement("message");
+      writer.writeCharacters("No exchange recorded for request [" + request.getMethod() + " " + request.getUrl() +
+        "].");
+      writer.writeEndElement();
+      writer.writeEndElement();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new RuntimeException("Error serialising error for request [" + request.getUrl() + "]. Cause [" +
+        e.toString() + "].", e);
+    }
+    return body.toString();
+  }
+
+  /**
+   * @return A WireMock stub mapping which matches all requests, and delegates responding to them to the replayer.
+   */
+  static MappingBuilder replayStubMapping() {
+    return any(anyUrl())
+      .willReturn(
+        aResponse()
+          .withTransformers(NAME));
+  }
+
+  /**
+   * @return The number of requests answered with a recorded response.
+   */
+  long getReplayedCount() {
+    return this.replayedCount.sum();
+  }
+
+  /**
+   * @return The number of requests for which no exchange was recorded.
+   */
+  long getMissedCount() {
+    return this.missedCount.sum();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates and deletes large numbers of realms, as fixtures for tests which need a pre-populated User service, by
+ * making Create and Delete Realm API calls in parallel, from a configurable number of threads.
+ * <p>
+ * Uses a {@link RealmApiHttpClient} rather than REST Assured, so that the client's overhead per call is minimal, and
+ * sends each realm's {@link CompactUserRealm#toXmlBytes() cached XML}. The loader's single-call methods can also be
+ * used to measure individual API calls against the populated service. Safe for use by multiple threads.
+ */
+// package-protected
+final class RealmFixtureLoader implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmFixtureLoader.class);
+
+  private final int threads;
+  private final RealmApiHttpClient httpClient;
+  private final ExecutorService executor;
+
+  /**
+   * @param baseUri The base URI of the User service.
+   * @param threads The number of threads from which API calls are made in parallel.
+   */
+  RealmFixtureLoader(URI baseUri, int threads) {
+    this.threads = threads;
+    this.httpClient = new RealmApiHttpClient(baseUri, threads);
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "realm-fixture-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Creates the specified number of realms, with unique names and max length descriptions, in parallel.
+   *
+   * @param count The number of realms to create.
+   * @return The created realms. Fewer than the requested number if any API calls failed, e.g. if the max number of
+   * realms was reached.
+   * @throws InterruptedException If interrupted whilst waiting for the realms to be created.
+   */
+  List<CompactUserRealm> createRealms(int count) throws InterruptedException {
+    final long startNanos = System.nanoTime();
+    final List<CompactUserRealm> createdRealms = inParallel(count, i -> createRealm(CompactUserRealm.of(
+      AbstractRealmApiTest.generateUniqueRealmName(), AbstractRealmApiTest.generateRealmDescription())));
+    logger.info("Created [{}] of [{}] realms from [{}] threads in [{}] ms.", createdRealms.size(), count,
+      this.threads, (System.nanoTime() - startNanos) / 1_000_000);
+    return createdRealms;
+  }
+
+  /**
+   * Deletes the supplied realms in parallel.
+   *
+   * @param realms The realms to delete. Must have IDs.
+   * @return The number of realms deleted.
+   * @throws InterruptedException If interrupted whilst waiting for the realms to be deleted.
+   */
+  int deleteRealms(Collection<CompactUserRealm> realms) throws InterruptedException {
+    final List<CompactUserRealm> realmsToDelete = new ArrayList<>(realms);
+    return inParallel(realmsToDelete.size(), i -> deleteRealm(realmsToDelete.get(i).getId()) ?
+      realmsToDelete.get(i) : null).size();
+  }
+
+  /**
+   * Makes a Create Realm API call.
+   *
+   * @param realm The realm to create.
+   * @return The created realm, or null if the call failed.
+   */
+  CompactUserRealm createRealm(CompactUserRealm realm) {
+    final byte[] createdRealmXml = execute(this.httpClient.createRealmRequest(realm.toXmlBytes()),
+      HttpStatus.SC_CREATED);
+    if (createdRealmXml == null) {
+      return null;
+    }
+    try {
+      return CompactUserRealm.from(UserRealmXmlCodec.decode(createdRealmXml));
+    } catch (IllegalArgumentException e) {
+      logger.debug("Error parsing created realm. Cause [{}].", e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * Makes a Get Realm API call.
+   *
+   * @param realmId The ID of the realm to get.
+   * @return True if the call succeeded.
+   */
+  boolean getRealm(int realmId) {
+    return execute(this.httpClient.getRealmRequest(Integer.toString(realmId)), HttpStatus.SC_OK) != null;
+  }
+
+  /**
+   * Makes a Delete Realm API call.
+   *
+   * @param realmId The ID of the realm to delete.
+   * @return True if the call succeeded.
+   */
+  boolean deleteRealm(int realmId) {
+    return execute(this.httpClient.deleteRealmRequest(Integer.toString(realmId)), HttpStatus.SC_NO_CONTENT) != null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.executor.shutdownNow();
+    this.httpClient.close();
+  }
+
+  /**
+   * Applies a task to each of the indexes from zero to count - 1, in parallel.
+   *
+   * @return The non-null results of the tasks.
+   */
+  private <T> List<T> inParallel(int count, Function<Integer, T> task) throws InterruptedException {
+    List<Future<T>> futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      futures.add(this.executor.submit(() -> task.apply(index)));
+    }
+    List<T> results = new ArrayList<>(count);
+    for (Future<T> future : futures) {
+      try {
+        final T result = future.get();
+        if (result != null) {
+          results.add(result);
+        }
+      } catch (ExecutionException e) {
+        logger.debug("Fixture task failed. Cause [{}].", e.getCause().toString());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return The body of the response, or null if the call failed or returned an unexpected status.
+   */
+  private byte[] execute(HttpUriRequest request, int expectedStatus) {
+    try {
+      final RealmApiHttpClient.Response response = this.httpClient.execute(request);
+      return response.getStatus() == expectedStatus ? response.getBody() : null;
+    } catch (IOException e) {
+      logger.debug("Error executing request [{}]. Cause [{}].", request, e.toString());
+      return null;
+    }
+  }
+}
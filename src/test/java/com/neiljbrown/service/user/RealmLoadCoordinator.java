@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinates generating a load of Realm API calls from multiple processes. Forks a number of local worker JVMs, each
+ * running a {@link RealmLoadWorker} against the same User service, waits for them to complete, and then merges the
+ * {@link RealmLoadResult results} written by each into one, with exact combined latency percentiles.
+ * <p>
+ * Scales the load across cores and processes, beyond what a single JVM can generate, without an external load-testing
+ * service. Workers are launched using the same Java runtime and classpath as the coordinator.
+ */
+// package-protected
+final class RealmLoadCoordinator {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmLoadCoordinator.class);
+
+  /**
+   * Extra time allowed for a worker to start, and write its results, beyond the duration of its load.
+   */
+  private static final Duration WORKER_COMPLETION_GRACE = Duration.ofMinutes(1);
+
+  private final int workers;
+  private final int threadsPerWorker;
+  private final List<String> workerJvmArgs;
+
+  /**
+   * @param workers The number of worker JVMs to fork.
+   * @param threadsPerWorker The number of threads each worker uses to run the workload.
+   * @param workerJvmArgs Any additional arguments for the worker JVMs, e.g. -Xmx512m.
+   */
+  RealmLoadCoordinator(int workers, int threadsPerWorker, List<String> workerJvmArgs) {
+    this.workers = workers;
+    this.threadsPerWorker = threadsPerWorker;
+    this.workerJvmArgs = new ArrayList<>(workerJvmArgs);
+  }
+
+  /**
+   * Runs the realm workload from all the workers in parallel.
+   *
+   * @param baseUri The base URI of the User service.
+   * @param duration How long each worker should run the workload for.
+   * @param outputDir The directory to which each worker's results file and console output is written.
+   * @return The merged results of all the workers.
+   * @throws IOException If there's an error forking a worker, or reading its results.
+   * @throws InterruptedException If interrupted whilst waiting for the workers to complete.
+   */
+  RealmLoadResult run(URI baseUri, Duration duration, Path outputDir) throws IOException, InterruptedException {
+    Files.createDirectories(outputDir);
+    final String javaExecutable = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    List<Process> processes = new ArrayList<>();
+    List<Path> resultFiles = new ArrayList<>();
+    try {
+      for (int i = 1; i <= this.workers; i++) {
+        final Path resultFile = outputDir.resolve("worker-" + i + ".properties");
+        Files.deleteIfExists(resultFile);
+        resultFiles.add(resultFile);
+        List<String> command = new ArrayList<>(Arrays.asList(javaExecutable, "-cp",
+          System.getProperty("java.class.path")));
+        command.addAll(this.workerJvmArgs);
+        command.addAll(Arrays.asList(RealmLoadWorker.class.getName(), baseUri.toString(),
+          Integer.toString(this.threadsPerWorker), Long.toString(duration.getSeconds()), resultFile.toString()));
+        final File logFile = outputDir.resolve("worker-" + i + ".log").toFile();
+        processes.add(new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start());
+      }
+      logger.info("Forked [{}] load workers, each with [{}] threads, running for [{}] against [{}].", this.workers,
+        this.threadsPerWorker, duration, baseUri);
+
+      final long timeoutMillis = duration.plus(WORKER_COMPLETION_GRACE).toMillis();
+      for (int i = 0; i < processes.size(); i++) {
+        Process process = processes.get(i);
+        if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw new IllegalStateException("Load worker [" + (i + 1) + "] did not complete within [" + timeoutMillis +
+            "] millis. See [" + outputDir + "] for its output.");
+        }
+        if (process.exitValue() != 0) {
+          throw new IllegalStateException("Load worker [" + (i + 1) + "] failed with exit value [" +
+            process.exitValue() + "]. See [" + outputDir + "] for its output.");
+        }
+      }
+    } finally {
+      processes.forEach(Process::destroyForcibly);
+    }
+
+    RealmLoadResult mergedResult = new RealmLoadResult();
+    for (Path resultFile : resultFiles) {
+      mergedResult.merge(RealmLoadResult.readFrom(resultFile));
+    }
+    return mergedResult;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The results of running a load of Realm API calls - the latency of every call, recorded in an HdrHistogram, and a count
+ * of the calls which failed, per {@link RealmApiEndpoint}.
+ * <p>
+ * Results can be written to, and read from a file, and results read from several files can be merged. This supports
+ * generating load from multiple processes (see {@link RealmLoadCoordinator}) and then reporting exact percentiles for
+ * the load as a whole, which can't be derived from the percentiles reported by each process. Recording is safe for use
+ * by multiple threads.
+ */
+// package-protected
+final class RealmLoadResult {
+
+  private static final String HISTOGRAM_PROPERTY_SUFFIX = ".latencyMicrosHistogram";
+  private static final String ERRORS_PROPERTY_SUFFIX = ".errors";
+  private static final String ELAPSED_NANOS_PROPERTY = "elapsedNanos";
+  private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+
+  private final Map<RealmApiEndpoint, Histogram> latencyMicrosByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+  private final Map<RealmApiEndpoint, LongAdder> errorsByEndpoint = new EnumMap<>(RealmApiEndpoint.class);
+  private volatile long elapsedNanos;
+
+  RealmLoadResult() {
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      this.latencyMicrosByEndpoint.put(endpoint, new ConcurrentHistogram(SIGNIFICANT_VALUE_DIGITS));
+      this.errorsByEndpoint.put(endpoint, new LongAdder());
+    }
+  }
+
+  /**
+   * Records the outcome of an API call.
+   *
+   * @param endpoint The endpoint invoked by the call.
+   * @param latencyNanos The latency of the call.
+   * @param failed {@code true} if the call failed.
+   */
+  void record(RealmApiEndpoint endpoint, long latencyNanos, boolean failed) {
+    this.latencyMicrosByEndpoint.get(endpoint).recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    if (failed) {
+      this.errorsByEndpoint.get(endpoint).increment();
+    }
+  }
+
+  /**
+   * @param elapsedNanos The elapsed time over which the load was run. When results are merged, the longest elapsed
+   * time is retained, as the loads are assumed to have run in parallel.
+   */
+  void setElapsedNanos(long elapsedNanos) {
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * @return The elapsed time over which the load was run.
+   */
+  long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  /**
+   * @return The number of calls made to an endpoint.
+   */
+  long getCalls(RealmApiEndpoint endpoint) {
+    return this.latencyMicrosByEndpoint.get(endpoint).getTotalCount();
+  }
+
+  /**
+   * @return The number of calls made to an endpoint which failed.
+   */
+  long getErrors(RealmApiEndpoint endpoint) {
+    return this.errorsByEndpoint.get(endpoint).sum();
+  }
+
+  /**
+   * @return The histogram of the latency, in microseconds, of the calls made to an endpoint.
+   */
+  Histogram getLatencyMicros(RealmApiEndpoint endpoint) {
+    return this.latencyMicrosByEndpoint.get(endpoint);
+  }
+
+  /**
+   * Merges another set of results into this one.
+   *
+   * @param other The results to merge.
+   * @return This result, supporting chaining.
+   */
+  RealmLoadResult merge(RealmLoadResult other) {
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      this.latencyMicrosByEndpoint.get(endpoint).add(other.latencyMicrosByEndpoint.get(endpoint));
+      this.errorsByEndpoint.get(endpoint).add(other.getErrors(endpoint));
+    }
+    this.elapsedNanos = Math.max(this.elapsedNanos, other.elapsedNanos);
+    return this;
+  }
+
+  /**
+   * Writes the results to a file, encoding each histogram in HdrHistogram's compressed, base64 format.
+   *
+   * @param file The file to write.
+   * @throws IOException If there's an error writing the file.
+   */
+  void writeTo(Path file) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(ELAPSED_NANOS_PROPERTY, Long.toString(this.elapsedNanos));
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      Histogram histogram = this.latencyMicrosByEndpoint.get(endpoint);
+      ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+      final int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+      properties.setProperty(endpoint.name() + HISTOGRAM_PROPERTY_SUFFIX,
+        Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length)));
+      properties.setProperty(endpoint.name() + ERRORS_PROPERTY_SUFFIX, Long.toString(getErrors(endpoint)));
+    }
+    try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      properties.store(writer, "Realm API load results");
+    }
+  }
+
+  /**
+   * Reads results previously written to a file using {@link #writeTo(Path)}.
+   *
+   * @param file The file to read.
+   * @return The results.
+   * @throws IOException If there's an error reading or decoding the file.
+   */
+  static RealmLoadResult readFrom(Path file) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    RealmLoadResult result = new RealmLoadResult();
+    result.elapsedNanos = Long.parseLong(properties.getProperty(ELAPSED_NANOS_PROPERTY, "0"));
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      final String encodedHistogram = properties.getProperty(endpoint.name() + HISTOGRAM_PROPERTY_SUFFIX);
+      if (encodedHistogram != null) {
+        try {
+          result.latencyMicrosByEndpoint.get(endpoint).add(Histogram.decodeFromCompressedByteBuffer(
+            ByteBuffer.wrap(Base64.getDecoder().decode(encodedHistogram)), 0));
+        } catch (DataFormatException e) {
+          throw new IOException("Error decoding histogram for endpoint [" + endpoint + "] in file [" + file + "].", e);
+        }
+      }
+      result.errorsByEndpoint.get(endpoint).add(
+        Long.parseLong(properties.getProperty(endpoint.name() + ERRORS_PROPERTY_SUFFIX, "0")));
+    }
+    return result;
+  }
+
+  /**
+   * @return A tabular report of the throughput, errors and latency percentiles of the calls to each endpoint.
+   */
+  String report() {
+    final double elapsedSeconds = this.elapsedNanos / 1e9;
+    StringBuilder report = new StringBuilder(String.format("%-30s %9s %7s %9s %9s %9s %9s %9s %9s%n", "Endpoint",
+      "Calls", "Errors", "Calls/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "Max(ms)"));
+    for (RealmApiEndpoint endpoint : RealmApiEndpoint.values()) {
+      Histogram histogram = this.latencyMicrosByEndpoint.get(endpoint);
+      report.append(String.format("%-30s %9d %7d %9.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n", endpoint,
+        histogram.getTotalCount(), getErrors(endpoint), elapsedSeconds > 0 ? histogram.getTotalCount() /
+          elapsedSeconds : 0, histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+        histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+        histogram.getMaxValue() / 1000.0));
+    }
+    return report.toString();
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A load worker which runs the realm workload - repeatedly creating, getting and deleting a realm - against a User
+ * service, from a configurable number of threads, for a configurable duration, and then writes its
+ * {@link RealmLoadResult results} to a file.
+ * <p>
+ * Designed to be run in its own JVM, one of several forked by a {@link RealmLoadCoordinator}, so that the load isn't
+ * limited by what a single JVM can generate. Uses a {@link RealmApiHttpClient} rather than REST Assured, so that the
+ * client's overhead per call is minimal.
+ * <p>
+ * Usage: RealmLoadWorker &lt;baseUri&gt; &lt;threads&gt; &lt;durationSeconds&gt; &lt;resultFile&gt;
+ */
+// package-protected
+final class RealmLoadWorker {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmLoadWorker.class);
+
+  private final URI baseUri;
+  private final int threads;
+  private final Duration duration;
+
+  RealmLoadWorker(URI baseUri, int threads, Duration duration) {
+    this.baseUri = baseUri;
+    this.threads = threads;
+    this.duration = duration;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      System.err.println("Usage: " + RealmLoadWorker.class.getName() + " <baseUri> <threads> <durationSeconds> " +
+        "<resultFile>");
+      System.exit(2);
+    }
+    RealmLoadWorker worker = new RealmLoadWorker(URI.create(args[0]), Integer.parseInt(args[1]),
+      Duration.ofSeconds(Long.parseLong(args[2])));
+    final Path resultFile = Paths.get(args[3]);
+    worker.run().writeTo(resultFile);
+    logger.info("Wrote load results to [{}].", resultFile);
+  }
+
+  /**
+   * Runs the realm workload.
+   *
+   * @return The results.
+   * @throws Exception If any of the threads running the workload fails unexpectedly.
+   */
+  RealmLoadResult run() throws Exception {
+    final RealmLoadResult result = new RealmLoadResult();
+    ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    try (RealmApiHttpClient httpClient = new RealmApiHttpClient(this.baseUri, this.threads)) {
+      final long startNanos = System.nanoTime();
+      final long endNanos = startNanos + this.duration.toNanos();
+      List<Future<?>> clients = new ArrayList<>();
+      for (int i = 0; i < this.threads; i++) {
+        clients.add(executor.submit(() -> {
+          while (System.nanoTime() < endNanos) {
+            createGetAndDeleteRealm(httpClient, result);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> client : clients) {
+        client.get();
+      }
+      result.setElapsedNanos(System.nanoTime() - startNanos);
+    } finally {
+      executor.shutdownNow();
+    }
+    logger.info("Completed realm workload against [{}] -{}{}", this.baseUri, System.lineSeparator(), result.report());
+    return result;
+  }
+
+  /**
+   * Creates the realm workload, without a worker, for use by a load driver which runs it from threads of its own, e.g.
+   * using a {@link CapacityRamp}.
+   *
+   * @param httpClient The HTTP client used to make the API calls.
+   * @return The workload. Each iteration creates, gets and then deletes a realm, checking only the status of each
+   * response. Safe for use by multiple concurrent threads.
+   */
+  static CapacityRamp.Workload workload(RealmApiHttpClient httpClient) {
+    return result -> createGetAndDeleteRealm(httpClient, result);
+  }
+
+  /**
+   * Runs one iteration of the realm workload - creates, gets and then deletes a realm - recording the latency and
+   * outcome of each API call. Safe for use by multiple concurrent threads.
+   *
+   * @param httpClient The HTTP client used to make the API calls.
+   * @param result The results, in which to record the API calls.
+   */
+  private static void createGetAndDeleteRealm(RealmApiHttpClient httpClient, RealmLoadResult result) {
+    final UserRealmDto realm = new UserRealmDto(AbstractRealmApiTest.generateUniqueRealmName(),
+      AbstractRealmApiTest.generateRealmDescription());
+    final byte[] createdRealmXml = execute(httpClient, httpClient.createRealmRequest(UserRealmXmlCodec.encode(realm)),
+      RealmApiEndpoint.CREATE_REALM, HttpStatus.SC_CREATED, result);
+    if (createdRealmXml == null) {
+      return;
+    }
+    final String realmId = UserRealmXmlCodec.decode(createdRealmXml).getId();
+    execute(httpClient, httpClient.getRealmRequest(realmId), RealmApiEndpoint.GET_REALM, HttpStatus.SC_OK, result);
+    execute(httpClient, httpClient.deleteRealmRequest(realmId), RealmApiEndpoint.DELETE_REALM,
+      HttpStatus.SC_NO_CONTENT, result);
+  }
+
+  /**
+   * Executes an API call, recording its latency and outcome.
+   *
+   * @return The body of the response, or null if the call failed.
+   */
+  private static byte[] execute(RealmApiHttpClient httpClient, HttpUriRequest request, RealmApiEndpoint endpoint,
+    int expectedStatus, RealmLoadResult result) {
+    final long startNanos = System.nanoTime();
+    byte[] body = null;
+    try {
+      final RealmApiHttpClient.Response response = httpClient.execute(request);
+      if (response.getStatus() == expectedStatus) {
+        body = response.getBody();
+      }
+    } catch (IOException e) {
+      logger.debug("Error executing request [{}]. Cause [{}].", request, e.toString());
+    }
+    result.record(endpoint, System.nanoTime() - startNanos, body == null);
+    return body;
+  }
+}
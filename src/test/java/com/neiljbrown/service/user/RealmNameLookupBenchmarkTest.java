@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A benchmark of the latency of the Get Realm by Name API as the number of realms grows, up to the max number of
+ * realms ({@link UserRealmConstants#ID_MAX}), compared with that of the Get Realm (by ID) API.
+ * <p>
+ * Realms are created in increasing numbers, and at each configured realm count, the names and IDs of randomly selected
+ * existing realms are looked up, and the latency percentiles of each API reported. A lookup by name which is backed by
+ * an index should show no more growth in latency with realm count than a lookup by ID. Uses a lightweight HTTP client
+ * rather than REST Assured, so that the client's overhead per call is minimal. All created realms are deleted when the
+ * benchmark completes.
+ * <p>
+ * Runs against the {@link RealmServiceStandIn in-memory stand-in} for the APIs, unless the property
+ * 'realmNameLookupBenchmarkBaseUri' is set. Disabled by default. Enable by setting the property
+ * 'realmNameLookupBenchmarkEnabled' to true.
+ */
+public class RealmNameLookupBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmNameLookupBenchmarkTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "realmNameLookupBenchmarkEnabled";
+  private static final String BENCHMARK_BASE_URI_PROPERTY = "realmNameLookupBenchmarkBaseUri";
+  private static final String BENCHMARK_REALM_COUNTS_PROPERTY = "realmNameLookupBenchmarkRealmCounts";
+  private static final String BENCHMARK_LOOKUPS_PER_REALM_COUNT_PROPERTY = "realmNameLookupBenchmarkLookups";
+
+  private static final Pattern REALM_ID_PATTERN = Pattern.compile("\\bid=\"(\\d+)\"");
+
+  private ImmutableConfiguration config;
+  private WireMockServer wireMockServer;
+  private URI baseUri;
+  private CloseableHttpClient httpClient;
+  private final List<CompactUserRealm> createdRealms = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    this.config = new Configurations().combined("config.xml");
+    assumeTrue("Realm name lookup benchmark is disabled.",
+      this.config.getBoolean(BENCHMARK_ENABLED_PROPERTY, Boolean.FALSE));
+    if (this.config.containsKey(BENCHMARK_BASE_URI_PROPERTY)) {
+      this.baseUri = URI.create(this.config.getString(BENCHMARK_BASE_URI_PROPERTY));
+    } else {
+      this.wireMockServer = new WireMockServer(
+        WireMockConfigurationFactory.create(this.config).extensions(new RealmServiceStandIn()));
+      this.wireMockServer.start();
+      this.wireMockServer.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+      this.baseUri = URI.create("http://localhost:" + this.wireMockServer.port());
+    }
+    this.httpClient = HttpClients.createDefault();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (this.httpClient != null) {
+      for (CompactUserRealm realm : this.createdRealms) {
+        execute(new HttpDelete(this.baseUri.resolve(UserRealmApiConstants.CREATE_REALM_URL_PATH + "/" +
+          realm.getId())));
+      }
+      this.httpClient.close();
+    }
+    if (this.wireMockServer != null) {
+      this.wireMockServer.stop();
+    }
+  }
+
+  /**
+   * Benchmarks the latency of getting realms by name, and by ID, at each of the configured realm counts.
+   */
+  @Test
+  public void benchmarkGetRealmByNameVersusRealmCount() throws Exception {
+    final int lookups = this.config.getInt(BENCHMARK_LOOKUPS_PER_REALM_COUNT_PROPERTY, 5000);
+    final StringBuilder report = new StringBuilder(String.format("%8s %-20s %10s %10s %10s %10s%n", "Realms",
+      "Endpoint", "Mean(ms)", "p50(ms)", "p99(ms)", "Max(ms)"));
+    long errors = 0;
+    final String[] realmCounts = StringUtils.split(this.config.getString(BENCHMARK_REALM_COUNTS_PROPERTY, "1000"), ',');
+    for (String realmCount : realmCounts) {
+      final int targetRealmCount = Math.min(Integer.parseInt(realmCount.trim()), UserRealmConstants.ID_MAX);
+      createRealms(targetRealmCount - this.createdRealms.size());
+
+      final Histogram byNameLatency = new Histogram(3);
+      final Histogram byIdLatency = new Histogram(3);
+      // Warm up, unmeasured, then alternate lookups by name and ID so that both see the same conditions
+      for (int i = 0; i < lookups / 10; i++) {
+        lookUpRandomRealm(null, null);
+      }
+      for (int i = 0; i < lookups; i++) {
+        errors += lookUpRandomRealm(byNameLatency, byIdLatency);
+      }
+      appendReportRow(report, this.createdRealms.size(), RealmApiEndpoint.GET_REALM_BY_NAME, byNameLatency);
+      appendReportRow(report, this.createdRealms.size(), RealmApiEndpoint.GET_REALM, byIdLatency);
+    }
+    logger.info("Get Realm by Name versus Get Realm (by ID) latency by realm count -{}{}", System.lineSeparator(),
+      report);
+    assertThat(errors).as("Failed lookups").isZero();
+  }
+
+  private void createRealms(int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      final CompactUserRealm realm = CompactUserRealm.of(AbstractRealmApiTest.generateUniqueRealmName(),
+        AbstractRealmApiTest.generateRealmDescription());
+      final HttpPost createRequest = new HttpPost(this.baseUri.resolve(UserRealmApiConstants.CREATE_REALM_URL_PATH));
+      createRequest.setEntity(new ByteArrayEntity(realm.toXmlBytes(), ContentType.APPLICATION_XML));
+      final String createdRealmXml = execute(createRequest);
+      final Matcher realmId = createdRealmXml != null ? REALM_ID_PATTERN.matcher(createdRealmXml) : null;
+      if (realmId == null || !realmId.find()) {
+        throw new IllegalStateException("Failed to create realm [" + realm + "] after creating [" +
+          this.createdRealms.size() + "] realms. Response [" + createdRealmXml + "].");
+      }
+      this.createdRealms.add(realm.withId(Integer.parseInt(realmId.group(1))));
+    }
+  }
+
+  /**
+   * Gets a randomly selected existing realm by name, and another by ID, recording the latency of each.
+   *
+   * @return The number of lookups which failed.
+   */
+  private int lookUpRandomRealm(Histogram byNameLatency, Histogram byIdLatency) throws Exception {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final CompactUserRealm realmByName = this.createdRealms.get(random.nextInt(this.createdRealms.size()));
+    final CompactUserRealm realmById = this.createdRealms.get(random.nextInt(this.createdRealms.size()));
+    final URI byNameUri = new URIBuilder(this.baseUri.resolve(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH))
+      .addParameter(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, realmByName.getName())
+      .build();
+    final URI byIdUri = this.baseUri.resolve(UserRealmApiConstants.CREATE_REALM_URL_PATH + "/" + realmById.getId());
+    return timedGet(byNameUri, byNameLatency) + timedGet(byIdUri, byIdLatency);
+  }
+
+  private int timedGet(URI uri, Histogram latency) throws IOException {
+    final long startNanos = System.nanoTime();
+    final String body = execute(new HttpGet(uri));
+    if (latency != null) {
+      latency.recordValue((System.nanoTime() - startNanos) / 1000);
+    }
+    return body != null ? 0 : 1;
+  }
+
+  /**
+   * @return The body of the response, or null if the request didn't succeed.
+   */
+  private String execute(HttpUriRequest request) throws IOException {
+    try (CloseableHttpResponse response = this.httpClient.execute(request)) {
+      final String body = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : "";
+      return response.getStatusLine().getStatusCode() < HttpStatus.SC_MULTIPLE_CHOICES ? body : null;
+    }
+  }
+
+  private static void appendReportRow(StringBuilder report, int realmCount, RealmApiEndpoint endpoint,
+    Histogram latencyMicros) {
+    report.append(String.format("%8d %-20s %10.3f %10.3f %10.3f %10.3f%n", realmCount, endpoint.name(),
+      latencyMicros.getMean() / 1000, latencyMicros.getValueAtPercentile(50) / 1000.0,
+      latencyMicros.getValueAtPercentile(99) / 1000.0, latencyMicros.getMaxValue() / 1000.0));
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmJsonCodec;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A micro-benchmark which compares the XML and JSON representations of a realm, to inform a decision on whether to
+ * migrate the APIs' default format.
+ * <p>
+ * For a set of realms populated with random names and max length descriptions, reports the mean payload size of
+ * each representation, raw and gzip compressed, and the throughput of encoding (serialising) and decoding (parsing) it
+ * in a single thread - using JAXB for XML, as the tests and REST Assured do, and Jackson for JSON. Each codec is warmed
+ * up before it's measured, so that the comparison is of JIT compiled code.
+ * <p>
+ * Disabled by default. Enable by setting the property 'realmRepresentationBenchmarkEnabled' to true.
+ */
+public class RealmRepresentationBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmRepresentationBenchmarkTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "realmRepresentationBenchmarkEnabled";
+  private static final String BENCHMARK_REALMS_PROPERTY = "realmRepresentationBenchmarkRealms";
+  private static final String BENCHMARK_WARM_UP_ITERATIONS_PROPERTY = "realmRepresentationBenchmarkWarmUpIterations";
+  private static final String BENCHMARK_ITERATIONS_PROPERTY = "realmRepresentationBenchmarkIterations";
+
+  private ImmutableConfiguration config;
+
+  @Before
+  public void setUp() throws Exception {
+    this.config = new Configurations().combined("config.xml");
+    assumeTrue("Realm representation benchmark is disabled.",
+      this.config.getBoolean(BENCHMARK_ENABLED_PROPERTY, Boolean.FALSE));
+  }
+
+  /**
+   * Benchmarks the size and encode/decode throughput of the XML and JSON representations of the same set of realms.
+   */
+  @Test
+  public void benchmarkXmlVersusJson() throws Exception {
+    final List<UserRealmDto> realms = createRealms(this.config.getInt(BENCHMARK_REALMS_PROPERTY, 1000));
+    final long warmUpIterations = this.config.getLong(BENCHMARK_WARM_UP_ITERATIONS_PROPERTY, 200_000L);
+    final long iterations = this.config.getLong(BENCHMARK_ITERATIONS_PROPERTY, 1_000_000L);
+
+    final CodecResult xmlResult = benchmark("XML (JAXB)", realms, UserRealmXmlCodec::encode,
+      UserRealmXmlCodec::decode, warmUpIterations, iterations);
+    final CodecResult jsonResult = benchmark("JSON (Jackson)", realms, UserRealmJsonCodec::encode,
+      UserRealmJsonCodec::decode, warmUpIterations, iterations);
+
+    logger.info("Realm representation benchmark - realms [{}], iterations [{}]{}{}{}{}{}{}", realms.size(), iterations,
+      System.lineSeparator(), CodecResult.HEADER, System.lineSeparator(), xmlResult.format(), System.lineSeparator(),
+      jsonResult.format());
+    assertThat(jsonResult.meanBytes).as("Mean size of JSON versus XML representation")
+      .isLessThan(xmlResult.meanBytes);
+  }
+
+  private static List<UserRealmDto> createRealms(int count) {
+    List<UserRealmDto> realms = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      realms.add(new UserRealmDto(Integer.toString(UserRealmConstants.ID_MIN + i % UserRealmConstants.ID_MAX),
+        AbstractRealmApiTest.generateUniqueRealmName(), AbstractRealmApiTest.generateRealmDescription(),
+        AbstractRealmApiTest.generateRealmKey()));
+    }
+    return realms;
+  }
+
+  private static CodecResult benchmark(String codecName, List<UserRealmDto> realms,
+    Function<UserRealmDto, byte[]> encoder, Function<byte[], UserRealmDto> decoder, long warmUpIterations,
+    long iterations) {
+    final List<byte[]> encodedRealms = new ArrayList<>(realms.size());
+    long totalBytes = 0, totalGzippedBytes = 0;
+    for (UserRealmDto realm : realms) {
+      final byte[] encoded = encoder.apply(realm);
+      assertThat(decoder.apply(encoded)).as("%s round trip", codecName).isEqualTo(realm);
+      encodedRealms.add(encoded);
+      totalBytes += encoded.length;
+      totalGzippedBytes += GzipContentEncodingInterceptor.gzip(encoded).length;
+    }
+    final CodecResult result = new CodecResult(codecName, totalBytes / (double) realms.size(),
+      totalGzippedBytes / (double) realms.size());
+
+    measure(realms, encoder::apply, warmUpIterations);
+    result.encodeNanos = measure(realms, encoder::apply, iterations);
+    measure(encodedRealms, decoder::apply, warmUpIterations);
+    result.decodeNanos = measure(encodedRealms, decoder::apply, iterations);
+    result.iterations = iterations;
+    return result;
+  }
+
+  /**
+   * Applies an operation to the supplied inputs, cycling through them, for the specified number of iterations.
+   *
+   * @return The elapsed time in nanoseconds.
+   */
+  private static <T> long measure(List<T> inputs, Function<T, Object> operation, long iterations) {
+    long sink = 0;
+    final long startNanos = System.nanoTime();
+    for (long i = 0; i < iterations; i++) {
+      // Consume the result, so that the JIT compiler can't eliminate the operation as dead code
+      sink += operation.apply(inputs.get((int) (i % inputs.size()))).hashCode();
+    }
+    final long elapsedNanos = System.nanoTime() - startNanos;
+    logger.debug("Sink [{}].", sink);
+    return elapsedNanos;
+  }
+
+  /**
+   * The results of a benchmark of a codec.
+   */
+  private static final class CodecResult {
+    private static final String HEADER = String.format("%-16s %12s %14s %18s %18s", "Codec", "Mean bytes",
+      "Mean gzipped", "Encodes/s", "Decodes/s");
+
+    private final String codecName;
+    private final double meanBytes;
+    private final double meanGzippedBytes;
+    private long iterations;
+    private long encodeNanos;
+    private long decodeNanos;
+
+    private CodecResult(String codecName, double meanBytes, double meanGzippedBytes) {
+      this.codecName = codecName;
+      this.meanBytes = meanBytes;
+      this.meanGzippedBytes = meanGzippedBytes;
+    }
+
+    private String format() {
+      return String.format("%-16s %12.1f %14.1f %18.0f %18.0f", this.codecName, this.meanBytes,
+        this.meanGzippedBytes, this.iterations / (this.encodeNanos / 1e9), this.iterations / (this.decodeNanos / 1e9));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Validates requests to the Realm APIs on the client-side, against the same constraints on realms as the service - see
+ * {@link UserRealmConstants} - so that requests which the service would reject with 400 Bad Request fail fast, without
+ * a network round trip.
+ * <p>
+ * Each method throws an {@link InvalidRealmRequestException} with the same error code and message as the API's error
+ * response to the invalid request, e.g. 'MissingRealmName', so that callers can handle errors detected locally and by
+ * the service in the same way. Constraints are checked in the same order as the service checks them, so that a request
+ * which violates several is rejected with the same error. Only constraints which can be checked without the service's
+ * state are validated - e.g. a duplicate realm name is only detected by the service.
+ */
+// package-protected
+final class RealmRequestValidator {
+
+  private static final String REALM_ID_PATTERN = "^\\d{1,9}$";
+
+  private RealmRequestValidator() {
+    // Static utility class
+  }
+
+  /**
+   * Validates the realm in a Create Realm request.
+   *
+   * @param realm The realm to create.
+   * @throws InvalidRealmRequestException If the realm's name is missing or too long, or its description is too long.
+   */
+  static void validateCreateRealm(UserRealmDto realm) {
+    validateCreateRealm(realm.getName(), realm.getDescription());
+  }
+
+  /**
+   * Validates the realm in a Create Realm request.
+   *
+   * @param realm The realm to create.
+   * @throws InvalidRealmRequestException If the realm's name is missing or too long, or its description is too long.
+   */
+  static void validateCreateRealm(CompactUserRealm realm) {
+    validateCreateRealm(realm.getName(), realm.getDescription());
+  }
+
+  /**
+   * Validates the name of a realm, as supplied to the Create Realm and Get Realm by Name APIs.
+   *
+   * @param realmName The realm name.
+   * @throws InvalidRealmRequestException If the name is blank (MissingRealmName), or longer than the max
+   * (InvalidRealmName).
+   */
+  static void validateRealmName(String realmName) {
+    if (StringUtils.isBlank(realmName)) {
+      throw new InvalidRealmRequestException("MissingRealmName", "Realm name is mandatory and must be supplied.");
+    }
+    if (realmName.length() > UserRealmConstants.NAME_MAX_LEN) {
+      throw new InvalidRealmRequestException("InvalidRealmName", "Realm name should not be longer than " +
+        UserRealmConstants.NAME_MAX_LEN + " chars.");
+    }
+  }
+
+  /**
+   * Validates a realm ID, as supplied to the Get, Get Realms and Delete Realm APIs.
+   *
+   * @param realmId The realm ID.
+   * @throws InvalidRealmRequestException If the ID isn't an integer in the range of valid IDs (InvalidRealmId).
+   */
+  static void validateRealmId(String realmId) {
+    if (realmId == null || !realmId.matches(REALM_ID_PATTERN) || Integer.parseInt(realmId) < UserRealmConstants.ID_MIN
+      || Integer.parseInt(realmId) > UserRealmConstants.ID_MAX) {
+      throw new InvalidRealmRequestException("InvalidRealmId", "Invalid realm id [" + realmId + "].");
+    }
+  }
+
+  /**
+   * Validates the realm IDs in a Get Realms request.
+   *
+   * @param realmIds The realm IDs.
+   * @throws InvalidRealmRequestException If any of the IDs is invalid (InvalidRealmId), or there are more distinct IDs
+   * than the max per request (TooManyRealmIds).
+   */
+  static void validateRealmIds(Collection<String> realmIds) {
+    final Set<String> distinctRealmIds = new LinkedHashSet<>();
+    for (String realmId : realmIds) {
+      validateRealmId(realmId);
+      distinctRealmIds.add(Integer.toString(Integer.parseInt(realmId)));
+    }
+    if (distinctRealmIds.size() > UserRealmApiConstants.GET_REALMS_MAX_IDS) {
+      throw new InvalidRealmRequestException("TooManyRealmIds", "No more than " +
+        UserRealmApiConstants.GET_REALMS_MAX_IDS + " realm ids may be requested.");
+    }
+  }
+
+  private static void validateCreateRealm(String realmName, String realmDescription) {
+    validateRealmName(realmName);
+    if (StringUtils.length(realmDescription) > UserRealmConstants.DESCRIPTION_MAX_LEN) {
+      throw new InvalidRealmRequestException("InvalidRealmDescription", "Realm description should not be longer " +
+        "than " + UserRealmConstants.DESCRIPTION_MAX_LEN + " chars.");
+    }
+  }
+
+  /**
+   * Signals that a request to the Realm APIs is invalid, and would be rejected by the service. Identifies the error
+   * using the same code as the API.
+   */
+  static final class InvalidRealmRequestException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String code;
+
+    /**
+     * @param code The API's error code, e.g. MissingRealmName.
+     * @param message The API's error message.
+     */
+    InvalidRealmRequestException(String code, String message) {
+      super(message);
+      this.code = code;
+    }
+
+    /**
+     * @return The API's error code, e.g. MissingRealmName.
+     */
+    String getCode() {
+      return this.code;
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "[code=" + this.code + ", message=" + getMessage() + "]";
+    }
+  }
+}
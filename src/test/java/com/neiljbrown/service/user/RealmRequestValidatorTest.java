@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.neiljbrown.service.user.RealmRequestValidator.InvalidRealmRequestException;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import io.restassured.RestAssured;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests of the client-side {@link RealmRequestValidator}, including parity tests which check that it rejects the same
+ * invalid requests as the service, with the same error code and message, and accepts the same valid requests, including
+ * those at the limits of each constraint.
+ * <p>
+ * The service is represented by the {@link RealmServiceStandIn in-memory stand-in} for the APIs, which implements
+ * their specified constraints independently of the validator.
+ */
+public class RealmRequestValidatorTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmRequestValidatorTest.class);
+
+  public RealmRequestValidatorTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    stubRealmServiceStandIn();
+  }
+
+  /**
+   * Makes the realm helper methods validate their requests client-side.
+   */
+  @Override
+  RealmApiTransport createRealmApiTransport() {
+    return new ValidatingRealmApiTransport(super.createRealmApiTransport());
+  }
+
+  /**
+   * Tests the validator rejects the same invalid Create Realm requests as the service, with the same error.
+   */
+  @Test
+  public void givenInvalidCreateRealmRequestsThenSameErrorsAsService() {
+    final String tooLongName = generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN + 1);
+    final String tooLongDescription = generateRandomAlphabeticString(UserRealmConstants.DESCRIPTION_MAX_LEN + 1);
+    final List<UserRealmDto> invalidRealms = Arrays.asList(
+      new UserRealmDto(""),
+      new UserRealmDto("   "),
+      new UserRealmDto("", tooLongDescription),
+      new UserRealmDto(tooLongName),
+      new UserRealmDto(tooLongName, tooLongDescription),
+      new UserRealmDto(generateUniqueRealmName(), tooLongDescription));
+
+    for (UserRealmDto invalidRealm : invalidRealms) {
+      assertSameErrorAsService(() -> RealmRequestValidator.validateCreateRealm(invalidRealm),
+        RestAssured
+          .given()
+            .basePath(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+            .contentType(ContentType.APPLICATION_XML.getMimeType())
+            .body(invalidRealm)
+          .when()
+            .post()
+          .then()
+            .extract());
+    }
+    assertThat(this.realmServiceStandIn.getRealmCount()).isEqualTo(0);
+  }
+
+  /**
+   * Tests the validator accepts Create Realm requests whose name and description are of the max length, as does the
+   * service.
+   */
+  @Test
+  public void givenCreateRealmRequestsAtLimitsThenValid() {
+    final UserRealmDto realm = new UserRealmDto(generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN),
+      generateRandomAlphabeticString(UserRealmConstants.DESCRIPTION_MAX_LEN));
+
+    RealmRequestValidator.validateCreateRealm(realm);
+    final UserRealmDto createdRealm = createRealmResource(realm);
+
+    assertThat(createdRealm.getName()).isEqualTo(realm.getName());
+  }
+
+  /**
+   * Tests the validator rejects the same invalid realm IDs as the Get Realm and Get Realms APIs, and accepts the min
+   * and max IDs.
+   */
+  @Test
+  public void givenInvalidRealmIdsThenSameErrorsAsService() {
+    for (String invalidRealmId : Arrays.asList(Integer.toString(UserRealmConstants.ID_MIN - 1),
+      Integer.toString(UserRealmConstants.ID_MAX + 1), "-1", "1234567890", "abc", "1.0")) {
+      assertSameErrorAsService(() -> RealmRequestValidator.validateRealmId(invalidRealmId),
+        RestAssured
+          .given()
+            .basePath("")
+            .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, invalidRealmId)
+          .when()
+            .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+          .then()
+            .extract());
+      final List<String> realmIds = Arrays.asList(Integer.toString(UserRealmConstants.ID_MIN), invalidRealmId);
+      assertSameErrorAsService(() -> RealmRequestValidator.validateRealmIds(realmIds), whenGetRealms(realmIds));
+    }
+
+    for (int validRealmId : new int[] {UserRealmConstants.ID_MIN, UserRealmConstants.ID_MAX}) {
+      RealmRequestValidator.validateRealmId(Integer.toString(validRealmId));
+      RestAssured
+        .given()
+          .basePath("")
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, validRealmId)
+        .when()
+          .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+        .then()
+          .assertThat().statusCode(HttpStatus.SC_NOT_FOUND);
+    }
+  }
+
+  /**
+   * Tests the validator rejects Get Realms requests for more than the max number of distinct realm IDs, as does the
+   * service, and accepts requests for the max number, counting duplicate IDs once.
+   */
+  @Test
+  public void givenTooManyRealmIdsThenSameErrorAsService() {
+    final List<String> tooManyRealmIds = realmIdRange(UserRealmApiConstants.GET_REALMS_MAX_IDS + 1);
+
+    assertSameErrorAsService(() -> RealmRequestValidator.validateRealmIds(tooManyRealmIds),
+      whenGetRealms(tooManyRealmIds));
+
+    final List<String> maxRealmIds = realmIdRange(UserRealmApiConstants.GET_REALMS_MAX_IDS);
+    maxRealmIds.add(maxRealmIds.get(0));
+    RealmRequestValidator.validateRealmIds(maxRealmIds);
+    assertThat(getRealmResources(maxRealmIds)).isEmpty();
+  }
+
+  /**
+   * Tests the validator rejects the same invalid realm names as the Get Realm by Name API, with the same error.
+   */
+  @Test
+  public void givenInvalidRealmNamesThenSameErrorsAsService() {
+    for (String invalidRealmName : Arrays.asList("", "   ",
+      generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN + 1))) {
+      assertSameErrorAsService(() -> RealmRequestValidator.validateRealmName(invalidRealmName),
+        RestAssured
+          .given()
+            .basePath("")
+            .queryParam(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, invalidRealmName)
+          .when()
+            .get(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH)
+          .then()
+            .extract());
+    }
+  }
+
+  /**
+   * Tests that when client-side validation is enabled, invalid requests made using the realm helper methods fail fast,
+   * with the API's error code, and are never sent to the service.
+   */
+  @Test
+  public void givenClientSideValidationThenInvalidRequestsNeverSent() {
+    assertInvalidRealmRequest(catchThrowable(() -> createRealmResource(new UserRealmDto(" "))), "MissingRealmName");
+    assertInvalidRealmRequest(catchThrowable(() -> createRealmResource(new UserRealmDto(
+      generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN + 1)))), "InvalidRealmName");
+    assertInvalidRealmRequest(catchThrowable(() -> getRealmResource(Integer.toString(UserRealmConstants.ID_MAX + 1))),
+      "InvalidRealmId");
+    assertInvalidRealmRequest(catchThrowable(() -> getRealmResources(Collections.singletonList("abc"))),
+      "InvalidRealmId");
+    assertInvalidRealmRequest(catchThrowable(() -> getRealmResourceByName("")), "MissingRealmName");
+    assertInvalidRealmRequest(catchThrowable(() -> deleteRealmResource(UserRealmConstants.ID_MIN - 1)),
+      "InvalidRealmId");
+
+    assertThat(WireMock.getAllServeEvents()).as("Requests received by service").isEmpty();
+  }
+
+  /**
+   * Asserts that the validation of a request fails with the same error code and message as the service's response to
+   * the request.
+   */
+  private static void assertSameErrorAsService(Runnable validation, ExtractableResponse<Response> serviceResponse) {
+    assertThat(serviceResponse.statusCode()).as("Status of service response [%s]", serviceResponse.asString())
+      .isEqualTo(HttpStatus.SC_BAD_REQUEST);
+    final Throwable validationFailure = catchThrowable(validation::run);
+    assertInvalidRealmRequest(validationFailure, serviceResponse.path("error.code"));
+    assertThat(validationFailure.getMessage()).isEqualTo(serviceResponse.path("error.message"));
+  }
+
+  private static void assertInvalidRealmRequest(Throwable failure, String expectedCode) {
+    assertThat(failure).isInstanceOf(InvalidRealmRequestException.class);
+    assertThat(((InvalidRealmRequestException) failure).getCode()).as("Code of [%s]", failure).isEqualTo(expectedCode);
+  }
+
+  private static ExtractableResponse<Response> whenGetRealms(List<String> realmIds) {
+    return
+      RestAssured
+        .given()
+          .basePath("")
+          .queryParam(UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME, realmIds)
+        .when()
+          .get(UserRealmApiConstants.GET_REALMS_URL_PATH)
+        .then()
+          .extract();
+  }
+
+  private static List<String> realmIdRange(int count) {
+    return IntStream.range(UserRealmConstants.ID_MIN, UserRealmConstants.ID_MIN + count).mapToObj(Integer::toString)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+}
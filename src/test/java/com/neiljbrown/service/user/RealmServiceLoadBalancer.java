@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A client-side load balancer which distributes the API requests made by the tests across several nodes on which the
+ * User service runs, implemented as a REST Assured {@link Filter}.
+ * <p>
+ * Each request is sent to a node selected using the configured {@link LoadBalancingStrategy}, by rewriting the base URI
+ * and port of the request. Nodes are passively health-checked, based on the outcome of the requests sent to them. A
+ * node is ejected - excluded from selection for a configured period - when a configured number of consecutive requests
+ * to it fail (with a 5xx response or an I/O error), or when its moving average latency exceeds a configured threshold.
+ * If all nodes are ejected, requests are balanced across all of them, rather than failing.
+ */
+// package-protected
+final class RealmServiceLoadBalancer implements Filter {
+
+  static final String BASE_URIS_PROPERTY = "realmServiceBaseUris";
+  static final String STRATEGY_PROPERTY = "realmServiceLoadBalancingStrategy";
+  static final String EJECTION_CONSECUTIVE_FAILURES_PROPERTY = "realmServiceEjectionConsecutiveFailures";
+  static final String EJECTION_LATENCY_THRESHOLD_MILLIS_PROPERTY = "realmServiceEjectionLatencyThresholdMillis";
+  static final String EJECTION_DURATION_SECONDS_PROPERTY = "realmServiceEjectionDurationSeconds";
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmServiceLoadBalancer.class);
+
+  private final List<RealmServiceNode> nodes;
+  private final LoadBalancingStrategy strategy;
+  private final int ejectionConsecutiveFailures;
+  private final long ejectionLatencyThresholdMillis;
+  private final Duration ejectionDuration;
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * @param baseUris The base URIs of the nodes, comprising their scheme, host and port.
+   * @param strategy The strategy used to select a node for each request.
+   * @param ejectionConsecutiveFailures The number of consecutive failed requests after which a node is ejected. Zero
+   * disables ejection on failure.
+   * @param ejectionLatencyThresholdMillis The moving average latency above which a node is ejected. Zero disables
+   * ejection on latency.
+   * @param ejectionDuration The period for which an ejected node is excluded.
+   */
+  RealmServiceLoadBalancer(List<URI> baseUris, LoadBalancingStrategy strategy, int ejectionConsecutiveFailures,
+    long ejectionLatencyThresholdMillis, Duration ejectionDuration) {
+    Validate.notEmpty(baseUris, "baseUris must not be empty.");
+    this.nodes = Collections.unmodifiableList(baseUris.stream().map(RealmServiceNode::new).collect(
+      Collectors.toList()));
+    this.strategy = Validate.notNull(strategy, "strategy must not be null.");
+    this.ejectionConsecutiveFailures = ejectionConsecutiveFailures;
+    this.ejectionLatencyThresholdMillis = ejectionLatencyThresholdMillis;
+    this.ejectionDuration = Validate.notNull(ejectionDuration, "ejectionDuration must not be null.");
+  }
+
+  /**
+   * Creates a load balancer from the application's configuration, if multiple nodes are configured.
+   *
+   * @param config The application's configuration.
+   * @return The load balancer, or null if no base URIs are configured.
+   */
+  static RealmServiceLoadBalancer fromConfiguration(ImmutableConfiguration config) {
+    // List delimiter parsing is disabled in the configuration, so split the URIs here
+    final String baseUris = config.getString(BASE_URIS_PROPERTY, "");
+    if (StringUtils.isBlank(baseUris)) {
+      return null;
+    }
+    return new RealmServiceLoadBalancer(
+      Arrays.stream(StringUtils.split(baseUris, ',')).map(String::trim).map(URI::create).collect(Collectors.toList()),
+      LoadBalancingStrategy.valueOf(config.getString(STRATEGY_PROPERTY, LoadBalancingStrategy.ROUND_ROBIN.name())
+        .toUpperCase()),
+      config.getInt(EJECTION_CONSECUTIVE_FAILURES_PROPERTY, 3),
+      config.getLong(EJECTION_LATENCY_THRESHOLD_MILLIS_PROPERTY, 0L),
+      Duration.ofSeconds(config.getLong(EJECTION_DURATION_SECONDS_PROPERTY, 30L)));
+  }
+
+  @Override
+  public Response filter(FilterableRequestSpecification requestSpec, FilterableResponseSpecification responseSpec,
+    FilterContext ctx) {
+    final RealmServiceNode node = selectNode();
+    final URI baseUri = node.getBaseUri();
+    requestSpec.baseUri(baseUri.getScheme() + "://" + baseUri.getHost());
+    requestSpec.port(baseUri.getPort());
+
+    node.requestStarted();
+    final long startNanos = System.nanoTime();
+    boolean failed = true;
+    try {
+      Response response = ctx.next(requestSpec, responseSpec);
+      failed = response.getStatusCode() >= 500;
+      return response;
+    } finally {
+      final long endNanos = System.nanoTime();
+      final int consecutiveFailures = node.requestCompleted(endNanos - startNanos, failed);
+      ejectIfUnhealthy(node, consecutiveFailures, endNanos);
+    }
+  }
+
+  /**
+   * @return The nodes across which requests are balanced, in the configured order.
+   */
+  List<RealmServiceNode> getNodes() {
+    return this.nodes;
+  }
+
+  /**
+   * @return A tabular report of the load on, and latency of each node.
+   */
+  String report() {
+    StringBuilder report = new StringBuilder(String.format("Strategy [%s]%n%-28s %9s %9s %9s %10s %10s %10s%n",
+      this.strategy, "Node", "Requests", "Failures", "Ejections", "Mean(ms)", "p99(ms)", "Max(ms)"));
+    this.nodes.forEach(node -> report.append(node.report()).append(System.lineSeparator()));
+    return report.toString();
+  }
+
+  private RealmServiceNode selectNode() {
+    final long nowNanos = System.nanoTime();
+    List<RealmServiceNode> available = new ArrayList<>(this.nodes.size());
+    for (RealmServiceNode node : this.nodes) {
+      if (!node.isEjected(nowNanos)) {
+        available.add(node);
+      }
+    }
+    return this.strategy.select(available.isEmpty() ? this.nodes : available, this.sequence);
+  }
+
+  private void ejectIfUnhealthy(RealmServiceNode node, int consecutiveFailures, long nowNanos) {
+    String reason = null;
+    if (this.ejectionConsecutiveFailures > 0 && consecutiveFailures >= this.ejectionConsecutiveFailures) {
+      reason = consecutiveFailures + " consecutive failures";
+    } else if (this.ejectionLatencyThresholdMillis > 0 &&
+      node.getEwmaLatencyMillis() > this.ejectionLatencyThresholdMillis) {
+      reason = String.format("moving average latency %.1f ms", node.getEwmaLatencyMillis());
+    }
+    if (reason != null && !node.isEjected(nowNanos)) {
+      logger.info("Ejecting node [{}] for [{}] due to [{}].", node.getBaseUri(), this.ejectionDuration, reason);
+      node.eject(nowNanos + this.ejectionDuration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * One of several nodes on which the User service runs, as seen by a {@link RealmServiceLoadBalancer client-side load
+ * balancer}. Tracks the load on, and health of the node, based on the outcome of the requests sent to it. Safe for use
+ * by multiple threads.
+ */
+// package-protected
+final class RealmServiceNode {
+
+  /**
+   * Weight given to the latest request's latency when updating the exponentially weighted moving average latency.
+   */
+  private static final double EWMA_LATENCY_WEIGHT = 0.3;
+
+  private final URI baseUri;
+  private final AtomicInteger outstandingRequests = new AtomicInteger();
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder ejections = new LongAdder();
+  private final Histogram latencyMicros = new ConcurrentHistogram(3);
+  private volatile double ewmaLatencyMillis = Double.NaN;
+  private volatile long ejectedUntilNanos;
+
+  /**
+   * @param baseUri The base URI of the node, comprising its scheme, host and port, e.g. http://host1:8080.
+   */
+  RealmServiceNode(URI baseUri) {
+    this.baseUri = baseUri;
+  }
+
+  URI getBaseUri() {
+    return this.baseUri;
+  }
+
+  int getOutstandingRequests() {
+    return this.outstandingRequests.get();
+  }
+
+  /**
+   * @return The exponentially weighted moving average of the latency of requests to the node, in milliseconds, or NaN
+   * if no requests have completed.
+   */
+  double getEwmaLatencyMillis() {
+    return this.ewmaLatencyMillis;
+  }
+
+  long getRequests() {
+    return this.requests.sum();
+  }
+
+  long getFailures() {
+    return this.failures.sum();
+  }
+
+  long getEjections() {
+    return this.ejections.sum();
+  }
+
+  /**
+   * @param nowNanos The current value of {@link System#nanoTime()}.
+   * @return {@code true} if the node is currently ejected from the set of nodes to which requests are balanced.
+   */
+  boolean isEjected(long nowNanos) {
+    return nowNanos - this.ejectedUntilNanos < 0;
+  }
+
+  /**
+   * Records the start of a request to the node.
+   */
+  void requestStarted() {
+    this.outstandingRequests.incrementAndGet();
+  }
+
+  /**
+   * Records the completion of a request to the node.
+   *
+   * @param latencyNanos The latency of the request.
+   * @param failed {@code true} if the request failed.
+   * @return The number of consecutive failed requests to the node, including this one.
+   */
+  int requestCompleted(long latencyNanos, boolean failed) {
+    this.outstandingRequests.decrementAndGet();
+    this.requests.increment();
+    this.latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    final double latencyMillis = latencyNanos / 1e6;
+    final double previousEwma = this.ewmaLatencyMillis;
+    this.ewmaLatencyMillis = Double.isNaN(previousEwma) ? latencyMillis :
+      EWMA_LATENCY_WEIGHT * latencyMillis + (1 - EWMA_LATENCY_WEIGHT) * previousEwma;
+    if (failed) {
+      this.failures.increment();
+      return this.consecutiveFailures.incrementAndGet();
+    }
+    this.consecutiveFailures.set(0);
+    return 0;
+  }
+
+  /**
+   * Ejects the node from the set of nodes to which requests are balanced, until the specified time. Resets the node's
+   * health, so that it's given a fresh chance when it's subsequently reinstated.
+   *
+   * @param untilNanos The value of {@link System#nanoTime()} at which the node should be reinstated.
+   */
+  void eject(long untilNanos) {
+    this.ejectedUntilNanos = untilNanos;
+    this.ejections.increment();
+    this.consecutiveFailures.set(0);
+    this.ewmaLatencyMillis = Double.NaN;
+  }
+
+  /**
+   * @return A one line summary of the load on, and latency of the node.
+   */
+  String report() {
+    return String.format("%-28s %9d %9d %9d %10.2f %10.2f %10.2f", this.baseUri, getRequests(), getFailures(),
+      getEjections(), this.latencyMicros.getMean() / 1000, this.latencyMicros.getValueAtPercentile(99) / 1000.0,
+      this.latencyMicros.getMaxValue() / 1000.0);
+  }
+
+  @Override
+  public String toString() {
+    return "RealmServiceNode{baseUri=" + this.baseUri + "}";
+  }
+}
@@ -0,0 +1,650 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.tomakehurst.wiremock.client.MappingBuilder;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.QueryParameter;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmJsonCodec;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A stateful, in-memory stand-in for the User service's Realm APIs, implemented as a WireMock extension.
+ * <p>
+ * Unlike the static stubs registered by individual tests, which only return canned responses, the stand-in implements
+ * the behaviour of the Create, Get, Get Realms, Get by Name and Delete Realm APIs, as specified, for any number of
+ * realms. This supports long-running and high-volume tests which cycle through creating, getting and deleting many
+ * realms, without needing to register (an ever growing number of) stubs per realm. Safe for use by multiple concurrent
+ * requests.
+ * <p>
+ * To use the stand-in, register it as an extension of the WireMock server, and then register a stub which matches all
+ * requests for the realm resource and applies the stand-in as a transformer - see {@link #realmResourceStubMapping()}.
+ * <p>
+ * Realms are represented in either XML or JSON. The request body of Create Realm may be either, as identified by its
+ * Content-Type. The response body is in the media type requested by the Accept header, defaulting to that of the
+ * request body for Create Realm, and to XML otherwise.
+ * <p>
+ * Gzip compressed request bodies are supported (they're decompressed by WireMock). Response bodies are gzip compressed
+ * if the request accepts it, and the body is at least a configurable threshold size.
+ * <p>
+ * The stand-in can optionally be given a {@link #withCapacity capacity}, to model a service which sheds load. Each
+ * request then takes a fixed service time to process, and requests which arrive when the max number are already being
+ * processed are rejected with 429 Too Many Requests and a Retry-After header, rather than being queued.
+ * <p>
+ * Create Realm requests which carry an Idempotency-Key header are processed at most once per key. The response to the
+ * first request with a key which succeeds is stored, and returned, marked by an Idempotent-Replayed header, to any
+ * later request with the same key and body, so a client can safely retry a request whose response it never received.
+ * Reusing a key with a different body is rejected with 422 Unprocessable Entity. The responses to requests which fail,
+ * e.g. as they're invalid or the max number of realms already exist, and to requests shed for lack of capacity, aren't
+ * stored against their key, so the request can be retried with the same key.
+ * <p>
+ * Any fixed delay configured on the stub which applies the stand-in is added to its responses, supporting tests which
+ * inject client timeouts.
+ */
+// package-protected
+final class RealmServiceStandIn extends ResponseDefinitionTransformer {
+
+  static final String NAME = "realm-service-stand-in";
+
+  private static final String REALM_RESOURCE_URL_PATH = UserRealmApiConstants.CREATE_REALM_URL_PATH;
+  private static final String XML_MEDIA_TYPE = ContentType.APPLICATION_XML.getMimeType();
+  private static final String JSON_MEDIA_TYPE = ContentType.APPLICATION_JSON.getMimeType();
+  private static final String SUPPORTED_MEDIA_TYPES = XML_MEDIA_TYPE + ", " + JSON_MEDIA_TYPE;
+
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final Integer RESERVED_REALM_ID = UserRealmConstants.ID_MIN - 1;
+
+  private final Map<Integer, UserRealmDto> realmsById = new ConcurrentHashMap<>();
+  // Maps the name of each realm to its ID, or to the reserved ID while the realm is being created
+  private final Map<String, Integer> realmIdsByName = new ConcurrentHashMap<>();
+  private final Map<String, IdempotentResponse> responsesByIdempotencyKey = new ConcurrentHashMap<>();
+  private final AtomicInteger nextRealmId = new AtomicInteger(UserRealmConstants.ID_MIN);
+  private final int gzipThresholdBytes;
+  private final AtomicInteger inFlightRequests = new AtomicInteger();
+  private final LongAdder shedRequests = new LongAdder();
+  private volatile int maxConcurrentRequests = Integer.MAX_VALUE;
+  private volatile long serviceTimeMillis;
+  private volatile long retryAfterSeconds;
+  private volatile int maxRealms = UserRealmConstants.ID_MAX;
+
+  /**
+   * Creates a stand-in which never compresses its responses.
+   */
+  RealmServiceStandIn() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param gzipThresholdBytes The min size of a response body which is gzip compressed, if the request accepts it.
+   */
+  RealmServiceStandIn(int gzipThresholdBytes) {
+    this.gzipThresholdBytes = gzipThresholdBytes;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public boolean applyGlobally() {
+    return false;
+  }
+
+  @Override
+  public ResponseDefinition transform(Request request, ResponseDefinition responseDefinition, FileSource files,
+    Parameters parameters) {
+    final ResponseDefinition response = negotiateContentEncoding(request, handleWithinCapacity(request));
+    return responseDefinition.getFixedDelayMilliseconds() == null ? response : ResponseDefinitionBuilder.like(response)
+      .withFixedDelay(responseDefinition.getFixedDelayMilliseconds())
+      .build();
+  }
+
+  /**
+   * Limits the stand-in to processing the supplied max number of concurrent requests, each of which takes the supplied
+   * service time, rejecting any requests in excess of the max with 429 Too Many Requests. The WireMock server should be
+   * configured with more container threads than the max, so excess requests reach the stand-in rather than being
+   * queued by the server.
+   *
+   * @param maxConcurrentRequests The max number of requests processed concurrently.
+   * @param serviceTime The time taken to process each request.
+   * @param retryAfter The period the client is asked to wait before retrying a rejected request, rounded down to whole
+   * seconds, as returned in the Retry-After header.
+   * @return This stand-in.
+   */
+  RealmServiceStandIn withCapacity(int maxConcurrentRequests, Duration serviceTime, Duration retryAfter) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.serviceTimeMillis = serviceTime.toMillis();
+    this.retryAfterSeconds = retryAfter.getSeconds();
+    return this;
+  }
+
+  /**
+   * Limits the number of realms which can exist to the supplied max, rather than the max number of realm IDs, so that
+   * Create Realm requests fail with 507 Insufficient Storage once it's reached. The limit is checked before an ID is
+   * allocated, so may be exceeded briefly by concurrent Create Realm requests.
+   *
+   * @param maxRealms The max number of realms.
+   * @return This stand-in.
+   */
+  RealmServiceStandIn withRealmLimit(int maxRealms) {
+    this.maxRealms = maxRealms;
+    return this;
+  }
+
+  /**
+   * @return The number of requests which have been rejected because the stand-in was at its capacity.
+   */
+  long getShedRequestCount() {
+    return this.shedRequests.sum();
+  }
+
+  private ResponseDefinition handleWithinCapacity(Request request) {
+    if (this.maxConcurrentRequests == Integer.MAX_VALUE) {
+      return handle(request);
+    }
+    try {
+      if (this.inFlightRequests.incrementAndGet() > this.maxConcurrentRequests) {
+        this.shedRequests.increment();
+        return tooManyRequestsResponse(request);
+      }
+      TimeUnit.MILLISECONDS.sleep(this.serviceTimeMillis);
+      return handle(request);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return tooManyRequestsResponse(request);
+    } finally {
+      this.inFlightRequests.decrementAndGet();
+    }
+  }
+
+  private ResponseDefinition handle(Request request) {
+    final String urlPath = StringUtils.substringBefore(request.getUrl(), "?");
+    if (urlPath.equals(REALM_RESOURCE_URL_PATH)) {
+      if (request.getMethod().equals(RequestMethod.POST)) {
+        return createRealmIdempotently(request);
+      }
+      final QueryParameter realmIds = request.queryParameter(UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME);
+      if (request.getMethod().equals(RequestMethod.GET) && realmIds.isPresent()) {
+        return getRealms(request, realmIds.values());
+      }
+      // A GET without either query parameter is treated as a Get Realm by Name request which is missing the name
+      final QueryParameter realmName = request.queryParameter(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME);
+      return request.getMethod().equals(RequestMethod.GET) ?
+        getRealmByName(request, realmName.isPresent() ? realmName.firstValue() : null) :
+        methodNotAllowedResponse(RequestMethod.GET, RequestMethod.POST);
+    }
+    final String realmId = StringUtils.removeStart(urlPath, REALM_RESOURCE_URL_PATH + "/");
+    if (request.getMethod().equals(RequestMethod.GET)) {
+      return getRealm(request, realmId);
+    }
+    if (request.getMethod().equals(RequestMethod.DELETE)) {
+      return deleteRealm(realmId);
+    }
+    return methodNotAllowedResponse(RequestMethod.GET, RequestMethod.DELETE);
+  }
+
+  /**
+   * @return A WireMock stub mapping which matches all requests for the realm resource, and delegates responding to them
+   * to the stand-in.
+   */
+  static MappingBuilder realmResourceStubMapping() {
+    return any(urlPathMatching("^" + REALM_RESOURCE_URL_PATH + "(/.*)?$"))
+      .willReturn(
+        aResponse()
+          .withTransformers(NAME));
+  }
+
+  /**
+   * @return The number of realms which currently exist.
+   */
+  int getRealmCount() {
+    return this.realmsById.size();
+  }
+
+  /**
+   * Deletes all the realms which currently exist, e.g. to free up realm IDs between the runs of a benchmark, and
+   * forgets the responses stored against idempotency keys.
+   */
+  void deleteAllRealms() {
+    this.responsesByIdempotencyKey.clear();
+    this.realmIdsByName.clear();
+    this.realmsById.clear();
+  }
+
+  /**
+   * Creates a realm, unless the request carries an idempotency key which has already been used by a request which
+   * succeeded, in which case the response to that request is returned. Concurrent requests with the same key are
+   * serialised, so the realm is only created once. The response to a request which fails isn't stored, so that it can
+   * be retried with the same key.
+   */
+  private ResponseDefinition createRealmIdempotently(Request request) {
+    final String idempotencyKey = request.getHeader(UserRealmApiConstants.IDEMPOTENCY_KEY_HEADER_NAME);
+    if (idempotencyKey == null) {
+      return createRealm(request);
+    }
+    if (StringUtils.isBlank(idempotencyKey) ||
+      idempotencyKey.length() > UserRealmApiConstants.IDEMPOTENCY_KEY_MAX_LEN) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, errorMediaType(request), "InvalidIdempotencyKey",
+        "Idempotency key should not be blank or longer than " + UserRealmApiConstants.IDEMPOTENCY_KEY_MAX_LEN +
+          " chars.");
+    }
+    final AtomicReference<ResponseDefinition> createRealmResponse = new AtomicReference<>();
+    // No mapping is recorded for the key when null is returned
+    final IdempotentResponse idempotentResponse = this.responsesByIdempotencyKey.computeIfAbsent(idempotencyKey,
+      key -> {
+        final ResponseDefinition response = createRealm(request);
+        createRealmResponse.set(response);
+        return response.getStatus() / 100 == 2 ? new IdempotentResponse(request.getBody(), response) : null;
+      });
+    if (createRealmResponse.get() != null) {
+      return createRealmResponse.get();
+    }
+    if (!Arrays.equals(idempotentResponse.requestBody, request.getBody())) {
+      return errorResponse(HttpStatus.SC_UNPROCESSABLE_ENTITY, errorMediaType(request), "IdempotencyKeyReused",
+        "Idempotency key [" + idempotencyKey + "] has already been used for a different request.");
+    }
+    return ResponseDefinitionBuilder.like(idempotentResponse.response)
+      .withHeader(UserRealmApiConstants.IDEMPOTENT_REPLAYED_HEADER_NAME, Boolean.TRUE.toString())
+      .build();
+  }
+
+  private ResponseDefinition createRealm(Request request) {
+    final String requestMediaType = supportedMediaType(request.getHeader("Content-Type"));
+    if (requestMediaType == null) {
+      return new ResponseDefinitionBuilder()
+        .withStatus(HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE)
+        .withHeader("Accept", SUPPORTED_MEDIA_TYPES)
+        .build();
+    }
+    final String mediaType = negotiateMediaType(request, requestMediaType);
+    if (mediaType == null) {
+      return notAcceptableResponse();
+    }
+    final UserRealmDto requestedRealm;
+    try {
+      requestedRealm = requestMediaType.equals(JSON_MEDIA_TYPE) ? UserRealmJsonCodec.decode(request.getBody()) :
+        UserRealmXmlCodec.decode(request.getBodyAsString());
+    } catch (IllegalArgumentException e) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "InvalidRealm", "Realm representation could not be " +
+        "parsed.");
+    }
+    if (StringUtils.isBlank(requestedRealm.getName())) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "MissingRealmName", "Realm name is mandatory and " +
+        "must be supplied.");
+    }
+    if (requestedRealm.getName().length() > UserRealmConstants.NAME_MAX_LEN) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "InvalidRealmName", "Realm name should not be " +
+        "longer than " + UserRealmConstants.NAME_MAX_LEN + " chars.");
+    }
+    if (StringUtils.length(requestedRealm.getDescription()) > UserRealmConstants.DESCRIPTION_MAX_LEN) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "InvalidRealmDescription", "Realm description " +
+        "should not be longer than " + UserRealmConstants.DESCRIPTION_MAX_LEN + " chars.");
+    }
+
+    final UserRealmDto createdRealm = new UserRealmDto(requestedRealm);
+    createdRealm.setKey(UUID.randomUUID().toString().replace("-", ""));
+    // Claiming the name is the atomic step which detects duplicates. It's done before the realm is stored against an
+    // ID, so the realm of a request which loses a race for a name is never visible, even briefly
+    if (this.realmIdsByName.putIfAbsent(createdRealm.getName(), RESERVED_REALM_ID) != null) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "DuplicateRealmName", "Duplicate realm name [" +
+        createdRealm.getName() + "].");
+    }
+    final Integer realmId = allocateRealmId(createdRealm);
+    if (realmId == null) {
+      this.realmIdsByName.remove(createdRealm.getName(), RESERVED_REALM_ID);
+      return errorResponse(HttpStatus.SC_INSUFFICIENT_STORAGE, mediaType, "RealmLimitReached", "The maximum number " +
+        "of realms [" + this.maxRealms + "] already exist.");
+    }
+    this.realmIdsByName.replace(createdRealm.getName(), RESERVED_REALM_ID, realmId);
+    // A delete of the realm before its name was indexed couldn't remove the name, so release it here instead
+    if (this.realmsById.get(realmId) != createdRealm) {
+      this.realmIdsByName.remove(createdRealm.getName(), realmId);
+    }
+    return realmResponse(HttpStatus.SC_CREATED, mediaType, createdRealm);
+  }
+
+  /**
+   * Allocates the next free realm ID, wrapping around when the max ID is reached, and stores the supplied realm
+   * against it.
+   *
+   * @return The allocated realm ID, or null if there are no free IDs, or the max number of realms already exist.
+   */
+  private Integer allocateRealmId(UserRealmDto realm) {
+    if (this.realmsById.size() >= this.maxRealms) {
+      return null;
+    }
+    for (int attempt = 0; attempt < UserRealmConstants.ID_MAX; attempt++) {
+      final int candidateId = Math.floorMod(this.nextRealmId.getAndIncrement() - UserRealmConstants.ID_MIN,
+        UserRealmConstants.ID_MAX) + UserRealmConstants.ID_MIN;
+      realm.setId(Integer.toString(candidateId));
+      if (this.realmsById.putIfAbsent(candidateId, realm) == null) {
+        return candidateId;
+      }
+    }
+    return null;
+  }
+
+  private ResponseDefinition getRealm(Request request, String realmIdPathSegment) {
+    final String mediaType = negotiateMediaType(request, XML_MEDIA_TYPE);
+    if (mediaType == null) {
+      return notAcceptableResponse();
+    }
+    final Integer realmId = parseRealmId(realmIdPathSegment);
+    if (realmId == null) {
+      return invalidRealmIdResponse(mediaType, realmIdPathSegment);
+    }
+    final UserRealmDto realm = this.realmsById.get(realmId);
+    if (realm == null) {
+      return errorResponse(HttpStatus.SC_NOT_FOUND, mediaType, "RealmNotFound", "Realm [" + realmId + "] not found.");
+    }
+    return realmResponse(HttpStatus.SC_OK, mediaType, realm);
+  }
+
+  /**
+   * Gets several realms, identified by their IDs. The response lists the realms in the order of their (distinct) IDs,
+   * with an error in place of each realm which doesn't exist. The document is written element by element, using StAX,
+   * marshalling each realm as an XML fragment, rather than building an object representation of the list. It's
+   * written to an in-memory buffer though, and returned as a whole, as WireMock doesn't support streaming a response
+   * body from a transformer. Only XML is supported.
+   */
+  private ResponseDefinition getRealms(Request request, List<String> realmIdParams) {
+    if (!XML_MEDIA_TYPE.equals(negotiateMediaType(request, XML_MEDIA_TYPE))) {
+      return notAcceptableResponse();
+    }
+    final LinkedHashSet<Integer> realmIds = new LinkedHashSet<>();
+    for (String realmIdParam : realmIdParams) {
+      final Integer realmId = parseRealmId(realmIdParam);
+      if (realmId == null) {
+        return invalidRealmIdResponse(XML_MEDIA_TYPE, realmIdParam);
+      }
+      realmIds.add(realmId);
+    }
+    if (realmIds.size() > UserRealmApiConstants.GET_REALMS_MAX_IDS) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, XML_MEDIA_TYPE, "TooManyRealmIds", "No more than " +
+        UserRealmApiConstants.GET_REALMS_MAX_IDS + " realm ids may be requested.");
+    }
+    final ByteArrayOutputStream body = new ByteArrayOutputStream(realmIds.size() * 256);
+    try {
+      final XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(body, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.writeStartElement("realms");
+      for (Integer realmId : realmIds) {
+        final UserRealmDto realm = this.realmsById.get(realmId);
+        if (realm != null) {
+          UserRealmXmlCodec.encode(realm, writer);
+        } else {
+          writer.writeStartElement("error");
+          writer.writeAttribute("id", realmId.toString());
+          writer.writeStartElement("code");
+          writer.writeCharacters("RealmNotFound");
+          writer.writeEndElement();
+          writer.writeStartElement("message");
+          writer.writeCharacters("Realm [" + realmId + "] not found.");
+          writer.writeEndElement();
+          writer.writeEndElement();
+        }
+      }
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new RuntimeException("Error serialising realms " + realmIds + ". Cause [" + e.toString() + "].", e);
+    }
+    return new ResponseDefinitionBuilder()
+      .withStatus(HttpStatus.SC_OK)
+      .withHeader("Content-Type", ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+      .withBody(body.toByteArray())
+      .build();
+  }
+
+  /**
+   * Gets a realm by its name, using the index of realm IDs by name, so the cost of the lookup is independent of the
+   * number of realms. Names are matched exactly (case-sensitively).
+   */
+  private ResponseDefinition getRealmByName(Request request, String realmName) {
+    final String mediaType = negotiateMediaType(request, XML_MEDIA_TYPE);
+    if (mediaType == null) {
+      return notAcceptableResponse();
+    }
+    if (StringUtils.isBlank(realmName)) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "MissingRealmName", "Realm name is mandatory and " +
+        "must be supplied.");
+    }
+    if (realmName.length() > UserRealmConstants.NAME_MAX_LEN) {
+      return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "InvalidRealmName", "Realm name should not be " +
+        "longer than " + UserRealmConstants.NAME_MAX_LEN + " chars.");
+    }
+    final Integer realmId = this.realmIdsByName.get(realmName);
+    // The realm may have been deleted since its ID was looked up
+    final UserRealmDto realm = realmId != null ? this.realmsById.get(realmId) : null;
+    if (realm == null || !realm.getName().equals(realmName)) {
+      return errorResponse(HttpStatus.SC_NOT_FOUND, mediaType, "RealmNotFound", "Realm with name [" + realmName +
+        "] not found.");
+    }
+    return realmResponse(HttpStatus.SC_OK, mediaType, realm);
+  }
+
+  private ResponseDefinition deleteRealm(String realmIdPathSegment) {
+    final Integer realmId = parseRealmId(realmIdPathSegment);
+    if (realmId == null) {
+      return invalidRealmIdResponse(XML_MEDIA_TYPE, realmIdPathSegment);
+    }
+    final UserRealmDto deletedRealm = this.realmsById.remove(realmId);
+    if (deletedRealm != null) {
+      this.realmIdsByName.remove(deletedRealm.getName(), realmId);
+    }
+    return new ResponseDefinitionBuilder().withStatus(HttpStatus.SC_NO_CONTENT).build();
+  }
+
+  /**
+   * @return The supported media type identified by the supplied Content-Type header, or null if it's not supported.
+   */
+  private static String supportedMediaType(String contentType) {
+    if (StringUtils.contains(contentType, XML_MEDIA_TYPE)) {
+      return XML_MEDIA_TYPE;
+    }
+    return StringUtils.contains(contentType, JSON_MEDIA_TYPE) ? JSON_MEDIA_TYPE : null;
+  }
+
+  /**
+   * Selects the media type of a response body from those accepted by the request. XML is preferred if the request
+   * accepts both.
+   *
+   * @param request The request.
+   * @param defaultMediaType The media type to use if the request accepts any media type.
+   * @return The selected media type, or null if the request doesn't accept any supported media type.
+   */
+  private static String negotiateMediaType(Request request, String defaultMediaType) {
+    final String accept = request.getHeader("Accept");
+    if (accept == null || accept.contains("*/*")) {
+      return defaultMediaType;
+    }
+    return supportedMediaType(accept);
+  }
+
+  /**
+   * Compresses the body of a response using gzip, if the request accepts it, and the body is at least the threshold
+   * size.
+   */
+  private ResponseDefinition negotiateContentEncoding(Request request, ResponseDefinition response) {
+    final byte[] body = response.getByteBody();
+    if (body == null || body.length < this.gzipThresholdBytes ||
+      !StringUtils.contains(request.getHeader("Accept-Encoding"), "gzip")) {
+      return response;
+    }
+    return ResponseDefinitionBuilder.like(response)
+      .withBody(GzipContentEncodingInterceptor.gzip(body))
+      .withHeader("Content-Encoding", "gzip")
+      .build();
+  }
+
+  /**
+   * @return The realm ID parsed from the supplied URL path segment, or null if it's not a valid realm ID.
+   */
+  private static Integer parseRealmId(String realmIdPathSegment) {
+    if (!realmIdPathSegment.matches("^\\d{1,9}$")) {
+      return null;
+    }
+    final int realmId = Integer.parseInt(realmIdPathSegment);
+    return realmId >= UserRealmConstants.ID_MIN && realmId <= UserRealmConstants.ID_MAX ? realmId : null;
+  }
+
+  private static ResponseDefinition invalidRealmIdResponse(String mediaType, String realmId) {
+    return errorResponse(HttpStatus.SC_BAD_REQUEST, mediaType, "InvalidRealmId", "Invalid realm id [" + realmId +
+      "].");
+  }
+
+  /**
+   * @return The media type of an error response to the supplied request, defaulting to XML if the request doesn't
+   * accept any supported media type.
+   */
+  private static String errorMediaType(Request request) {
+    final String mediaType = negotiateMediaType(request, XML_MEDIA_TYPE);
+    return mediaType != null ? mediaType : XML_MEDIA_TYPE;
+  }
+
+  private ResponseDefinition tooManyRequestsResponse(Request request) {
+    return ResponseDefinitionBuilder.like(errorResponse(UserRealmApiConstants.SC_TOO_MANY_REQUESTS,
+      errorMediaType(request), "TooManyRequests", "Realm service is overloaded. Retry after [" +
+        this.retryAfterSeconds + "] seconds."))
+      .withHeader(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME, Long.toString(this.retryAfterSeconds))
+      .build();
+  }
+
+  private static ResponseDefinition notAcceptableResponse() {
+    return new ResponseDefinitionBuilder()
+      .withStatus(HttpStatus.SC_NOT_ACCEPTABLE)
+      .withHeader("Accept", SUPPORTED_MEDIA_TYPES)
+      .build();
+  }
+
+  private static ResponseDefinition methodNotAllowedResponse(RequestMethod... allowedMethods) {
+    return new ResponseDefinitionBuilder()
+      .withStatus(HttpStatus.SC_METHOD_NOT_ALLOWED)
+      .withHeader("Allow", StringUtils.join(allowedMethods, ", "))
+      .build();
+  }
+
+  private static ResponseDefinition realmResponse(int status, String mediaType, UserRealmDto realm) {
+    final ResponseDefinitionBuilder response = new ResponseDefinitionBuilder()
+      .withStatus(status)
+      .withHeader("Content-Type", mediaType);
+    if (mediaType.equals(JSON_MEDIA_TYPE)) {
+      return response.withBody(UserRealmJsonCodec.encode(realm)).build();
+    }
+    return response.withBody(UserRealmXmlCodec.encode(realm)).build();
+  }
+
+  private static ResponseDefinition errorResponse(int status, String mediaType, String code, String message) {
+    return new ResponseDefinitionBuilder()
+      .withStatus(status)
+      .withHeader("Content-Type", mediaType)
+      .withBody(mediaType.equals(JSON_MEDIA_TYPE) ?
+        errorJson(code, message) : errorXml(code, message))
+      .build();
+  }
+
+  /**
+   * @return The JSON representation of an API error, written using Jackson, which escapes the message.
+   */
+  private static String errorJson(String code, String message) {
+    final StringWriter body = new StringWriter();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(body)) {
+      generator.writeStartObject();
+      generator.writeStringField("code", code);
+      generator.writeStringField("message", message);
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error serialising error [" + code + "]. Cause [" + e.toString() + "].", e);
+    }
+    return body.toString();
+  }
+
+  /**
+   * @return The XML representation of an API error, written using StAX, which escapes the message.
+   */
+  private static String errorXml(String code, String message) {
+    final StringWriter body = new StringWriter();
+    try {
+      final XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(body);
+      writer.writeStartElement("error");
+      writer.writeStartElement("code");
+      writer.writeCharacters(code);
+      writer.writeEndElement();
+      writer.writeStartElement("message");
+      writer.writeCharacters(message);
+      writer.writeEndElement();
+      writer.writeEndElement();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new RuntimeException("Error serialising error [" + code + "]. Cause [" + e.toString() + "].", e);
+    }
+    return body.toString();
+  }
+
+  /**
+   * The response to a Create Realm request with an idempotency key, stored along with the request body, so that a
+   * later request which reuses the key for a different request can be detected.
+   */
+  private static final class IdempotentResponse {
+    private final byte[] requestBody;
+    private final ResponseDefinition response;
+
+    private IdempotentResponse(byte[] requestBody, ResponseDefinition response) {
+      this.requestBody = requestBody;
+      this.response = response;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import io.restassured.filter.Filter;
+import io.restassured.filter.FilterContext;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import org.xml.sax.SAXException;
+
+/**
+ * A REST Assured {@link Filter} which validates every XML Realm API response body - a realm or an error - against the
+ * realm XML schema ({@value #SCHEMA_RESOURCE}), failing the API call with an {@link AssertionError} if it doesn't
+ * conform. This checks the full contract of every response, rather than just the fields asserted by each test.
+ * <p>
+ * Validation is designed to be cheap enough to leave enabled for high-volume runs. The schema is compiled once per JVM,
+ * rather than per response, each thread reuses its own {@link Validator} (they aren't thread-safe), and bodies are
+ * validated as a stream of SAX events, without building a DOM. The number of responses validated, and the time spent
+ * validating them, are accounted for so that the overhead can be reported. Safe for use by multiple threads.
+ */
+// package-protected
+final class RealmXmlSchemaValidationFilter implements Filter {
+
+  /**
+   * Classpath location of the realm XML schema.
+   */
+  static final String SCHEMA_RESOURCE = "xsd/realm.xsd";
+
+  private static final Schema SCHEMA = compileSchema();
+
+  private static final ThreadLocal<Validator> VALIDATOR = ThreadLocal.withInitial(SCHEMA::newValidator);
+
+  private final LongAdder validations = new LongAdder();
+  private final LongAdder violations = new LongAdder();
+  private final LongAdder validationNanos = new LongAdder();
+
+  @Override
+  public Response filter(FilterableRequestSpecification requestSpec, FilterableResponseSpecification responseSpec,
+    FilterContext ctx) {
+    Response response = ctx.next(requestSpec, responseSpec);
+    final String contentType = response.getContentType();
+    if (contentType == null || !contentType.contains("xml")) {
+      return response;
+    }
+    final byte[] body = response.asByteArray();
+    if (body.length == 0) {
+      return response;
+    }
+    final String violation = validate(body);
+    if (violation != null) {
+      throw new AssertionError("Body of response to [" + requestSpec.getMethod() + " " + requestSpec.getURI() +
+        "] doesn't conform to the realm XML schema - " + violation + " Body [" + response.asString() + "].");
+    }
+    return response;
+  }
+
+  /**
+   * Validates an XML document against the realm XML schema.
+   *
+   * @param xml The XML document.
+   * @return A description of the first violation of the schema, or null if the document is valid.
+   */
+  String validate(byte[] xml) {
+    final Validator validator = VALIDATOR.get();
+    final long startNanos = System.nanoTime();
+    String violation = null;
+    try {
+      validator.validate(new StreamSource(new ByteArrayInputStream(xml)));
+    } catch (SAXException e) {
+      violation = e.getMessage();
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading XML document. Cause [" + e.toString() + "].", e);
+    } finally {
+      validator.reset();
+    }
+    this.validationNanos.add(System.nanoTime() - startNanos);
+    this.validations.increment();
+    if (violation != null) {
+      this.violations.increment();
+    }
+    return violation;
+  }
+
+  /**
+   * @return {@code true} if any responses have been validated since the last {@link #reset()}.
+   */
+  boolean hasValidated() {
+    return this.validations.sum() > 0;
+  }
+
+  /**
+   * @return A report of the number of responses validated, and the overhead of validating them.
+   */
+  String report() {
+    final long validations = this.validations.sum();
+    final long validationNanos = this.validationNanos.sum();
+    return String.format("Validated [%d] responses, of which [%d] violated the schema, in [%d] ms - mean [%.1f] us " +
+        "per response.", validations, this.violations.sum(), TimeUnit.NANOSECONDS.toMillis(validationNanos),
+      validations > 0 ? validationNanos / 1000.0 / validations : 0);
+  }
+
+  /**
+   * Resets the counts of responses validated, and the time spent validating them.
+   */
+  void reset() {
+    this.validations.reset();
+    this.violations.reset();
+    this.validationNanos.reset();
+  }
+
+  /**
+   * Compiles the realm XML schema.
+   *
+   * @return The compiled {@link Schema}, which is immutable and thread-safe.
+   */
+  static Schema compileSchema() {
+    final URL schemaUrl = RealmXmlSchemaValidationFilter.class.getClassLoader().getResource(SCHEMA_RESOURCE);
+    if (schemaUrl == null) {
+      throw new IllegalStateException("Realm XML schema [" + SCHEMA_RESOURCE + "] not found on classpath.");
+    }
+    try {
+      return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaUrl);
+    } catch (SAXException e) {
+      throw new IllegalStateException("Error compiling realm XML schema [" + SCHEMA_RESOURCE + "]. Cause [" +
+        e.toString() + "].", e);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unit tests of {@link RealmXmlSchemaValidationFilter}, and the realm XML schema it validates against, plus an optional
+ * benchmark of the overhead of validation using the cached, compiled schema versus compiling it per response.
+ */
+public class RealmXmlSchemaValidationFilterTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmXmlSchemaValidationFilterTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "xmlSchemaValidationBenchmarkEnabled";
+  private static final String BENCHMARK_ITERATIONS_PROPERTY = "xmlSchemaValidationBenchmarkIterations";
+
+  private static final String KEY = "92f1aea4bb92c3661a9c85ee81503e28";
+
+  private final RealmXmlSchemaValidationFilter filter = new RealmXmlSchemaValidationFilter();
+
+  /**
+   * Tests validating a realm with all its fields populated.
+   */
+  @Test
+  public void givenRealmWithAllFields() {
+    assertThat(this.filter.validate(CompactUserRealm.of(123, "realm-1", "A realm", KEY).toXmlBytes())).isNull();
+  }
+
+  /**
+   * Tests validating a realm without its optional description, and whose child elements aren't in the order of the
+   * readme's example.
+   */
+  @Test
+  public void givenRealmWithoutDescriptionAndElementsReordered() {
+    assertThat(this.filter.validate(CompactUserRealm.of(123, "realm-1", null, KEY).toXmlBytes())).isNull();
+    assertThat(this.filter.validate(bytes("<realm id='1' name='realm-1'><key>" + KEY + "</key>" +
+      "<description>A realm</description></realm>"))).isNull();
+  }
+
+  /**
+   * Tests validating realms which violate the constraints on each of their fields.
+   */
+  @Test
+  public void givenRealmWithInvalidFields() {
+    assertThat(this.filter.validate(bytes("<realm id='10000' name='realm-1'><key>" + KEY + "</key></realm>")))
+      .as("ID greater than max").contains("10000");
+    assertThat(this.filter.validate(bytes("<realm name='realm-1'><key>" + KEY + "</key></realm>")))
+      .as("Missing ID").contains("id");
+    final String tooLongName = AbstractRealmApiTest.generateRandomAlphabeticString(UserRealmConstants.NAME_MAX_LEN + 1);
+    assertThat(this.filter.validate(CompactUserRealm.of(1, tooLongName, null, KEY).toXmlBytes()))
+      .as("Name longer than max").isNotNull();
+    final String tooLongDescription =
+      AbstractRealmApiTest.generateRandomAlphabeticString(UserRealmConstants.DESCRIPTION_MAX_LEN + 1);
+    assertThat(this.filter.validate(CompactUserRealm.of(1, "realm-1", tooLongDescription, KEY).toXmlBytes()))
+      .as("Description longer than max").isNotNull();
+    assertThat(this.filter.validate(bytes("<realm id='1' name='realm-1'/>"))).as("Missing key").contains("key");
+    assertThat(this.filter.validate(bytes("<realm id='1' name='realm-1'><key>not-hex</key></realm>")))
+      .as("Key not hex-encoded").contains("not-hex");
+  }
+
+  /**
+   * Tests validating errors, valid and invalid.
+   */
+  @Test
+  public void givenError() {
+    assertThat(this.filter.validate(bytes("<error><code>RealmNotFound</code><message>Realm [123] not found." +
+      "</message></error>"))).isNull();
+    assertThat(this.filter.validate(bytes("<error><code>RealmNotFound</code></error>"))).as("Missing message")
+      .contains("message");
+    assertThat(this.filter.validate(bytes("<error><code>realm not found</code><message>Realm [123] not found." +
+      "</message></error>"))).as("Code not camel-case").isNotNull();
+  }
+
+  /**
+   * Tests that the responses validated, and those which violated the schema, are accounted for.
+   */
+  @Test
+  public void givenValidationsThenReported() {
+    this.filter.validate(CompactUserRealm.of(123, "realm-1", "A realm", KEY).toXmlBytes());
+    this.filter.validate(bytes("<realm/>"));
+
+    assertThat(this.filter.hasValidated()).isTrue();
+    assertThat(this.filter.report()).startsWith("Validated [2] responses, of which [1] violated the schema");
+
+    this.filter.reset();
+
+    assertThat(this.filter.hasValidated()).isFalse();
+  }
+
+  /**
+   * Benchmarks the mean overhead of validating a realm using the cached, compiled schema and a reused validator, as the
+   * filter does, versus compiling the schema, and creating a validator, per response.
+   */
+  @Test
+  public void benchmarkCachedVersusPerResponseSchema() throws Exception {
+    ImmutableConfiguration config = new Configurations().combined("config.xml");
+    assumeTrue("XML schema validation benchmark is disabled.",
+      config.getBoolean(BENCHMARK_ENABLED_PROPERTY, Boolean.FALSE));
+    final int iterations = config.getInt(BENCHMARK_ITERATIONS_PROPERTY, 20000);
+    final byte[] realmXml = CompactUserRealm.of(123, AbstractRealmApiTest.generateUniqueRealmName(),
+      AbstractRealmApiTest.generateRealmDescription(), KEY).toXmlBytes();
+
+    // Warm up, then measure, each approach
+    measureCachedSchemaNanos(realmXml, iterations);
+    final double cachedMicros = measureCachedSchemaNanos(realmXml, iterations) / 1000.0 / iterations;
+    measurePerResponseSchemaNanos(realmXml, iterations / 10);
+    final double perResponseMicros = measurePerResponseSchemaNanos(realmXml, iterations / 10) / 1000.0 /
+      (iterations / 10);
+
+    logger.info("Mean overhead of validating a realm [{}] bytes - cached schema [{}] us, schema compiled per " +
+        "response [{}] us ({}x).", realmXml.length, String.format("%.1f", cachedMicros),
+      String.format("%.1f", perResponseMicros), String.format("%.0f", perResponseMicros / cachedMicros));
+    assertThat(cachedMicros).isLessThan(perResponseMicros);
+  }
+
+  private long measureCachedSchemaNanos(byte[] realmXml, int iterations) {
+    final long startNanos = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      assertThat(this.filter.validate(realmXml)).isNull();
+    }
+    return System.nanoTime() - startNanos;
+  }
+
+  private long measurePerResponseSchemaNanos(byte[] realmXml, int iterations) throws Exception {
+    final long startNanos = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      Validator validator = RealmXmlSchemaValidationFilter.compileSchema().newValidator();
+      validator.validate(new StreamSource(new ByteArrayInputStream(realmXml)));
+    }
+    return System.nanoTime() - startNanos;
+  }
+
+  private static byte[] bytes(String xml) {
+    return xml.getBytes(StandardCharsets.UTF_8);
+  }
+}
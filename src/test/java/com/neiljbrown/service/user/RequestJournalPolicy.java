@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+
+/**
+ * Policies for how WireMock's request journal - its log of every request received, used to support verifying requests
+ * - retains requests.
+ * <p>
+ * By default WireMock retains every request, so the memory it uses, and the time taken to verify requests, grows
+ * linearly with the number of requests. High-volume and long-running tests should therefore use a bounded or disabled
+ * journal, and verify requests using a {@link RealmApiRequestCounter} instead.
+ */
+// package-protected
+enum RequestJournalPolicy {
+
+  /**
+   * Retain all requests. WireMock's default.
+   */
+  UNBOUNDED,
+
+  /**
+   * Retain only the most recent N requests, discarding the oldest, like a ring-buffer.
+   */
+  BOUNDED,
+
+  /**
+   * Don't retain any requests. Verifying requests using the journal is not supported.
+   */
+  DISABLED;
+
+  /**
+   * Applies this policy to a WireMock configuration.
+   *
+   * @param wireMockConfig The {@link WireMockConfiguration} to which the policy is applied.
+   * @param maxEntries The max number of requests to retain, if this policy is {@link #BOUNDED}. Ignored otherwise.
+   * @return The supplied {@link WireMockConfiguration}.
+   */
+  WireMockConfiguration applyTo(WireMockConfiguration wireMockConfig, int maxEntries) {
+    switch (this) {
+      case BOUNDED:
+        return wireMockConfig.maxRequestJournalEntries(maxEntries);
+      case DISABLED:
+        return wireMockConfig.disableRequestJournal();
+      default:
+        return wireMockConfig;
+    }
+  }
+}
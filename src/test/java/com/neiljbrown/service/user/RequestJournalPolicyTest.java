@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.verification.RequestJournalDisabledException;
+import io.restassured.RestAssured;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link RequestJournalPolicy policies} supported for WireMock's request journal, and of verifying
+ * requests using a {@link RealmApiRequestCounter}, which is independent of the journal.
+ */
+public class RequestJournalPolicyTest {
+
+  private static final int REQUEST_COUNT = 50;
+  private static final int JOURNAL_MAX_ENTRIES = 10;
+
+  private final RealmApiRequestCounter requestCounter = new RealmApiRequestCounter();
+  private WireMockServer wireMockServer;
+
+  @After
+  public void tearDown() {
+    if (this.wireMockServer != null) {
+      this.wireMockServer.stop();
+    }
+  }
+
+  /**
+   * Tests the case when the journal is unbounded - it retains all requests.
+   */
+  @Test
+  public void givenJournalUnbounded() {
+    startWireMockServer(RequestJournalPolicy.UNBOUNDED);
+
+    makeGetRealmRequests();
+
+    assertThat(this.wireMockServer.getAllServeEvents()).hasSize(REQUEST_COUNT);
+    assertThat(this.requestCounter.count(RealmApiEndpoint.GET_REALM, HttpStatus.SC_NOT_FOUND)).isEqualTo(REQUEST_COUNT);
+  }
+
+  /**
+   * Tests the case when the journal is bounded - it retains only the configured max number of most recent requests.
+   */
+  @Test
+  public void givenJournalBounded() {
+    startWireMockServer(RequestJournalPolicy.BOUNDED);
+
+    makeGetRealmRequests();
+
+    assertThat(this.wireMockServer.getAllServeEvents()).hasSize(JOURNAL_MAX_ENTRIES);
+    assertThat(this.requestCounter.count(RealmApiEndpoint.GET_REALM, HttpStatus.SC_NOT_FOUND)).isEqualTo(REQUEST_COUNT);
+  }
+
+  /**
+   * Tests the case when the journal is disabled - it retains no requests, and WireMock doesn't support verifying
+   * requests, but the request counter still does.
+   */
+  @Test
+  public void givenJournalDisabled() {
+    startWireMockServer(RequestJournalPolicy.DISABLED);
+
+    makeGetRealmRequests();
+
+    assertThatThrownBy(() -> this.wireMockServer.getAllServeEvents())
+      .isInstanceOf(RequestJournalDisabledException.class);
+    assertThat(this.requestCounter.count(RealmApiEndpoint.GET_REALM, HttpStatus.SC_NOT_FOUND)).isEqualTo(REQUEST_COUNT);
+    assertThat(this.requestCounter.count(RealmApiEndpoint.CREATE_REALM)).isZero();
+    assertThat(this.requestCounter.unmatchedCount()).isZero();
+  }
+
+  private void startWireMockServer(RequestJournalPolicy requestJournalPolicy) {
+    this.wireMockServer = new WireMockServer(
+      requestJournalPolicy.applyTo(wireMockConfig().dynamicPort().extensions(new RealmServiceStandIn()),
+        JOURNAL_MAX_ENTRIES));
+    this.wireMockServer.addMockServiceRequestListener(this.requestCounter);
+    this.wireMockServer.start();
+    this.wireMockServer.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+  }
+
+  private void makeGetRealmRequests() {
+    for (int i = 1; i <= REQUEST_COUNT; i++) {
+      RestAssured
+        .given()
+          .port(this.wireMockServer.port())
+          .basePath("")
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, i)
+        .when()
+          .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+        .then()
+          .assertThat().statusCode(HttpStatus.SC_NOT_FOUND);
+    }
+  }
+}
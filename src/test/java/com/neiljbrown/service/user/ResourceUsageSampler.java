@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples a set of named resource usage metrics, such as heap used or live threads, and calculates the
+ * rate at which each metric grows over time. Supports detecting slow resource leaks in long-running tests.
+ * <p>
+ * A metric which isn't supported on the current platform should return {@link #UNSUPPORTED} and is then ignored.
+ */
+// package-protected
+final class ResourceUsageSampler implements AutoCloseable {
+
+  /**
+   * Value returned by a metric which isn't supported on the current platform.
+   */
+  static final long UNSUPPORTED = -1;
+
+  private static final Logger logger = LoggerFactory.getLogger(ResourceUsageSampler.class);
+
+  private final Map<String, LongSupplier> metrics;
+  private final Map<String, List<double[]>> samplesByMetric = new LinkedHashMap<>();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "resource-usage-sampler");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final long startNanos = System.nanoTime();
+
+  /**
+   * @param metrics The metrics to sample, keyed by name. Iteration order is preserved when reporting.
+   */
+  ResourceUsageSampler(Map<String, LongSupplier> metrics) {
+    this.metrics = new LinkedHashMap<>(metrics);
+    this.metrics.keySet().forEach(name -> this.samplesByMetric.put(name, new ArrayList<>()));
+  }
+
+  /**
+   * Starts sampling the metrics, immediately and then repeatedly at the specified interval.
+   *
+   * @param interval The interval between samples.
+   */
+  void start(Duration interval) {
+    this.executor.scheduleAtFixedRate(this::sample, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Samples the current value of all the metrics.
+   */
+  synchronized void sample() {
+    final double elapsedMinutes = (System.nanoTime() - this.startNanos) / (double) TimeUnit.MINUTES.toNanos(1);
+    this.metrics.forEach((name, metric) -> {
+      try {
+        long value = metric.getAsLong();
+        if (value != UNSUPPORTED) {
+          this.samplesByMetric.get(name).add(new double[] {elapsedMinutes, value});
+        }
+      } catch (RuntimeException e) {
+        logger.warn("Error sampling metric [{}]. Cause [{}]. Skipping sample.", name, e.toString());
+      }
+    });
+  }
+
+  /**
+   * Calculates the rate at which a metric grew, using a least-squares linear regression of its samples.
+   *
+   * @param metricName The name of the metric.
+   * @param warmUp The period from the start of sampling whose samples should be excluded, allowing for resource usage
+   * to stabilise.
+   * @return The growth of the metric per minute, or {@link Double#NaN} if there are fewer than two samples.
+   */
+  synchronized double growthPerMinute(String metricName, Duration warmUp) {
+    final double warmUpMinutes = warmUp.toMillis() / (double) TimeUnit.MINUTES.toMillis(1);
+    final double[][] samples = this.samplesByMetric.get(metricName).stream()
+      .filter(sample -> sample[0] >= warmUpMinutes)
+      .toArray(double[][]::new);
+    if (samples.length < 2) {
+      return Double.NaN;
+    }
+    double meanX = 0, meanY = 0;
+    for (double[] sample : samples) {
+      meanX += sample[0] / samples.length;
+      meanY += sample[1] / samples.length;
+    }
+    double covariance = 0, varianceX = 0;
+    for (double[] sample : samples) {
+      covariance += (sample[0] - meanX) * (sample[1] - meanY);
+      varianceX += (sample[0] - meanX) * (sample[0] - meanX);
+    }
+    return varianceX == 0 ? Double.NaN : covariance / varianceX;
+  }
+
+  /**
+   * @return The names of the metrics for which one or more samples were taken.
+   */
+  synchronized List<String> getSampledMetricNames() {
+    List<String> names = new ArrayList<>();
+    this.samplesByMetric.forEach((name, samples) -> {
+      if (!samples.isEmpty()) {
+        names.add(name);
+      }
+    });
+    return names;
+  }
+
+  /**
+   * @param warmUp The warm-up period to exclude when calculating growth.
+   * @return A tabular report of the first and last sample, and the growth per minute of each metric.
+   */
+  synchronized String report(Duration warmUp) {
+    StringBuilder report = new StringBuilder(String.format("%-30s %8s %16s %16s %16s%n", "Metric", "Samples", "First",
+      "Last", "Growth/min"));
+    getSampledMetricNames().forEach(name -> {
+      List<double[]> samples = this.samplesByMetric.get(name);
+      report.append(String.format("%-30s %8d %16.0f %16.0f %16.2f%n", name, samples.size(), samples.get(0)[1],
+        samples.get(samples.size() - 1)[1], growthPerMinute(name, warmUp)));
+    });
+    return report.toString();
+  }
+
+  /**
+   * Stops sampling.
+   */
+  @Override
+  public void close() {
+    this.executor.shutdownNow();
+  }
+
+  // -------------------------------------------------------------------------------------------------------------------
+  // Standard metrics
+  // -------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * @return The bytes of heap used after requesting a full garbage collection.
+   */
+  static long heapUsedAfterGc() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * @return The number of live threads in the JVM.
+   */
+  static long liveThreadCount() {
+    return ManagementFactory.getThreadMXBean().getThreadCount();
+  }
+
+  /**
+   * @return The number of file descriptors open by the JVM process, or {@link #UNSUPPORTED} if not supported by the
+   * platform.
+   */
+  static long openFileDescriptorCount() {
+    OperatingSystemMXBean osMXBean = ManagementFactory.getOperatingSystemMXBean();
+    return osMXBean instanceof com.sun.management.UnixOperatingSystemMXBean ?
+      ((com.sun.management.UnixOperatingSystemMXBean) osMXBean).getOpenFileDescriptorCount() : UNSUPPORTED;
+  }
+
+  /**
+   * Counts the established (client-side) TCP connections to a local server port, using the kernel's table of TCP
+   * sockets. Only supported on Linux.
+   *
+   * @param serverPort The port of the server.
+   * @return The number of established connections, or {@link #UNSUPPORTED} if not supported by the platform.
+   */
+  static long establishedConnectionCount(int serverPort) {
+    final String remotePortSuffix = String.format(":%04X", serverPort);
+    final String establishedState = "01";
+    long count = 0;
+    for (Path tcpTable : new Path[] {Paths.get("/proc/net/tcp"), Paths.get("/proc/net/tcp6")}) {
+      if (!Files.isReadable(tcpTable)) {
+        continue;
+      }
+      try {
+        // Columns - sl local_address rem_address st ...
+        count += Files.readAllLines(tcpTable).stream()
+          .skip(1)
+          .map(line -> line.trim().split("\\s+"))
+          .filter(columns -> columns.length > 3 && columns[2].endsWith(remotePortSuffix) &&
+            columns[3].equals(establishedState))
+          .count();
+      } catch (IOException e) {
+        return UNSUPPORTED;
+      }
+    }
+    return Files.isReadable(Paths.get("/proc/net/tcp")) ? count : UNSUPPORTED;
+  }
+}
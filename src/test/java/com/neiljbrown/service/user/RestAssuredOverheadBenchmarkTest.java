@@ -0,0 +1,423 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.isEmptyOrNullString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import io.restassured.RestAssured;
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.config.LogConfig;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.filter.Filter;
+import io.restassured.specification.RequestSpecification;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An end-to-end benchmark of how much of the latency of each Create and Get Realm API call made by the tests is the
+ * overhead of REST Assured itself, rather than the HTTP exchange.
+ * <p>
+ * Makes the same exchange, with the same payload, single-threaded, against the {@link RealmServiceStandIn in-memory
+ * stand-in} for the APIs, first using a raw, pooled HTTP client, and then using REST Assured with a cumulative series
+ * of features added - verifying only the response status, matching the body using a Hamcrest matcher, and then a
+ * Groovy GPath expression, extracting the body as an object, logging the request and response if validation fails,
+ * and always logging them - and finally using the test's helper method as written, which also merges the test's default
+ * request specification and applies its filters. Logging is written to a discarding stream, so that the cost of
+ * formatting the logs is measured, but not that of console I/O. Reports the latency percentiles of each variant, and
+ * its mean overhead relative to the raw HTTP client, and to the previous variant.
+ * <p>
+ * Disabled by default. Enable by setting the property 'restAssuredOverheadBenchmarkEnabled' to true. It's recommended
+ * that 'alwaysLogApiRequestAndResponse' is set to false, unless the overhead of the helper methods' logging is of
+ * interest.
+ */
+public class RestAssuredOverheadBenchmarkTest extends AbstractRealmApiTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(RestAssuredOverheadBenchmarkTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "restAssuredOverheadBenchmarkEnabled";
+  private static final String BENCHMARK_WARM_UP_ITERATIONS_PROPERTY =
+    "restAssuredOverheadBenchmarkWarmUpIterations";
+  private static final String BENCHMARK_ITERATIONS_PROPERTY = "restAssuredOverheadBenchmarkIterations";
+  private static final String BENCHMARK_REALMS_PROPERTY = "restAssuredOverheadBenchmarkRealms";
+
+  private static final PrintStream DISCARDING_PRINT_STREAM = new PrintStream(new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  });
+
+  private int warmUpIterations;
+  private int iterations;
+  private URI baseUri;
+  private CloseableHttpClient httpClient;
+
+  /**
+   * The test's default REST Assured request specification and filters, which are removed whilst measuring the
+   * variants which add REST Assured features one by one, and restored to measure the helper methods as written.
+   */
+  private RequestSpecification defaultRequestSpecification;
+  private List<Filter> defaultFilters;
+
+  public RestAssuredOverheadBenchmarkTest() {
+    super();
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("REST Assured overhead benchmark is disabled.",
+      this.config.getBoolean(BENCHMARK_ENABLED_PROPERTY, Boolean.FALSE));
+    super.setUp();
+    stubRealmServiceStandIn();
+    this.warmUpIterations = this.config.getInt(BENCHMARK_WARM_UP_ITERATIONS_PROPERTY, 2000);
+    this.iterations = this.config.getInt(BENCHMARK_ITERATIONS_PROPERTY, 5000);
+    // Each run of the Create Realm benchmark must not exceed the max number of realms
+    Validate.isTrue(this.warmUpIterations + this.iterations <= UserRealmConstants.ID_MAX,
+      "Warm-up iterations plus iterations must not exceed [%d].", UserRealmConstants.ID_MAX);
+    this.baseUri = URI.create("http://localhost:" + this.wireMockRule.port());
+    this.httpClient = HttpClients.createDefault();
+    this.defaultRequestSpecification = RestAssured.requestSpecification;
+    this.defaultFilters = new ArrayList<>(RestAssured.filters());
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    restoreRestAssuredDefaults();
+    if (this.httpClient != null) {
+      try {
+        this.httpClient.close();
+      } catch (IOException e) {
+        logger.warn("Error closing HTTP client. Cause [{}].", e.toString());
+      }
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Benchmarks creating a realm using a raw HTTP client, REST Assured with an increasing number of features, and
+   * {@link #createRealmResource(UserRealmDto)} as written.
+   */
+  @Test
+  public void benchmarkCreateRealm() {
+    List<Variant> variants = new ArrayList<>();
+    variants.add(new Variant("Raw HTTP client", false, realm ->
+      executeRaw(createRealmRequest(realm), HttpStatus.SC_CREATED)));
+    variants.add(new Variant("REST Assured, status only", false, realm ->
+      RestAssured.given(spec(false))
+          .contentType(ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+          .body(realm.toXmlBytes())
+        .when()
+          .post(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+        .then()
+          .statusCode(HttpStatus.SC_CREATED)));
+    variants.add(new Variant("+ Hamcrest body matcher", false, realm ->
+      RestAssured.given(spec(false))
+          .contentType(ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+          .body(realm.toXmlBytes())
+        .when()
+          .post(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+        .then()
+          .statusCode(HttpStatus.SC_CREATED)
+          .body(not(isEmptyOrNullString()))));
+    variants.add(new Variant("+ GPath body matcher", false, realm ->
+      RestAssured.given(spec(false))
+          .contentType(ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+          .body(realm.toXmlBytes())
+        .when()
+          .post(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+        .then()
+          .statusCode(HttpStatus.SC_CREATED)
+          .body(not(isEmptyOrNullString()))
+          .body("realm.@name", equalTo(realm.getName()))));
+    variants.add(new Variant("+ extraction as object", false, realm ->
+      createRealmUsingRestAssured(realm, spec(false), false)));
+    variants.add(new Variant("+ log if validation fails", false, realm ->
+      createRealmUsingRestAssured(realm, spec(true), false)));
+    variants.add(new Variant("+ always log", false, realm -> createRealmUsingRestAssured(realm, spec(true), true)));
+    variants.add(new Variant("createRealmResource() as written", true, realm -> createRealmResource(realm.toDto())));
+
+    // Each realm must have a unique name. Delete all realms before each variant, to stay within the max
+    final String report = benchmark(variants,
+      () -> CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription()),
+      this.realmServiceStandIn::deleteAllRealms);
+    logger.info("Create Realm API latency, by client variant -{}{}", System.lineSeparator(), report);
+  }
+
+  /**
+   * Benchmarks getting a realm using a raw HTTP client, REST Assured with an increasing number of features, and
+   * {@link #getRealmResource(String)} as written.
+   */
+  @Test
+  public void benchmarkGetRealm() {
+    final List<CompactUserRealm> realms = new ArrayList<>();
+    for (int i = 0; i < this.config.getInt(BENCHMARK_REALMS_PROPERTY, 100); i++) {
+      realms.add(CompactUserRealm.from(UserRealmXmlCodec.decode(executeRaw(
+        createRealmRequest(CompactUserRealm.of(generateUniqueRealmName(), generateRealmDescription())),
+        HttpStatus.SC_CREATED))));
+    }
+
+    List<Variant> variants = new ArrayList<>();
+    variants.add(new Variant("Raw HTTP client", false, realm -> executeRaw(getRealmRequest(realm), HttpStatus.SC_OK)));
+    variants.add(new Variant("REST Assured, status only", false, realm ->
+      RestAssured.given(spec(false))
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realm.getId())
+        .when()
+          .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+        .then()
+          .statusCode(HttpStatus.SC_OK)));
+    variants.add(new Variant("+ Hamcrest body matcher", false, realm ->
+      RestAssured.given(spec(false))
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realm.getId())
+        .when()
+          .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+        .then()
+          .statusCode(HttpStatus.SC_OK)
+          .body(not(isEmptyOrNullString()))));
+    variants.add(new Variant("+ GPath body matcher", false, realm ->
+      RestAssured.given(spec(false))
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realm.getId())
+        .when()
+          .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+        .then()
+          .statusCode(HttpStatus.SC_OK)
+          .body(not(isEmptyOrNullString()))
+          .body("realm.@name", equalTo(realm.getName()))));
+    variants.add(new Variant("+ extraction as object", false, realm ->
+      getRealmUsingRestAssured(realm, spec(false), false)));
+    variants.add(new Variant("+ log if validation fails", false, realm ->
+      getRealmUsingRestAssured(realm, spec(true), false)));
+    variants.add(new Variant("+ always log", false, realm -> getRealmUsingRestAssured(realm, spec(true), true)));
+    variants.add(new Variant("getRealmResource() as written", true, realm ->
+      getRealmResource(Integer.toString(realm.getId()))));
+
+    final String report = benchmark(variants, () -> realms.get(ThreadLocalRandom.current().nextInt(realms.size())),
+      () -> { });
+    logger.info("Get Realm API latency, by client variant -{}{}", System.lineSeparator(), report);
+  }
+
+  /**
+   * Warms up and then measures each variant in turn.
+   *
+   * @param variants The variants of the API call to measure, in order. The first is the baseline.
+   * @param realmSupplier Supplies the realm passed to each call. Not measured.
+   * @param beforeEachVariant Run before each variant is warmed up. Not measured.
+   * @return A report of the latency of each variant.
+   */
+  private String benchmark(List<Variant> variants, Supplier<CompactUserRealm> realmSupplier,
+    Runnable beforeEachVariant) {
+    Map<String, Histogram> latencyMicrosByVariant = new LinkedHashMap<>();
+    for (Variant variant : variants) {
+      beforeEachVariant.run();
+      if (variant.usesTestDefaults) {
+        restoreRestAssuredDefaults();
+      } else {
+        RestAssured.requestSpecification = null;
+        RestAssured.replaceFiltersWith(Collections.emptyList());
+      }
+      for (int i = 0; i < this.warmUpIterations; i++) {
+        variant.call.accept(realmSupplier.get());
+      }
+      Histogram latencyMicros = new Histogram(3);
+      for (int i = 0; i < this.iterations; i++) {
+        final CompactUserRealm realm = realmSupplier.get();
+        final long startNanos = System.nanoTime();
+        variant.call.accept(realm);
+        latencyMicros.recordValue((System.nanoTime() - startNanos) / 1000);
+      }
+      latencyMicrosByVariant.put(variant.name, latencyMicros);
+    }
+    restoreRestAssuredDefaults();
+    return format(latencyMicrosByVariant);
+  }
+
+  private UserRealmDto createRealmUsingRestAssured(CompactUserRealm realm, RequestSpecification spec, boolean log) {
+    RequestSpecification request = RestAssured.given(spec);
+    if (log) {
+      request.log().all();
+    }
+    return request
+        .contentType(ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+        .body(realm.toXmlBytes())
+      .when()
+        .post(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+      .then()
+        .statusCode(HttpStatus.SC_CREATED)
+        .body(not(isEmptyOrNullString()))
+        .body("realm.@name", equalTo(realm.getName()))
+        .extract().as(UserRealmDto.class);
+  }
+
+  private UserRealmDto getRealmUsingRestAssured(CompactUserRealm realm, RequestSpecification spec, boolean log) {
+    RequestSpecification request = RestAssured.given(spec);
+    if (log) {
+      request.log().all();
+    }
+    return request
+        .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realm.getId())
+      .when()
+        .get(UserRealmApiConstants.GET_REALM_URL_PATH)
+      .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(not(isEmptyOrNullString()))
+        .body("realm.@name", equalTo(realm.getName()))
+        .extract().as(UserRealmDto.class);
+  }
+
+  /**
+   * Builds the request specification used by the variants which add REST Assured features one by one.
+   *
+   * @param logIfValidationFails Whether the request and response should be logged if validation of the response fails.
+   * REST Assured captures the request and response on every call to support this.
+   * @return The request specification.
+   */
+  private RequestSpecification spec(boolean logIfValidationFails) {
+    LogConfig logConfig = LogConfig.logConfig().defaultStream(DISCARDING_PRINT_STREAM);
+    if (logIfValidationFails) {
+      logConfig = logConfig.enableLoggingOfRequestAndResponseIfValidationFails();
+    }
+    return new RequestSpecBuilder()
+      .setBaseUri("http://localhost")
+      .setPort(this.wireMockRule.port())
+      .setBasePath("")
+      .setAccept(ContentType.APPLICATION_XML.getMimeType())
+      .setConfig(RestAssuredConfig.config().logConfig(logConfig))
+      .build();
+  }
+
+  private void restoreRestAssuredDefaults() {
+    if (this.defaultFilters != null) {
+      RestAssured.requestSpecification = this.defaultRequestSpecification;
+      RestAssured.replaceFiltersWith(this.defaultFilters);
+    }
+  }
+
+  private HttpPost createRealmRequest(CompactUserRealm realm) {
+    HttpPost request = new HttpPost(this.baseUri.resolve(UserRealmApiConstants.CREATE_REALM_URL_PATH));
+    request.setHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+    request.setEntity(new ByteArrayEntity(realm.toXmlBytes(),
+      ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8)));
+    return request;
+  }
+
+  private HttpGet getRealmRequest(CompactUserRealm realm) {
+    HttpGet request = new HttpGet(this.baseUri.resolve(UserRealmApiConstants.CREATE_REALM_URL_PATH + "/" +
+      realm.getId()));
+    request.setHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+    return request;
+  }
+
+  /**
+   * Executes a request using the raw HTTP client, and verifies the response has the expected status.
+   *
+   * @return The body of the response.
+   */
+  private String executeRaw(HttpUriRequest request, int expectedStatus) {
+    try (CloseableHttpResponse response = this.httpClient.execute(request)) {
+      final String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+      if (response.getStatusLine().getStatusCode() != expectedStatus) {
+        throw new AssertionError("Expected status [" + expectedStatus + "] but was [" +
+          response.getStatusLine().getStatusCode() + "], for request [" + request + "].");
+      }
+      return body;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String format(Map<String, Histogram> latencyMicrosByVariant) {
+    final double rawMeanMicros = latencyMicrosByVariant.values().iterator().next().getMean();
+    StringBuilder report = new StringBuilder(String.format("%-34s %9s %9s %9s %9s %14s %14s%n", "Variant",
+      "Mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "vs raw(us)", "vs prev(us)"));
+    double previousMeanMicros = rawMeanMicros;
+    for (Map.Entry<String, Histogram> entry : latencyMicrosByVariant.entrySet()) {
+      final Histogram histogram = entry.getValue();
+      report.append(String.format("%-34s %9.0f %9d %9d %9d %+14.0f %+14.0f%n", entry.getKey(), histogram.getMean(),
+        histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+        histogram.getMean() - rawMeanMicros, histogram.getMean() - previousMeanMicros));
+      previousMeanMicros = histogram.getMean();
+    }
+    return report.toString();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Logger getLogger() {
+    return logger;
+  }
+
+  /**
+   * A variant of an API call to be measured.
+   */
+  private static final class Variant {
+    private final String name;
+    private final boolean usesTestDefaults;
+    private final Consumer<CompactUserRealm> call;
+
+    /**
+     * @param name The name of the variant.
+     * @param usesTestDefaults Whether the call uses the test's default REST Assured request specification and filters.
+     * @param call Makes the API call for a supplied realm.
+     */
+    private Variant(String name, boolean usesTestDefaults, Consumer<CompactUserRealm> call) {
+      this.name = name;
+      this.usesTestDefaults = usesTestDefaults;
+      this.call = call;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static org.hamcrest.Matchers.isEmptyOrNullString;
+import static org.hamcrest.Matchers.not;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+import com.neiljbrown.service.user.dto.UserRealmXmlCodec;
+import io.restassured.RestAssured;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.response.Response;
+import io.restassured.response.ValidatableResponse;
+import io.restassured.specification.RequestSpecification;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A {@link RealmApiTransport} which makes Realm API calls using REST Assured.
+ * <p>
+ * Uses REST Assured's global configuration - the port, and the default request specification, including its filters
+ * for JFR events, latency budgets, gzip content-encoding and client-side load balancing - configured by
+ * {@link AbstractRealmApiTest}. Each call blocks the calling thread until the response has been received and verified.
+ * A call which the service throttles fails with a {@link RealmApiThrottledException}, before the response is verified.
+ */
+// package-protected
+final class RestAssuredRealmApiTransport implements RealmApiTransport {
+
+  /**
+   * The configuration used for every call, overriding that of the default request specification, or null to use the
+   * default.
+   */
+  private final RestAssuredConfig config;
+
+  /**
+   * The shared, pooled HTTP client used by every call, or null if a new client is used per call.
+   */
+  private final org.apache.http.client.HttpClient pooledHttpClient;
+
+  /**
+   * Creates a transport which uses REST Assured's default configuration, including its default HTTP client, which
+   * creates a new client, and so a new connection, per call.
+   */
+  RestAssuredRealmApiTransport() {
+    this.config = null;
+    this.pooledHttpClient = null;
+  }
+
+  /**
+   * Creates a transport which makes every call using one shared HTTP client, with a pool of connections which are
+   * reused across calls and threads, so that the cost per call isn't dominated by connecting. The default request
+   * specification's configuration, e.g. of timeouts and gzip content-encoding, isn't used, but its filters are.
+   *
+   * @param maxConnections The max number of pooled connections to the User service.
+   */
+  RestAssuredRealmApiTransport(int maxConnections) {
+    this.pooledHttpClient = createPooledHttpClient(maxConnections);
+    this.config = RestAssured.config().httpClient(RestAssured.config().getHttpClientConfig()
+      .httpClientFactory(() -> this.pooledHttpClient)
+      .reuseHttpClientInstance());
+  }
+
+  @Override
+  public UserRealmDto createRealm(UserRealmDto userRealm) {
+    return
+      thenUnlessThrottled(
+        request()
+            .basePath(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+            .contentType(ContentType.APPLICATION_XML.getMimeType())
+            .body(userRealm)
+          .when()
+            .post())
+        .assertThat().statusCode(HttpStatus.SC_CREATED)
+        .body(not(isEmptyOrNullString()))
+        .extract().body().as(UserRealmDto.class);
+  }
+
+  @Override
+  public CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey) {
+    RequestSpecification request = request();
+    if (idempotencyKey != null) {
+      request.header(UserRealmApiConstants.IDEMPOTENCY_KEY_HEADER_NAME, idempotencyKey);
+    }
+    return CompactUserRealm.from(
+      thenUnlessThrottled(
+        request
+            .basePath(UserRealmApiConstants.CREATE_REALM_URL_PATH)
+            .contentType(ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8).toString())
+            .body(userRealm.toXmlBytes())
+          .when()
+            .post())
+        .assertThat().statusCode(HttpStatus.SC_CREATED)
+        .body(not(isEmptyOrNullString()))
+        .extract().body().as(UserRealmDto.class));
+  }
+
+  @Override
+  public UserRealmDto getRealm(String realmId) {
+    return
+      thenUnlessThrottled(
+        request()
+            .basePath("")
+            .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realmId)
+          .when()
+            .get(UserRealmApiConstants.GET_REALM_URL_PATH))
+        .assertThat().statusCode(HttpStatus.SC_OK)
+        .body(not(isEmptyOrNullString()))
+        .extract().as(UserRealmDto.class);
+  }
+
+  @Override
+  public Map<String, UserRealmDto> getRealms(Collection<String> realmIds) {
+    return UserRealmXmlCodec.decodeList(new StringReader(
+      thenUnlessThrottled(
+        request()
+            .basePath("")
+            .queryParam(UserRealmApiConstants.REALM_ID_QUERY_PARAM_NAME, realmIds)
+          .when()
+            .get(UserRealmApiConstants.GET_REALMS_URL_PATH))
+        .assertThat().statusCode(HttpStatus.SC_OK)
+        .body(not(isEmptyOrNullString()))
+        .extract().asString()));
+  }
+
+  @Override
+  public UserRealmDto getRealmByName(String realmName) {
+    return
+      thenUnlessThrottled(
+        request()
+            .basePath("")
+            .queryParam(UserRealmApiConstants.REALM_NAME_QUERY_PARAM_NAME, realmName)
+          .when()
+            .get(UserRealmApiConstants.GET_REALM_BY_NAME_URL_PATH))
+        .assertThat().statusCode(HttpStatus.SC_OK)
+        .body(not(isEmptyOrNullString()))
+        .extract().as(UserRealmDto.class);
+  }
+
+  @Override
+  public void deleteRealm(int realmId) {
+    thenUnlessThrottled(
+      request()
+          .basePath("")
+          .pathParam(UserRealmApiConstants.REALM_ID_PATH_VAR_NAME, realmId)
+        .when()
+          .delete(UserRealmApiConstants.DELETE_REALM_URL_PATH))
+      .assertThat().statusCode(HttpStatus.SC_NO_CONTENT);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Shuts down the transport's pooled HTTP client, if any, closing its connections.
+   */
+  @Override
+  @SuppressWarnings("deprecation")
+  public void close() {
+    if (this.pooledHttpClient != null) {
+      this.pooledHttpClient.getConnectionManager().shutdown();
+    }
+  }
+
+  /**
+   * @return A new request specification, using the transport's configuration, if any.
+   */
+  private RequestSpecification request() {
+    final RequestSpecification request = RestAssured.given();
+    return this.config != null ? request.config(this.config) : request;
+  }
+
+  /**
+   * Returns the supplied response for verification, unless its request was throttled by the service.
+   *
+   * @param response The response to an API call.
+   * @return The response's {@link ValidatableResponse}.
+   * @throws RealmApiThrottledException If the response has status 429 Too Many Requests.
+   */
+  private static ValidatableResponse thenUnlessThrottled(Response response) {
+    if (response.statusCode() == UserRealmApiConstants.SC_TOO_MANY_REQUESTS) {
+      throw new RealmApiThrottledException("Request throttled, with body [" + response.asString() + "].",
+        AimdConcurrencyLimiter.parseRetryAfter(response.header(UserRealmApiConstants.RETRY_AFTER_HEADER_NAME)));
+    }
+    return response.then();
+  }
+
+  // REST Assured requires the deprecated AbstractHttpClient, rather than a client built by HttpClientBuilder. The
+  // classes are referred to by their qualified names, as the warnings for imports can't be suppressed
+  @SuppressWarnings("deprecation")
+  private static org.apache.http.client.HttpClient createPooledHttpClient(int maxConnections) {
+    org.apache.http.impl.conn.PoolingClientConnectionManager connectionManager =
+      new org.apache.http.impl.conn.PoolingClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    return new org.apache.http.impl.client.DefaultHttpClient(connectionManager);
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+
+/**
+ * A {@link RealmApiTransport} which coalesces concurrent Get Realm API calls for the same realm ID into a single call -
+ * a 'single-flight' layer over another transport, to which all calls are delegated.
+ * <p>
+ * The first thread to get a realm, when no call for its ID is already in flight, makes the call. Any other threads which
+ * get the same realm while the call is in flight wait for it to complete, and share its outcome - the realm, or the
+ * failure - rather than making calls of their own. Each thread is returned its own copy of the realm, so that callers
+ * can't affect each other by modifying it. Once the call completes, the next get for the ID makes a new call - realms
+ * aren't cached. This reduces the number of calls made for popular realms during traffic spikes, without returning
+ * realms any more stale than the latest in-flight call.
+ * <p>
+ * Safe for use by multiple threads, if the delegate transport is.
+ */
+// package-protected
+final class SingleFlightRealmApiTransport implements RealmApiTransport {
+
+  private final RealmApiTransport delegate;
+  private final Map<String, CompletableFuture<UserRealmDto>> inFlightGetRealmCalls = new ConcurrentHashMap<>();
+  private final LongAdder getRealmCalls = new LongAdder();
+  private final LongAdder coalescedGetRealmCalls = new LongAdder();
+  /** Whether the last call made by each thread joined a call made by another thread. */
+  private final ThreadLocal<Boolean> joinedInFlightCall = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+  /**
+   * @param delegate The transport used to make the API calls.
+   */
+  SingleFlightRealmApiTransport(RealmApiTransport delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public UserRealmDto createRealm(UserRealmDto userRealm) {
+    this.joinedInFlightCall.set(Boolean.FALSE);
+    return this.delegate.createRealm(userRealm);
+  }
+
+  @Override
+  public CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey) {
+    this.joinedInFlightCall.set(Boolean.FALSE);
+    return this.delegate.createRealm(userRealm, idempotencyKey);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Joins the call for the same realm ID already in flight, if any.
+   */
+  @Override
+  public UserRealmDto getRealm(String realmId) {
+    final CompletableFuture<UserRealmDto> call = new CompletableFuture<>();
+    final CompletableFuture<UserRealmDto> inFlightCall = this.inFlightGetRealmCalls.putIfAbsent(realmId, call);
+    this.joinedInFlightCall.set(inFlightCall != null);
+    if (inFlightCall != null) {
+      this.coalescedGetRealmCalls.increment();
+      return new UserRealmDto(join(inFlightCall));
+    }
+    this.getRealmCalls.increment();
+    try {
+      call.complete(this.delegate.getRealm(realmId));
+    } catch (Throwable t) {
+      // Includes checked exceptions, e.g. the SocketTimeoutException which REST Assured throws undeclared, so that
+      // threads which joined the call are never left waiting for it
+      call.completeExceptionally(t);
+    } finally {
+      this.inFlightGetRealmCalls.remove(realmId, call);
+    }
+    return new UserRealmDto(join(call));
+  }
+
+  @Override
+  public Map<String, UserRealmDto> getRealms(Collection<String> realmIds) {
+    this.joinedInFlightCall.set(Boolean.FALSE);
+    return this.delegate.getRealms(realmIds);
+  }
+
+  @Override
+  public UserRealmDto getRealmByName(String realmName) {
+    this.joinedInFlightCall.set(Boolean.FALSE);
+    return this.delegate.getRealmByName(realmName);
+  }
+
+  @Override
+  public void deleteRealm(int realmId) {
+    this.joinedInFlightCall.set(Boolean.FALSE);
+    this.delegate.deleteRealm(realmId);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Returns false if the current thread's last call was a Get Realm which joined a call already in flight, as that
+   * call was made by another thread.
+   */
+  @Override
+  public boolean isCallingThreadOnly() {
+    return !this.joinedInFlightCall.get() && this.delegate.isCallingThreadOnly();
+  }
+
+  @Override
+  public void close() {
+    this.delegate.close();
+  }
+
+  /**
+   * @return The number of Get Realm API calls made by the delegate transport.
+   */
+  long getGetRealmCallCount() {
+    return this.getRealmCalls.sum();
+  }
+
+  /**
+   * @return The number of gets of a realm which joined a call already in flight, rather than making a call.
+   */
+  long getCoalescedGetRealmCallCount() {
+    return this.coalescedGetRealmCalls.sum();
+  }
+
+  /**
+   * Waits for a call to complete, rethrowing the exception or error with which it failed, if any, as is, so that
+   * callers see the same failure, e.g. an {@link AssertionError}, or an undeclared checked exception, as the thread
+   * which made the call.
+   */
+  private static UserRealmDto join(CompletableFuture<UserRealmDto> call) {
+    try {
+      return call.join();
+    } catch (CompletionException e) {
+      throw SingleFlightRealmApiTransport.<RuntimeException>rethrow(e.getCause());
+    }
+  }
+
+  /**
+   * Throws the supplied throwable, whether or not it's a checked exception, without wrapping it.
+   */
+  @SuppressWarnings("unchecked")
+  private static <E extends Throwable> E rethrow(Throwable t) throws E {
+    throw (E) t;
+  }
+}
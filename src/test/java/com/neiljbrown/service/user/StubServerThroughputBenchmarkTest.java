@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A self-benchmark of the throughput ceiling of the WireMock server used to stub the APIs under test.
+ * <p>
+ * Load tests of the APIs are only meaningful if the stub server saturates well after the client does. This benchmark
+ * drives a canned Get Realm API response as hard as possible, from a configurable number of threads, using a
+ * lightweight, pooled HTTP client rather than REST Assured, so that the client's overhead is minimal. It does so
+ * against a server using WireMock's default configuration, and against one using the configured
+ * {@link WireMockConfigurationFactory high-concurrency settings}, and reports the throughput and latency of each.
+ * <p>
+ * So that neither server is favoured by running on a warmer JVM, both are first driven for a warm-up period, whose
+ * results are discarded. Each is then measured twice, in alternating order - default, configured, configured, default -
+ * and the results of its two runs are combined, and reported by server configuration.
+ * <p>
+ * Disabled by default. Enable by setting the property 'stubServerBenchmarkEnabled' to true.
+ */
+public class StubServerThroughputBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(StubServerThroughputBenchmarkTest.class);
+
+  private static final String BENCHMARK_ENABLED_PROPERTY = "stubServerBenchmarkEnabled";
+  private static final String BENCHMARK_CLIENT_THREADS_PROPERTY = "stubServerBenchmarkClientThreads";
+  private static final String BENCHMARK_DURATION_SECONDS_PROPERTY = "stubServerBenchmarkDurationSeconds";
+  private static final String BENCHMARK_WARM_UP_SECONDS_PROPERTY = "stubServerBenchmarkWarmUpSeconds";
+  private static final String BENCHMARK_RESPONSE_DELAY_MILLIS_PROPERTY = "stubServerBenchmarkResponseDelayMillis";
+
+  private static final String REALM_XML = "<realm id=\"1\" name=\"realm-1\"><description>Benchmark realm" +
+    "</description><key>92f1aea4bb92c3661a9c85ee81503e28</key></realm>";
+
+  private ImmutableConfiguration config;
+
+  @Before
+  public void setUp() throws Exception {
+    this.config = AbstractRealmApiTest.loadApplicationConfiguration();
+    assumeTrue("Stub server benchmark is disabled.", this.config.getBoolean(BENCHMARK_ENABLED_PROPERTY,
+      Boolean.FALSE));
+  }
+
+  /**
+   * Benchmarks the throughput of the stub server using WireMock's default configuration, and the configured
+   * high-concurrency settings.
+   */
+  @Test
+  public void benchmarkDefaultVersusConfiguredServer() throws Exception {
+    final Duration warmUp = Duration.ofSeconds(this.config.getLong(BENCHMARK_WARM_UP_SECONDS_PROPERTY, 5L));
+    final Duration duration = Duration.ofSeconds(this.config.getLong(BENCHMARK_DURATION_SECONDS_PROPERTY, 20L));
+    final int clientThreads = this.config.getInt(BENCHMARK_CLIENT_THREADS_PROPERTY, 64);
+    final int responseDelayMillis = this.config.getInt(BENCHMARK_RESPONSE_DELAY_MILLIS_PROPERTY, 0);
+    if (!warmUp.isZero()) {
+      benchmark(wireMockConfig().dynamicPort(), warmUp, new BenchmarkResult(clientThreads, responseDelayMillis));
+      benchmark(configuredWireMockConfig(), warmUp, new BenchmarkResult(clientThreads, responseDelayMillis));
+    }
+
+    final BenchmarkResult defaultResult = new BenchmarkResult(clientThreads, responseDelayMillis);
+    final BenchmarkResult configuredResult = new BenchmarkResult(clientThreads, responseDelayMillis);
+    benchmark(wireMockConfig().dynamicPort(), duration, defaultResult);
+    benchmark(configuredWireMockConfig(), duration, configuredResult);
+    benchmark(configuredWireMockConfig(), duration, configuredResult);
+    benchmark(wireMockConfig().dynamicPort(), duration, defaultResult);
+
+    logger.info("Stub server throughput ceiling, after a warm-up of [{}] secs per server, over two runs of [{}] secs " +
+        "per server -{}{}{}{}", warmUp.getSeconds(), duration.getSeconds(), System.lineSeparator(),
+      defaultResult.format("WireMock defaults"), System.lineSeparator(), configuredResult.format("Configured"));
+    assertThat(defaultResult.errors.sum()).as("Errors using WireMock defaults").isZero();
+    assertThat(configuredResult.errors.sum()).as("Errors using configured settings").isZero();
+  }
+
+  private WireMockConfiguration configuredWireMockConfig() {
+    return WireMockConfigurationFactory.create(this.config);
+  }
+
+  /**
+   * Drives a server, using the supplied configuration, for the supplied duration, and adds the outcome to the supplied
+   * result, which may accumulate several runs.
+   */
+  private static void benchmark(WireMockConfiguration wireMockConfig, Duration duration, BenchmarkResult result)
+    throws Exception {
+    final int clientThreads = result.clientThreads;
+    final int responseDelayMillis = result.responseDelayMillis;
+
+    WireMockServer server = new WireMockServer(wireMockConfig);
+    server.start();
+    ExecutorService executor = Executors.newFixedThreadPool(clientThreads);
+    try (CloseableHttpClient httpClient = HttpClients.custom()
+      .setMaxConnTotal(clientThreads)
+      .setMaxConnPerRoute(clientThreads)
+      .build()) {
+      server.stubFor(
+        get(urlPathMatching("^/user/realm/\\d{1,4}$"))
+          .willReturn(
+            aResponse()
+              .withStatus(HttpStatus.SC_OK)
+              .withHeader("Content-Type", ContentType.APPLICATION_XML.getMimeType())
+              .withFixedDelay(responseDelayMillis)
+              .withBody(REALM_XML)));
+
+      final String url = "http://localhost:" + server.port() + "/user/realm/1";
+      final long endNanos = System.nanoTime() + duration.toNanos();
+      List<Future<?>> clients = new ArrayList<>();
+      for (int i = 0; i < clientThreads; i++) {
+        clients.add(executor.submit(() -> {
+          while (System.nanoTime() < endNanos) {
+            final long startNanos = System.nanoTime();
+            try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+              EntityUtils.consume(response.getEntity());
+              if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                result.errors.increment();
+              }
+            } catch (IOException e) {
+              result.errors.increment();
+            }
+            result.record(System.nanoTime() - startNanos);
+          }
+        }));
+      }
+      for (Future<?> client : clients) {
+        client.get();
+      }
+      result.elapsedNanos += duration.toNanos();
+    } finally {
+      executor.shutdownNow();
+      server.stop();
+    }
+  }
+
+  /**
+   * The results of a benchmark of a server, over one or more runs.
+   */
+  private static final class BenchmarkResult {
+    private final int clientThreads;
+    private final int responseDelayMillis;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private long elapsedNanos;
+
+    private BenchmarkResult(int clientThreads, int responseDelayMillis) {
+      this.clientThreads = clientThreads;
+      this.responseDelayMillis = responseDelayMillis;
+    }
+
+    private void record(long latencyNanos) {
+      this.requests.increment();
+      this.latencyNanos.add(latencyNanos);
+    }
+
+    private String format(String serverDescription) {
+      final long requests = this.requests.sum();
+      return String.format("%-24s client threads [%d], response delay [%d ms], requests [%d], errors [%d], " +
+          "throughput [%.0f req/s], mean latency [%.2f ms]", serverDescription, this.clientThreads,
+        this.responseDelayMillis, requests, this.errors.sum(), requests / (this.elapsedNanos / 1e9),
+        requests > 0 ? this.latencyNanos.sum() / 1e6 / requests : 0);
+    }
+  }
+}
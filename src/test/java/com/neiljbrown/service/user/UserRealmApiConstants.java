@@ -25,5 +25,18 @@ final class UserRealmApiConstants {
   static final String CREATE_REALM_URL_PATH = REALM_RESOURCE_URL_PATH;
   static final String REALM_ID_PATH_VAR_NAME = "realmId";
   static final String GET_REALM_URL_PATH = REALM_RESOURCE_URL_PATH + "/{" + REALM_ID_PATH_VAR_NAME + "}";
+  static final String REALM_NAME_QUERY_PARAM_NAME = "name";
+  static final String GET_REALM_BY_NAME_URL_PATH = REALM_RESOURCE_URL_PATH;
+  static final String REALM_ID_QUERY_PARAM_NAME = "id";
+  static final String GET_REALMS_URL_PATH = REALM_RESOURCE_URL_PATH;
+  /** The max number of (distinct) realm IDs which may be requested by a single Get Realms API call. */
+  static final int GET_REALMS_MAX_IDS = 100;
   static final String DELETE_REALM_URL_PATH = REALM_RESOURCE_URL_PATH + "/{" + REALM_ID_PATH_VAR_NAME + "}";
+  /** HTTP status 429 Too Many Requests, returned when the service sheds load. Not defined by {@code HttpStatus}. */
+  static final int SC_TOO_MANY_REQUESTS = 429;
+  static final String RETRY_AFTER_HEADER_NAME = "Retry-After";
+  static final String IDEMPOTENCY_KEY_HEADER_NAME = "Idempotency-Key";
+  static final int IDEMPOTENCY_KEY_MAX_LEN = 255;
+  /** Response header which identifies a response to Create Realm as a replay of that to an earlier request. */
+  static final String IDEMPOTENT_REPLAYED_HEADER_NAME = "Idempotent-Replayed";
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.neiljbrown.service.user.dto.CompactUserRealm;
+import com.neiljbrown.service.user.dto.UserRealmDto;
+
+/**
+ * A {@link RealmApiTransport} which validates each request using the {@link RealmRequestValidator} before delegating
+ * it to another transport, so that invalid requests fail fast, with a
+ * {@link RealmRequestValidator.InvalidRealmRequestException}, and never leave the process. Valid requests are delegated
+ * as is. Safe for use by multiple threads, if the delegate transport is.
+ */
+// package-protected
+final class ValidatingRealmApiTransport implements RealmApiTransport {
+
+  private final RealmApiTransport delegate;
+
+  /**
+   * @param delegate The transport used to make the API calls.
+   */
+  ValidatingRealmApiTransport(RealmApiTransport delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public UserRealmDto createRealm(UserRealmDto userRealm) {
+    RealmRequestValidator.validateCreateRealm(userRealm);
+    return this.delegate.createRealm(userRealm);
+  }
+
+  @Override
+  public CompactUserRealm createRealm(CompactUserRealm userRealm, String idempotencyKey) {
+    RealmRequestValidator.validateCreateRealm(userRealm);
+    return this.delegate.createRealm(userRealm, idempotencyKey);
+  }
+
+  @Override
+  public UserRealmDto getRealm(String realmId) {
+    RealmRequestValidator.validateRealmId(realmId);
+    return this.delegate.getRealm(realmId);
+  }
+
+  @Override
+  public Map<String, UserRealmDto> getRealms(Collection<String> realmIds) {
+    RealmRequestValidator.validateRealmIds(realmIds);
+    return this.delegate.getRealms(realmIds);
+  }
+
+  @Override
+  public UserRealmDto getRealmByName(String realmName) {
+    RealmRequestValidator.validateRealmName(realmName);
+    return this.delegate.getRealmByName(realmName);
+  }
+
+  @Override
+  public void deleteRealm(int realmId) {
+    RealmRequestValidator.validateRealmId(Integer.toString(realmId));
+    this.delegate.deleteRealm(realmId);
+  }
+
+  @Override
+  public boolean isCallingThreadOnly() {
+    return this.delegate.isCallingThreadOnly();
+  }
+
+  @Override
+  public void close() {
+    this.delegate.close();
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+
+/**
+ * Factory for the {@link WireMockConfiguration} of the WireMock server which stubs the APIs under test, derived from
+ * the application's configuration.
+ * <p>
+ * Besides the {@link RequestJournalPolicy}, supports tuning the server for high concurrency - the number of Jetty
+ * container (request handling) and acceptor threads, and the size of the accept queue; serving delayed responses
+ * asynchronously, so that they don't block container threads; and disabling gzip and stub request logging. WireMock's
+ * defaults are used for any of these which aren't configured.
+ */
+// package-protected
+final class WireMockConfigurationFactory {
+
+  static final String REQUEST_JOURNAL_PROPERTY = "wireMockRequestJournal";
+  static final String REQUEST_JOURNAL_MAX_ENTRIES_PROPERTY = "wireMockRequestJournalMaxEntries";
+  static final String CONTAINER_THREADS_PROPERTY = "wireMockContainerThreads";
+  static final String JETTY_ACCEPTORS_PROPERTY = "wireMockJettyAcceptors";
+  static final String JETTY_ACCEPT_QUEUE_SIZE_PROPERTY = "wireMockJettyAcceptQueueSize";
+  static final String ASYNCHRONOUS_RESPONSE_ENABLED_PROPERTY = "wireMockAsynchronousResponseEnabled";
+  static final String ASYNCHRONOUS_RESPONSE_THREADS_PROPERTY = "wireMockAsynchronousResponseThreads";
+  static final String GZIP_DISABLED_PROPERTY = "wireMockGzipDisabled";
+  static final String STUB_REQUEST_LOGGING_DISABLED_PROPERTY = "wireMockStubRequestLoggingDisabled";
+
+  private static final int DEFAULT_REQUEST_JOURNAL_MAX_ENTRIES = 1000;
+  private static final int DEFAULT_ASYNCHRONOUS_RESPONSE_THREADS = 10;
+
+  private WireMockConfigurationFactory() {
+    // Static factory
+  }
+
+  /**
+   * Creates a {@link WireMockConfiguration} for a server listening on random free HTTP(S) ports, configured using the
+   * supplied application configuration.
+   *
+   * @param config The application configuration.
+   * @return The {@link WireMockConfiguration}.
+   */
+  static WireMockConfiguration create(ImmutableConfiguration config) {
+    WireMockConfiguration wireMockConfig = wireMockConfig()
+      .dynamicPort()
+      .dynamicHttpsPort();
+    getRequestJournalPolicy(config).applyTo(wireMockConfig,
+      config.getInt(REQUEST_JOURNAL_MAX_ENTRIES_PROPERTY, DEFAULT_REQUEST_JOURNAL_MAX_ENTRIES));
+    applyConcurrencySettings(config, wireMockConfig);
+    return wireMockConfig;
+  }
+
+  /**
+   * @param config The application configuration.
+   * @return The configured {@link RequestJournalPolicy}, defaulting to WireMock's default of
+   * {@link RequestJournalPolicy#UNBOUNDED}.
+   */
+  static RequestJournalPolicy getRequestJournalPolicy(ImmutableConfiguration config) {
+    return RequestJournalPolicy.valueOf(
+      config.getString(REQUEST_JOURNAL_PROPERTY, RequestJournalPolicy.UNBOUNDED.name()).toUpperCase());
+  }
+
+  /**
+   * Applies the configured settings which tune the server for high concurrency.
+   *
+   * @param config The application configuration.
+   * @param wireMockConfig The {@link WireMockConfiguration} to which the settings are applied.
+   */
+  static void applyConcurrencySettings(ImmutableConfiguration config, WireMockConfiguration wireMockConfig) {
+    final Integer containerThreads = config.getInteger(CONTAINER_THREADS_PROPERTY, null);
+    if (containerThreads != null) {
+      wireMockConfig.containerThreads(containerThreads);
+    }
+    final Integer jettyAcceptors = config.getInteger(JETTY_ACCEPTORS_PROPERTY, null);
+    if (jettyAcceptors != null) {
+      wireMockConfig.jettyAcceptors(jettyAcceptors);
+    }
+    final Integer jettyAcceptQueueSize = config.getInteger(JETTY_ACCEPT_QUEUE_SIZE_PROPERTY, null);
+    if (jettyAcceptQueueSize != null) {
+      wireMockConfig.jettyAcceptQueueSize(jettyAcceptQueueSize);
+    }
+    wireMockConfig
+      .asynchronousResponseEnabled(config.getBoolean(ASYNCHRONOUS_RESPONSE_ENABLED_PROPERTY, Boolean.FALSE))
+      .asynchronousResponseThreads(
+        config.getInt(ASYNCHRONOUS_RESPONSE_THREADS_PROPERTY, DEFAULT_ASYNCHRONOUS_RESPONSE_THREADS))
+      // When the client negotiates gzip content-encoding itself, Jetty's gzip is disabled, so that the stand-in's
+      // threshold for compressing responses applies
+      .gzipDisabled(config.getBoolean(GZIP_DISABLED_PROPERTY, Boolean.FALSE) ||
+        config.getBoolean(GzipContentEncodingInterceptor.GZIP_ENABLED_PROPERTY, Boolean.FALSE))
+      .stubRequestLoggingDisabled(config.getBoolean(STUB_REQUEST_LOGGING_DISABLED_PROPERTY, Boolean.FALSE));
+  }
+}
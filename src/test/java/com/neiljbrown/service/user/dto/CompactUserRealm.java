@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user.dto;
+
+import java.util.Objects;
+
+/**
+ * An immutable, compact representation of a User Realm API resource, for use in large sets of test fixtures, e.g.
+ * thousands of realms.
+ * <p>
+ * Compared to {@link UserRealmDto}, the realm's ID is stored as an int, and its key (a 32 char hex string) as two
+ * longs. The XML representation of the realm is serialised lazily, at most once, and the same bytes are then reused
+ * for every request in which the realm is sent, rather than re-marshalling the realm per request. Converts to and from
+ * {@link UserRealmDto} for use with existing tests and helpers.
+ */
+public final class CompactUserRealm {
+
+  /**
+   * Value of {@link #getId()} for a realm which doesn't yet have an ID, e.g. one which is yet to be created.
+   */
+  public static final int NO_ID = 0;
+
+  private static final int KEY_HEX_LEN = 32;
+  private static final int LONG_HEX_LEN = 16;
+
+  private final int id;
+  private final String name;
+  private final String description;
+  private final boolean hasKey;
+  private final long keyHigh;
+  private final long keyLow;
+  private volatile byte[] xmlBytes;
+
+  private CompactUserRealm(int id, String name, String description, String key) {
+    if (id < NO_ID) {
+      throw new IllegalArgumentException("id must not be negative [" + id + "].");
+    }
+    this.id = id;
+    this.name = name;
+    this.description = description;
+    this.hasKey = key != null;
+    if (this.hasKey) {
+      if (!key.matches("^[0-9a-fA-F]{" + KEY_HEX_LEN + "}$")) {
+        throw new IllegalArgumentException("key must be a " + KEY_HEX_LEN + " char hex string [" + key + "].");
+      }
+      this.keyHigh = Long.parseUnsignedLong(key.substring(0, LONG_HEX_LEN), 16);
+      this.keyLow = Long.parseUnsignedLong(key.substring(LONG_HEX_LEN), 16);
+    } else {
+      this.keyHigh = 0;
+      this.keyLow = 0;
+    }
+  }
+
+  /**
+   * Creates a realm which doesn't yet have an ID or key, e.g. one which is yet to be created.
+   *
+   * @param name the name of the realm.
+   * @param description the description of the realm.
+   * @return the realm.
+   */
+  public static CompactUserRealm of(String name, String description) {
+    return new CompactUserRealm(NO_ID, name, description, null);
+  }
+
+  /**
+   * @param id the unique ID of the realm, or {@link #NO_ID}.
+   * @param name the name of the realm.
+   * @param description the description of the realm.
+   * @param key the realm's encryption key, a 32 char hex string, or null.
+   * @return the realm.
+   * @throws IllegalArgumentException if the ID is negative, or the key isn't a 32 char hex string.
+   */
+  public static CompactUserRealm of(int id, String name, String description, String key) {
+    return new CompactUserRealm(id, name, description, key);
+  }
+
+  /**
+   * Converts a {@link UserRealmDto} to its compact representation.
+   *
+   * @param userRealmDto the {@link UserRealmDto} to convert.
+   * @return the compact representation of the realm.
+   * @throws IllegalArgumentException if the realm's ID isn't a non-negative integer string, or its key isn't a 32 char
+   * hex string.
+   */
+  public static CompactUserRealm from(UserRealmDto userRealmDto) {
+    Objects.requireNonNull(userRealmDto, "userRealmDto must not be null.");
+    final String id = userRealmDto.getId();
+    if (id != null && !id.matches("^\\d{1,9}$")) {
+      throw new IllegalArgumentException("id must be an integer string [" + id + "].");
+    }
+    return new CompactUserRealm(id != null ? Integer.parseInt(id) : NO_ID, userRealmDto.getName(),
+      userRealmDto.getDescription(), userRealmDto.getKey());
+  }
+
+  /**
+   * @return a new, mutable {@link UserRealmDto} representation of the realm.
+   */
+  public UserRealmDto toDto() {
+    return new UserRealmDto(hasId() ? Integer.toString(this.id) : null, this.name, this.description, getKey());
+  }
+
+  /**
+   * @param id the ID of the realm.
+   * @return a copy of this realm with the supplied ID.
+   */
+  public CompactUserRealm withId(int id) {
+    return new CompactUserRealm(id, this.name, this.description, getKey());
+  }
+
+  /**
+   * @return the id, or {@link #NO_ID} if the realm doesn't yet have an ID.
+   */
+  public int getId() {
+    return this.id;
+  }
+
+  /**
+   * @return {@code true} if the realm has an ID.
+   */
+  public boolean hasId() {
+    return this.id != NO_ID;
+  }
+
+  /**
+   * @return the name
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * @return the description
+   */
+  public String getDescription() {
+    return this.description;
+  }
+
+  /**
+   * @return the key as a lower-case, 32 char hex string, or null if the realm doesn't have a key.
+   */
+  public String getKey() {
+    return this.hasKey ? String.format("%016x%016x", this.keyHigh, this.keyLow) : null;
+  }
+
+  /**
+   * Returns the XML representation of the realm, as exchanged in remote API calls, encoded in UTF-8. The
+   * representation is serialised on first use and then cached. The returned array is shared and must not be modified.
+   *
+   * @return the bytes of the XML representation.
+   */
+  public byte[] toXmlBytes() {
+    byte[] bytes = this.xmlBytes;
+    if (bytes == null) {
+      // Benign race - concurrent callers may each serialise the realm, but will produce the same bytes
+      bytes = UserRealmXmlCodec.encode(toDto());
+      this.xmlBytes = bytes;
+    }
+    return bytes;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.id, this.name, this.description, this.hasKey, this.keyHigh, this.keyLow);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof CompactUserRealm)) {
+      return false;
+    }
+    CompactUserRealm other = (CompactUserRealm) obj;
+    return this.id == other.id && this.hasKey == other.hasKey && this.keyHigh == other.keyHigh &&
+      this.keyLow == other.keyLow && Objects.equals(this.name, other.name) &&
+      Objects.equals(this.description, other.description);
+  }
+
+  @Override
+  public String toString() {
+    return "CompactUserRealm{" +
+      "id=" + id +
+      ", name='" + name + '\'' +
+      ", description='" + description + '\'' +
+      ", key='" + getKey() + '\'' +
+      '}';
+  }
+}
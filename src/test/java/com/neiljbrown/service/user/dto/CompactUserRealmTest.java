@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user.dto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link CompactUserRealm}.
+ */
+public class CompactUserRealmTest {
+
+  private static final String KEY = "92f1aea4bb92c3661a9c85ee81503e28";
+
+  /**
+   * Tests converting a fully populated {@link UserRealmDto} to its compact representation and back.
+   */
+  @Test
+  public void givenDtoWithIdAndKey() {
+    UserRealmDto dto = new UserRealmDto("1234", "realm-1", "A realm", KEY);
+
+    CompactUserRealm realm = CompactUserRealm.from(dto);
+
+    assertThat(realm.getId()).isEqualTo(1234);
+    assertThat(realm.hasId()).isTrue();
+    assertThat(realm.getKey()).isEqualTo(KEY);
+    assertThat(realm.toDto()).isEqualTo(dto);
+    assertThat(CompactUserRealm.from(realm.toDto())).isEqualTo(realm);
+  }
+
+  /**
+   * Tests converting a {@link UserRealmDto} for a realm which is yet to be created - no ID or key.
+   */
+  @Test
+  public void givenDtoWithoutIdAndKey() {
+    UserRealmDto dto = new UserRealmDto("realm-1", "A realm");
+
+    CompactUserRealm realm = CompactUserRealm.from(dto);
+
+    assertThat(realm.getId()).isEqualTo(CompactUserRealm.NO_ID);
+    assertThat(realm.hasId()).isFalse();
+    assertThat(realm.getKey()).isNull();
+    assertThat(realm.toDto()).isEqualTo(dto);
+    assertThat(realm).isEqualTo(CompactUserRealm.of("realm-1", "A realm"));
+  }
+
+  /**
+   * Tests that an invalid ID or key is rejected on conversion, rather than when the realm is subsequently used.
+   */
+  @Test
+  public void givenDtoWithInvalidIdOrKey() {
+    assertThatThrownBy(() -> CompactUserRealm.from(new UserRealmDto("one", "realm-1", null, KEY)))
+      .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> CompactUserRealm.from(new UserRealmDto("1", "realm-1", null, "not-hex")))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /**
+   * Tests that the XML representation is the same as that produced by marshalling the equivalent DTO, and that it's
+   * only serialised once.
+   */
+  @Test
+  public void toXmlBytes() throws Exception {
+    CompactUserRealm realm = CompactUserRealm.of(42, "realm-42", "A realm", KEY);
+
+    byte[] xmlBytes = realm.toXmlBytes();
+
+    UserRealmDto unmarshalledDto = UserRealmXmlCodec.decode(xmlBytes);
+    assertThat(unmarshalledDto).isEqualTo(realm.toDto());
+    assertThat(realm.toXmlBytes()).isSameAs(xmlBytes);
+    assertThat(realm.withId(43).toXmlBytes()).isNotEqualTo(xmlBytes);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user.dto;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Codec for the JSON representation of a User Realm API resource, which data-binds a {@link UserRealmDto} to and from
+ * JSON, using Jackson.
+ * <p>
+ * The JSON representation mirrors the XML representation - an object with 'id', 'name', 'description' and 'key'
+ * properties, all strings. As with XML, properties with no value are omitted, e.g.
+ * <pre>
+ * {"id":"123","name":"Acme","description":"Realm for authenticated users of Acme corp.","key":"92f1aea4bb92c3661a9c85ee81503e28"}
+ * </pre>
+ * The codec's reader and writer are immutable and safe for use by multiple threads.
+ */
+public final class UserRealmJsonCodec {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+    .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+    .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+  private static final ObjectWriter WRITER = OBJECT_MAPPER.writerFor(UserRealmDto.class);
+  private static final ObjectReader READER = OBJECT_MAPPER.readerFor(UserRealmDto.class);
+
+  private UserRealmJsonCodec() {
+    // Static utility class
+  }
+
+  /**
+   * Serialises a realm to its JSON representation.
+   *
+   * @param userRealmDto the {@link UserRealmDto} to serialise.
+   * @return the UTF-8 encoded bytes of the JSON representation.
+   */
+  public static byte[] encode(UserRealmDto userRealmDto) {
+    try {
+      return WRITER.writeValueAsBytes(userRealmDto);
+    } catch (IOException e) {
+      throw new RuntimeException("Error serialising UserRealmDto [" + userRealmDto + "] to JSON. Cause [" +
+        e.toString() + "].", e);
+    }
+  }
+
+  /**
+   * Deserialises a realm from its JSON representation.
+   *
+   * @param json the bytes of the JSON representation, encoded in UTF-8.
+   * @return the deserialised {@link UserRealmDto}.
+   * @throws IllegalArgumentException if the bytes aren't a valid JSON representation of a realm.
+   */
+  public static UserRealmDto decode(byte[] json) {
+    try {
+      return READER.readValue(json);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error deserialising UserRealmDto from JSON. Cause [" + e.toString() + "].",
+        e);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user.dto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link UserRealmJsonCodec}.
+ */
+public class UserRealmJsonCodecTest {
+
+  private static final String KEY = "92f1aea4bb92c3661a9c85ee81503e28";
+
+  /**
+   * Tests encoding a fully populated realm to JSON and decoding it back.
+   */
+  @Test
+  public void givenRealmWithAllFields() {
+    UserRealmDto realm = new UserRealmDto("1234", "realm-1", "A \"quoted\" realm", KEY);
+
+    byte[] json = UserRealmJsonCodec.encode(realm);
+
+    assertThat(new String(json, StandardCharsets.UTF_8)).isEqualTo("{\"id\":\"1234\",\"name\":\"realm-1\"," +
+      "\"description\":\"A \\\"quoted\\\" realm\",\"key\":\"" + KEY + "\"}");
+    assertThat(UserRealmJsonCodec.decode(json)).isEqualTo(realm);
+  }
+
+  /**
+   * Tests that fields with no value are omitted from the JSON representation, as they are from the XML representation.
+   */
+  @Test
+  public void givenRealmWithNameOnly() {
+    UserRealmDto realm = new UserRealmDto("realm-1");
+
+    byte[] json = UserRealmJsonCodec.encode(realm);
+
+    assertThat(new String(json, StandardCharsets.UTF_8)).isEqualTo("{\"name\":\"realm-1\"}");
+    assertThat(UserRealmJsonCodec.decode(json)).isEqualTo(realm);
+  }
+
+  /**
+   * Tests that unknown properties are ignored, and that malformed JSON is rejected.
+   */
+  @Test
+  public void givenUnknownPropertyOrMalformedJson() {
+    assertThat(UserRealmJsonCodec.decode("{\"name\":\"realm-1\",\"colour\":\"red\"}".getBytes(StandardCharsets.UTF_8)))
+      .isEqualTo(new UserRealmDto("realm-1"));
+    assertThatThrownBy(() -> UserRealmJsonCodec.decode("<realm name=\"realm-1\"/>".getBytes(StandardCharsets.UTF_8)))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user.dto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Codec for the XML representation of a User Realm API resource, which data-binds a {@link UserRealmDto} to and from
+ * XML, using JAXB, e.g.
+ * <pre>
+ * &lt;realm id="123" name="Acme"&gt;&lt;description&gt;Acme realm&lt;/description&gt;&lt;/realm&gt;
+ * </pre>
+ * Also decodes the XML representation of a list of realms, as returned by the Get Realms API.
+ * <p>
+ * The codec's JAXB context is created once, and shared, as it's expensive to create. The context is safe for use by
+ * multiple threads, whereas JAXB (un)marshallers aren't, so one is created, cheaply, per call.
+ */
+public final class UserRealmXmlCodec {
+
+  private static final JAXBContext JAXB_CONTEXT = createJaxbContext();
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  private UserRealmXmlCodec() {
+    // Static utility class
+  }
+
+  /**
+   * Serialises a realm to its XML representation.
+   *
+   * @param userRealmDto the {@link UserRealmDto} to serialise.
+   * @return the UTF-8 encoded bytes of the XML representation.
+   */
+  public static byte[] encode(UserRealmDto userRealmDto) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      JAXB_CONTEXT.createMarshaller().marshal(userRealmDto, out);
+      return out.toByteArray();
+    } catch (JAXBException e) {
+      throw new RuntimeException("Error serialising UserRealmDto [" + userRealmDto + "] to XML. Cause [" +
+        e.toString() + "].", e);
+    }
+  }
+
+  /**
+   * Serialises a realm to its XML representation, as an element of an enclosing document, e.g. a list of realms.
+   *
+   * @param userRealmDto the {@link UserRealmDto} to serialise.
+   * @param writer the writer of the enclosing document, positioned where the realm's element is to be written.
+   */
+  public static void encode(UserRealmDto userRealmDto, XMLStreamWriter writer) {
+    try {
+      final Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+      marshaller.marshal(userRealmDto, writer);
+    } catch (JAXBException e) {
+      throw new RuntimeException("Error serialising UserRealmDto [" + userRealmDto + "] to XML. Cause [" +
+        e.toString() + "].", e);
+    }
+  }
+
+  /**
+   * Deserialises a realm from its XML representation.
+   *
+   * @param xml the bytes of the XML representation, in the encoding declared by the document, or UTF-8 if none.
+   * @return the deserialised {@link UserRealmDto}.
+   * @throws IllegalArgumentException if the bytes aren't a valid XML representation of a realm.
+   */
+  public static UserRealmDto decode(byte[] xml) {
+    try {
+      return (UserRealmDto) JAXB_CONTEXT.createUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+    } catch (JAXBException | ClassCastException e) {
+      throw new IllegalArgumentException("Error deserialising UserRealmDto from XML. Cause [" + e.toString() + "].",
+        e);
+    }
+  }
+
+  /**
+   * Deserialises a realm from its XML representation.
+   *
+   * @param xml the XML representation.
+   * @return the deserialised {@link UserRealmDto}.
+   * @throws IllegalArgumentException if the string isn't a valid XML representation of a realm.
+   */
+  public static UserRealmDto decode(String xml) {
+    try {
+      return (UserRealmDto) JAXB_CONTEXT.createUnmarshaller().unmarshal(new StringReader(xml));
+    } catch (JAXBException | ClassCastException e) {
+      throw new IllegalArgumentException("Error deserialising UserRealmDto from XML [" + xml + "]. Cause [" +
+        e.toString() + "].", e);
+    }
+  }
+
+  /**
+   * Deserialises the XML representation of a list of realms, as returned by the Get Realms API. The list is parsed as a
+   * stream, using StAX, unmarshalling one realm at a time, so the whole document is never held in memory as a tree. The
+   * errors listed in place of realms which weren't found are skipped.
+   *
+   * @param xml a reader of the XML representation of the list of realms.
+   * @return the deserialised realms, keyed by their ID, in the order listed.
+   * @throws IllegalArgumentException if the XML isn't a valid representation of a list of realms.
+   */
+  public static Map<String, UserRealmDto> decodeList(Reader xml) {
+    final Map<String, UserRealmDto> realmsById = new LinkedHashMap<>();
+    try {
+      final Unmarshaller unmarshaller = JAXB_CONTEXT.createUnmarshaller();
+      final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(xml);
+      try {
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "realms");
+        int event = reader.nextTag();
+        while (event == XMLStreamConstants.START_ELEMENT) {
+          if (reader.getLocalName().equals("realm")) {
+            final UserRealmDto realm = unmarshaller.unmarshal(reader, UserRealmDto.class).getValue();
+            realmsById.put(realm.getId(), realm);
+            // Unmarshalling leaves the reader on the event following the realm, which may be the next element
+            event = reader.getEventType();
+            while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+              event = reader.next();
+            }
+          } else {
+            skipElement(reader);
+            event = reader.nextTag();
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (JAXBException | XMLStreamException e) {
+      throw new IllegalArgumentException("Error deserialising list of UserRealmDto from XML. Cause [" + e.toString() +
+        "].", e);
+    }
+    return realmsById;
+  }
+
+  /**
+   * Skips the element at which the supplied reader is positioned, including all its descendants, leaving the reader on
+   * the element's end tag.
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    for (int depth = 1; depth > 0; ) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static JAXBContext createJaxbContext() {
+    try {
+      return JAXBContext.newInstance(UserRealmDto.class);
+    } catch (JAXBException e) {
+      throw new RuntimeException("Error creating JAXBContext for UserRealmDto. Cause [" + e.toString() + "].", e);
+    }
+  }
+
+  private static XMLInputFactory createXmlInputFactory() {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    // Responses never contain a DTD. Disallow them, so that no external entities are resolved
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    return factory;
+  }
+}
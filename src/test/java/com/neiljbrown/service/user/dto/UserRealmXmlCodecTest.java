@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user.dto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link UserRealmXmlCodec}.
+ */
+public class UserRealmXmlCodecTest {
+
+  private static final String KEY = "92f1aea4bb92c3661a9c85ee81503e28";
+
+  /**
+   * Tests encoding a fully populated realm to XML and decoding it back, from both bytes and a string.
+   */
+  @Test
+  public void givenRealmWithAllFields() {
+    UserRealmDto realm = new UserRealmDto("1234", "realm-1", "A <quoted> realm", KEY);
+
+    byte[] xml = UserRealmXmlCodec.encode(realm);
+
+    assertThat(new String(xml, StandardCharsets.UTF_8)).endsWith("<realm id=\"1234\" name=\"realm-1\">" +
+      "<description>A &lt;quoted&gt; realm</description><key>" + KEY + "</key></realm>");
+    assertThat(UserRealmXmlCodec.decode(xml)).isEqualTo(realm);
+    assertThat(UserRealmXmlCodec.decode(new String(xml, StandardCharsets.UTF_8))).isEqualTo(realm);
+  }
+
+  /**
+   * Tests that malformed XML, or XML which isn't a realm, is rejected.
+   */
+  @Test
+  public void givenMalformedXml() {
+    assertThatThrownBy(() -> UserRealmXmlCodec.decode("{\"name\":\"realm-1\"}")).isInstanceOf(
+      IllegalArgumentException.class);
+    assertThatThrownBy(() -> UserRealmXmlCodec.decode("<realm name=\"realm-1\">".getBytes(StandardCharsets.UTF_8)))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /**
+   * Tests encoding realms as elements of an enclosing list, and decoding the list, skipping the errors listed in place
+   * of realms which weren't found.
+   */
+  @Test
+  public void givenListOfRealmsAndErrors() throws Exception {
+    UserRealmDto realm1 = new UserRealmDto("1234", "realm-1", "A realm", KEY);
+    UserRealmDto realm2 = new UserRealmDto("1236", "realm-2", null, null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+    writer.writeStartDocument("UTF-8", "1.0");
+    writer.writeStartElement("realms");
+    UserRealmXmlCodec.encode(realm1, writer);
+    writer.writeStartElement("error");
+    writer.writeAttribute("id", "1235");
+    writer.writeStartElement("code");
+    writer.writeCharacters("RealmNotFound");
+    writer.writeEndElement();
+    writer.writeEndElement();
+    UserRealmXmlCodec.encode(realm2, writer);
+    writer.writeEndElement();
+    writer.writeEndDocument();
+    writer.close();
+
+    Map<String, UserRealmDto> realmsById = UserRealmXmlCodec.decodeList(new StringReader(out.toString("UTF-8")));
+
+    assertThat(realmsById).containsExactly(entry("1234", realm1), entry("1236", realm2));
+    assertThat(UserRealmXmlCodec.decodeList(new StringReader("<realms/>"))).isEmpty();
+    assertThatThrownBy(() -> UserRealmXmlCodec.decodeList(new StringReader("<realm name=\"realm-1\"/>")))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neiljbrown.service.user;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A load driver which runs the realm workload - repeatedly creating, getting and deleting a realm - with one virtual
+ * thread per logical user, and finds how many concurrent users a single JVM can sustain.
+ * <p>
+ * Requires JDK 21+. Compiled and run separately from the tests, which target Java 8 - see the 'virtualThreadLoad'
+ * source set and task in build.gradle. Runs the same {@link RealmLoadWorker#workload workload} as the multi-process
+ * load test, which makes its API calls using a lightweight {@link RealmApiHttpClient} and only checks the status of
+ * each response, rather than the tests' REST Assured based request and assertion logic. Steps up the number of users
+ * using a {@link CapacityRamp}, until the latency or error rate of the Create or Get Realm API breaches its SLO. Set
+ * property 'virtualThreadLoadUseVirtualThreads' to false to run the same ramp using platform threads, for comparison.
+ * <p>
+ * By default the load is run against the {@link RealmServiceStandIn in-memory stand-in} for the APIs, served by a
+ * WireMock server in the same JVM. Set property 'virtualThreadLoadBaseUri' to run it against a deployed User service
+ * instead. See application.properties for the other properties which configure the driver.
+ */
+// package-protected
+final class VirtualThreadRealmLoadDriver {
+
+  private static final Logger logger = LoggerFactory.getLogger(VirtualThreadRealmLoadDriver.class);
+
+  private static final String BASE_URI_PROPERTY = "virtualThreadLoadBaseUri";
+  private static final String USE_VIRTUAL_THREADS_PROPERTY = "virtualThreadLoadUseVirtualThreads";
+  private static final String INITIAL_USERS_PROPERTY = "virtualThreadLoadInitialUsers";
+  private static final String USERS_INCREMENT_PROPERTY = "virtualThreadLoadUsersIncrement";
+  private static final String MAX_USERS_PROPERTY = "virtualThreadLoadMaxUsers";
+  private static final String WARM_UP_SECONDS_PROPERTY = "virtualThreadLoadWarmUpSeconds";
+  private static final String STEP_DURATION_SECONDS_PROPERTY = "virtualThreadLoadStepDurationSeconds";
+  private static final String SLO_P99_LATENCY_MILLIS_PROPERTY = "virtualThreadLoadSloP99LatencyMillis";
+  private static final String SLO_MAX_ERROR_RATE_PROPERTY = "virtualThreadLoadSloMaxErrorRate";
+
+  private VirtualThreadRealmLoadDriver() {
+    // Not instantiable
+  }
+
+  public static void main(String[] args) throws Exception {
+    final ImmutableConfiguration config = new Configurations().combined("config.xml");
+    final int maxUsers = config.getInt(MAX_USERS_PROPERTY, 10_000);
+    final boolean useVirtualThreads = config.getBoolean(USE_VIRTUAL_THREADS_PROPERTY, Boolean.TRUE);
+    final ThreadFactory userThreadFactory = useVirtualThreads ? Thread.ofVirtual().name("realm-user-", 0).factory() :
+      Executors.defaultThreadFactory();
+
+    WireMockServer wireMockServer = null;
+    final String configuredBaseUri = config.getString(BASE_URI_PROPERTY, "");
+    final URI baseUri;
+    if (StringUtils.isBlank(configuredBaseUri)) {
+      wireMockServer = new WireMockServer(
+        WireMockConfigurationFactory.create(config).extensions(new RealmServiceStandIn()));
+      wireMockServer.start();
+      wireMockServer.stubFor(RealmServiceStandIn.realmResourceStubMapping());
+      baseUri = URI.create("http://localhost:" + wireMockServer.port());
+    } else {
+      baseUri = URI.create(configuredBaseUri);
+    }
+
+    final Duration stepDuration = Duration.ofSeconds(config.getLong(STEP_DURATION_SECONDS_PROPERTY, 20L));
+    final CapacityRamp ramp = new CapacityRamp(
+      config.getInt(INITIAL_USERS_PROPERTY, 500),
+      config.getInt(USERS_INCREMENT_PROPERTY, 500),
+      maxUsers,
+      stepDuration,
+      config.getLong(SLO_P99_LATENCY_MILLIS_PROPERTY, 1000L),
+      config.getDouble(SLO_MAX_ERROR_RATE_PROPERTY, 0.01),
+      EnumSet.of(RealmApiEndpoint.CREATE_REALM, RealmApiEndpoint.GET_REALM),
+      userThreadFactory);
+
+    try (RealmApiHttpClient httpClient = new RealmApiHttpClient(baseUri, maxUsers)) {
+      logger.info("Running realm workload against [{}] using [{}] threads, up to [{}] concurrent users.", baseUri,
+        useVirtualThreads ? "virtual" : "platform", maxUsers);
+      final List<CapacityRamp.Step> steps = ramp.run(
+        Duration.ofSeconds(config.getLong(WARM_UP_SECONDS_PROPERTY, 10L)),
+        RealmLoadWorker.workload(httpClient));
+
+      final CapacityRamp.Step maxSustainable = ramp.getMaxSustainableStep(steps);
+      logger.info("Concurrent users sustained by one JVM using [{}] threads - [{}]{}{}",
+        useVirtualThreads ? "virtual" : "platform", maxSustainable != null ? maxSustainable.getConcurrency() : 0,
+        System.lineSeparator(), ramp.report(steps));
+    } finally {
+      if (wireMockServer != null) {
+        wireMockServer.stop();
+      }
+    }
+  }
+}